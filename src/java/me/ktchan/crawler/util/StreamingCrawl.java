@@ -0,0 +1,453 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.ktchan.crawler.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.StringUtils;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.crawl.CrawlDb;
+import org.apache.nutch.crawl.CrawlDbCompactor;
+import org.apache.nutch.crawl.Generator;
+import org.apache.nutch.fetcher.Fetcher;
+import org.apache.nutch.parse.ParseSegment;
+import org.apache.nutch.util.NutchConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Long-running crawl which overlaps the steps of a crawl round. Unlike
+ * {@link Crawl}, which runs generate, fetch, parse and updatedb one after
+ * another, every step runs in its own stage thread and the stages pass
+ * segments ("batches") through bounded queues: the next batch is generated
+ * while the previous one is fetched, and fetched batches are parsed and merged
+ * into the CrawlDb while the fetcher continues with the next one. Outlinks
+ * become fetchable as soon as the batch which found them is merged.
+ *
+ * <p>
+ * The CrawlDb is updated incrementally with delta layers
+ * (<code>db.update.delta</code>) which are compacted when required, and
+ * generated URLs are marked in the CrawlDb (<code>generate.update.crawldb</code>
+ * with <code>generate.single.pass</code>) so that overlapping batches do not
+ * contain the same URLs. Generate and updatedb never run at the same time.
+ * </p>
+ *
+ * <p>
+ * The crawl ends after the given number of batches or when no URLs are due
+ * for fetch and no batch is in progress. Throughput metrics of every stage
+ * are logged after every merged batch and at the end.
+ * </p>
+ */
+public class StreamingCrawl extends Configured implements Tool {
+
+	public static final Logger LOG = LoggerFactory.getLogger(StreamingCrawl.class);
+
+	/** Number of batches which may wait between two stages. */
+	public static final String QUEUE_SIZE = "crawl.streaming.queue.size";
+
+	/** Throughput of one stage of the pipeline. */
+	public static class StageMetrics {
+		private final String name;
+		private final AtomicLong batches = new AtomicLong();
+		private final AtomicLong records = new AtomicLong();
+		private final AtomicLong busy = new AtomicLong();
+		private final long start = System.currentTimeMillis();
+
+		public StageMetrics(String name) {
+			this.name = name;
+		}
+
+		void record(long numRecords, long millis) {
+			batches.incrementAndGet();
+			records.addAndGet(numRecords);
+			busy.addAndGet(millis);
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getBatches() {
+			return batches.get();
+		}
+
+		public long getRecords() {
+			return records.get();
+		}
+
+		/** @return time in milliseconds the stage was processing batches */
+		public long getBusyTime() {
+			return busy.get();
+		}
+
+		/** @return records processed per second of busy time */
+		public double getRecordsPerSecond() {
+			long millis = busy.get();
+			return millis == 0 ? 0.0 : records.get() * 1000.0 / millis;
+		}
+
+		/** @return fraction of the elapsed time the stage was busy */
+		public double getUtilization() {
+			long elapsed = System.currentTimeMillis() - start;
+			return elapsed == 0 ? 0.0 : Math.min(1.0, (double) busy.get() / elapsed);
+		}
+
+		public String toString() {
+			return String.format("%s: %d batches, %d urls, %.2f urls/s, %.0f%% busy", name, getBatches(),
+					getRecords(), getRecordsPerSecond(), 100 * getUtilization());
+		}
+	}
+
+	/** A generated segment passed between the stages. */
+	private static class Batch {
+		final Path segment;
+		final long records;
+
+		Batch(Path segment, long records) {
+			this.segment = segment;
+			this.records = records;
+		}
+	}
+
+	/** Marks the end of the input of a stage. */
+	private static final Batch END = new Batch(null, 0);
+
+	/**
+	 * Takes batches from its input, processes and passes them on. The last
+	 * stage has no output, it takes all batches waiting in its input at once.
+	 */
+	private abstract class Stage extends Thread {
+		final BlockingQueue<Batch> input;
+		final BlockingQueue<Batch> output;
+		final StageMetrics metrics;
+
+		Stage(String name, BlockingQueue<Batch> input, BlockingQueue<Batch> output) {
+			super("StreamingCrawl-" + name);
+			this.input = input;
+			this.output = output;
+			this.metrics = new StageMetrics(name);
+		}
+
+		abstract void process(List<Batch> batches) throws IOException;
+
+		public void run() {
+			List<Batch> batches = new ArrayList<>();
+			try {
+				boolean end = false;
+				while (!end) {
+					batches.clear();
+					batches.add(input.take());
+					if (output == null) {
+						input.drainTo(batches);
+					}
+					if (batches.get(batches.size() - 1) == END) {
+						batches.remove(batches.size() - 1);
+						end = true;
+					}
+					if (batches.isEmpty())
+						break;
+					long start = System.currentTimeMillis();
+					long records = 0;
+					for (Batch batch : batches) {
+						records += batch.records;
+					}
+					boolean failed = false;
+					try {
+						process(batches);
+						metrics.record(records, System.currentTimeMillis() - start);
+					} catch (Exception e) {
+						LOG.error(getName() + ": failed on " + batches.get(0).segment + ": "
+								+ StringUtils.stringifyException(e));
+						fail(e);
+						failed = true;
+					}
+					if (output == null || failed) {
+						batchDone(batches.size());
+					} else {
+						for (Batch batch : batches) {
+							output.put(batch);
+						}
+					}
+					if (output == null) {
+						logMetrics();
+					}
+				}
+				if (output != null) {
+					output.put(END);
+				}
+			} catch (InterruptedException e) {
+				fail(e);
+			}
+		}
+	}
+
+	private Path crawlDb;
+	private Path segments;
+	private long topN = Long.MAX_VALUE;
+	private int numFetchers = -1;
+	private int threads;
+	private int maxBatches = Integer.MAX_VALUE;
+
+	/** serializes the jobs which write to the CrawlDb */
+	private final Object crawlDbLock = new Object();
+	/** guards inFlight, updates and failure */
+	private final Object state = new Object();
+	private int inFlight = 0;
+	private long updates = 0;
+	private Exception failure;
+
+	private final StageMetrics generateMetrics = new StageMetrics("generate");
+	private final List<StageMetrics> metrics = new ArrayList<>();
+
+	public StreamingCrawl() {
+	}
+
+	public StreamingCrawl(Configuration conf) {
+		setConf(conf);
+	}
+
+	/** @return the throughput metrics of all stages */
+	public List<StageMetrics> getMetrics() {
+		return metrics;
+	}
+
+	private void fail(Exception e) {
+		synchronized (state) {
+			if (failure == null)
+				failure = e;
+			state.notifyAll();
+		}
+	}
+
+	/** Called when batches left the pipeline, merged into the CrawlDb or not. */
+	private void batchDone(int batches) {
+		synchronized (state) {
+			inFlight -= batches;
+			updates++;
+			state.notifyAll();
+		}
+	}
+
+	/**
+	 * Crawl until the given number of batches is merged into the CrawlDb or no
+	 * more URLs are due for fetch.
+	 *
+	 * @param crawlDb
+	 *            CrawlDb, the seeds must be injected
+	 * @param segments
+	 *            directory for the generated segments
+	 * @param topN
+	 *            number of URLs per batch
+	 * @param maxBatches
+	 *            number of batches to generate
+	 */
+	public void crawl(Path crawlDb, Path segments, long topN, int maxBatches) throws IOException {
+		this.crawlDb = crawlDb;
+		this.segments = segments;
+		this.topN = topN;
+		this.maxBatches = maxBatches;
+
+		Configuration conf = getConf();
+		conf.setBoolean(CrawlDb.CRAWLDB_DELTA_UPDATE, true);
+		conf.setBoolean(Generator.GENERATE_UPDATE_CRAWLDB, true);
+		conf.setBoolean(Generator.GENERATOR_SINGLE_PASS, true);
+		// the pipeline parses in a stage of its own
+		conf.setBoolean("fetcher.parse", false);
+		threads = conf.getInt("fetcher.threads.fetch", 10);
+
+		int queueSize = conf.getInt(QUEUE_SIZE, 2);
+		BlockingQueue<Batch> toFetch = new ArrayBlockingQueue<>(queueSize);
+		BlockingQueue<Batch> toParse = new ArrayBlockingQueue<>(queueSize);
+		BlockingQueue<Batch> toUpdate = new ArrayBlockingQueue<>(queueSize);
+
+		final Fetcher fetcher = new Fetcher(conf);
+		final ParseSegment parser = new ParseSegment(conf);
+		final CrawlDb crawlDbTool = new CrawlDb(conf);
+		final CrawlDbCompactor compactor = new CrawlDbCompactor(conf);
+
+		Stage fetch = new Stage("fetch", toFetch, toParse) {
+			void process(List<Batch> batches) throws IOException {
+				fetcher.fetch(batches.get(0).segment, threads);
+			}
+		};
+		Stage parse = new Stage("parse", toParse, toUpdate) {
+			void process(List<Batch> batches) throws IOException {
+				parser.parse(batches.get(0).segment);
+			}
+		};
+		// merges all batches parsed in the meantime with one job
+		Stage update = new Stage("updatedb", toUpdate, null) {
+			void process(List<Batch> batches) throws IOException {
+				Path[] segs = new Path[batches.size()];
+				for (int i = 0; i < segs.length; i++) {
+					segs[i] = batches.get(i).segment;
+				}
+				synchronized (crawlDbLock) {
+					crawlDbTool.update(StreamingCrawl.this.crawlDb, segs, false, false);
+					compactor.compact(StreamingCrawl.this.crawlDb, false);
+				}
+			}
+		};
+		metrics.add(generateMetrics);
+		metrics.add(fetch.metrics);
+		metrics.add(parse.metrics);
+		metrics.add(update.metrics);
+
+		LOG.info("StreamingCrawl: starting, crawldb: " + crawlDb + ", segments: " + segments + ", topN: " + topN
+				+ ", batches: " + maxBatches);
+
+		fetch.start();
+		parse.start();
+		update.start();
+		try {
+			generate(toFetch);
+			toFetch.put(END);
+			fetch.join();
+			parse.join();
+			update.join();
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		} finally {
+			parser.close();
+		}
+
+		LOG.info("StreamingCrawl: finished");
+		logMetrics();
+		synchronized (state) {
+			if (failure != null)
+				throw new IOException("StreamingCrawl failed", failure);
+		}
+	}
+
+	/** Generate batches until done, runs in the calling thread. */
+	private void generate(BlockingQueue<Batch> toFetch) throws IOException, InterruptedException {
+		Generator generator = new Generator(getConf());
+		FileSystem fs = FileSystem.get(getConf());
+		int generated = 0;
+		while (generated < maxBatches) {
+			long seenUpdates;
+			synchronized (state) {
+				if (failure != null)
+					return;
+				seenUpdates = updates;
+			}
+			long start = System.currentTimeMillis();
+			Path[] segs;
+			synchronized (crawlDbLock) {
+				segs = generator.generate(crawlDb, segments, numFetchers, topN, System.currentTimeMillis());
+			}
+			if (segs == null) {
+				synchronized (state) {
+					if (inFlight == 0 && updates == seenUpdates) {
+						LOG.info("StreamingCrawl: no more URLs to fetch");
+						return;
+					}
+					// wait for the next merge, it may add fetchable URLs
+					while (failure == null && updates == seenUpdates)
+						state.wait();
+				}
+				continue;
+			}
+			long records = countRecords(fs, new Path(segs[0], CrawlDatum.GENERATE_DIR_NAME));
+			generateMetrics.record(records, System.currentTimeMillis() - start);
+			synchronized (state) {
+				inFlight++;
+			}
+			// blocks while the fetcher is behind
+			toFetch.put(new Batch(segs[0], records));
+			generated++;
+		}
+	}
+
+	private long countRecords(FileSystem fs, Path dir) throws IOException {
+		long count = 0;
+		Text key = new Text();
+		CrawlDatum value = new CrawlDatum();
+		for (FileStatus status : fs.listStatus(dir)) {
+			if (!status.getPath().getName().startsWith("part-"))
+				continue;
+			SequenceFile.Reader reader = new SequenceFile.Reader(getConf(),
+					SequenceFile.Reader.file(status.getPath()));
+			try {
+				while (reader.next(key, value))
+					count++;
+			} finally {
+				reader.close();
+			}
+		}
+		return count;
+	}
+
+	private void logMetrics() {
+		for (StageMetrics m : metrics) {
+			LOG.info("StreamingCrawl: " + m);
+		}
+	}
+
+	public int run(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println(
+					"Usage: StreamingCrawl <crawldb> <segments_dir> [-topN N] [-batches N] [-threads N] [-numFetchers N]");
+			System.err.println("\tcrawldb\tCrawlDb with the injected seeds");
+			System.err.println("\tsegments_dir\tdirectory for the generated segments");
+			System.err.println("\t-topN N\tnumber of URLs per batch");
+			System.err.println("\t-batches N\tstop after N batches (default: until no URLs are due for fetch)");
+			System.err.println("\t-threads N\tnumber of fetcher threads");
+			System.err.println("\t-numFetchers N\tnumber of fetch lists per batch");
+			return -1;
+		}
+		long topN = Long.MAX_VALUE;
+		int batches = Integer.MAX_VALUE;
+		for (int i = 2; i < args.length; i++) {
+			if ("-topN".equals(args[i])) {
+				topN = Long.parseLong(args[++i]);
+			} else if ("-batches".equals(args[i])) {
+				batches = Integer.parseInt(args[++i]);
+			} else if ("-threads".equals(args[i])) {
+				getConf().setInt("fetcher.threads.fetch", Integer.parseInt(args[++i]));
+			} else if ("-numFetchers".equals(args[i])) {
+				numFetchers = Integer.parseInt(args[++i]);
+			}
+		}
+		try {
+			crawl(new Path(args[0]), new Path(args[1]), topN, batches);
+			return 0;
+		} catch (Exception e) {
+			LOG.error("StreamingCrawl: " + StringUtils.stringifyException(e));
+			return -1;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int res = ToolRunner.run(NutchConfiguration.create(), new StreamingCrawl(), args);
+		System.exit(res);
+	}
+}
@@ -23,6 +23,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.io.Text;
 import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.metadata.Nutch;
 
 /**
  * This class provides common methods for implementations of
@@ -219,6 +220,11 @@ public abstract class AbstractFetchSchedule extends Configured implements
     datum.setRetriesSinceFetch(0);
     datum.setSignature(null);
     datum.setModifiedTime(0L);
+    if (datum.hasMetaData()) {
+      // refetch unconditionally
+      datum.getMetaData().remove(Nutch.WRITABLE_ETAG_KEY);
+      datum.getMetaData().remove(Nutch.WRITABLE_LAST_MODIFIED_KEY);
+    }
     if (asap)
       datum.setFetchTime(System.currentTimeMillis());
     return datum;
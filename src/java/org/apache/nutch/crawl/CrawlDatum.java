@@ -35,7 +35,7 @@ public class CrawlDatum implements WritableComparable<CrawlDatum>, Cloneable {
   public static final String FETCH_DIR_NAME = "crawl_fetch";
   public static final String PARSE_DIR_NAME = "crawl_parse";
 
-  private final static byte CUR_VERSION = 7;
+  private final static byte CUR_VERSION = 8;
 
   /** Compatibility values for on-the-fly conversion from versions < 5. */
   private static final byte OLD_STATUS_SIGNATURE = 0;
@@ -129,6 +129,11 @@ public class CrawlDatum implements WritableComparable<CrawlDatum>, Cloneable {
   private byte[] signature = null;
   private long modifiedTime;
   private org.apache.hadoop.io.MapWritable metaData;
+  /**
+   * metadata as read, see {@link CrawlDatumMetadataCodec}, decoded on first
+   * access. The array is never modified and may be shared between instances.
+   */
+  private byte[] rawMetaData;
 
   public static boolean hasDbStatus(CrawlDatum datum) {
     if (datum.status <= STATUS_DB_MAX)
@@ -240,6 +245,7 @@ public class CrawlDatum implements WritableComparable<CrawlDatum>, Cloneable {
 
   public void setMetaData(org.apache.hadoop.io.MapWritable mapWritable) {
     this.metaData = new org.apache.hadoop.io.MapWritable(mapWritable);
+    this.rawMetaData = null;
   }
 
   /**
@@ -254,17 +260,58 @@ public class CrawlDatum implements WritableComparable<CrawlDatum>, Cloneable {
     }
   }
 
+  /**
+   * Replace the metadata by a copy of the metadata of another CrawlDatum.
+   * Metadata not decoded yet is shared in its encoded form.
+   * 
+   * @param that
+   *          CrawlDatum
+   */
+  public void copyMetaData(CrawlDatum that) {
+    if (that.rawMetaData != null) {
+      // not decoded yet, share the immutable encoded form
+      this.rawMetaData = that.rawMetaData;
+      this.metaData = null;
+    } else if (that.metaData != null) {
+      this.rawMetaData = null;
+      this.metaData = new org.apache.hadoop.io.MapWritable(that.metaData); // make
+                                                                           // a
+                                                                           // deep
+                                                                           // copy
+    } else {
+      this.rawMetaData = null;
+      this.metaData = null;
+    }
+  }
+
   /**
    * returns a MapWritable if it was set or read in @see readFields(DataInput),
    * returns empty map in case CrawlDatum was freshly created (lazily
    * instantiated).
    */
   public org.apache.hadoop.io.MapWritable getMetaData() {
+    decodeMetaData();
     if (this.metaData == null)
       this.metaData = new org.apache.hadoop.io.MapWritable();
     return this.metaData;
   }
 
+  /** @return true if there is metadata, without decoding it */
+  public boolean hasMetaData() {
+    return rawMetaData != null || (metaData != null && metaData.size() > 0);
+  }
+
+  private void decodeMetaData() {
+    if (rawMetaData == null)
+      return;
+    try {
+      metaData = CrawlDatumMetadataCodec.decode(rawMetaData);
+    } catch (IOException e) {
+      throw new RuntimeException("Corrupt CrawlDatum metadata", e);
+    }
+    rawMetaData = null;
+  }
+
   //
   // writable methods
   //
@@ -280,6 +327,7 @@ public class CrawlDatum implements WritableComparable<CrawlDatum>, Cloneable {
     if (version > CUR_VERSION) // check version
       throw new VersionMismatchException(CUR_VERSION, version);
 
+    rawMetaData = null;
     status = in.readByte();
     fetchTime = in.readLong();
     retries = in.readByte();
@@ -310,12 +358,19 @@ public class CrawlDatum implements WritableComparable<CrawlDatum>, Cloneable {
         for (Writable key : oldMetaData.keySet()) {
           metaData.put(key, oldMetaData.get(key));
         }
-      } else {
+      } else if (version < 8) {
         if (in.readBoolean()) {
           hasMetadata = true;
           metaData = new org.apache.hadoop.io.MapWritable();
           metaData.readFields(in);
         }
+      } else {
+        // keep the encoded metadata, it is decoded on first access
+        int length = WritableUtils.readVInt(in);
+        if (length > 0) {
+          rawMetaData = new byte[length];
+          in.readFully(rawMetaData);
+        }
       }
       if (hasMetadata == false)
         metaData = null;
@@ -334,6 +389,42 @@ public class CrawlDatum implements WritableComparable<CrawlDatum>, Cloneable {
   private static final int SCORE_OFFSET = 1 + 1 + 8 + 1 + 4;
   private static final int SIG_OFFSET = SCORE_OFFSET + 4 + 8;
 
+  /*
+   * Accessors for the fixed-size fields of a serialized CrawlDatum (current
+   * version), starting at offset s. These allow to inspect datums in raw
+   * comparators and raw record readers without deserializing them.
+   */
+
+  /** @return the status of a serialized CrawlDatum */
+  public static byte readStatus(byte[] b, int s) {
+    return b[s + 1];
+  }
+
+  /** @return the fetch time of a serialized CrawlDatum */
+  public static long readFetchTime(byte[] b, int s) {
+    return WritableComparator.readLong(b, s + 1 + 1);
+  }
+
+  /** @return the number of retries of a serialized CrawlDatum */
+  public static byte readRetries(byte[] b, int s) {
+    return b[s + 1 + 1 + 8];
+  }
+
+  /** @return the fetch interval of a serialized CrawlDatum */
+  public static int readFetchInterval(byte[] b, int s) {
+    return WritableComparator.readInt(b, s + 1 + 1 + 8 + 1);
+  }
+
+  /** @return the score of a serialized CrawlDatum */
+  public static float readScore(byte[] b, int s) {
+    return WritableComparator.readFloat(b, s + SCORE_OFFSET);
+  }
+
+  /** @return the modified time of a serialized CrawlDatum */
+  public static long readModifiedTime(byte[] b, int s) {
+    return WritableComparator.readLong(b, s + SCORE_OFFSET + 4);
+  }
+
   public void write(DataOutput out) throws IOException {
     out.writeByte(CUR_VERSION); // store current version
     out.writeByte(status);
@@ -348,14 +439,26 @@ public class CrawlDatum implements WritableComparable<CrawlDatum>, Cloneable {
       out.writeByte(signature.length);
       out.write(signature);
     }
-    if (metaData != null && metaData.size() > 0) {
-      out.writeBoolean(true);
-      metaData.write(out);
+    if (rawMetaData != null) {
+      WritableUtils.writeVInt(out, rawMetaData.length);
+      out.write(rawMetaData);
+    } else if (metaData != null && metaData.size() > 0) {
+      DataOutputBuffer buffer = METADATA_BUFFER.get();
+      buffer.reset();
+      CrawlDatumMetadataCodec.write(buffer, metaData);
+      WritableUtils.writeVInt(out, buffer.getLength());
+      out.write(buffer.getData(), 0, buffer.getLength());
     } else {
-      out.writeBoolean(false);
+      WritableUtils.writeVInt(out, 0);
     }
   }
 
+  private static final ThreadLocal<DataOutputBuffer> METADATA_BUFFER = new ThreadLocal<DataOutputBuffer>() {
+    protected DataOutputBuffer initialValue() {
+      return new DataOutputBuffer();
+    }
+  };
+
   /** Copy the contents of another instance into this instance. */
   public void set(CrawlDatum that) {
     this.status = that.status;
@@ -365,14 +468,7 @@ public class CrawlDatum implements WritableComparable<CrawlDatum>, Cloneable {
     this.score = that.score;
     this.modifiedTime = that.modifiedTime;
     this.signature = that.signature;
-    if (that.metaData != null) {
-      this.metaData = new org.apache.hadoop.io.MapWritable(that.metaData); // make
-                                                                           // a
-                                                                           // deep
-                                                                           // copy
-    } else {
-      this.metaData = null;
-    }
+    copyMetaData(that);
   }
 
   //
@@ -393,7 +489,7 @@ public class CrawlDatum implements WritableComparable<CrawlDatum>, Cloneable {
       return (that.fetchInterval - this.fetchInterval) > 0 ? 1 : -1;
     if (that.modifiedTime != this.modifiedTime)
       return (that.modifiedTime - this.modifiedTime) > 0 ? 1 : -1;
-    return SignatureComparator._compare(this, that);
+    return SignatureComparator._compare(this.signature, that.signature);
   }
 
   /** A Comparator optimized for CrawlDatum. */
@@ -403,35 +499,36 @@ public class CrawlDatum implements WritableComparable<CrawlDatum>, Cloneable {
     }
 
     public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
-      float score1 = readFloat(b1, s1 + SCORE_OFFSET);
-      float score2 = readFloat(b2, s2 + SCORE_OFFSET);
+      float score1 = readScore(b1, s1);
+      float score2 = readScore(b2, s2);
       if (score2 != score1) {
         return (score2 - score1) > 0 ? 1 : -1;
       }
-      int status1 = b1[s1 + 1];
-      int status2 = b2[s2 + 1];
+      int status1 = readStatus(b1, s1);
+      int status2 = readStatus(b2, s2);
       if (status2 != status1)
         return status1 - status2;
-      long fetchTime1 = readLong(b1, s1 + 1 + 1);
-      long fetchTime2 = readLong(b2, s2 + 1 + 1);
+      long fetchTime1 = readFetchTime(b1, s1);
+      long fetchTime2 = readFetchTime(b2, s2);
       if (fetchTime2 != fetchTime1)
         return (fetchTime2 - fetchTime1) > 0 ? 1 : -1;
-      int retries1 = b1[s1 + 1 + 1 + 8];
-      int retries2 = b2[s2 + 1 + 1 + 8];
+      int retries1 = readRetries(b1, s1);
+      int retries2 = readRetries(b2, s2);
       if (retries2 != retries1)
         return retries2 - retries1;
-      int fetchInterval1 = readInt(b1, s1 + 1 + 1 + 8 + 1);
-      int fetchInterval2 = readInt(b2, s2 + 1 + 1 + 8 + 1);
+      int fetchInterval1 = readFetchInterval(b1, s1);
+      int fetchInterval2 = readFetchInterval(b2, s2);
       if (fetchInterval2 != fetchInterval1)
         return (fetchInterval2 - fetchInterval1) > 0 ? 1 : -1;
-      long modifiedTime1 = readLong(b1, s1 + SCORE_OFFSET + 4);
-      long modifiedTime2 = readLong(b2, s2 + SCORE_OFFSET + 4);
+      long modifiedTime1 = readModifiedTime(b1, s1);
+      long modifiedTime2 = readModifiedTime(b2, s2);
       if (modifiedTime2 != modifiedTime1)
         return (modifiedTime2 - modifiedTime1) > 0 ? 1 : -1;
+      // the signature follows its length byte
       int sigl1 = b1[s1 + SIG_OFFSET];
       int sigl2 = b2[s2 + SIG_OFFSET];
-      return SignatureComparator._compare(b1, SIG_OFFSET, sigl1, b2,
-          SIG_OFFSET, sigl2);
+      return SignatureComparator._compare(b1, s1 + SIG_OFFSET + 1, sigl1, b2,
+          s2 + SIG_OFFSET + 1, sigl2);
     }
   }
 
@@ -456,6 +553,7 @@ public class CrawlDatum implements WritableComparable<CrawlDatum>, Cloneable {
     buf.append("Score: " + getScore() + "\n");
     buf.append("Signature: " + StringUtil.toHexString(getSignature()) + "\n");
     buf.append("Metadata: \n ");
+    decodeMetaData();
     if (metaData != null) {
       for (Entry<Writable, Writable> e : metaData.entrySet()) {
         buf.append("\t");
@@ -469,6 +567,7 @@ public class CrawlDatum implements WritableComparable<CrawlDatum>, Cloneable {
   }
 
   private boolean metadataEquals(org.apache.hadoop.io.MapWritable otherMetaData) {
+    decodeMetaData();
     if (metaData == null || metaData.size() == 0) {
       return otherMetaData == null || otherMetaData.size() == 0;
     }
@@ -496,6 +595,7 @@ public class CrawlDatum implements WritableComparable<CrawlDatum>, Cloneable {
         && (this.score == other.score);
     if (!res)
       return res;
+    other.decodeMetaData();
     return metadataEquals(other.metaData);
   }
 
@@ -506,6 +606,7 @@ public class CrawlDatum implements WritableComparable<CrawlDatum>, Cloneable {
         res ^= (signature[i] << 24 + signature[i + 1] << 16 + signature[i + 2] << 8 + signature[i + 3]);
       }
     }
+    decodeMetaData();
     if (metaData != null) {
       res ^= metaData.entrySet().hashCode();
     }
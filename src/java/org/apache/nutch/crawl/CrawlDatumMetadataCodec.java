@@ -0,0 +1,268 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.crawl;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.ByteWritable;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.MapWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.VIntWritable;
+import org.apache.hadoop.io.VLongWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.protocol.ProtocolStatus;
+
+/**
+ * Compact encoding of the metadata of a {@link CrawlDatum} (version 8).
+ * Well-known keys are written as their index in a registry, other keys as
+ * strings. Values of the common primitive Writables are written without class
+ * information, well-known Writable classes by their index in a registry and
+ * all other Writables with their class name.
+ *
+ * <p>
+ * The registries are part of the format: entries may only be appended.
+ * Decoded well-known keys are shared between all CrawlDatums and must not be
+ * modified.
+ * </p>
+ */
+public final class CrawlDatumMetadataCodec {
+
+  /** Well-known keys, never remove or reorder an entry. */
+  private static final Text[] KEYS = { Nutch.WRITABLE_PROTO_STATUS_KEY,
+      Nutch.WRITABLE_GENERATE_TIME_KEY, Nutch.WRITABLE_REPR_URL_KEY,
+      new Text("_rs_"), new Text(Metadata.CONTENT_TYPE),
+      Nutch.WRITABLE_FIXED_INTERVAL_KEY, new Text("_depth_"),
+      new Text("_maxdepth_"), new Text("nutch.score"),
+      new Text(Nutch.FETCH_TIME_KEY), new Text(Nutch.FETCH_STATUS_KEY),
+      Nutch.PROTOCOL_STATUS_CODE_KEY, Nutch.WRITABLE_ETAG_KEY,
+      Nutch.WRITABLE_LAST_MODIFIED_KEY, Nutch.WRITABLE_CONTENT_LENGTH_KEY };
+
+  /** Well-known Writable classes, never remove or reorder an entry. */
+  private static final Class<?>[] CLASSES = { ProtocolStatus.class,
+      MapWritable.class };
+
+  private static final int KEY_TEXT = -1;
+  private static final int KEY_WRITABLE = -2;
+
+  private static final byte TYPE_NULL = 0;
+  private static final byte TYPE_TEXT = 1;
+  private static final byte TYPE_INT = 2;
+  private static final byte TYPE_LONG = 3;
+  private static final byte TYPE_FLOAT = 4;
+  private static final byte TYPE_DOUBLE = 5;
+  private static final byte TYPE_BOOLEAN = 6;
+  private static final byte TYPE_BYTE = 7;
+  private static final byte TYPE_BYTES = 8;
+  private static final byte TYPE_VINT = 9;
+  private static final byte TYPE_VLONG = 10;
+  private static final byte TYPE_KNOWN_CLASS = 11;
+  private static final byte TYPE_CLASS = 12;
+
+  private static final Map<Text, Integer> KEY_CODES = new HashMap<Text, Integer>();
+  private static final Map<Class<?>, Integer> CLASS_CODES = new HashMap<Class<?>, Integer>();
+  static {
+    for (int i = 0; i < KEYS.length; i++) {
+      KEY_CODES.put(KEYS[i], i);
+    }
+    for (int i = 0; i < CLASSES.length; i++) {
+      CLASS_CODES.put(CLASSES[i], i);
+    }
+  }
+
+  private CrawlDatumMetadataCodec() {
+  }
+
+  /** Write the entries of the metadata. */
+  public static void write(DataOutput out, MapWritable metaData)
+      throws IOException {
+    WritableUtils.writeVInt(out, metaData.size());
+    for (Entry<Writable, Writable> e : metaData.entrySet()) {
+      Writable key = e.getKey();
+      Integer code = KEY_CODES.get(key);
+      if (code != null) {
+        WritableUtils.writeVInt(out, code);
+      } else if (key instanceof Text) {
+        WritableUtils.writeVInt(out, KEY_TEXT);
+        ((Text) key).write(out);
+      } else {
+        WritableUtils.writeVInt(out, KEY_WRITABLE);
+        writeValue(out, key);
+      }
+      writeValue(out, e.getValue());
+    }
+  }
+
+  /** Read metadata written by {@link #write(DataOutput, MapWritable)}. */
+  public static MapWritable read(DataInput in) throws IOException {
+    int size = WritableUtils.readVInt(in);
+    MapWritable metaData = new MapWritable();
+    for (int i = 0; i < size; i++) {
+      Writable key;
+      int code = WritableUtils.readVInt(in);
+      if (code >= 0) {
+        if (code >= KEYS.length) {
+          throw new IOException("Unknown metadata key code " + code);
+        }
+        key = KEYS[code];
+      } else if (code == KEY_TEXT) {
+        Text text = new Text();
+        text.readFields(in);
+        key = text;
+      } else {
+        key = readValue(in);
+      }
+      metaData.put(key, readValue(in));
+    }
+    return metaData;
+  }
+
+  /** Decode metadata from a buffer holding the output of write. */
+  public static MapWritable decode(byte[] data) throws IOException {
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(data, data.length);
+    return read(in);
+  }
+
+  private static void writeValue(DataOutput out, Writable value)
+      throws IOException {
+    if (value == null || value instanceof NullWritable) {
+      out.writeByte(TYPE_NULL);
+    } else if (value.getClass() == Text.class) {
+      out.writeByte(TYPE_TEXT);
+      value.write(out);
+    } else if (value.getClass() == IntWritable.class) {
+      out.writeByte(TYPE_INT);
+      WritableUtils.writeVInt(out, ((IntWritable) value).get());
+    } else if (value.getClass() == LongWritable.class) {
+      out.writeByte(TYPE_LONG);
+      WritableUtils.writeVLong(out, ((LongWritable) value).get());
+    } else if (value.getClass() == FloatWritable.class) {
+      out.writeByte(TYPE_FLOAT);
+      out.writeFloat(((FloatWritable) value).get());
+    } else if (value.getClass() == DoubleWritable.class) {
+      out.writeByte(TYPE_DOUBLE);
+      out.writeDouble(((DoubleWritable) value).get());
+    } else if (value.getClass() == BooleanWritable.class) {
+      out.writeByte(TYPE_BOOLEAN);
+      out.writeBoolean(((BooleanWritable) value).get());
+    } else if (value.getClass() == ByteWritable.class) {
+      out.writeByte(TYPE_BYTE);
+      out.writeByte(((ByteWritable) value).get());
+    } else if (value.getClass() == BytesWritable.class) {
+      out.writeByte(TYPE_BYTES);
+      BytesWritable bytes = (BytesWritable) value;
+      WritableUtils.writeVInt(out, bytes.getLength());
+      out.write(bytes.getBytes(), 0, bytes.getLength());
+    } else if (value.getClass() == VIntWritable.class) {
+      out.writeByte(TYPE_VINT);
+      value.write(out);
+    } else if (value.getClass() == VLongWritable.class) {
+      out.writeByte(TYPE_VLONG);
+      value.write(out);
+    } else {
+      Integer code = CLASS_CODES.get(value.getClass());
+      if (code != null) {
+        out.writeByte(TYPE_KNOWN_CLASS);
+        WritableUtils.writeVInt(out, code);
+      } else {
+        out.writeByte(TYPE_CLASS);
+        Text.writeString(out, value.getClass().getName());
+      }
+      value.write(out);
+    }
+  }
+
+  private static Writable readValue(DataInput in) throws IOException {
+    byte type = in.readByte();
+    switch (type) {
+    case TYPE_NULL:
+      return NullWritable.get();
+    case TYPE_TEXT:
+      Text text = new Text();
+      text.readFields(in);
+      return text;
+    case TYPE_INT:
+      return new IntWritable(WritableUtils.readVInt(in));
+    case TYPE_LONG:
+      return new LongWritable(WritableUtils.readVLong(in));
+    case TYPE_FLOAT:
+      return new FloatWritable(in.readFloat());
+    case TYPE_DOUBLE:
+      return new DoubleWritable(in.readDouble());
+    case TYPE_BOOLEAN:
+      return new BooleanWritable(in.readBoolean());
+    case TYPE_BYTE:
+      return new ByteWritable(in.readByte());
+    case TYPE_BYTES:
+      byte[] bytes = new byte[WritableUtils.readVInt(in)];
+      in.readFully(bytes);
+      return new BytesWritable(bytes);
+    case TYPE_VINT:
+      VIntWritable vint = new VIntWritable();
+      vint.readFields(in);
+      return vint;
+    case TYPE_VLONG:
+      VLongWritable vlong = new VLongWritable();
+      vlong.readFields(in);
+      return vlong;
+    case TYPE_KNOWN_CLASS:
+      int code = WritableUtils.readVInt(in);
+      if (code >= CLASSES.length) {
+        throw new IOException("Unknown metadata class code " + code);
+      }
+      return readWritable(in, CLASSES[code]);
+    case TYPE_CLASS:
+      String className = Text.readString(in);
+      try {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if (loader == null) {
+          loader = CrawlDatumMetadataCodec.class.getClassLoader();
+        }
+        return readWritable(in, Class.forName(className, true, loader));
+      } catch (ClassNotFoundException e) {
+        throw new IOException("Can't find class " + className, e);
+      }
+    default:
+      throw new IOException("Unknown metadata value type " + type);
+    }
+  }
+
+  private static Writable readWritable(DataInput in, Class<?> clazz)
+      throws IOException {
+    Writable value = (Writable) ReflectionUtils.newInstance(clazz, null);
+    value.readFields(in);
+    return value;
+  }
+}
@@ -40,6 +40,14 @@ import org.apache.nutch.util.TimingUtil;
 /**
  * This class takes the output of the fetcher and updates the crawldb
  * accordingly.
+ *
+ * <p>
+ * By default the whole CrawlDb is rewritten by every update. If
+ * <code>db.update.delta</code> is true only the URLs contained in the segments
+ * are updated and written to a new delta layer, see {@link CrawlDbLayers}.
+ * Updates with URL normalizing, filtering or purging of 404 pages are always
+ * full updates, these must be applied to all entries.
+ * </p>
  */
 public class CrawlDb extends NutchTool implements Tool {
   public static final Logger LOG = LoggerFactory.getLogger(CrawlDb.class);
@@ -48,6 +56,11 @@ public class CrawlDb extends NutchTool implements Tool {
 
   public static final String CRAWLDB_PURGE_404 = "db.update.purge.404";
 
+  public static final String CRAWLDB_DELTA_UPDATE = "db.update.delta";
+
+  /** CrawlDb to look up the entries of updated URLs in delta updates */
+  public static final String CRAWLDB_DELTA_LOOKUP = "db.update.delta.lookup";
+
   public static final String CURRENT_NAME = "current";
 
   public static final String LOCK_NAME = ".locked";
@@ -75,13 +88,22 @@ public class CrawlDb extends NutchTool implements Tool {
     SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
     long start = System.currentTimeMillis();
 
-    JobConf job = CrawlDb.createJob(getConf(), crawlDb);
+    boolean url404Purging = getConf().getBoolean(CRAWLDB_PURGE_404, false);
+    boolean delta = getConf().getBoolean(CRAWLDB_DELTA_UPDATE, false)
+        && fs.exists(new Path(crawlDb, CURRENT_NAME));
+    if (delta && (normalize || filter || url404Purging)) {
+      // a delta update does not pass the existing entries through
+      // CrawlDbFilter, only a full update applies these to all entries
+      LOG.info("CrawlDb update: URL normalizing, filtering or 404 purging"
+          + " requested, rewriting the whole CrawlDb");
+      delta = false;
+    }
+    JobConf job = delta ? CrawlDb.createDeltaJob(getConf(), crawlDb) : CrawlDb
+        .createJob(getConf(), crawlDb);
     job.setBoolean(CRAWLDB_ADDITIONS_ALLOWED, additionsAllowed);
     job.setBoolean(CrawlDbFilter.URL_FILTERING, filter);
     job.setBoolean(CrawlDbFilter.URL_NORMALIZING, normalize);
 
-    boolean url404Purging = job.getBoolean(CRAWLDB_PURGE_404, false);
-
     if (LOG.isInfoEnabled()) {
       LOG.info("CrawlDb update: starting at " + sdf.format(start));
       LOG.info("CrawlDb update: db: " + crawlDb);
@@ -90,6 +112,7 @@ public class CrawlDb extends NutchTool implements Tool {
       LOG.info("CrawlDb update: URL normalizing: " + normalize);
       LOG.info("CrawlDb update: URL filtering: " + filter);
       LOG.info("CrawlDb update: 404 purging: " + url404Purging);
+      LOG.info("CrawlDb update: delta update: " + delta);
     }
 
     for (int i = 0; i < segments.length; i++) {
@@ -116,7 +139,15 @@ public class CrawlDb extends NutchTool implements Tool {
       throw e;
     }
 
-    CrawlDb.install(job, crawlDb);
+    if (delta) {
+      CrawlDb.installDelta(job, crawlDb);
+      if (CrawlDbCompactor.needsCompaction(getConf(), fs, crawlDb)) {
+        LOG.info("CrawlDb update: the delta layers of " + crawlDb
+            + " should be compacted");
+      }
+    } else {
+      CrawlDb.install(job, crawlDb);
+    }
     long end = System.currentTimeMillis();
     LOG.info("CrawlDb update: finished at " + sdf.format(end) + ", elapsed: "
         + TimingUtil.elapsedTime(start, end));
@@ -133,11 +164,12 @@ public class CrawlDb extends NutchTool implements Tool {
     JobConf job = new NutchJob(config);
     job.setJobName("crawldb " + crawlDb);
 
-    Path current = new Path(crawlDb, CURRENT_NAME);
-    if (FileSystem.get(job).exists(current)) {
-      FileInputFormat.addInputPath(job, current);
+    FileSystem fs = FileSystem.get(job);
+    if (fs.exists(new Path(crawlDb, CURRENT_NAME))
+        || CrawlDbLayers.hasDeltas(fs, crawlDb)) {
+      addInputPath(job, crawlDb);
     }
-    job.setInputFormat(SequenceFileInputFormat.class);
+    job.setInputFormat(CrawlDbInputFormat.class);
 
     job.setMapperClass(CrawlDbFilter.class);
     job.setReducerClass(CrawlDbReducer.class);
@@ -153,6 +185,81 @@ public class CrawlDb extends NutchTool implements Tool {
     return job;
   }
 
+  /*
+   * Configure a job which writes the updated entries of the URLs in its input
+   * as a new delta layer. The entries are looked up in the existing layers,
+   * the output is partitioned like the base layer.
+   */
+  public static JobConf createDeltaJob(Configuration config, Path crawlDb)
+      throws IOException {
+    JobConf job = new NutchJob(config);
+    job.setJobName("crawldb delta " + crawlDb);
+    job.set(CRAWLDB_DELTA_LOOKUP, crawlDb.toString());
+
+    FileSystem fs = FileSystem.get(job);
+    int parts = CrawlDbLayers.getParts(fs, new Path(crawlDb, CURRENT_NAME)).length;
+    job.setNumReduceTasks(parts);
+    job.setInputFormat(SequenceFileInputFormat.class);
+
+    job.setMapperClass(CrawlDbFilter.class);
+    job.setReducerClass(CrawlDbReducer.class);
+
+    FileOutputFormat.setOutputPath(job, new Path(crawlDb,
+        Integer.toString(new Random().nextInt(Integer.MAX_VALUE))));
+    job.setOutputFormat(MapFileOutputFormat.class);
+    job.setOutputKeyClass(Text.class);
+    job.setOutputValueClass(CrawlDatum.class);
+
+    job.setBoolean("mapreduce.fileoutputcommitter.marksuccessfuljobs", false);
+
+    return job;
+  }
+
+  /**
+   * Add a CrawlDb as input of a job, including its delta layers if there are
+   * any. The job must use {@link CrawlDbInputFormat}.
+   */
+  public static void addInputPath(JobConf job, Path crawlDb)
+      throws IOException {
+    FileInputFormat.addInputPath(job,
+        getInputPath(crawlDb.getFileSystem(job), crawlDb));
+  }
+
+  /**
+   * @return the path to read the CrawlDb from with {@link CrawlDbInputFormat}:
+   *         the CrawlDb itself if it has delta layers, otherwise the base layer
+   */
+  public static Path getInputPath(FileSystem fs, Path crawlDb)
+      throws IOException {
+    if (CrawlDbLayers.hasDeltas(fs, crawlDb)) {
+      return crawlDb;
+    }
+    return new Path(crawlDb, CURRENT_NAME);
+  }
+
+  /** Install the output of a delta job as newest layer. */
+  public static void installDelta(JobConf job, Path crawlDb)
+      throws IOException {
+    Path newDelta = FileOutputFormat.getOutputPath(job);
+    FileSystem fs = new JobClient(job).getFs();
+    Path deltas = new Path(crawlDb, CrawlDbLayers.DELTA_NAME);
+    fs.mkdirs(deltas);
+    long time = System.currentTimeMillis();
+    Path[] existing = CrawlDbLayers.getDeltas(fs, crawlDb);
+    if (existing.length > 0) {
+      // keep the order of layers even if clocks differ
+      time = Math.max(time,
+          Long.parseLong(existing[existing.length - 1].getName()) + 1);
+    }
+    fs.rename(newDelta, new Path(deltas, Long.toString(time)));
+    Path lock = new Path(crawlDb, LOCK_NAME);
+    LockUtil.removeLockFile(fs, lock);
+  }
+
+  /**
+   * Install the output of a job which read all layers of the CrawlDb as new
+   * base layer, replacing the delta layers.
+   */
   public static void install(JobConf job, Path crawlDb) throws IOException {
     boolean preserveBackup = job.getBoolean("db.preserve.backup", true);
 
@@ -165,10 +272,18 @@ public class CrawlDb extends NutchTool implements Tool {
         fs.delete(old, true);
       fs.rename(current, old);
     }
+    Path deltas = new Path(crawlDb, CrawlDbLayers.DELTA_NAME);
+    Path oldDeltas = new Path(crawlDb, "old_" + CrawlDbLayers.DELTA_NAME);
+    if (fs.exists(oldDeltas))
+      fs.delete(oldDeltas, true);
+    if (fs.exists(deltas))
+      fs.rename(deltas, oldDeltas);
     fs.mkdirs(crawlDb);
     fs.rename(newCrawlDb, current);
     if (!preserveBackup && fs.exists(old))
       fs.delete(old, true);
+    if (!preserveBackup && fs.exists(oldDeltas))
+      fs.delete(oldDeltas, true);
     Path lock = new Path(crawlDb, LOCK_NAME);
     LockUtil.removeLockFile(fs, lock);
   }
@@ -0,0 +1,164 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.crawl;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.util.StringUtils;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.nutch.util.LockUtil;
+import org.apache.nutch.util.NutchConfiguration;
+import org.apache.nutch.util.TimingUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Folds the delta layers of a CrawlDb (see {@link CrawlDbLayers}) into a new
+ * base layer. The layers are merged by the same job as a full CrawlDb update
+ * without segments, i.e. {@link CrawlDbFilter} and {@link CrawlDbReducer}, so
+ * <code>db.update.purge.404</code> also applies here.
+ *
+ * <p>
+ * Compaction is done if the number of deltas exceeds
+ * <code>db.update.delta.compact.layers</code> or if their size exceeds
+ * <code>db.update.delta.compact.ratio</code> times the size of the base layer,
+ * or if forced.
+ * </p>
+ */
+public class CrawlDbCompactor extends Configured implements Tool {
+
+  public static final Logger LOG = LoggerFactory
+      .getLogger(CrawlDbCompactor.class);
+
+  public static final String COMPACT_LAYERS = "db.update.delta.compact.layers";
+  public static final String COMPACT_RATIO = "db.update.delta.compact.ratio";
+
+  public CrawlDbCompactor() {
+  }
+
+  public CrawlDbCompactor(Configuration conf) {
+    setConf(conf);
+  }
+
+  /** @return true if the delta layers exceed the configured limits */
+  public static boolean needsCompaction(Configuration conf, FileSystem fs,
+      Path crawlDb) throws IOException {
+    Path[] deltas = CrawlDbLayers.getDeltas(fs, crawlDb);
+    if (deltas.length == 0) {
+      return false;
+    }
+    if (deltas.length > conf.getInt(COMPACT_LAYERS, 10)) {
+      return true;
+    }
+    Path current = new Path(crawlDb, CrawlDb.CURRENT_NAME);
+    if (!fs.exists(current)) {
+      return true;
+    }
+    long deltaSize = 0;
+    for (Path delta : deltas) {
+      deltaSize += CrawlDbLayers.getSize(fs, delta);
+    }
+    return deltaSize > conf.getFloat(COMPACT_RATIO, 0.5f)
+        * CrawlDbLayers.getSize(fs, current);
+  }
+
+  /**
+   * Compact the CrawlDb if required.
+   *
+   * @param force
+   *          compact even if the limits are not exceeded
+   * @return true if the CrawlDb was compacted
+   */
+  public boolean compact(Path crawlDb, boolean force) throws IOException {
+    FileSystem fs = FileSystem.get(getConf());
+    Path[] deltas = CrawlDbLayers.getDeltas(fs, crawlDb);
+    if (deltas.length == 0) {
+      LOG.info("CrawlDb compaction: no delta layers in " + crawlDb);
+      return false;
+    }
+    if (!force && !needsCompaction(getConf(), fs, crawlDb)) {
+      LOG.info("CrawlDb compaction: " + deltas.length
+          + " delta layers within limits, skipping " + crawlDb);
+      return false;
+    }
+
+    SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    long start = System.currentTimeMillis();
+    LOG.info("CrawlDb compaction: starting at " + sdf.format(start));
+    LOG.info("CrawlDb compaction: db: " + crawlDb + ", " + deltas.length
+        + " delta layers");
+
+    Path lock = new Path(crawlDb, CrawlDb.LOCK_NAME);
+    LockUtil.createLockFile(fs, lock, false);
+    JobConf job = CrawlDb.createJob(getConf(), crawlDb);
+    job.setJobName("crawldb compaction " + crawlDb);
+    try {
+      JobClient.runJob(job);
+    } catch (IOException e) {
+      LockUtil.removeLockFile(fs, lock);
+      Path outPath = FileOutputFormat.getOutputPath(job);
+      if (fs.exists(outPath))
+        fs.delete(outPath, true);
+      throw e;
+    }
+    CrawlDb.install(job, crawlDb);
+
+    long end = System.currentTimeMillis();
+    LOG.info("CrawlDb compaction: finished at " + sdf.format(end)
+        + ", elapsed: " + TimingUtil.elapsedTime(start, end));
+    return true;
+  }
+
+  public int run(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println("Usage: CrawlDbCompactor <crawldb> [-force]");
+      System.err.println("\tcrawldb\tCrawlDb to compact");
+      System.err
+          .println("\t-force\tcompact even if the delta layers are within the configured limits");
+      return -1;
+    }
+    boolean force = false;
+    for (int i = 1; i < args.length; i++) {
+      if (args[i].equals("-force")) {
+        force = true;
+      }
+    }
+    try {
+      compact(new Path(args[0]), force);
+      return 0;
+    } catch (Exception e) {
+      LOG.error("CrawlDb compaction: " + StringUtils.stringifyException(e));
+      return -1;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    int res = ToolRunner.run(NutchConfiguration.create(),
+        new CrawlDbCompactor(), args);
+    System.exit(res);
+  }
+}
@@ -0,0 +1,244 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.crawl;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.SequenceFileInputFormat;
+
+/**
+ * Reads a CrawlDb with delta layers (see {@link CrawlDbLayers}) as if it had
+ * been merged into a single one. An input path which is the root of a CrawlDb
+ * with deltas is read by merging the corresponding parts of all layers, one
+ * split per part, and only the newest entry of every URL is passed on. All
+ * other input paths are read as sequence files, so this format can replace
+ * {@link SequenceFileInputFormat} in jobs that read a CrawlDb along with other
+ * data. Use {@link CrawlDb#addInputPath(JobConf, Path)} to add a CrawlDb as
+ * input.
+ */
+public class CrawlDbInputFormat<K, V> extends SequenceFileInputFormat<K, V> {
+
+  /** Merges the same part of all layers of a CrawlDb. */
+  public static class LayeredSplit implements InputSplit {
+
+    private Path[] files;
+    private long length;
+
+    public LayeredSplit() {
+    }
+
+    public LayeredSplit(Path[] files, long length) {
+      this.files = files;
+      this.length = length;
+    }
+
+    /** @return the data files of the part in every layer, oldest layer first */
+    public Path[] getFiles() {
+      return files;
+    }
+
+    public long getLength() {
+      return length;
+    }
+
+    public String[] getLocations() {
+      return new String[0];
+    }
+
+    public void write(DataOutput out) throws IOException {
+      out.writeInt(files.length);
+      for (Path file : files) {
+        Text.writeString(out, file.toString());
+      }
+      out.writeLong(length);
+    }
+
+    public void readFields(DataInput in) throws IOException {
+      files = new Path[in.readInt()];
+      for (int i = 0; i < files.length; i++) {
+        files[i] = new Path(Text.readString(in));
+      }
+      length = in.readLong();
+    }
+
+    public String toString() {
+      return files.length + " layers of " + files[0].getParent().getName();
+    }
+  }
+
+  /**
+   * Merges sorted sequence files of the layers, the value of the newest layer
+   * wins.
+   */
+  static class LayeredRecordReader implements RecordReader<Text, CrawlDatum> {
+
+    private final SequenceFile.Reader[] readers;
+    private final Text[] keys;
+    private final CrawlDatum[] values;
+    private final boolean[] valid;
+    private final long length;
+
+    LayeredRecordReader(Configuration conf, LayeredSplit split)
+        throws IOException {
+      Path[] files = split.getFiles();
+      readers = new SequenceFile.Reader[files.length];
+      keys = new Text[files.length];
+      values = new CrawlDatum[files.length];
+      valid = new boolean[files.length];
+      length = split.getLength();
+      try {
+        for (int i = 0; i < files.length; i++) {
+          readers[i] = new SequenceFile.Reader(conf,
+              SequenceFile.Reader.file(files[i]));
+          keys[i] = new Text();
+          values[i] = new CrawlDatum();
+          advance(i);
+        }
+      } catch (IOException e) {
+        close();
+        throw e;
+      }
+    }
+
+    private void advance(int i) throws IOException {
+      valid[i] = readers[i].next(keys[i], values[i]);
+    }
+
+    public boolean next(Text key, CrawlDatum value) throws IOException {
+      int newest = -1;
+      for (int i = 0; i < keys.length; i++) {
+        if (!valid[i])
+          continue;
+        // on equal keys the later (newer) layer wins
+        if (newest < 0 || keys[i].compareTo(keys[newest]) <= 0) {
+          newest = i;
+        }
+      }
+      if (newest < 0) {
+        return false;
+      }
+      key.set(keys[newest]);
+      value.set(values[newest]);
+      for (int i = 0; i < keys.length; i++) {
+        if (valid[i] && keys[i].equals(key)) {
+          advance(i);
+        }
+      }
+      return true;
+    }
+
+    public Text createKey() {
+      return new Text();
+    }
+
+    public CrawlDatum createValue() {
+      return new CrawlDatum();
+    }
+
+    public long getPos() throws IOException {
+      long pos = 0;
+      for (SequenceFile.Reader reader : readers) {
+        if (reader != null)
+          pos += reader.getPosition();
+      }
+      return pos;
+    }
+
+    public float getProgress() throws IOException {
+      return length == 0 ? 0.0f : Math.min(1.0f, (float) getPos() / length);
+    }
+
+    public void close() throws IOException {
+      for (SequenceFile.Reader reader : readers) {
+        if (reader != null)
+          reader.close();
+      }
+    }
+  }
+
+  public InputSplit[] getSplits(JobConf job, int numSplits) throws IOException {
+    List<InputSplit> splits = new ArrayList<InputSplit>();
+    List<Path> plain = new ArrayList<Path>();
+    for (Path path : FileInputFormat.getInputPaths(job)) {
+      FileSystem fs = path.getFileSystem(job);
+      if (fs.exists(new Path(path, CrawlDb.CURRENT_NAME))
+          && CrawlDbLayers.hasDeltas(fs, path)) {
+        addLayeredSplits(fs, path, splits);
+      } else {
+        plain.add(path);
+      }
+    }
+    if (!plain.isEmpty()) {
+      JobConf conf = new JobConf(job);
+      FileInputFormat.setInputPaths(conf, plain.toArray(new Path[plain.size()]));
+      for (InputSplit split : super.getSplits(conf, numSplits)) {
+        splits.add(split);
+      }
+    }
+    return splits.toArray(new InputSplit[splits.size()]);
+  }
+
+  private void addLayeredSplits(FileSystem fs, Path crawlDb,
+      List<InputSplit> splits) throws IOException {
+    Path[] layers = CrawlDbLayers.getLayers(fs, crawlDb);
+    Path[][] parts = new Path[layers.length][];
+    for (int i = 0; i < layers.length; i++) {
+      parts[i] = CrawlDbLayers.getParts(fs, layers[i]);
+      if (parts[i].length != parts[0].length) {
+        throw new IOException("Layer " + layers[i] + " has " + parts[i].length
+            + " parts, expected " + parts[0].length
+            + ", the CrawlDb must be compacted");
+      }
+    }
+    for (int p = 0; p < parts[0].length; p++) {
+      Path[] files = new Path[layers.length];
+      long length = 0;
+      for (int i = 0; i < layers.length; i++) {
+        files[i] = new Path(parts[i][p], MapFile.DATA_FILE_NAME);
+        length += fs.getFileStatus(files[i]).getLen();
+      }
+      splits.add(new LayeredSplit(files, length));
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  public RecordReader<K, V> getRecordReader(InputSplit split, JobConf job,
+      Reporter reporter) throws IOException {
+    if (split instanceof LayeredSplit) {
+      reporter.setStatus(split.toString());
+      return (RecordReader<K, V>) new LayeredRecordReader(job,
+          (LayeredSplit) split);
+    }
+    return super.getRecordReader(split, job, reporter);
+  }
+}
@@ -0,0 +1,190 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.crawl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.MapFileOutputFormat;
+import org.apache.hadoop.mapred.lib.HashPartitioner;
+
+/**
+ * The layers of a CrawlDb. Besides the base layer <code>crawldb/current</code>
+ * a CrawlDb may contain delta layers <code>crawldb/delta/&lt;time&gt;</code>,
+ * written by incremental updates (see <code>db.update.delta</code>). Every
+ * layer is a set of MapFiles holding complete CrawlDatums, partitioned by the
+ * same {@link HashPartitioner} into the same number of parts. The entry of a
+ * URL in a newer layer replaces the entries in all older layers.
+ *
+ * <p>
+ * Jobs read the merged layers through {@link CrawlDbInputFormat}, single URLs
+ * are looked up with a {@link Reader}. {@link CrawlDbCompactor} folds the
+ * deltas into a new base layer.
+ * </p>
+ */
+public class CrawlDbLayers {
+
+  public static final String DELTA_NAME = "delta";
+
+  private static final PathFilter PARTS = new PathFilter() {
+    public boolean accept(Path path) {
+      return path.getName().startsWith("part-");
+    }
+  };
+
+  private static final Comparator<Path> BY_NAME = new Comparator<Path>() {
+    public int compare(Path p1, Path p2) {
+      return p1.getName().compareTo(p2.getName());
+    }
+  };
+
+  private static final Comparator<Path> BY_TIME = new Comparator<Path>() {
+    public int compare(Path p1, Path p2) {
+      long t1 = Long.parseLong(p1.getName());
+      long t2 = Long.parseLong(p2.getName());
+      return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+    }
+  };
+
+  /** @return the delta layers of the CrawlDb, oldest first */
+  public static Path[] getDeltas(FileSystem fs, Path crawlDb)
+      throws IOException {
+    Path dir = new Path(crawlDb, DELTA_NAME);
+    if (!fs.exists(dir)) {
+      return new Path[0];
+    }
+    List<Path> deltas = new ArrayList<Path>();
+    for (FileStatus status : fs.listStatus(dir)) {
+      if (status.isDirectory() && status.getPath().getName().matches("\\d+")) {
+        deltas.add(status.getPath());
+      }
+    }
+    Path[] result = deltas.toArray(new Path[deltas.size()]);
+    Arrays.sort(result, BY_TIME);
+    return result;
+  }
+
+  /** @return true if the CrawlDb has delta layers */
+  public static boolean hasDeltas(FileSystem fs, Path crawlDb)
+      throws IOException {
+    return getDeltas(fs, crawlDb).length > 0;
+  }
+
+  /**
+   * @return all layers of the CrawlDb, the base layer (if it exists) first and
+   *         the newest delta last
+   */
+  public static Path[] getLayers(FileSystem fs, Path crawlDb)
+      throws IOException {
+    List<Path> layers = new ArrayList<Path>();
+    Path current = new Path(crawlDb, CrawlDb.CURRENT_NAME);
+    if (fs.exists(current)) {
+      layers.add(current);
+    }
+    layers.addAll(Arrays.asList(getDeltas(fs, crawlDb)));
+    return layers.toArray(new Path[layers.size()]);
+  }
+
+  /** @return the parts (MapFile directories) of a layer, in order */
+  public static Path[] getParts(FileSystem fs, Path layer) throws IOException {
+    FileStatus[] stats = fs.listStatus(layer, PARTS);
+    Path[] parts = new Path[stats.length];
+    for (int i = 0; i < stats.length; i++) {
+      parts[i] = stats[i].getPath();
+    }
+    Arrays.sort(parts, BY_NAME);
+    return parts;
+  }
+
+  /** @return the total size in bytes of a layer */
+  public static long getSize(FileSystem fs, Path layer) throws IOException {
+    return fs.getContentSummary(layer).getLength();
+  }
+
+  /**
+   * Looks up single URLs in all layers of a CrawlDb, the newest entry of a URL
+   * is returned. Lookups are most efficient in key order.
+   */
+  public static class Reader implements Closeable {
+
+    private static final HashPartitioner<Text, CrawlDatum> PARTITIONER = new HashPartitioner<Text, CrawlDatum>();
+
+    /** readers of each layer, newest first */
+    private final List<MapFile.Reader[]> layers = new ArrayList<MapFile.Reader[]>();
+
+    public Reader(Path crawlDb, Configuration conf) throws IOException {
+      FileSystem fs = crawlDb.getFileSystem(conf);
+      Path[] paths = getLayers(fs, crawlDb);
+      try {
+        for (int i = paths.length - 1; i >= 0; i--) {
+          layers.add(MapFileOutputFormat.getReaders(fs, paths[i], conf));
+        }
+      } catch (IOException e) {
+        close();
+        throw e;
+      }
+    }
+
+    /**
+     * Look up a URL.
+     *
+     * @param url
+     *          the URL
+     * @param datum
+     *          receives the entry of the URL
+     * @return true if the URL was found
+     */
+    public boolean get(Text url, CrawlDatum datum) throws IOException {
+      for (MapFile.Reader[] readers : layers) {
+        if (readers.length > 0
+            && MapFileOutputFormat.getEntry(readers, PARTITIONER, url, datum) != null) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    public void close() throws IOException {
+      IOException error = null;
+      for (MapFile.Reader[] readers : layers) {
+        for (MapFile.Reader reader : readers) {
+          try {
+            reader.close();
+          } catch (IOException e) {
+            error = e;
+          }
+        }
+      }
+      layers.clear();
+      if (error != null) {
+        throw error;
+      }
+    }
+  }
+}
@@ -130,7 +130,7 @@ public class CrawlDbMerger extends Configured implements Tool {
       if (LOG.isInfoEnabled()) {
         LOG.info("Adding " + dbs[i]);
       }
-      FileInputFormat.addInputPath(job, new Path(dbs[i], CrawlDb.CURRENT_NAME));
+      CrawlDb.addInputPath(job, dbs[i]);
     }
     JobClient.runJob(job);
     FileSystem fs = FileSystem.get(getConf());
@@ -152,7 +152,7 @@ public class CrawlDbMerger extends Configured implements Tool {
     JobConf job = new NutchJob(conf);
     job.setJobName("crawldb merge " + output);
 
-    job.setInputFormat(SequenceFileInputFormat.class);
+    job.setInputFormat(CrawlDbInputFormat.class);
 
     job.setMapperClass(CrawlDbFilter.class);
     job.setBoolean(CrawlDbFilter.URL_FILTERING, filter);
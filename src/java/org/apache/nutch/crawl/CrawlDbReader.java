@@ -39,7 +39,6 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.FloatWritable;
 import org.apache.hadoop.io.LongWritable;
-import org.apache.hadoop.io.MapFile;
 import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
@@ -56,7 +55,6 @@ import org.apache.hadoop.mapred.Reporter;
 import org.apache.hadoop.mapred.SequenceFileInputFormat;
 import org.apache.hadoop.mapred.SequenceFileOutputFormat;
 import org.apache.hadoop.mapred.TextOutputFormat;
-import org.apache.hadoop.mapred.lib.HashPartitioner;
 import org.apache.hadoop.mapred.lib.IdentityMapper;
 import org.apache.hadoop.mapred.lib.IdentityReducer;
 import org.apache.hadoop.util.Progressable;
@@ -87,25 +85,23 @@ public class CrawlDbReader extends Configured implements Closeable, Tool {
 		setConf(conf);
 	}
 
-	private MapFile.Reader[] readers = null;
+	private CrawlDbLayers.Reader reader = null;
 
 	private void openReaders(String crawlDb, JobConf config) throws IOException {
-		if (readers != null)
+		if (reader != null)
 			return;
-		FileSystem fs = FileSystem.get(config);
-		readers = MapFileOutputFormat.getReaders(fs, new Path(crawlDb, CrawlDb.CURRENT_NAME), config);
+		reader = new CrawlDbLayers.Reader(new Path(crawlDb), config);
 	}
 
 	private void closeReaders() {
-		if (readers == null)
+		if (reader == null)
 			return;
-		for (int i = 0; i < readers.length; i++) {
-			try {
-				readers[i].close();
-			} catch (Exception e) {
+		try {
+			reader.close();
+		} catch (Exception e) {
 
-			}
 		}
+		reader = null;
 	}
 
 	public static class CrawlDatumCsvOutputFormat extends FileOutputFormat<Text, CrawlDatum> {
@@ -347,8 +343,8 @@ public class CrawlDbReader extends Configured implements Closeable, Tool {
 		job.setJobName("stats " + crawlDb);
 		job.setBoolean("db.reader.stats.sort", sort);
 
-		FileInputFormat.addInputPath(job, new Path(crawlDb, CrawlDb.CURRENT_NAME));
-		job.setInputFormat(SequenceFileInputFormat.class);
+		CrawlDb.addInputPath(job, new Path(crawlDb));
+		job.setInputFormat(CrawlDbInputFormat.class);
 
 		job.setMapperClass(CrawlDbStatMapper.class);
 		job.setCombinerClass(CrawlDbStatCombiner.class);
@@ -444,9 +440,7 @@ public class CrawlDbReader extends Configured implements Closeable, Tool {
 		Text key = new Text(url);
 		CrawlDatum val = new CrawlDatum();
 		openReaders(crawlDb, config);
-		CrawlDatum res = (CrawlDatum) MapFileOutputFormat.getEntry(readers, new HashPartitioner<Text, CrawlDatum>(),
-				key, val);
-		return res;
+		return reader.get(key, val) ? val : null;
 	}
 
 	public void readUrl(String crawlDb, String url, JobConf config) throws IOException {
@@ -471,8 +465,8 @@ public class CrawlDbReader extends Configured implements Closeable, Tool {
 		JobConf job = new NutchJob(config);
 		job.setJobName("dump " + crawlDb);
 
-		FileInputFormat.addInputPath(job, new Path(crawlDb, CrawlDb.CURRENT_NAME));
-		job.setInputFormat(SequenceFileInputFormat.class);
+		CrawlDb.addInputPath(job, new Path(crawlDb));
+		job.setInputFormat(CrawlDbInputFormat.class);
 		FileOutputFormat.setOutputPath(job, outFolder);
 
 		if (format.equals("csv")) {
@@ -572,8 +566,8 @@ public class CrawlDbReader extends Configured implements Closeable, Tool {
 
 		JobConf job = new NutchJob(config);
 		job.setJobName("topN prepare " + crawlDb);
-		FileInputFormat.addInputPath(job, new Path(crawlDb, CrawlDb.CURRENT_NAME));
-		job.setInputFormat(SequenceFileInputFormat.class);
+		CrawlDb.addInputPath(job, new Path(crawlDb));
+		job.setInputFormat(CrawlDbInputFormat.class);
 		job.setMapperClass(CrawlDbTopNMapper.class);
 		job.setReducerClass(IdentityReducer.class);
 
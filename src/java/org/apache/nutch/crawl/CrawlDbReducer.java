@@ -27,6 +27,7 @@ import java.io.IOException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.*;
 import org.apache.hadoop.mapred.*;
 import org.apache.hadoop.util.PriorityQueue;
@@ -34,7 +35,12 @@ import org.apache.nutch.metadata.Nutch;
 import org.apache.nutch.scoring.ScoringFilterException;
 import org.apache.nutch.scoring.ScoringFilters;
 
-/** Merge new page entries with existing entries. */
+/**
+ * Merge new page entries with existing entries. In delta updates (see
+ * {@link CrawlDb#createDeltaJob(org.apache.hadoop.conf.Configuration, Path)})
+ * the existing entries are not part of the input but looked up in the layers
+ * of the CrawlDb.
+ */
 public class CrawlDbReducer implements
     Reducer<Text, CrawlDatum, Text, CrawlDatum> {
   public static final Logger LOG = LoggerFactory
@@ -47,8 +53,13 @@ public class CrawlDbReducer implements
   private boolean additionsAllowed;
   private int maxInterval;
   private FetchSchedule schedule;
+  private JobConf conf;
+  private String lookupDb;
+  private CrawlDbLayers.Reader lookup;
 
   public void configure(JobConf job) {
+    conf = job;
+    lookupDb = job.get(CrawlDb.CRAWLDB_DELTA_LOOKUP);
     retryMax = job.getInt("db.fetch.retry.max", 3);
     scfilters = new ScoringFilters(job);
     additionsAllowed = job.getBoolean(CrawlDb.CRAWLDB_ADDITIONS_ALLOWED, true);
@@ -58,7 +69,11 @@ public class CrawlDbReducer implements
     linked = new InlinkPriorityQueue(maxLinks);
   }
 
-  public void close() {
+  public void close() throws IOException {
+    if (lookup != null) {
+      lookup.close();
+      lookup = null;
+    }
   }
 
   public void reduce(Text key, Iterator<CrawlDatum> values,
@@ -134,6 +149,14 @@ public class CrawlDbReducer implements
       }
     }
 
+    if (!oldSet && lookupDb != null) {
+      // delta update, the existing entry is not part of the input
+      if (lookup == null) {
+        lookup = new CrawlDbLayers.Reader(new Path(lookupDb), conf);
+      }
+      oldSet = lookup.get(key, old);
+    }
+
     // copy the content of the queue into a List
     // in reversed order
     int numLinks = linked.size();
@@ -171,13 +194,17 @@ public class CrawlDbReducer implements
 
     // initialize with the latest version, be it fetch or link
     result.set(fetch);
-    if (oldSet) {
-      // copy metadata from old, if exists
-      if (old.getMetaData().size() > 0) {
-        result.putAllMetaData(old);
+    // a link is replaced by old, if exists (see below)
+    if (oldSet && fetch.getStatus() != CrawlDatum.STATUS_LINKED) {
+      // copy metadata from old, if exists, without decoding it
+      if (old.hasMetaData()) {
+        result.copyMetaData(old);
         // overlay with new, if any
-        if (fetch.getMetaData().size() > 0)
+        if (fetch.hasMetaData())
           result.putAllMetaData(fetch);
+        // validators no longer sent by the server must not survive the merge
+        if (fetch.getStatus() == CrawlDatum.STATUS_FETCH_SUCCESS)
+          removeStaleValidators(result, fetch);
       }
       // set the most recent valid value of modifiedTime
       if (old.getModifiedTime() > 0 && fetch.getModifiedTime() == 0) {
@@ -321,6 +348,23 @@ public class CrawlDbReducer implements
         CrawlDatum.getStatusName(result.getStatus())).increment(1);
   }
 
+  private static final Text[] VALIDATOR_KEYS = { Nutch.WRITABLE_ETAG_KEY,
+      Nutch.WRITABLE_LAST_MODIFIED_KEY, Nutch.WRITABLE_CONTENT_LENGTH_KEY };
+
+  /**
+   * Remove the validators (ETag, Last-Modified and the length of the content
+   * they refer to) copied from the old entry if the successful fetch did not
+   * return them, otherwise the next fetch would revalidate against stale
+   * values.
+   */
+  private static void removeStaleValidators(CrawlDatum result,
+      CrawlDatum fetch) {
+    for (Text validator : VALIDATOR_KEYS) {
+      if (!fetch.hasMetaData() || !fetch.getMetaData().containsKey(validator))
+        result.getMetaData().remove(validator);
+    }
+  }
+
 }
 
 class InlinkPriorityQueue extends PriorityQueue<CrawlDatum> {
@@ -16,6 +16,8 @@
  */
 package org.apache.nutch.crawl;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
@@ -30,6 +32,7 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapred.Counters.Group;
 import org.apache.hadoop.mapred.FileInputFormat;
 import org.apache.hadoop.mapred.FileOutputFormat;
@@ -40,7 +43,6 @@ import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reducer;
 import org.apache.hadoop.mapred.Reporter;
 import org.apache.hadoop.mapred.RunningJob;
-import org.apache.hadoop.mapred.SequenceFileInputFormat;
 import org.apache.hadoop.mapred.SequenceFileOutputFormat;
 import org.apache.hadoop.util.StringUtils;
 import org.apache.hadoop.util.Tool;
@@ -70,14 +72,38 @@ public class DeduplicationJob extends NutchTool implements Tool {
   public static final Logger LOG = LoggerFactory
       .getLogger(DeduplicationJob.class);
 
-  private final static Text urlKey = new Text("_URLTEMPKEY_");
   private final static String DEDUPLICATION_GROUP_MODE = "deduplication.group.mode";
   private final static String DEDUPLICATION_COMPARE_ORDER = "deduplication.compare.order";
 
+  /**
+   * A CrawlDatum and its URL. The URL is passed along with the CrawlDatum
+   * instead of as metadata, so that the metadata is never decoded.
+   */
+  public static class DuplicateCandidate implements Writable {
+    public Text url = new Text();
+    public CrawlDatum datum = new CrawlDatum();
+
+    public void set(DuplicateCandidate that) {
+      url.set(that.url);
+      datum.set(that.datum);
+    }
+
+    public void readFields(DataInput in) throws IOException {
+      url.readFields(in);
+      datum.readFields(in);
+    }
+
+    public void write(DataOutput out) throws IOException {
+      url.write(out);
+      datum.write(out);
+    }
+  }
+
   public static class DBFilter implements
-      Mapper<Text, CrawlDatum, BytesWritable, CrawlDatum> {
+      Mapper<Text, CrawlDatum, BytesWritable, DuplicateCandidate> {
       
     private String groupMode;
+    private DuplicateCandidate candidate = new DuplicateCandidate();
 
     @Override
     public void configure(JobConf arg0) {
@@ -90,8 +116,8 @@ public class DeduplicationJob extends NutchTool implements Tool {
 
     @Override
     public void map(Text key, CrawlDatum value,
-        OutputCollector<BytesWritable, CrawlDatum> output, Reporter reporter)
-        throws IOException {
+        OutputCollector<BytesWritable, DuplicateCandidate> output,
+        Reporter reporter) throws IOException {
 
       if (value.getStatus() == CrawlDatum.STATUS_DB_FETCHED
           || value.getStatus() == CrawlDatum.STATUS_DB_NOTMODIFIED) {
@@ -121,16 +147,16 @@ public class DeduplicationJob extends NutchTool implements Tool {
             sig = new BytesWritable(data);
             break;
         }
-        // add the URL as a temporary MD
-        value.getMetaData().put(urlKey, key);
+        candidate.url.set(key);
+        candidate.datum.set(value);
         // reduce on the signature optionall grouped on host or domain or not at all
-        output.collect(sig, value);
+        output.collect(sig, candidate);
       }
     }
   }
 
   public static class DedupReducer implements
-      Reducer<BytesWritable, CrawlDatum, Text, CrawlDatum> {
+      Reducer<BytesWritable, DuplicateCandidate, Text, CrawlDatum> {
 
     private String[] compareOrder;
     
@@ -139,41 +165,40 @@ public class DeduplicationJob extends NutchTool implements Tool {
       compareOrder = arg0.get(DEDUPLICATION_COMPARE_ORDER).split(",");
     }
 
-    private void writeOutAsDuplicate(CrawlDatum datum,
+    private void writeOutAsDuplicate(DuplicateCandidate doc,
         OutputCollector<Text, CrawlDatum> output, Reporter reporter)
         throws IOException {
-      datum.setStatus(CrawlDatum.STATUS_DB_DUPLICATE);
-      Text key = (Text) datum.getMetaData().remove(urlKey);
+      doc.datum.setStatus(CrawlDatum.STATUS_DB_DUPLICATE);
       reporter.incrCounter("DeduplicationJobStatus",
           "Documents marked as duplicate", 1);
-      output.collect(key, datum);
+      output.collect(doc.url, doc.datum);
     }
 
     @Override
-    public void reduce(BytesWritable key, Iterator<CrawlDatum> values,
+    public void reduce(BytesWritable key, Iterator<DuplicateCandidate> values,
         OutputCollector<Text, CrawlDatum> output, Reporter reporter)
         throws IOException {
-      CrawlDatum existingDoc = null;
+      DuplicateCandidate existingDoc = null;
 
       outerloop:
       while (values.hasNext()) {
         if (existingDoc == null) {
-          existingDoc = new CrawlDatum();
+          existingDoc = new DuplicateCandidate();
           existingDoc.set(values.next());
           continue;
         }
-        CrawlDatum newDoc = values.next();
+        DuplicateCandidate newDoc = values.next();
 
         for (int i = 0; i < compareOrder.length; i++) {
           switch (compareOrder[i]) {
             case "score":
               // compare based on score
-              if (existingDoc.getScore() < newDoc.getScore()) {
+              if (existingDoc.datum.getScore() < newDoc.datum.getScore()) {
                 writeOutAsDuplicate(existingDoc, output, reporter);
-                existingDoc = new CrawlDatum();
+                existingDoc = new DuplicateCandidate();
                 existingDoc.set(newDoc);
                 continue outerloop;
-              } else if (existingDoc.getScore() > newDoc.getScore()) {
+              } else if (existingDoc.datum.getScore() > newDoc.datum.getScore()) {
                 // mark new one as duplicate
                 writeOutAsDuplicate(newDoc, output, reporter);
                 continue outerloop;
@@ -181,14 +206,14 @@ public class DeduplicationJob extends NutchTool implements Tool {
               break;
             case "fetchTime":
               // same score? delete the one which is oldest
-              if (existingDoc.getFetchTime() > newDoc.getFetchTime()) {
+              if (existingDoc.datum.getFetchTime() > newDoc.datum.getFetchTime()) {
                 // mark new one as duplicate
                 writeOutAsDuplicate(newDoc, output, reporter);
                 continue outerloop;
-              } else if (existingDoc.getFetchTime() < newDoc.getFetchTime()) {
+              } else if (existingDoc.datum.getFetchTime() < newDoc.datum.getFetchTime()) {
                 // mark existing one as duplicate
                 writeOutAsDuplicate(existingDoc, output, reporter);
-                existingDoc = new CrawlDatum();
+                existingDoc = new DuplicateCandidate();
                 existingDoc.set(newDoc);
                 continue outerloop;
               }
@@ -198,11 +223,11 @@ public class DeduplicationJob extends NutchTool implements Tool {
               String urlExisting;
               String urlnewDoc;
               try {
-                urlExisting = URLDecoder.decode(existingDoc.getMetaData().get(urlKey).toString(), "UTF8");
-                urlnewDoc = URLDecoder.decode(newDoc.getMetaData().get(urlKey).toString(), "UTF8");
+                urlExisting = URLDecoder.decode(existingDoc.url.toString(), "UTF8");
+                urlnewDoc = URLDecoder.decode(newDoc.url.toString(), "UTF8");
               } catch (UnsupportedEncodingException e) {
-                LOG.error("Error decoding: " + urlKey);
-                throw new IOException("UnsupportedEncodingException for " + urlKey);
+                LOG.error("Error decoding: " + existingDoc.url + ", " + newDoc.url);
+                throw new IOException("UnsupportedEncodingException for " + existingDoc.url);
               }
               if (urlExisting.length() < urlnewDoc.length()) {
                 // mark new one as duplicate
@@ -211,7 +236,7 @@ public class DeduplicationJob extends NutchTool implements Tool {
               } else if (urlExisting.length() > urlnewDoc.length()) {
                 // mark existing one as duplicate
                 writeOutAsDuplicate(existingDoc, output, reporter);
-                existingDoc = new CrawlDatum();
+                existingDoc = new DuplicateCandidate();
                 existingDoc.set(newDoc);
                 continue outerloop;
               }
@@ -306,14 +331,14 @@ public class DeduplicationJob extends NutchTool implements Tool {
     job.set(DEDUPLICATION_GROUP_MODE, group);
     job.set(DEDUPLICATION_COMPARE_ORDER, compareOrder);
 
-    FileInputFormat.addInputPath(job, new Path(crawldb, CrawlDb.CURRENT_NAME));
-    job.setInputFormat(SequenceFileInputFormat.class);
+    CrawlDb.addInputPath(job, new Path(crawldb));
+    job.setInputFormat(CrawlDbInputFormat.class);
 
     FileOutputFormat.setOutputPath(job, tempDir);
     job.setOutputFormat(SequenceFileOutputFormat.class);
 
     job.setMapOutputKeyClass(BytesWritable.class);
-    job.setMapOutputValueClass(CrawlDatum.class);
+    job.setMapOutputValueClass(DuplicateCandidate.class);
 
     job.setOutputKeyClass(Text.class);
     job.setOutputValueClass(CrawlDatum.class);
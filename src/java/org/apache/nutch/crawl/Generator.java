@@ -20,6 +20,7 @@ package org.apache.nutch.crawl;
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.PriorityQueue;
 import java.text.*;
 
 // rLogging imports
@@ -76,6 +77,7 @@ public class Generator extends NutchTool implements Tool {
   public static final String GENERATOR_DELAY = "crawl.gen.delay";
   public static final String GENERATOR_MAX_NUM_SEGMENTS = "generate.max.num.segments";
   public static final String GENERATOR_EXPR = "generate.expr";
+  public static final String GENERATOR_SINGLE_PASS = "generate.single.pass";
 
   public static class SelectorEntry implements Writable {
     public Text url;
@@ -268,32 +270,11 @@ public class Generator extends NutchTool implements Tool {
         }
 
         SelectorEntry entry = values.next();
-        Text url = entry.url;
-        String urlString = url.toString();
-        URL u = null;
-
-        String hostordomain = null;
-
-        try {
-          if (normalise && normalizers != null) {
-            urlString = normalizers.normalize(urlString,
-                URLNormalizers.SCOPE_GENERATE_HOST_COUNT);
-          }
-          u = new URL(urlString);
-          if (byDomain) {
-            hostordomain = URLUtil.getDomainName(u);
-          } else {
-            hostordomain = new URL(urlString).getHost();
-          }
-        } catch (Exception e) {
-          LOG.warn("Malformed URL: '" + urlString + "', skipping ("
-              + StringUtils.stringifyException(e) + ")");
-          reporter.getCounter("Generator", "MALFORMED_URL").increment(1);
+        String hostordomain = getHostOrDomain(entry.url, reporter);
+        if (hostordomain == null) {
           continue;
         }
 
-        hostordomain = hostordomain.toLowerCase();
-
         // only filter if we are counting hosts or domains
         if (maxCount > 0) {
           int[] hostCount = hostCounts.get(hostordomain);
@@ -346,6 +327,33 @@ public class Generator extends NutchTool implements Tool {
         count++;
       }
     }
+
+    /**
+     * @return the lower-cased host or domain the URL is counted by, null if
+     *         the URL is malformed
+     */
+    String getHostOrDomain(Text url, Reporter reporter) {
+      String urlString = url.toString();
+      String hostordomain = null;
+      try {
+        if (normalise && normalizers != null) {
+          urlString = normalizers.normalize(urlString,
+              URLNormalizers.SCOPE_GENERATE_HOST_COUNT);
+        }
+        URL u = new URL(urlString);
+        if (byDomain) {
+          hostordomain = URLUtil.getDomainName(u);
+        } else {
+          hostordomain = u.getHost();
+        }
+      } catch (Exception e) {
+        LOG.warn("Malformed URL: '" + urlString + "', skipping ("
+            + StringUtils.stringifyException(e) + ")");
+        reporter.getCounter("Generator", "MALFORMED_URL").increment(1);
+        return null;
+      }
+      return hostordomain.toLowerCase();
+    }
   }
 
   // Allows the reducers to generate one subfile per
@@ -475,6 +483,258 @@ public class Generator extends NutchTool implements Tool {
     }
   }
 
+  /**
+   * Keeps the best-scoring entries offered, at most <code>maxPerHost</code>
+   * per host or domain (unlimited if negative) and at most <code>limit</code>
+   * in total. Entries are copied when they are added.
+   */
+  static class SelectionBuffer {
+
+    private static class Scored {
+      float score;
+      String host;
+      SelectorEntry entry;
+      boolean removed;
+    }
+
+    private static final Comparator<Scored> LOWEST_FIRST = new Comparator<Scored>() {
+      public int compare(Scored s1, Scored s2) {
+        return Float.compare(s1.score, s2.score);
+      }
+    };
+
+    private final long limit;
+    private final int maxPerHost;
+    /** all entries, including those removed since they were added */
+    private PriorityQueue<Scored> all = new PriorityQueue<Scored>(11,
+        LOWEST_FIRST);
+    private final Map<String, PriorityQueue<Scored>> hosts = new HashMap<String, PriorityQueue<Scored>>();
+    private long size = 0;
+
+    SelectionBuffer(long limit, int maxPerHost) {
+      this.limit = limit;
+      this.maxPerHost = maxPerHost;
+    }
+
+    /** @return true if the entry was added */
+    boolean offer(String host, float score, SelectorEntry entry) {
+      if (limit <= 0 || maxPerHost == 0) {
+        return false;
+      }
+      if (size >= limit && score <= lowest().score) {
+        return false;
+      }
+      PriorityQueue<Scored> perHost = null;
+      if (maxPerHost > 0) {
+        perHost = hosts.get(host);
+        if (perHost == null) {
+          perHost = new PriorityQueue<Scored>(11, LOWEST_FIRST);
+          hosts.put(host, perHost);
+        } else if (perHost.size() >= maxPerHost) {
+          if (score <= perHost.peek().score) {
+            return false;
+          }
+          perHost.poll().removed = true;
+          size--;
+        }
+      }
+
+      Scored scored = new Scored();
+      scored.score = score;
+      scored.host = host;
+      scored.entry = new SelectorEntry();
+      scored.entry.url.set(entry.url);
+      scored.entry.datum.set(entry.datum);
+      all.add(scored);
+      if (perHost != null) {
+        perHost.add(scored);
+      }
+      size++;
+
+      if (size > limit) {
+        Scored dropped = lowest();
+        dropped.removed = true;
+        size--;
+        if (maxPerHost > 0) {
+          PriorityQueue<Scored> queue = hosts.get(dropped.host);
+          queue.remove(dropped);
+          if (queue.isEmpty()) {
+            hosts.remove(dropped.host);
+          }
+        }
+      }
+      if (all.size() > 2 * size + 1024) {
+        // get rid of the entries removed per host
+        PriorityQueue<Scored> live = new PriorityQueue<Scored>(
+            (int) size + 1, LOWEST_FIRST);
+        for (Scored s : all) {
+          if (!s.removed)
+            live.add(s);
+        }
+        all = live;
+      }
+      return true;
+    }
+
+    private Scored lowest() {
+      while (all.peek().removed) {
+        all.poll();
+      }
+      return all.peek();
+    }
+
+    /** Pass the kept entries with their scores to the collector. */
+    void collect(OutputCollector<FloatWritable, SelectorEntry> output)
+        throws IOException {
+      FloatWritable score = new FloatWritable();
+      for (Scored s : all) {
+        if (s.removed)
+          continue;
+        score.set(s.score);
+        output.collect(score, s.entry);
+      }
+    }
+  }
+
+  /**
+   * Selects entries due for fetch like the {@link Selector}, but keeps only
+   * the entries which may pass the limits of the reducers: per reduce
+   * partition the best-scoring <code>topN / numReduceTasks</code> entries and
+   * per host or domain as many as allowed by <code>generate.max.count</code>.
+   * The entries are emitted when the map task is closed.
+   */
+  public static class SinglePassSelector extends MapReduceBase implements
+      Mapper<Text, CrawlDatum, FloatWritable, SelectorEntry> {
+    private Selector selector = new Selector();
+    private SelectionBuffer[] buffers;
+    private boolean byPartition;
+    private long limit;
+    private int maxPerHost;
+    private OutputCollector<FloatWritable, SelectorEntry> output;
+    private Reporter reporter;
+
+    private OutputCollector<FloatWritable, SelectorEntry> buffer = new OutputCollector<FloatWritable, SelectorEntry>() {
+      public void collect(FloatWritable sortValue, SelectorEntry entry)
+          throws IOException {
+        if (buffers == null) {
+          output.collect(sortValue, entry);
+          return;
+        }
+        String hostordomain = selector.getHostOrDomain(entry.url, reporter);
+        if (hostordomain == null) {
+          return;
+        }
+        int partition = 0;
+        if (byPartition) {
+          partition = selector.getPartition(sortValue, entry, buffers.length);
+        }
+        if (buffers[partition] == null) {
+          buffers[partition] = new SelectionBuffer(limit, maxPerHost);
+        }
+        buffers[partition].offer(hostordomain, sortValue.get(), entry);
+      }
+    };
+
+    public void configure(JobConf job) {
+      selector.configure(job);
+      long topN = job.getLong(GENERATOR_TOP_N, Long.MAX_VALUE);
+      int maxCount = job.getInt(GENERATOR_MAX_COUNT, -1);
+      // the Selector keeps maxCount - 1 URLs per host or domain and segment
+      maxPerHost = maxCount > 0 ? maxCount - 1 : -1;
+      // partitioning by IP would resolve the host of every entry
+      byPartition = !URLPartitioner.PARTITION_MODE_IP.equals(job.get(
+          URLPartitioner.PARTITION_MODE_KEY,
+          URLPartitioner.PARTITION_MODE_HOST));
+      limit = byPartition ? topN / job.getNumReduceTasks() : topN;
+      if (topN != Long.MAX_VALUE || maxPerHost >= 0) {
+        buffers = new SelectionBuffer[byPartition ? job.getNumReduceTasks()
+            : 1];
+      }
+    }
+
+    public void map(Text key, CrawlDatum value,
+        OutputCollector<FloatWritable, SelectorEntry> output, Reporter reporter)
+        throws IOException {
+      this.output = output;
+      this.reporter = reporter;
+      selector.map(key, value, buffer, reporter);
+    }
+
+    public void close() throws IOException {
+      if (buffers == null || output == null) {
+        return;
+      }
+      for (SelectionBuffer selection : buffers) {
+        if (selection != null) {
+          selection.collect(output);
+        }
+      }
+    }
+  }
+
+  /**
+   * Applies the limits of the {@link Selector} to the entries of a partition,
+   * sorted by decreasing score, and writes the selected entries as fetch list.
+   * If <code>generate.topN</code> limits the size of the fetch list, the
+   * selected entries are held in memory and written sorted by URL hash, as
+   * done by the partition job of the multi-pass Generator, otherwise they are
+   * written sorted by score.
+   */
+  public static class SinglePassReducer extends MapReduceBase implements
+      Reducer<FloatWritable, SelectorEntry, Text, CrawlDatum> {
+    private Selector selector = new Selector();
+    private OutputCollector<Text, CrawlDatum> output;
+    private Reporter reporter;
+    /** selected entries to be sorted by URL hash, null if not sorted */
+    private List<SelectorEntry> selected;
+
+    private OutputCollector<FloatWritable, SelectorEntry> fetchlist = new OutputCollector<FloatWritable, SelectorEntry>() {
+      public void collect(FloatWritable sortValue, SelectorEntry entry)
+          throws IOException {
+        reporter.getCounter("Generator", "SELECTED").increment(1);
+        if (selected == null) {
+          output.collect(entry.url, entry.datum);
+          return;
+        }
+        SelectorEntry copy = new SelectorEntry();
+        copy.url.set(entry.url);
+        copy.datum.set(entry.datum);
+        selected.add(copy);
+      }
+    };
+
+    public void configure(JobConf job) {
+      selector.configure(job);
+      if (job.getLong(GENERATOR_TOP_N, Long.MAX_VALUE) != Long.MAX_VALUE) {
+        selected = new ArrayList<SelectorEntry>();
+      }
+    }
+
+    public void close() throws IOException {
+      if (selected == null || output == null) {
+        return;
+      }
+      final HashComparator comparator = new HashComparator();
+      Collections.sort(selected, new Comparator<SelectorEntry>() {
+        public int compare(SelectorEntry e1, SelectorEntry e2) {
+          return comparator.compare(e1.url, e2.url);
+        }
+      });
+      for (SelectorEntry entry : selected) {
+        output.collect(entry.url, entry.datum);
+      }
+      selected.clear();
+    }
+
+    public void reduce(FloatWritable key, Iterator<SelectorEntry> values,
+        OutputCollector<Text, CrawlDatum> output, Reporter reporter)
+        throws IOException {
+      this.output = output;
+      this.reporter = reporter;
+      selector.reduce(key, values, fetchlist, reporter);
+    }
+  }
+
   public Generator() {
   }
 
@@ -571,8 +831,17 @@ public class Generator extends NutchTool implements Tool {
     if (expr != null) {
       job.set(GENERATOR_EXPR, expr);
     }
-    FileInputFormat.addInputPath(job, new Path(dbDir, CrawlDb.CURRENT_NAME));
-    job.setInputFormat(SequenceFileInputFormat.class);
+    CrawlDb.addInputPath(job, dbDir);
+    job.setInputFormat(CrawlDbInputFormat.class);
+
+    if (job.getBoolean(GENERATOR_SINGLE_PASS, false)) {
+      if (maxNumSegments == 1) {
+        return generateSinglePass(job, dbDir, segments, numLists, fs, lock,
+            start);
+      }
+      LOG.info("Generator: single pass requires one segment, selecting "
+          + maxNumSegments + " segments in multiple passes.");
+    }
 
     job.setMapperClass(Selector.class);
     job.setPartitionerClass(Selector.class);
@@ -632,8 +901,8 @@ public class Generator extends NutchTool implements Tool {
         Path subGenDir = new Path(segmpaths, CrawlDatum.GENERATE_DIR_NAME);
         FileInputFormat.addInputPath(job, subGenDir);
       }
-      FileInputFormat.addInputPath(job, new Path(dbDir, CrawlDb.CURRENT_NAME));
-      job.setInputFormat(SequenceFileInputFormat.class);
+      CrawlDb.addInputPath(job, dbDir);
+      job.setInputFormat(CrawlDbInputFormat.class);
       job.setMapperClass(CrawlDbUpdater.class);
       job.setReducerClass(CrawlDbUpdater.class);
       job.setOutputFormat(MapFileOutputFormat.class);
@@ -663,6 +932,96 @@ public class Generator extends NutchTool implements Tool {
     return generatedSegments.toArray(patharray);
   }
 
+  /**
+   * Select the entries and write them as partitioned fetch list in a single
+   * job. Only the entries which may pass the limits of the reducers are kept
+   * by the mappers, so neither the whole CrawlDb nor all entries due for fetch
+   * are sorted. If the CrawlDb is updated, the generated entries are written
+   * as a delta layer of the CrawlDb instead of rewriting it.
+   */
+  private Path[] generateSinglePass(JobConf job, Path dbDir, Path segments,
+      int numLists, FileSystem fs, Path lock, long start) throws IOException {
+    boolean updateDb = getConf().getBoolean(GENERATE_UPDATE_CRAWLDB, false);
+    Path current = new Path(dbDir, CrawlDb.CURRENT_NAME);
+    if (updateDb && !fs.exists(current)) {
+      // the delta layer is partitioned like the base layer
+      LockUtil.removeLockFile(fs, lock);
+      throw new IOException("Generator: cannot mark generated entries in "
+          + dbDir + ", CrawlDb has no base layer " + current
+          + ", run compactdb to merge the delta layers into a base layer");
+    }
+    Path segment = new Path(segments, generateSegmentName());
+    LOG.info("Generator: selecting and partitioning in a single pass.");
+    LOG.info("Generator: segment: " + segment);
+
+    job.setInt("partition.url.seed", new Random().nextInt());
+    job.setMapperClass(SinglePassSelector.class);
+    job.setMapOutputKeyClass(FloatWritable.class);
+    job.setMapOutputValueClass(SelectorEntry.class);
+    job.setOutputKeyComparatorClass(DecreasingFloatComparator.class);
+    job.setPartitionerClass(Selector.class);
+    job.setReducerClass(SinglePassReducer.class);
+    job.setNumReduceTasks(numLists);
+
+    FileOutputFormat.setOutputPath(job, new Path(segment,
+        CrawlDatum.GENERATE_DIR_NAME));
+    job.setOutputFormat(SequenceFileOutputFormat.class);
+    job.setOutputKeyClass(Text.class);
+    job.setOutputValueClass(CrawlDatum.class);
+
+    long selected;
+    try {
+      RunningJob running = JobClient.runJob(job);
+      selected = running.getCounters().findCounter("Generator", "SELECTED")
+          .getValue();
+    } catch (IOException e) {
+      LockUtil.removeLockFile(fs, lock);
+      fs.delete(segment, true);
+      throw e;
+    }
+
+    if (selected == 0) {
+      LOG.warn("Generator: 0 records selected for fetching, exiting ...");
+      LockUtil.removeLockFile(fs, lock);
+      fs.delete(segment, true);
+      return null;
+    }
+
+    if (updateDb) {
+      // the generated entries carry the generate time, sort them into a new
+      // delta layer of the CrawlDb
+      job = new NutchJob(getConf());
+      job.setJobName("generate: mark generated " + dbDir);
+      FileInputFormat.addInputPath(job, new Path(segment,
+          CrawlDatum.GENERATE_DIR_NAME));
+      job.setInputFormat(SequenceFileInputFormat.class);
+      job.setNumReduceTasks(CrawlDbLayers.getParts(fs, current).length);
+      FileOutputFormat.setOutputPath(job, new Path(dbDir,
+          Integer.toString(new Random().nextInt(Integer.MAX_VALUE))));
+      job.setOutputFormat(MapFileOutputFormat.class);
+      job.setOutputKeyClass(Text.class);
+      job.setOutputValueClass(CrawlDatum.class);
+      job.setBoolean("mapreduce.fileoutputcommitter.marksuccessfuljobs", false);
+      try {
+        JobClient.runJob(job);
+        CrawlDb.installDelta(job, dbDir);
+      } catch (IOException e) {
+        LockUtil.removeLockFile(fs, lock);
+        fs.delete(FileOutputFormat.getOutputPath(job), true);
+        throw e;
+      }
+    }
+
+    LockUtil.removeLockFile(fs, lock);
+
+    long end = System.currentTimeMillis();
+    LOG.info("Generator: selected " + selected + " records");
+    LOG.info("Generator: finished at "
+        + new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(end)
+        + ", elapsed: " + TimingUtil.elapsedTime(start, end));
+    return new Path[] { segment };
+  }
+
   private Path partitionSegment(FileSystem fs, Path segmentsDir, Path inputDir,
       int numLists) throws IOException {
     // invert again, partition by host/domain/IP, sort by url hash
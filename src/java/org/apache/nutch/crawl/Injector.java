@@ -28,6 +28,7 @@ import org.apache.hadoop.io.*;
 import org.apache.hadoop.fs.*;
 import org.apache.hadoop.conf.*;
 import org.apache.hadoop.mapred.*;
+import org.apache.hadoop.mapred.lib.MultipleInputs;
 import org.apache.hadoop.util.*;
 import org.apache.nutch.net.*;
 import org.apache.nutch.metadata.Nutch;
@@ -51,6 +52,13 @@ import org.apache.nutch.util.TimingUtil;
  * for a specific URL that is not changed by AdaptiveFetchSchedule <br>
  * e.g. http://www.nutch.org/ \t nutch.score=10 \t nutch.fetchInterval=2592000
  * \t userType=open_source
+ * <p>
+ * The URLs are injected by a single job. If the CrawlDb exists the job merges
+ * the injected URLs with all entries of the CrawlDb. If
+ * <code>db.update.delta</code> is true only the injected URLs are written as a
+ * new delta layer, see {@link CrawlDbLayers}: the existing entries of these
+ * URLs are looked up in the CrawlDb.
+ * </p>
  **/
 public class Injector extends NutchTool implements Tool {
   public static final Logger LOG = LoggerFactory.getLogger(Injector.class);
@@ -192,15 +200,24 @@ public class Injector extends NutchTool implements Tool {
     }
   }
 
-  /** Combine multiple new entries for a url. */
+  /**
+   * Combine multiple new entries for a url. In delta injections the existing
+   * entries are looked up in the layers of the CrawlDb and unchanged entries
+   * are not written.
+   */
   public static class InjectReducer implements
       Reducer<Text, CrawlDatum, Text, CrawlDatum> {
     private int interval;
     private float scoreInjected;
     private boolean overwrite = false;
     private boolean update = false;
+    private JobConf conf;
+    private String lookupDb;
+    private CrawlDbLayers.Reader lookup;
 
     public void configure(JobConf job) {
+      conf = job;
+      lookupDb = job.get(CrawlDb.CRAWLDB_DELTA_LOOKUP);
       interval = job.getInt("db.fetch.interval.default", 2592000);
       scoreInjected = job.getFloat("db.score.injected", 1.0f);
       overwrite = job.getBoolean("db.injector.overwrite", false);
@@ -209,7 +226,11 @@ public class Injector extends NutchTool implements Tool {
       LOG.info("Injector: update: " + update);
     }
 
-    public void close() {
+    public void close() throws IOException {
+      if (lookup != null) {
+        lookup.close();
+        lookup = null;
+      }
     }
 
     private CrawlDatum old = new CrawlDatum();
@@ -233,6 +254,14 @@ public class Injector extends NutchTool implements Tool {
 
       }
 
+      if (!oldSet && lookupDb != null) {
+        // delta injection, the existing entry is not part of the input
+        if (lookup == null) {
+          lookup = new CrawlDbLayers.Reader(new Path(lookupDb), conf);
+        }
+        oldSet = lookup.get(key, old);
+      }
+
       CrawlDatum res = null;
 
       // Old default behaviour
@@ -264,6 +293,10 @@ public class Injector extends NutchTool implements Tool {
         res = injected;
       }
 
+      if (lookupDb != null && res == old && !update) {
+        // the existing entry is kept unchanged in its layer
+        return;
+      }
       output.collect(key, res);
     }
   }
@@ -284,10 +317,6 @@ public class Injector extends NutchTool implements Tool {
       LOG.info("Injector: urlDir: " + urlDir);
     }
 
-    Path tempDir = new Path(getConf().get("mapred.temp.dir", ".")
-        + "/inject-temp-"
-        + Integer.toString(new Random().nextInt(Integer.MAX_VALUE)));
-
     // map text input file to a <url,CrawlDatum> file
     if (LOG.isInfoEnabled()) {
       LOG.info("Injector: Converting injected urls to crawl db entries.");
@@ -296,68 +325,80 @@ public class Injector extends NutchTool implements Tool {
     FileSystem fs = FileSystem.get(getConf());
     // determine if the crawldb already exists
     boolean dbExists = fs.exists(crawlDb);
-
-    JobConf sortJob = new NutchJob(getConf());
-    sortJob.setJobName("inject " + urlDir);
-    FileInputFormat.addInputPath(sortJob, urlDir);
-    sortJob.setMapperClass(InjectMapper.class);
-
-    FileOutputFormat.setOutputPath(sortJob, tempDir);
-    if (dbExists) {
-      // Don't run merge injected urls, wait for merge with
-      // existing DB
-      sortJob.setOutputFormat(SequenceFileOutputFormat.class);
-      sortJob.setNumReduceTasks(0);
+    boolean delta = getConf().getBoolean(CrawlDb.CRAWLDB_DELTA_UPDATE, false)
+        && fs.exists(new Path(crawlDb, CrawlDb.CURRENT_NAME));
+
+    JobConf job;
+    if (delta) {
+      // write the injected urls as new layer, the existing entries are looked
+      // up by the reducer
+      LOG.info("Injector: Writing injected urls as delta layer.");
+      job = CrawlDb.createDeltaJob(getConf(), crawlDb);
+      job.setInputFormat(TextInputFormat.class);
+      FileInputFormat.setInputPaths(job, urlDir);
+      job.setMapperClass(InjectMapper.class);
+    } else if (dbExists) {
+      // merge with existing crawl db
+      LOG.info("Injector: Merging injected urls into crawl db.");
+      job = CrawlDb.createJob(getConf(), crawlDb);
+      for (Path path : FileInputFormat.getInputPaths(job)) {
+        MultipleInputs.addInputPath(job, path, CrawlDbInputFormat.class,
+            CrawlDbFilter.class);
+      }
+      MultipleInputs.addInputPath(job, urlDir, TextInputFormat.class,
+          InjectMapper.class);
     } else {
-      sortJob.setOutputFormat(MapFileOutputFormat.class);
-      sortJob.setReducerClass(InjectReducer.class);
-      sortJob.setBoolean("mapreduce.fileoutputcommitter.marksuccessfuljobs",
+      job = new NutchJob(getConf());
+      FileInputFormat.addInputPath(job, urlDir);
+      job.setMapperClass(InjectMapper.class);
+      FileOutputFormat.setOutputPath(job, new Path(getConf().get(
+          "mapred.temp.dir", ".")
+          + "/inject-temp-"
+          + Integer.toString(new Random().nextInt(Integer.MAX_VALUE))));
+      job.setOutputFormat(MapFileOutputFormat.class);
+      job.setOutputKeyClass(Text.class);
+      job.setOutputValueClass(CrawlDatum.class);
+      job.setBoolean("mapreduce.fileoutputcommitter.marksuccessfuljobs",
           false);
     }
-    sortJob.setOutputKeyClass(Text.class);
-    sortJob.setOutputValueClass(CrawlDatum.class);
-    sortJob.setLong("injector.current.time", System.currentTimeMillis());
+    job.setJobName("inject " + urlDir);
+    job.setReducerClass(InjectReducer.class);
+    job.setLong("injector.current.time", System.currentTimeMillis());
 
-    RunningJob mapJob = null;
+    RunningJob running = null;
     try {
-      mapJob = JobClient.runJob(sortJob);
+      running = JobClient.runJob(job);
     } catch (IOException e) {
-      fs.delete(tempDir, true);
+      Path outPath = FileOutputFormat.getOutputPath(job);
+      if (fs.exists(outPath))
+        fs.delete(outPath, true);
       throw e;
     }
-    long urlsInjected = mapJob.getCounters()
-        .findCounter("injector", "urls_injected").getValue();
-    long urlsFiltered = mapJob.getCounters()
-        .findCounter("injector", "urls_filtered").getValue();
+    Counters counters = running.getCounters();
+    long urlsInjected = counters.findCounter("injector", "urls_injected")
+        .getValue();
+    long urlsFiltered = counters.findCounter("injector", "urls_filtered")
+        .getValue();
+    long urlsMerged = counters.findCounter("injector", "urls_merged")
+        .getValue();
     LOG.info("Injector: Total number of urls rejected by filters: "
         + urlsFiltered);
     LOG.info("Injector: Total number of urls after normalization: "
         + urlsInjected);
-    long urlsMerged = 0;
     if (dbExists) {
-      // merge with existing crawl db
-      if (LOG.isInfoEnabled()) {
-        LOG.info("Injector: Merging injected urls into crawl db.");
-      }
-      JobConf mergeJob = CrawlDb.createJob(getConf(), crawlDb);
-      FileInputFormat.addInputPath(mergeJob, tempDir);
-      mergeJob.setReducerClass(InjectReducer.class);
-      try {
-        RunningJob merge = JobClient.runJob(mergeJob);
-        urlsMerged = merge.getCounters().findCounter("injector", "urls_merged")
-            .getValue();
-        LOG.info("Injector: URLs merged: " + urlsMerged);
-      } catch (IOException e) {
-        fs.delete(tempDir, true);
-        throw e;
+      LOG.info("Injector: URLs merged: " + urlsMerged);
+    }
+
+    if (delta) {
+      CrawlDb.installDelta(job, crawlDb);
+      if (CrawlDbCompactor.needsCompaction(getConf(), fs, crawlDb)) {
+        LOG.info("Injector: the delta layers of " + crawlDb
+            + " should be compacted");
       }
-      CrawlDb.install(mergeJob, crawlDb);
     } else {
-      CrawlDb.install(sortJob, crawlDb);
+      CrawlDb.install(job, crawlDb);
     }
 
-    // clean up
-    fs.delete(tempDir, true);
     LOG.info("Injector: Total new urls injected: "
         + (urlsInjected - urlsMerged));
     long end = System.currentTimeMillis();
@@ -85,17 +85,18 @@ public class LinkDbMerger extends Configured implements Tool,
       OutputCollector<Text, Inlinks> output, Reporter reporter)
       throws IOException {
 
-    Inlinks result = new Inlinks();
+    Inlinks first = values.next();
+    if (!values.hasNext() && first.size() <= maxInlinks) {
+      // a single value within the limit, pass it through without copying
+      if (first.size() > 0)
+        output.collect(key, first);
+      return;
+    }
 
+    Inlinks result = new Inlinks();
+    addInlinks(result, first);
     while (values.hasNext()) {
-      Inlinks inlinks = values.next();
-
-      int end = Math.min(maxInlinks - result.size(), inlinks.size());
-      Iterator<Inlink> it = inlinks.iterator();
-      int i = 0;
-      while (it.hasNext() && i++ < end) {
-        result.add(it.next());
-      }
+      addInlinks(result, values.next());
     }
     if (result.size() == 0)
       return;
@@ -103,6 +104,15 @@ public class LinkDbMerger extends Configured implements Tool,
 
   }
 
+  private void addInlinks(Inlinks result, Inlinks inlinks) {
+    int end = Math.min(maxInlinks - result.size(), inlinks.size());
+    Iterator<Inlink> it = inlinks.iterator();
+    int i = 0;
+    while (it.hasNext() && i++ < end) {
+      result.add(it.next());
+    }
+  }
+
   public void configure(JobConf job) {
     maxInlinks = job.getInt("linkdb.max.inlinks", 10000);
   }
@@ -17,7 +17,6 @@
 
 package org.apache.nutch.crawl;
 
-import java.net.InetAddress;
 import java.net.URL;
 import java.net.MalformedURLException;
 import java.net.UnknownHostException;
@@ -26,6 +25,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.hadoop.io.*;
 import org.apache.hadoop.mapred.*;
+import org.apache.nutch.net.DnsResolver;
 import org.apache.nutch.net.URLNormalizers;
 import org.apache.nutch.util.URLUtil;
 
@@ -46,6 +46,7 @@ public class URLPartitioner implements Partitioner<Text, Writable> {
   private int seed;
   private URLNormalizers normalizers;
   private String mode = PARTITION_MODE_HOST;
+  private DnsResolver resolver;
 
   public void configure(JobConf job) {
     seed = job.getInt("partition.url.seed", 0);
@@ -57,6 +58,7 @@ public class URLPartitioner implements Partitioner<Text, Writable> {
       mode = PARTITION_MODE_HOST;
     }
     normalizers = new URLNormalizers(job, URLNormalizers.SCOPE_PARTITION);
+    resolver = DnsResolver.get(job);
   }
 
   public void close() {
@@ -80,8 +82,7 @@ public class URLPartitioner implements Partitioner<Text, Writable> {
       hashCode = URLUtil.getDomainName(url).hashCode();
     else if (mode.equals(PARTITION_MODE_IP)) {
       try {
-        InetAddress address = InetAddress.getByName(url.getHost());
-        hashCode = address.getHostAddress().hashCode();
+        hashCode = resolver.resolve(url.getHost()).getHostAddress().hashCode();
       } catch (UnknownHostException e) {
         Generator.LOG.info("Couldn't find IP for host: " + url.getHost());
       }
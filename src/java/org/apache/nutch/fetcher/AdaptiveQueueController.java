@@ -0,0 +1,118 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.fetcher;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.protocol.ProtocolCounters;
+
+/**
+ * Adapts the number of threads and the crawl delay of a
+ * {@link FetchItemQueue} to the responses of its host (AIMD):
+ * <ul>
+ * <li>a failed request (an exception, a timeout or an HTTP status 429 or 503)
+ * halves the number of threads, or, with a single thread, doubles the crawl
+ * delay up to <code>fetcher.queue.adaptive.delay.max</code>;</li>
+ * <li>after <code>fetcher.queue.adaptive.increase.after</code> successive
+ * responses while the average response time of the queue is below
+ * <code>fetcher.queue.adaptive.latency.target</code>, the crawl delay is
+ * decreased by <code>fetcher.queue.adaptive.delay.step</code> down to
+ * <code>fetcher.queue.adaptive.delay.min</code>, then the number of threads
+ * is increased by one up to
+ * <code>fetcher.queue.adaptive.threads.max</code>.</li>
+ * </ul>
+ * A crawl delay from robots.txt is never undercut, and queues with such a
+ * delay keep a single thread. Changes are counted in the group
+ * <code>FetcherQueues</code>.
+ */
+public class AdaptiveQueueController {
+
+  public static final String COUNTER_GROUP = "FetcherQueues";
+
+  private final int maxThreads;
+  private final long minDelay;
+  private final long maxDelay;
+  private final long delayStep;
+  private final long latencyTarget;
+  private final int increaseAfter;
+
+  public AdaptiveQueueController(Configuration conf) {
+    int threads = conf.getInt("fetcher.threads.per.queue", 1);
+    maxThreads = Math.max(threads,
+        conf.getInt("fetcher.queue.adaptive.threads.max", 4));
+    minDelay = (long) (conf.getFloat("fetcher.queue.adaptive.delay.min",
+        1.0f) * 1000);
+    maxDelay = Math.max(minDelay, (long) (conf.getFloat(
+        "fetcher.queue.adaptive.delay.max", 30.0f) * 1000));
+    delayStep = Math.max(1, (long) (conf.getFloat(
+        "fetcher.queue.adaptive.delay.step", 0.5f) * 1000));
+    latencyTarget = conf.getLong("fetcher.queue.adaptive.latency.target",
+        1000);
+    increaseAfter = Math.max(1,
+        conf.getInt("fetcher.queue.adaptive.increase.after", 10));
+  }
+
+  /** @return true if adaptive queues are enabled */
+  public static boolean isEnabled(Configuration conf) {
+    return conf.getBoolean("fetcher.queue.adaptive", false);
+  }
+
+  /**
+   * Adapt the limits of a queue after a request.
+   *
+   * @param failed
+   *          whether the host failed to respond or asked to slow down
+   */
+  public void update(FetchItemQueue fiq, boolean failed) {
+    synchronized (fiq) {
+      if (failed) {
+        fiq.successes = 0;
+        if (fiq.maxThreads > 1) {
+          fiq.maxThreads = fiq.maxThreads / 2;
+          ProtocolCounters.increment(COUNTER_GROUP, "threads_decreased");
+        } else if (fiq.crawlDelay < maxDelay) {
+          fiq.crawlDelay = Math.min(maxDelay,
+              Math.max(fiq.crawlDelay * 2, minDelay));
+          ProtocolCounters.increment(COUNTER_GROUP, "delay_increased");
+        }
+        return;
+      }
+      if (fiq.getResponseTime() > latencyTarget) {
+        // the host is slow, hold
+        fiq.successes = 0;
+        return;
+      }
+      if (++fiq.successes < increaseAfter)
+        return;
+      fiq.successes = 0;
+      long floor = Math.max(minDelay, fiq.robotsCrawlDelay);
+      if (fiq.crawlDelay > floor) {
+        fiq.crawlDelay = Math.max(floor, fiq.crawlDelay - delayStep);
+        ProtocolCounters.increment(COUNTER_GROUP, "delay_decreased");
+      } else if (fiq.maxThreads < maxThreads && fiq.robotsCrawlDelay <= 0) {
+        fiq.maxThreads++;
+        ProtocolCounters.increment(COUNTER_GROUP, "threads_increased");
+      }
+    }
+  }
+
+  /** Apply the number of threads learned in a previous cycle. */
+  public void restore(FetchItemQueue fiq, HostStates.HostState state) {
+    if (state.getMaxThreads() > 0) {
+      fiq.maxThreads = Math.min(maxThreads, state.getMaxThreads());
+    }
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.fetcher;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.nutch.protocol.AsyncProtocol;
+import org.apache.nutch.protocol.ProtocolOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drives the asynchronous fetcher mode (<code>fetcher.mode=async</code>). This
+ * thread takes items from the {@link FetchItemQueues}, subject to the usual
+ * politeness rules, and hands them to a few {@link FetcherThread}s running in
+ * async mode. These start the request on an {@link AsyncProtocol} and process
+ * the response once it is available, so the number of requests in flight is
+ * not limited by the number of threads but by
+ * <code>fetcher.async.max.inflight</code>.
+ */
+public class AsyncFetchDispatcher extends Thread {
+
+  private static final Logger LOG = LoggerFactory
+      .getLogger(AsyncFetchDispatcher.class);
+
+  /** A fetch item together with the state of following its redirects. */
+  static class Task {
+    FetchItem fit;
+    String reprUrl;
+    int redirectCount;
+    /** null until the response is available */
+    ProtocolOutput output;
+
+    Task(FetchItem fit) {
+      this.fit = fit;
+    }
+  }
+
+  /** Signals the workers to finish. */
+  private static final Task END = new Task(null);
+
+  private final FetchItemQueues fetchQueues;
+  private final QueueFeeder feeder;
+  private final AtomicLong lastRequestStart;
+  private final int maxInFlight;
+  private final int workers;
+  private final Semaphore inFlight;
+  private final BlockingQueue<Task> events = new LinkedBlockingQueue<Task>();
+  private volatile boolean halted = false;
+
+  public AsyncFetchDispatcher(FetchItemQueues fetchQueues, QueueFeeder feeder,
+      AtomicLong lastRequestStart, int maxInFlight, int workers) {
+    this.fetchQueues = fetchQueues;
+    this.feeder = feeder;
+    this.lastRequestStart = lastRequestStart;
+    this.maxInFlight = maxInFlight;
+    this.workers = workers;
+    this.inFlight = new Semaphore(maxInFlight);
+    this.setDaemon(true);
+    this.setName("AsyncFetchDispatcher");
+  }
+
+  public void run() {
+    try {
+      while (!halted) {
+        inFlight.acquire();
+        FetchItem fit = fetchQueues.getFetchItem();
+        if (fit == null) {
+          if (feeder.isAlive() || fetchQueues.getTotalSize() > 0) {
+            fit = fetchQueues.waitForFetchItem(500);
+          } else if (inFlight.availablePermits() == maxInFlight - 1
+              && fetchQueues.getTotalSize() == 0) {
+            // nothing in flight and nothing queued by the last responses
+            LOG.info("Dispatcher has no more work available");
+            return;
+          }
+        }
+        if (fit == null) {
+          // in-flight requests may still add items (outlinks, redirects)
+          inFlight.release();
+          if (fetchQueues.getTotalSize() == 0 && !feeder.isAlive())
+            Thread.sleep(100);
+          continue;
+        }
+        lastRequestStart.set(System.currentTimeMillis());
+        events.add(new Task(fit));
+      }
+    } catch (InterruptedException e) {
+      LOG.warn("Dispatcher interrupted");
+    } catch (Throwable t) {
+      LOG.error("Dispatcher caught:" + t.toString());
+    } finally {
+      for (int i = 0; i < workers; i++) {
+        events.add(END);
+      }
+    }
+  }
+
+  /**
+   * Wait for the next item to start or response to process.
+   *
+   * @return the task or null if the fetch is finished
+   */
+  Task take() throws InterruptedException {
+    Task task = events.take();
+    return task == END ? null : task;
+  }
+
+  /** Called when the response of a task is available. */
+  void completed(Task task, ProtocolOutput output) {
+    task.output = output;
+    events.add(task);
+  }
+
+  /** Called when a task and all its redirects have been processed. */
+  void done(Task task) {
+    inFlight.release();
+  }
+
+  public int getInFlight() {
+    return maxInFlight - inFlight.availablePermits();
+  }
+
+  public void setHalted(boolean halted) {
+    this.halted = halted;
+  }
+}
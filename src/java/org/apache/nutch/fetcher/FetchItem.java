@@ -16,12 +16,12 @@
  */
 package org.apache.nutch.fetcher;
 
-import java.net.InetAddress;
 import java.net.URL;
 import java.net.UnknownHostException;
 
 import org.apache.hadoop.io.Text;
 import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.net.DnsResolver;
 import org.apache.nutch.util.URLUtil;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
@@ -34,6 +34,10 @@ public class FetchItem {
   private static final Logger LOG = LoggerFactory.getLogger(FetchItem.class);
 
   int outlinkDepth = 0;
+  /** number of redirects followed to reach this item */
+  int redirectCount = 0;
+  /** time the item was taken from its queue, 0 if not in progress */
+  long fetchStart = 0;
   String queueID;
   Text url;
   URL u;
@@ -75,8 +79,7 @@ public class FetchItem {
     String key;
     if (FetchItemQueues.QUEUE_MODE_IP.equalsIgnoreCase(queueMode)) {
       try {
-        final InetAddress addr = InetAddress.getByName(u.getHost());
-        key = addr.getHostAddress();
+        key = DnsResolver.get().resolve(u.getHost()).getHostAddress();
       } catch (final UnknownHostException e) {
         // unable to resolve it, so don't fall back to host name
         LOG.warn("Unable to resolve: " + u.getHost() + ", skipping.");
@@ -40,9 +40,27 @@ public class FetchItemQueue {
   AtomicInteger inProgress = new AtomicInteger();
   AtomicLong nextFetchTime = new AtomicLong();
   AtomicInteger exceptionCounter = new AtomicInteger();
+  // time this queue is due in the ready queue of ScheduledFetchItemQueues,
+  // Long.MAX_VALUE if it is not scheduled
+  AtomicLong scheduledTime = new AtomicLong(Long.MAX_VALUE);
+  // set once the queue has been reaped and must not receive new items
+  volatile boolean retired = false;
+  // average response time in ms, 0 if unknown
+  volatile long responseTime = 0;
+  // end time of the last request
+  volatile long lastFetchTime = 0;
   long crawlDelay;
   long minCrawlDelay;
-  int maxThreads;
+  volatile int maxThreads;
+  // crawl delay from robots.txt, -1 if none
+  long robotsCrawlDelay = -1;
+  // the configured limits
+  final long defaultCrawlDelay;
+  final int defaultMaxThreads;
+  // adapts the limits to the responses, null if not enabled
+  AdaptiveQueueController controller;
+  // successive responses counted by the controller
+  int successes;
   Configuration conf;
 
   public FetchItemQueue(Configuration conf, int maxThreads, long crawlDelay,
@@ -51,6 +69,8 @@ public class FetchItemQueue {
     this.maxThreads = maxThreads;
     this.crawlDelay = crawlDelay;
     this.minCrawlDelay = minCrawlDelay;
+    this.defaultMaxThreads = maxThreads;
+    this.defaultCrawlDelay = crawlDelay;
     // ready to start
     setEndTime(System.currentTimeMillis() - crawlDelay);
   }
@@ -69,6 +89,10 @@ public class FetchItemQueue {
     return inProgress.get();
   }
 
+  public long getNextFetchTime() {
+    return nextFetchTime.get();
+  }
+
   public int incrementExceptionCounter() {
     return exceptionCounter.incrementAndGet();
   }
@@ -76,10 +100,86 @@ public class FetchItemQueue {
   public void finishFetchItem(FetchItem it, boolean asap) {
     if (it != null) {
       inProgress.decrementAndGet();
-      setEndTime(System.currentTimeMillis(), asap);
+      long now = System.currentTimeMillis();
+      if (!asap && it.fetchStart > 0) {
+        // a request was made, not skipped e.g. by robots.txt
+        updateResponseTime(now - it.fetchStart);
+        lastFetchTime = now;
+      }
+      it.fetchStart = 0;
+      setEndTime(now, asap);
     }
   }
 
+  private synchronized void updateResponseTime(long time) {
+    if (responseTime == 0)
+      responseTime = time;
+    else
+      responseTime = (7 * responseTime + time) / 8;
+  }
+
+  public long getResponseTime() {
+    return responseTime;
+  }
+
+  public int getMaxThreads() {
+    return maxThreads;
+  }
+
+  public long getCrawlDelay() {
+    return crawlDelay;
+  }
+
+  /**
+   * Set the crawl delay requested by robots.txt. If the queue adapts its
+   * limits, the delay is only a lower bound.
+   */
+  public synchronized void setRobotsCrawlDelay(long delay) {
+    robotsCrawlDelay = delay;
+    if (controller == null || crawlDelay < delay)
+      crawlDelay = delay;
+  }
+
+  /**
+   * Continue with the state of an earlier queue for the same host: the crawl
+   * delay from robots.txt, the adapted number of threads (never more than
+   * configured), the exception count and the average response time are taken
+   * over and the next request is delayed as if it followed the last one of
+   * the earlier queue.
+   */
+  public synchronized void restore(HostStates.HostState state) {
+    if (state.crawlDelay > 0)
+      crawlDelay = state.crawlDelay;
+    if (controller != null)
+      controller.restore(this, state);
+    else if (state.maxThreads > 0)
+      maxThreads = Math.min(defaultMaxThreads, state.maxThreads);
+    exceptionCounter.set(state.exceptions);
+    responseTime = state.responseTime;
+    lastFetchTime = state.lastFetchTime;
+    setEndTime(Math.max(System.currentTimeMillis() - crawlDelay,
+        lastFetchTime));
+  }
+
+  /**
+   * Save the state of this queue. The crawl delay and the number of threads
+   * are only saved if they differ from the configured ones, i.e. were set from
+   * robots.txt or adapted.
+   * 
+   * @return the state or null if no request was made
+   */
+  public synchronized HostStates.HostState getState() {
+    if (lastFetchTime == 0)
+      return null;
+    HostStates.HostState state = new HostStates.HostState();
+    state.crawlDelay = crawlDelay != defaultCrawlDelay ? crawlDelay : -1;
+    state.exceptions = exceptionCounter.get();
+    state.responseTime = responseTime;
+    state.maxThreads = maxThreads != defaultMaxThreads ? maxThreads : 0;
+    state.lastFetchTime = lastFetchTime;
+    return state;
+  }
+
   public void addFetchItem(FetchItem it) {
     if (it == null)
       return;
@@ -89,6 +189,7 @@ public class FetchItemQueue {
   public void addInProgressFetchItem(FetchItem it) {
     if (it == null)
       return;
+    it.fetchStart = System.currentTimeMillis();
     inProgress.incrementAndGet();
   }
 
@@ -103,6 +204,7 @@ public class FetchItemQueue {
       return null;
     try {
       it = queue.remove(0);
+      it.fetchStart = now;
       inProgress.incrementAndGet();
     } catch (Exception e) {
       LOG.error(
@@ -113,11 +215,15 @@ public class FetchItemQueue {
   }
 
   public synchronized void dump() {
-    LOG.info("  maxThreads    = " + maxThreads);
+    LOG.info("  maxThreads    = " + maxThreads + " (configured "
+        + defaultMaxThreads + ")");
     LOG.info("  inProgress    = " + inProgress.get());
-    LOG.info("  crawlDelay    = " + crawlDelay);
+    LOG.info("  crawlDelay    = " + crawlDelay + " (configured "
+        + defaultCrawlDelay + ", robots.txt " + robotsCrawlDelay + ")");
     LOG.info("  minCrawlDelay = " + minCrawlDelay);
     LOG.info("  nextFetchTime = " + nextFetchTime.get());
+    LOG.info("  responseTime  = " + responseTime);
+    LOG.info("  exceptions    = " + exceptionCounter.get());
     LOG.info("  now           = " + System.currentTimeMillis());
     for (int i = 0; i < queue.size(); i++) {
       FetchItem it = queue.get(i);
@@ -16,6 +16,7 @@
  */
 package org.apache.nutch.fetcher;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -44,13 +45,40 @@ public class FetchItemQueues {
   long timelimit = -1;
   int maxExceptionsPerQueue = -1;
   Configuration conf;
+  HostStates hostStates;
+  AdaptiveQueueController controller;
 
   public static final String QUEUE_MODE_HOST = "byHost";
   public static final String QUEUE_MODE_DOMAIN = "byDomain";
   public static final String QUEUE_MODE_IP = "byIP";
 
+  public static final String QUEUE_IMPL_DEFAULT = "default";
+  public static final String QUEUE_IMPL_SCHEDULED = "scheduled";
+
   String queueMode;
 
+  /** Signals the feeder waiting for free capacity. */
+  private final Object capacity = new Object();
+  private volatile int capacityWaitSize = -1;
+
+  /**
+   * Create the queues implementation selected by <code>fetcher.queue.impl</code>
+   * : either 'default' (this class) or 'scheduled' (
+   * {@link ScheduledFetchItemQueues}).
+   */
+  public static FetchItemQueues create(Configuration conf) {
+    String impl = conf.get("fetcher.queue.impl", QUEUE_IMPL_DEFAULT);
+    if (QUEUE_IMPL_SCHEDULED.equals(impl)) {
+      LOG.info("Using queue implementation : " + impl);
+      return new ScheduledFetchItemQueues(conf);
+    }
+    if (!QUEUE_IMPL_DEFAULT.equals(impl)) {
+      LOG.error("Unknown queue implementation : " + impl
+          + " - forcing to default");
+    }
+    return new FetchItemQueues(conf);
+  }
+
   public FetchItemQueues(Configuration conf) {
     this.conf = conf;
     this.maxThreads = conf.getInt("fetcher.threads.per.queue", 1);
@@ -71,6 +99,52 @@ public class FetchItemQueues {
     this.timelimit = conf.getLong("fetcher.timelimit", -1);
     this.maxExceptionsPerQueue = conf.getInt(
         "fetcher.max.exceptions.per.queue", -1);
+    this.hostStates = new HostStates(conf);
+    if (AdaptiveQueueController.isEnabled(conf)) {
+      LOG.info("Using adaptive queue limits");
+      this.controller = new AdaptiveQueueController(conf);
+    }
+  }
+
+  /**
+   * @return the states of the queues which have been reaped, see
+   *         {@link #updateHostStates()}
+   */
+  public HostStates getHostStates() {
+    return hostStates;
+  }
+
+  /**
+   * Use the given host states, e.g. loaded from a previous crawl cycle, to
+   * initialize new queues.
+   */
+  public void setHostStates(HostStates hostStates) {
+    this.hostStates = hostStates;
+  }
+
+  /** Add the state of all active queues to the host states. */
+  public synchronized void updateHostStates() {
+    for (Map.Entry<String, FetchItemQueue> e : queues.entrySet()) {
+      saveHostState(e.getKey(), e.getValue());
+    }
+  }
+
+  /** Create a queue, initialized with the saved state of the host. */
+  FetchItemQueue createFetchItemQueue(String id) {
+    FetchItemQueue fiq = new FetchItemQueue(conf, maxThreads, crawlDelay,
+        minCrawlDelay);
+    fiq.controller = controller;
+    HostStates.HostState state = hostStates.get(id);
+    if (state != null)
+      fiq.restore(state);
+    return fiq;
+  }
+
+  /** Save the state of a queue, called before it is reaped. */
+  void saveHostState(String id, FetchItemQueue fiq) {
+    HostStates.HostState state = fiq.getState();
+    if (state != null)
+      hostStates.put(id, state);
   }
 
   public int getTotalSize() {
@@ -93,6 +167,54 @@ public class FetchItemQueues {
     totalSize.incrementAndGet();
   }
 
+  /**
+   * Add several items at once, acquiring the lock of the queues only once.
+   */
+  public synchronized void addFetchItems(Collection<FetchItem> items) {
+    for (FetchItem it : items) {
+      addFetchItem(it);
+    }
+  }
+
+  /**
+   * Wait until the queues hold at most <code>maxSize</code> items, or until
+   * the timeout expires. Only a single thread (the {@link QueueFeeder}) may
+   * wait at a time.
+   * 
+   * @return true if the queues hold at most <code>maxSize</code> items
+   */
+  public boolean awaitCapacity(int maxSize, long timeout)
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeout;
+    capacityWaitSize = maxSize;
+    try {
+      synchronized (capacity) {
+        while (totalSize.get() > maxSize) {
+          long remaining = deadline - System.currentTimeMillis();
+          if (remaining <= 0) {
+            return false;
+          }
+          capacity.wait(remaining);
+        }
+      }
+      return true;
+    } finally {
+      capacityWaitSize = -1;
+    }
+  }
+
+  /**
+   * Account for items taken from or dropped by the queues, and wake up the
+   * feeder if enough capacity is free.
+   */
+  void removed(int count) {
+    if (totalSize.addAndGet(-count) <= capacityWaitSize) {
+      synchronized (capacity) {
+        capacity.notifyAll();
+      }
+    }
+  }
+
   public void finishFetchItem(FetchItem it) {
     finishFetchItem(it, false);
   }
@@ -106,11 +228,26 @@ public class FetchItemQueues {
     fiq.finishFetchItem(it, asap);
   }
 
+  /**
+   * Adapt the limits of the queue of an item after a request, if enabled by
+   * <code>fetcher.queue.adaptive</code>.
+   * 
+   * @param failed
+   *          whether the host failed to respond or asked to slow down
+   */
+  public void adaptFetchItemQueue(FetchItem it, boolean failed) {
+    if (controller == null)
+      return;
+    FetchItemQueue fiq = queues.get(it.queueID);
+    if (fiq != null)
+      controller.update(fiq, failed);
+  }
+
   public synchronized FetchItemQueue getFetchItemQueue(String id) {
     FetchItemQueue fiq = queues.get(id);
     if (fiq == null) {
       // initialize queue
-      fiq = new FetchItemQueue(conf, maxThreads, crawlDelay, minCrawlDelay);
+      fiq = createFetchItemQueue(id);
       queues.put(id, fiq);
     }
     return fiq;
@@ -120,21 +257,35 @@ public class FetchItemQueues {
     Iterator<Map.Entry<String, FetchItemQueue>> it = queues.entrySet()
         .iterator();
     while (it.hasNext()) {
-      FetchItemQueue fiq = it.next().getValue();
+      Map.Entry<String, FetchItemQueue> entry = it.next();
+      FetchItemQueue fiq = entry.getValue();
       // reap empty queues
       if (fiq.getQueueSize() == 0 && fiq.getInProgressSize() == 0) {
+        saveHostState(entry.getKey(), fiq);
         it.remove();
         continue;
       }
       FetchItem fit = fiq.getFetchItem();
       if (fit != null) {
-        totalSize.decrementAndGet();
+        removed(1);
         return fit;
       }
     }
     return null;
   }
 
+  /**
+   * Get an item eligible for fetching, waiting at most <code>timeout</code>
+   * milliseconds if none is available. This implementation simply sleeps
+   * before asking the queues again.
+   * 
+   * @return the item or null if none became available in time
+   */
+  public FetchItem waitForFetchItem(long timeout) throws InterruptedException {
+    Thread.sleep(timeout);
+    return getFetchItem();
+  }
+
   // called only once the feeder has stopped
   public synchronized int checkTimelimit() {
     int count = 0;
@@ -162,9 +313,7 @@ public class FetchItemQueues {
         continue;
       LOG.info("* queue: " + id + " >> dropping! ");
       int deleted = fiq.emptyQueue();
-      for (int i = 0; i < deleted; i++) {
-        totalSize.decrementAndGet();
-      }
+      removed(deleted);
       count += deleted;
     }
 
@@ -192,9 +341,7 @@ public class FetchItemQueues {
       int deleted = fiq.emptyQueue();
       LOG.info("* queue: " + queueid + " >> removed " + deleted
           + " URLs from queue because " + excCount + " exceptions occurred");
-      for (int i = 0; i < deleted; i++) {
-        totalSize.decrementAndGet();
-      }
+      removed(deleted);
       return deleted;
     }
     return 0;
@@ -36,6 +36,7 @@ import org.apache.hadoop.util.ToolRunner;
 import org.apache.nutch.crawl.CrawlDatum;
 import org.apache.nutch.crawl.NutchWritable;
 import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.net.DnsResolver;
 import org.apache.nutch.protocol.*;
 import org.apache.nutch.util.*;
 
@@ -86,6 +87,10 @@ public class Fetcher extends NutchTool implements Tool,
 
   public static final String PROTOCOL_REDIR = "protocol";
 
+  /** Values of <code>fetcher.mode</code> */
+  public static final String MODE_THREADS = "threads";
+  public static final String MODE_ASYNC = "async";
+
   public static final Logger LOG = LoggerFactory.getLogger(Fetcher.class);
 
   public static class InputFormat extends
@@ -123,6 +128,7 @@ public class Fetcher extends NutchTool implements Tool,
   QueueFeeder feeder;
 
   LinkedList<FetcherThread> fetcherThreads = new LinkedList<FetcherThread>();
+  ParsePipeline parsePipeline;
 
   public Fetcher() {
 	  super(null);
@@ -182,10 +188,40 @@ public class Fetcher extends NutchTool implements Tool,
 
     this.output = output;
     this.reporter = reporter;
-    this.fetchQueues = new FetchItemQueues(getConf());
+    boolean virtualThreads = getConf().getBoolean("fetcher.threads.virtual",
+        false);
+    if (virtualThreads) {
+      if (FetcherThread.newVirtualThread(new Runnable() {
+        public void run() {
+        }
+      }, "probe") == null) {
+        LOG.warn("Fetcher: virtual threads are not supported by this JVM,"
+            + " using platform threads");
+        virtualThreads = false;
+      } else {
+        LOG.info("Fetcher: using virtual threads");
+        // waiting threads block in the queues instead of sleeping
+        getConf().set("fetcher.queue.impl",
+            FetchItemQueues.QUEUE_IMPL_SCHEDULED);
+      }
+    }
+    this.fetchQueues = FetchItemQueues.create(getConf());
+    loadRobotRules();
+    loadHostStates();
 
     int threadCount = getConf().getInt("fetcher.threads.fetch", 10);
-    if (LOG.isInfoEnabled()) {
+    boolean async = MODE_ASYNC.equals(getConf().get("fetcher.mode",
+        MODE_THREADS));
+    int maxInFlight = getConf().getInt("fetcher.async.max.inflight", 1000);
+    if (async) {
+      threadCount = getConf().getInt("fetcher.async.workers", 0);
+      if (threadCount <= 0)
+        threadCount = Runtime.getRuntime().availableProcessors();
+      if (LOG.isInfoEnabled()) {
+        LOG.info("Fetcher: async mode, workers: " + threadCount
+            + ", max in flight: " + maxInFlight);
+      }
+    } else if (LOG.isInfoEnabled()) {
       LOG.info("Fetcher: threads: " + threadCount);
     }
 
@@ -197,8 +233,15 @@ public class Fetcher extends NutchTool implements Tool,
     int queueDepthMuliplier = getConf().getInt(
         "fetcher.queue.depth.multiplier", 50);
 
-    feeder = new QueueFeeder(input, fetchQueues, threadCount
-        * queueDepthMuliplier);
+    DnsResolver resolver = DnsResolver.get(getConf());
+
+    feeder = new QueueFeeder(input, fetchQueues, (async ? maxInFlight
+        : threadCount) * queueDepthMuliplier);
+    if (FetchItemQueues.QUEUE_MODE_IP.equals(getConf().get(
+        "fetcher.queue.mode", FetchItemQueues.QUEUE_MODE_HOST)))
+      feeder.setResolver(resolver);
+    feeder.setReadAhead(getConf().getInt("fetcher.queue.feeder.readahead",
+        1000));
     // feeder.setPriority((Thread.MAX_PRIORITY + Thread.NORM_PRIORITY) / 2);
 
     // the value of the time limit is either -1 or the time where it should
@@ -212,11 +255,42 @@ public class Fetcher extends NutchTool implements Tool,
     getConf().setBoolean(Protocol.CHECK_BLOCKING, false);
     getConf().setBoolean(Protocol.CHECK_ROBOTS, false);
 
+    AsyncFetchDispatcher dispatcher = null;
+    if (async) {
+      dispatcher = new AsyncFetchDispatcher(fetchQueues, feeder,
+          lastRequestStart, maxInFlight, threadCount);
+    }
+    // async workers already process responses apart from fetching
+    int parseThreads = getConf().getInt("fetcher.parse.threads", 0);
+    if (parseThreads == 0)
+      parseThreads = Runtime.getRuntime().availableProcessors();
+    if (parsing && !async && parseThreads > 0) {
+      parsePipeline = new ParsePipeline(getConf().getInt(
+          "fetcher.parse.queue.size", 100));
+      if (LOG.isInfoEnabled()) {
+        LOG.info("Fetcher: parse threads: " + parseThreads);
+      }
+    }
     for (int i = 0; i < threadCount; i++) { // spawn threads
       FetcherThread t = new FetcherThread(getConf(), getActiveThreads(), fetchQueues, 
           feeder, spinWaiting, lastRequestStart, reporter, errors, segmentName,
           parsing, output, storingContent, pages, bytes);
+      t.setDispatcher(dispatcher);
+      if (parsePipeline != null) {
+        t.setParsePipeline(parsePipeline, false);
+        parsePipeline.fetcherStarted();
+      }
       fetcherThreads.add(t);
+      t.start(virtualThreads);
+    }
+    if (dispatcher != null) {
+      dispatcher.start();
+    }
+    for (int i = 0; parsePipeline != null && i < parseThreads; i++) {
+      FetcherThread t = new FetcherThread(getConf(), getActiveThreads(), fetchQueues, 
+          feeder, spinWaiting, lastRequestStart, reporter, errors, segmentName,
+          parsing, output, storingContent, pages, bytes);
+      t.setParsePipeline(parsePipeline, true);
       t.start();
     }
 
@@ -279,13 +353,17 @@ public class Fetcher extends NutchTool implements Tool,
       bytesLastSec = (int) bytes.get() - bytesLastSec;
 
       reporter.incrCounter("FetcherStatus", "bytes_downloaded", bytesLastSec);
+      ProtocolCounters.report(reporter);
+      resolver.report(reporter);
 
       reportStatus(pagesLastSec, bytesLastSec);
 
       LOG.info("-activeThreads=" + activeThreads + ", spinWaiting="
           + spinWaiting.get() + ", fetchQueues.totalSize="
           + fetchQueues.getTotalSize() + ", fetchQueues.getQueueCount="
-          + fetchQueues.getQueueCount());
+          + fetchQueues.getQueueCount()
+          + (parsePipeline != null ? ", parseQueue.size="
+              + parsePipeline.getQueueSize() : ""));
 
       if (!feeder.isAlive() && fetchQueues.getTotalSize() < 5) {
         fetchQueues.dump();
@@ -321,7 +399,7 @@ public class Fetcher extends NutchTool implements Tool,
       }
 
       // adjust the number of threads if a target bandwidth has been set
-      if (targetBandwidth > 0) {
+      if (targetBandwidth > 0 && !async) {
         if (bandwidthTargetCheckCounter < bandwidthTargetCheckEveryNSecs)
           bandwidthTargetCheckCounter++;
         else if (bandwidthTargetCheckCounter == bandwidthTargetCheckEveryNSecs) {
@@ -363,8 +441,12 @@ public class Fetcher extends NutchTool implements Tool,
                 FetcherThread thread = new FetcherThread(getConf(), getActiveThreads(), fetchQueues, 
                     feeder, spinWaiting, lastRequestStart, reporter, errors, segmentName, parsing,
                     output, storingContent, pages, bytes);
+                if (parsePipeline != null) {
+                  thread.setParsePipeline(parsePipeline, false);
+                  parsePipeline.fetcherStarted();
+                }
                 fetcherThreads.add(thread);
-                thread.start();
+                thread.start(virtualThreads);
               }
             }
           } else if (bpsSinceLastCheck > targetBandwidth
@@ -402,11 +484,11 @@ public class Fetcher extends NutchTool implements Tool,
           LOG.warn("Aborting with " + activeThreads + " hung threads.");
           for (int i = 0; i < fetcherThreads.size(); i++) {
             FetcherThread thread = fetcherThreads.get(i);
-            if (thread.isAlive()) {
+            if (thread.getRunner().isAlive()) {
               LOG.warn("Thread #" + i + " hung while processing "
                   + thread.getReprUrl());
               if (LOG.isDebugEnabled()) {
-                StackTraceElement[] stack = thread.getStackTrace();
+                StackTraceElement[] stack = thread.getRunner().getStackTrace();
                 StringBuilder sb = new StringBuilder();
                 sb.append("Stack of thread #").append(i).append(":\n");
                 for (StackTraceElement s : stack) {
@@ -417,14 +499,86 @@ public class Fetcher extends NutchTool implements Tool,
             }
           }
         }
+        if (dispatcher != null)
+          dispatcher.setHalted(true);
+        saveRobotRules();
+        saveHostStates();
         return;
       }
 
     } while (activeThreads.get() > 0);
+    ProtocolCounters.report(reporter);
+    resolver.report(reporter);
+    saveRobotRules();
+    saveHostStates();
     LOG.info("-activeThreads=" + activeThreads);
 
   }
 
+  /**
+   * Load robots.txt rules saved in previous cycles, see
+   * <code>fetcher.robots.cache.path</code>.
+   */
+  private void loadRobotRules() {
+    String path = getConf().get("fetcher.robots.cache.path", "");
+    if (path.isEmpty())
+      return;
+    try {
+      Path dir = new Path(path);
+      RobotRulesParser.getCache().setConf(getConf());
+      RobotRulesParser.getCache().load(dir.getFileSystem(getConf()), dir);
+    } catch (IOException e) {
+      LOG.warn("Failed to load robots.txt rules: " + e);
+    }
+  }
+
+  /** Save the robots.txt rules of this task for the next cycle. */
+  private void saveRobotRules() {
+    String path = getConf().get("fetcher.robots.cache.path", "");
+    if (path.isEmpty())
+      return;
+    try {
+      Path dir = new Path(path);
+      Path file = new Path(dir, "part-"
+          + String.format("%05d", getConf().getInt("mapreduce.task.partition", 0)));
+      RobotRulesParser.getCache().save(dir.getFileSystem(getConf()), file);
+    } catch (IOException e) {
+      LOG.warn("Failed to save robots.txt rules: " + e);
+    }
+  }
+
+  /**
+   * Load the host states saved in previous cycles, see
+   * <code>fetcher.hoststate.path</code>.
+   */
+  private void loadHostStates() {
+    String path = getConf().get("fetcher.hoststate.path", "");
+    if (path.isEmpty())
+      return;
+    try {
+      Path dir = new Path(path);
+      fetchQueues.getHostStates().load(dir.getFileSystem(getConf()), dir);
+    } catch (IOException e) {
+      LOG.warn("Failed to load host states: " + e);
+    }
+  }
+
+  /** Save the host states of this task for the next cycle. */
+  private void saveHostStates() {
+    String path = getConf().get("fetcher.hoststate.path", "");
+    if (path.isEmpty())
+      return;
+    try {
+      fetchQueues.updateHostStates();
+      Path dir = new Path(path);
+      Path file = new Path(dir, "part-"
+          + String.format("%05d", getConf().getInt("mapreduce.task.partition", 0)));
+      fetchQueues.getHostStates().save(dir.getFileSystem(getConf()), file);
+    } catch (IOException e) {
+      LOG.warn("Failed to save host states: " + e);
+    }
+  }
+
   public void fetch(Path segment, int threads) throws IOException {
 
     checkConfiguration();
@@ -50,6 +50,7 @@ import org.apache.nutch.parse.ParseSegment;
 import org.apache.nutch.parse.ParseStatus;
 import org.apache.nutch.parse.ParseText;
 import org.apache.nutch.parse.ParseUtil;
+import org.apache.nutch.protocol.AsyncProtocol;
 import org.apache.nutch.protocol.Content;
 import org.apache.nutch.protocol.Protocol;
 import org.apache.nutch.protocol.ProtocolFactory;
@@ -131,6 +132,17 @@ public class FetcherThread extends Thread {
   private FetchNode fetchNode;
   private boolean reportToNutchServer;
 
+  // set in async mode
+  private AsyncFetchDispatcher dispatcher;
+
+  private ParsePipeline parsePipeline;
+
+  /** true if this thread parses content fetched by other threads */
+  private boolean parseWorker = false;
+
+  // the thread executing run(), a virtual thread if enabled
+  private Thread runner = this;
+
   public FetcherThread(Configuration conf, AtomicInteger activeThreads, FetchItemQueues fetchQueues, 
       QueueFeeder feeder, AtomicInteger spinWaiting, AtomicLong lastRequestStart, Reporter reporter,
       AtomicInteger errors, String segmentName, boolean parsing, OutputCollector<Text, NutchWritable> output,
@@ -187,7 +199,6 @@ public class FetcherThread extends Thread {
         "fetcher.follow.outlinks.depth.divisor", 2);
   }
 
-  @SuppressWarnings("fallthrough")
   public void run() {
     activeThreads.incrementAndGet(); // count threads
 
@@ -196,6 +207,16 @@ public class FetcherThread extends Thread {
       // checking for the server to be running and fetcher.parse to be true
       if (parsing && NutchServer.getInstance().isRunning())
         reportToNutchServer = true;
+
+      if (dispatcher != null) {
+        runAsync();
+        return;
+      }
+
+      if (parseWorker) {
+        runParse();
+        return;
+      }
       
       while (true) {
         // creating FetchNode for storing in FetchNodeDb
@@ -213,16 +234,20 @@ public class FetcherThread extends Thread {
 
         fit = ((FetchItemQueues) fetchQueues).getFetchItem();
         if (fit == null) {
-          if (feeder.isAlive() || ((FetchItemQueues) fetchQueues).getTotalSize() > 0) {
+          // check the parsers first, they may still add outlinks
+          if ((parsePipeline != null && !parsePipeline.isIdle())
+              || feeder.isAlive()
+              || ((FetchItemQueues) fetchQueues).getTotalSize() > 0) {
             LOG.debug(getName() + " spin-waiting ...");
-            // spin-wait.
+            // wait for an item to become eligible
             ((AtomicInteger) spinWaiting).incrementAndGet();
             try {
-              Thread.sleep(500);
+              fit = ((FetchItemQueues) fetchQueues).waitForFetchItem(500);
             } catch (Exception e) {
             }
             ((AtomicInteger) spinWaiting).decrementAndGet();
-            continue;
+            if (fit == null)
+              continue;
           } else {
             // all done, finish this thread
             LOG.info("Thread " + getName() + " has no more work available");
@@ -240,7 +265,7 @@ public class FetcherThread extends Thread {
         try {
           // fetch the page
           redirecting = false;
-          redirectCount = 0;
+          redirectCount = fit.redirectCount;
           do {
             if (LOG.isInfoEnabled()) {
               LOG.info("fetching " + fit.url + " (queue crawl delay="
@@ -252,152 +277,11 @@ public class FetcherThread extends Thread {
             }
             redirecting = false;
             Protocol protocol = this.protocolFactory.getProtocol(fit.url.toString());
-            BaseRobotRules rules = protocol.getRobotRules(fit.url, fit.datum);
-            if (!rules.isAllowed(fit.u.toString())) {
-              // unblock
-              ((FetchItemQueues) fetchQueues).finishFetchItem(fit, true);
-              if (LOG.isDebugEnabled()) {
-                LOG.debug("Denied by robots.txt: " + fit.url);
-              }
-              output(fit.url, fit.datum, null,
-                  ProtocolStatus.STATUS_ROBOTS_DENIED,
-                  CrawlDatum.STATUS_FETCH_GONE);
-              reporter.incrCounter("FetcherStatus", "robots_denied", 1);
+            if (!checkRobotRules(fit, protocol)) {
               continue;
             }
-            if (rules.getCrawlDelay() > 0) {
-              if (rules.getCrawlDelay() > maxCrawlDelay && maxCrawlDelay >= 0) {
-                // unblock
-                ((FetchItemQueues) fetchQueues).finishFetchItem(fit, true);
-                LOG.debug("Crawl-Delay for " + fit.url + " too long ("
-                    + rules.getCrawlDelay() + "), skipping");
-                output(fit.url, fit.datum, null,
-                    ProtocolStatus.STATUS_ROBOTS_DENIED,
-                    CrawlDatum.STATUS_FETCH_GONE);
-                reporter.incrCounter("FetcherStatus",
-                    "robots_denied_maxcrawldelay", 1);
-                continue;
-              } else {
-                FetchItemQueue fiq = ((FetchItemQueues) fetchQueues)
-                    .getFetchItemQueue(fit.queueID);
-                fiq.crawlDelay = rules.getCrawlDelay();
-                if (LOG.isDebugEnabled()) {
-                  LOG.info("Crawl delay for queue: " + fit.queueID
-                      + " is set to " + fiq.crawlDelay
-                      + " as per robots.txt. url: " + fit.url);
-                }
-              }
-            }
             ProtocolOutput output = protocol.getProtocolOutput(fit.url, fit.datum);
-            ProtocolStatus status = output.getStatus();
-            Content content = output.getContent();
-            ParseStatus pstatus = null;
-            // unblock queue
-            ((FetchItemQueues) fetchQueues).finishFetchItem(fit);
-
-            String urlString = fit.url.toString();
-            
-            // used for FetchNode
-            if (fetchNode != null) {
-              fetchNode.setStatus(status.getCode());
-              fetchNode.setFetchTime(System.currentTimeMillis());
-              fetchNode.setUrl(fit.url);
-            }
-
-            reporter.incrCounter("FetcherStatus", status.getName(), 1);
-
-            switch (status.getCode()) {
-
-            case ProtocolStatus.WOULDBLOCK:
-              // retry ?
-              ((FetchItemQueues) fetchQueues).addFetchItem(fit);
-              break;
-
-            case ProtocolStatus.SUCCESS: // got a page
-              pstatus = output(fit.url, fit.datum, content, status,
-                  CrawlDatum.STATUS_FETCH_SUCCESS, fit.outlinkDepth);
-              updateStatus(content.getContent().length);
-              if (pstatus != null && pstatus.isSuccess()
-                  && pstatus.getMinorCode() == ParseStatus.SUCCESS_REDIRECT) {
-                String newUrl = pstatus.getMessage();
-                int refreshTime = Integer.valueOf(pstatus.getArgs()[1]);
-                Text redirUrl = handleRedirect(fit.url, fit.datum, urlString,
-                    newUrl, refreshTime < Fetcher.PERM_REFRESH_TIME,
-                    Fetcher.CONTENT_REDIR);
-                if (redirUrl != null) {
-                  fit = queueRedirect(redirUrl, fit);
-                }
-              }
-              break;
-
-            case ProtocolStatus.MOVED: // redirect
-            case ProtocolStatus.TEMP_MOVED:
-              int code;
-              boolean temp;
-              if (status.getCode() == ProtocolStatus.MOVED) {
-                code = CrawlDatum.STATUS_FETCH_REDIR_PERM;
-                temp = false;
-              } else {
-                code = CrawlDatum.STATUS_FETCH_REDIR_TEMP;
-                temp = true;
-              }
-              output(fit.url, fit.datum, content, status, code);
-              String newUrl = status.getMessage();
-              Text redirUrl = handleRedirect(fit.url, fit.datum, urlString,
-                  newUrl, temp, Fetcher.PROTOCOL_REDIR);
-              if (redirUrl != null) {
-                fit = queueRedirect(redirUrl, fit);
-              } else {
-                // stop redirecting
-                redirecting = false;
-              }
-              break;
-
-            case ProtocolStatus.EXCEPTION:
-              logError(fit.url, status.getMessage());
-              int killedURLs = ((FetchItemQueues) fetchQueues).checkExceptionThreshold(fit
-                  .getQueueID());
-              if (killedURLs != 0)
-                reporter.incrCounter("FetcherStatus",
-                    "AboveExceptionThresholdInQueue", killedURLs);
-              /* FALLTHROUGH */
-            case ProtocolStatus.RETRY: // retry
-            case ProtocolStatus.BLOCKED:
-              output(fit.url, fit.datum, null, status,
-                  CrawlDatum.STATUS_FETCH_RETRY);
-              break;
-
-            case ProtocolStatus.GONE: // gone
-            case ProtocolStatus.NOTFOUND:
-            case ProtocolStatus.ACCESS_DENIED:
-            case ProtocolStatus.ROBOTS_DENIED:
-              output(fit.url, fit.datum, null, status,
-                  CrawlDatum.STATUS_FETCH_GONE);
-              break;
-
-            case ProtocolStatus.NOTMODIFIED:
-              output(fit.url, fit.datum, null, status,
-                  CrawlDatum.STATUS_FETCH_NOTMODIFIED);
-              break;
-
-            default:
-              if (LOG.isWarnEnabled()) {
-                LOG.warn("Unknown ProtocolStatus: " + status.getCode());
-              }
-              output(fit.url, fit.datum, null, status,
-                  CrawlDatum.STATUS_FETCH_RETRY);
-            }
-
-            if (redirecting && redirectCount > maxRedirect) {
-              ((FetchItemQueues) fetchQueues).finishFetchItem(fit);
-              if (LOG.isInfoEnabled()) {
-                LOG.info(" - redirect count exceeded " + fit.url);
-              }
-              output(fit.url, fit.datum, null,
-                  ProtocolStatus.STATUS_REDIR_EXCEEDED,
-                  CrawlDatum.STATUS_FETCH_GONE);
-            }
-
+            fit = processOutput(fit, output);
           } while (redirecting && (redirectCount <= maxRedirect));
 
         } catch (Throwable t) { // unexpected exception
@@ -416,12 +300,351 @@ public class FetcherThread extends Thread {
     } finally {
       if (fit != null)
         ((FetchItemQueues) fetchQueues).finishFetchItem(fit);
+      if (parsePipeline != null && !parseWorker && dispatcher == null)
+        parsePipeline.fetcherFinished();
       activeThreads.decrementAndGet(); // count threads
       LOG.info("-finishing thread " + getName() + ", activeThreads="
           + activeThreads);
     }
   }
 
+  /**
+   * Process the items and responses handed over by the
+   * {@link AsyncFetchDispatcher} until it signals the end of the fetch.
+   */
+  private void runAsync() throws InterruptedException {
+    AsyncFetchDispatcher.Task task;
+    while ((task = dispatcher.take()) != null) {
+      if (reportToNutchServer)
+        this.fetchNode = new FetchNode();
+      else
+        this.fetchNode = null;
+
+      FetchItem fit = task.fit;
+      redirectCount = task.redirectCount;
+      if (task.output == null) {
+        // a new item
+        Text reprUrlWritable = (Text) fit.datum.getMetaData().get(
+            Nutch.WRITABLE_REPR_URL_KEY);
+        setReprUrl(reprUrlWritable == null ? fit.url.toString()
+            : reprUrlWritable.toString());
+      } else {
+        setReprUrl(task.reprUrl);
+      }
+      try {
+        if (task.output != null) {
+          redirecting = false;
+          ProtocolOutput output = task.output;
+          task.output = null;
+          fit = processOutput(fit, output);
+          if (!redirecting || redirectCount > maxRedirect) {
+            dispatcher.done(task);
+            continue;
+          }
+        }
+        task.fit = fit;
+        task.reprUrl = reprUrl;
+        task.redirectCount = redirectCount;
+        if (!startFetch(task)) {
+          dispatcher.done(task);
+        }
+      } catch (Throwable t) { // unexpected exception
+        // unblock
+        ((FetchItemQueues) fetchQueues).finishFetchItem(fit);
+        logError(fit.url, StringUtils.stringifyException(t));
+        output(fit.url, fit.datum, null, ProtocolStatus.STATUS_FAILED,
+            CrawlDatum.STATUS_FETCH_RETRY);
+        dispatcher.done(task);
+      }
+    }
+    LOG.info("Thread " + getName() + " has no more work available");
+  }
+
+  /**
+   * Parse and output the content handed over by the fetching threads through
+   * the {@link ParsePipeline}, until all of them have finished.
+   */
+  private void runParse() throws InterruptedException {
+    while (!isHalted()) {
+      ParsePipeline.Task task = parsePipeline.poll(500);
+      if (task == null) {
+        if (parsePipeline.isFinished())
+          break;
+        continue;
+      }
+      try {
+        parse(task);
+      } catch (Throwable t) { // unexpected exception
+        logError(task.fit.url, StringUtils.stringifyException(t));
+      } finally {
+        parsePipeline.done(task);
+      }
+    }
+    LOG.info("Thread " + getName() + " has no more content to parse");
+  }
+
+  /**
+   * Parse and output fetched content. Content redirects are added to the
+   * fetch queues instead of being fetched right away.
+   */
+  private void parse(ParsePipeline.Task task) throws Exception {
+    FetchItem fit = task.fit;
+    fetchNode = task.fetchNode;
+    setReprUrl(task.reprUrl);
+    redirectCount = task.redirectCount;
+    redirecting = false;
+    ParseStatus pstatus = output(fit.url, fit.datum, task.content,
+        task.status, CrawlDatum.STATUS_FETCH_SUCCESS, fit.outlinkDepth);
+    if (pstatus == null || !pstatus.isSuccess()
+        || pstatus.getMinorCode() != ParseStatus.SUCCESS_REDIRECT) {
+      return;
+    }
+    String newUrl = pstatus.getMessage();
+    int refreshTime = Integer.valueOf(pstatus.getArgs()[1]);
+    Text redirUrl = handleRedirect(fit.url, fit.datum, fit.url.toString(),
+        newUrl, refreshTime < Fetcher.PERM_REFRESH_TIME,
+        Fetcher.CONTENT_REDIR);
+    if (redirUrl == null) {
+      return;
+    }
+    CrawlDatum newDatum = new CrawlDatum(CrawlDatum.STATUS_DB_UNFETCHED,
+        fit.datum.getFetchInterval(), fit.datum.getScore());
+    // transfer all existing metadata to the redirect
+    newDatum.getMetaData().putAll(fit.datum.getMetaData());
+    scfilters.initialScore(redirUrl, newDatum);
+    if (reprUrl != null) {
+      newDatum.getMetaData().put(Nutch.WRITABLE_REPR_URL_KEY,
+          new Text(reprUrl));
+    }
+    if (redirectCount > maxRedirect) {
+      if (LOG.isInfoEnabled()) {
+        LOG.info(" - redirect count exceeded " + redirUrl);
+      }
+      output(redirUrl, newDatum, null, ProtocolStatus.STATUS_REDIR_EXCEEDED,
+          CrawlDatum.STATUS_FETCH_GONE);
+      return;
+    }
+    FetchItem redirect = FetchItem.create(redirUrl, newDatum, queueMode);
+    if (redirect == null) {
+      reporter.incrCounter("FetcherStatus", "FetchItem.notCreated.redirect",
+          1);
+      return;
+    }
+    redirect.redirectCount = redirectCount;
+    ((FetchItemQueues) fetchQueues).addFetchItem(redirect);
+  }
+
+  /**
+   * Check the robot rules and start fetching the item of a task. The response
+   * is passed back through the dispatcher, protocols not implementing
+   * {@link AsyncProtocol} are called in this thread.
+   *
+   * @return false if the item is not fetched
+   */
+  private boolean startFetch(final AsyncFetchDispatcher.Task task)
+      throws Exception {
+    FetchItem fit = task.fit;
+    if (LOG.isInfoEnabled()) {
+      LOG.info("fetching " + fit.url + " (queue crawl delay="
+          + ((FetchItemQueues) fetchQueues).getFetchItemQueue(fit.queueID).crawlDelay
+          + "ms)");
+    }
+    Protocol protocol = this.protocolFactory.getProtocol(fit.url.toString());
+    if (!checkRobotRules(fit, protocol)) {
+      return false;
+    }
+    if (protocol instanceof AsyncProtocol) {
+      ((AsyncProtocol) protocol).getProtocolOutput(fit.url, fit.datum,
+          new AsyncProtocol.Callback() {
+            public void completed(ProtocolOutput output) {
+              dispatcher.completed(task, output);
+            }
+          });
+    } else {
+      dispatcher.completed(task,
+          protocol.getProtocolOutput(fit.url, fit.datum));
+    }
+    return true;
+  }
+
+  /**
+   * Apply the robot rules to an item. Denied items are finished and written
+   * to the output, the crawl delay of the queue is set from the rules.
+   *
+   * @return true if the item may be fetched
+   */
+  private boolean checkRobotRules(FetchItem fit, Protocol protocol) {
+    BaseRobotRules rules = protocol.getRobotRules(fit.url, fit.datum);
+    if (!rules.isAllowed(fit.u.toString())) {
+      // unblock
+      ((FetchItemQueues) fetchQueues).finishFetchItem(fit, true);
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Denied by robots.txt: " + fit.url);
+      }
+      output(fit.url, fit.datum, null,
+          ProtocolStatus.STATUS_ROBOTS_DENIED,
+          CrawlDatum.STATUS_FETCH_GONE);
+      reporter.incrCounter("FetcherStatus", "robots_denied", 1);
+      return false;
+    }
+    if (rules.getCrawlDelay() > 0) {
+      if (rules.getCrawlDelay() > maxCrawlDelay && maxCrawlDelay >= 0) {
+        // unblock
+        ((FetchItemQueues) fetchQueues).finishFetchItem(fit, true);
+        LOG.debug("Crawl-Delay for " + fit.url + " too long ("
+            + rules.getCrawlDelay() + "), skipping");
+        output(fit.url, fit.datum, null,
+            ProtocolStatus.STATUS_ROBOTS_DENIED,
+            CrawlDatum.STATUS_FETCH_GONE);
+        reporter.incrCounter("FetcherStatus",
+            "robots_denied_maxcrawldelay", 1);
+        return false;
+      } else {
+        FetchItemQueue fiq = ((FetchItemQueues) fetchQueues)
+            .getFetchItemQueue(fit.queueID);
+        fiq.setRobotsCrawlDelay(rules.getCrawlDelay());
+        if (LOG.isDebugEnabled()) {
+          LOG.info("Crawl delay for queue: " + fit.queueID
+              + " is set to " + fiq.crawlDelay
+              + " as per robots.txt. url: " + fit.url);
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Unblock the queue of a fetched item and write the result. Sets
+   * {@link #redirecting} if a redirect is to be followed immediately.
+   *
+   * @return the item to fetch next if redirecting
+   */
+  @SuppressWarnings("fallthrough")
+  private FetchItem processOutput(FetchItem fit, ProtocolOutput output)
+      throws Exception {
+    ProtocolStatus status = output.getStatus();
+    Content content = output.getContent();
+    ParseStatus pstatus = null;
+    // unblock queue
+    ((FetchItemQueues) fetchQueues).finishFetchItem(fit);
+    if (status.getCode() != ProtocolStatus.WOULDBLOCK) {
+      // protocol-http reports status 429 and 503 as exception
+      ((FetchItemQueues) fetchQueues).adaptFetchItemQueue(fit,
+          status.getCode() == ProtocolStatus.EXCEPTION);
+    }
+
+    String urlString = fit.url.toString();
+    
+    // used for FetchNode
+    if (fetchNode != null) {
+      fetchNode.setStatus(status.getCode());
+      fetchNode.setFetchTime(System.currentTimeMillis());
+      fetchNode.setUrl(fit.url);
+    }
+
+    reporter.incrCounter("FetcherStatus", status.getName(), 1);
+
+    switch (status.getCode()) {
+
+    case ProtocolStatus.WOULDBLOCK:
+      // retry ?
+      ((FetchItemQueues) fetchQueues).addFetchItem(fit);
+      break;
+
+    case ProtocolStatus.SUCCESS: // got a page
+      if (parsePipeline != null && !parseWorker) {
+        // parse, output and follow content redirects downstream
+        parsePipeline.submit(new ParsePipeline.Task(fit, content, status,
+            reprUrl, redirectCount, fetchNode));
+        updateStatus(content.getContent().length);
+        break;
+      }
+      pstatus = output(fit.url, fit.datum, content, status,
+          CrawlDatum.STATUS_FETCH_SUCCESS, fit.outlinkDepth);
+      updateStatus(content.getContent().length);
+      if (pstatus != null && pstatus.isSuccess()
+          && pstatus.getMinorCode() == ParseStatus.SUCCESS_REDIRECT) {
+        String newUrl = pstatus.getMessage();
+        int refreshTime = Integer.valueOf(pstatus.getArgs()[1]);
+        Text redirUrl = handleRedirect(fit.url, fit.datum, urlString,
+            newUrl, refreshTime < Fetcher.PERM_REFRESH_TIME,
+            Fetcher.CONTENT_REDIR);
+        if (redirUrl != null) {
+          fit = queueRedirect(redirUrl, fit);
+        }
+      }
+      break;
+
+    case ProtocolStatus.MOVED: // redirect
+    case ProtocolStatus.TEMP_MOVED:
+      int code;
+      boolean temp;
+      if (status.getCode() == ProtocolStatus.MOVED) {
+        code = CrawlDatum.STATUS_FETCH_REDIR_PERM;
+        temp = false;
+      } else {
+        code = CrawlDatum.STATUS_FETCH_REDIR_TEMP;
+        temp = true;
+      }
+      output(fit.url, fit.datum, content, status, code);
+      String newUrl = status.getMessage();
+      Text redirUrl = handleRedirect(fit.url, fit.datum, urlString,
+          newUrl, temp, Fetcher.PROTOCOL_REDIR);
+      if (redirUrl != null) {
+        fit = queueRedirect(redirUrl, fit);
+      } else {
+        // stop redirecting
+        redirecting = false;
+      }
+      break;
+
+    case ProtocolStatus.EXCEPTION:
+      logError(fit.url, status.getMessage());
+      int killedURLs = ((FetchItemQueues) fetchQueues).checkExceptionThreshold(fit
+          .getQueueID());
+      if (killedURLs != 0)
+        reporter.incrCounter("FetcherStatus",
+            "AboveExceptionThresholdInQueue", killedURLs);
+      /* FALLTHROUGH */
+    case ProtocolStatus.RETRY: // retry
+    case ProtocolStatus.BLOCKED:
+      output(fit.url, fit.datum, null, status,
+          CrawlDatum.STATUS_FETCH_RETRY);
+      break;
+
+    case ProtocolStatus.GONE: // gone
+    case ProtocolStatus.NOTFOUND:
+    case ProtocolStatus.ACCESS_DENIED:
+    case ProtocolStatus.ROBOTS_DENIED:
+      output(fit.url, fit.datum, null, status,
+          CrawlDatum.STATUS_FETCH_GONE);
+      break;
+
+    case ProtocolStatus.NOTMODIFIED:
+      output(fit.url, fit.datum, null, status,
+          CrawlDatum.STATUS_FETCH_NOTMODIFIED);
+      break;
+
+    default:
+      if (LOG.isWarnEnabled()) {
+        LOG.warn("Unknown ProtocolStatus: " + status.getCode());
+      }
+      output(fit.url, fit.datum, null, status,
+          CrawlDatum.STATUS_FETCH_RETRY);
+    }
+
+    if (redirecting && redirectCount > maxRedirect) {
+      ((FetchItemQueues) fetchQueues).finishFetchItem(fit);
+      if (LOG.isInfoEnabled()) {
+        LOG.info(" - redirect count exceeded " + fit.url);
+      }
+      output(fit.url, fit.datum, null,
+          ProtocolStatus.STATUS_REDIR_EXCEEDED,
+          CrawlDatum.STATUS_FETCH_GONE);
+    }
+    return fit;
+  }
+
   private Text handleRedirect(Text url, CrawlDatum datum, String urlString,
       String newUrl, boolean temp, String redirType)
       throws MalformedURLException, URLFilterException {
@@ -742,6 +965,71 @@ public class FetcherThread extends Thread {
     bytes.addAndGet(bytesInPage);
   }
 
+  /**
+   * Start fetching. If <code>virtual</code> is true and the JVM supports
+   * virtual threads (Java 21 or later) {@link #run()} is executed on a new
+   * virtual thread instead of this platform thread, otherwise the thread is
+   * started as usual.
+   */
+  public void start(boolean virtual) {
+    if (virtual) {
+      Thread thread = newVirtualThread(this, getName());
+      if (thread != null) {
+        runner = thread;
+        thread.start();
+        return;
+      }
+    }
+    start();
+  }
+
+  /**
+   * @return the thread executing this fetcher thread, see
+   *         {@link #start(boolean)}
+   */
+  public Thread getRunner() {
+    return runner;
+  }
+
+  /**
+   * Create an unstarted virtual thread. Uses reflection as the code is
+   * compiled for older Java versions.
+   *
+   * @return the thread or null if virtual threads are not available
+   */
+  static Thread newVirtualThread(Runnable task, String name) {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      builder = builderClass.getMethod("name", String.class).invoke(builder,
+          name);
+      return (Thread) builderClass.getMethod("unstarted", Runnable.class)
+          .invoke(builder, task);
+    } catch (Exception e) {
+      LOG.debug("Virtual threads not available: " + e);
+      return null;
+    }
+  }
+
+  /**
+   * Process items handed over by the dispatcher instead of taking them from
+   * the queues, see {@link AsyncFetchDispatcher}.
+   */
+  public void setDispatcher(AsyncFetchDispatcher dispatcher) {
+    this.dispatcher = dispatcher;
+  }
+
+  /**
+   * Hand fetched content over to the parsing threads of a pipeline or, if
+   * <code>worker</code> is true, be one of these threads.
+   */
+  public void setParsePipeline(ParsePipeline parsePipeline, boolean worker) {
+    this.parsePipeline = parsePipeline;
+    this.parseWorker = worker;
+    if (worker)
+      setName("ParserThread");
+  }
+
   public synchronized void setHalted(boolean halted) {
     this.halted = halted;
   }
@@ -0,0 +1,205 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.fetcher;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.VersionMismatchException;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Politeness state of the fetch queues, i.e. what a {@link FetchItemQueue}
+ * has learned about a host: the crawl delay from robots.txt or as adapted by
+ * {@link AdaptiveQueueController}, the number of exceptions, the average
+ * response time, the number of threads and when it was last fetched from.
+ * The state of a queue is kept when the queue is reaped and restored when a
+ * queue for the same host is created again.
+ *
+ * <p>
+ * The table can be saved to and loaded from a directory, so that fetch
+ * queues of the next crawl cycle start with the state of the previous one,
+ * see <code>fetcher.hoststate.path</code>. Every task writes its own file,
+ * loading keeps the most recent state of a queue from all files of the
+ * directory. States not updated within <code>fetcher.hoststate.ttl</code>
+ * are dropped, exception counts are halved on loading so that a host
+ * recovers over a few cycles.
+ */
+public class HostStates {
+
+  public static final Logger LOG = LoggerFactory.getLogger(HostStates.class);
+
+  /** The state of a single queue. */
+  public static class HostState implements Writable {
+
+    private static final byte CUR_VERSION = 1;
+
+    /** crawl delay from robots.txt or adapted in ms, -1 if the default */
+    long crawlDelay = -1;
+    int exceptions;
+    /** average response time in ms, 0 if unknown */
+    long responseTime;
+    /** number of threads if adapted, 0 if the configured one */
+    int maxThreads;
+    /** end time of the last request */
+    long lastFetchTime;
+
+    public long getCrawlDelay() {
+      return crawlDelay;
+    }
+
+    public int getExceptions() {
+      return exceptions;
+    }
+
+    public long getResponseTime() {
+      return responseTime;
+    }
+
+    public int getMaxThreads() {
+      return maxThreads;
+    }
+
+    public long getLastFetchTime() {
+      return lastFetchTime;
+    }
+
+    public void readFields(DataInput in) throws IOException {
+      byte version = in.readByte();
+      if (version > CUR_VERSION)
+        throw new VersionMismatchException(CUR_VERSION, version);
+      crawlDelay = WritableUtils.readVLong(in);
+      exceptions = WritableUtils.readVInt(in);
+      responseTime = WritableUtils.readVLong(in);
+      maxThreads = WritableUtils.readVInt(in);
+      lastFetchTime = in.readLong();
+    }
+
+    public void write(DataOutput out) throws IOException {
+      out.writeByte(CUR_VERSION);
+      WritableUtils.writeVLong(out, crawlDelay);
+      WritableUtils.writeVInt(out, exceptions);
+      WritableUtils.writeVLong(out, responseTime);
+      WritableUtils.writeVInt(out, maxThreads);
+      out.writeLong(lastFetchTime);
+    }
+
+    public String toString() {
+      return "crawlDelay=" + crawlDelay + ", exceptions=" + exceptions
+          + ", responseTime=" + responseTime + ", maxThreads=" + maxThreads
+          + ", lastFetchTime=" + lastFetchTime;
+    }
+  }
+
+  private final Map<String, HostState> states = new ConcurrentHashMap<String, HostState>();
+  private final long ttl;
+
+  public HostStates(Configuration conf) {
+    ttl = conf.getLong("fetcher.hoststate.ttl", 7L * 24 * 3600) * 1000;
+  }
+
+  /** @return the state of a queue or null if none is known */
+  public HostState get(String queueID) {
+    return states.get(queueID);
+  }
+
+  public void put(String queueID, HostState state) {
+    states.put(queueID, state);
+  }
+
+  public int size() {
+    return states.size();
+  }
+
+  /** Write the states which have not expired to a file. */
+  public void save(FileSystem fs, Path file) throws IOException {
+    long minTime = System.currentTimeMillis() - ttl;
+    SequenceFile.Writer writer = SequenceFile.createWriter(fs.getConf(),
+        SequenceFile.Writer.file(fs.makeQualified(file)),
+        SequenceFile.Writer.keyClass(Text.class),
+        SequenceFile.Writer.valueClass(HostState.class),
+        SequenceFile.Writer.compression(SequenceFile.CompressionType.BLOCK));
+    int count = 0;
+    try {
+      Text key = new Text();
+      for (Map.Entry<String, HostState> e : states.entrySet()) {
+        if (e.getValue().lastFetchTime < minTime)
+          continue;
+        key.set(e.getKey());
+        writer.append(key, e.getValue());
+        count++;
+      }
+    } finally {
+      writer.close();
+    }
+    LOG.info("Saved " + count + " host states to " + file);
+  }
+
+  /**
+   * Add the states saved to the files in a directory which have not expired,
+   * keeping the most recent state of every queue. Unreadable files are
+   * skipped.
+   */
+  public void load(FileSystem fs, Path dir) throws IOException {
+    if (!fs.exists(dir))
+      return;
+    long minTime = System.currentTimeMillis() - ttl;
+    int count = 0;
+    for (FileStatus status : fs.listStatus(dir)) {
+      if (status.isDirectory() || status.getPath().getName().startsWith("."))
+        continue;
+      SequenceFile.Reader reader = null;
+      try {
+        reader = new SequenceFile.Reader(fs.getConf(),
+            SequenceFile.Reader.file(status.getPath()));
+        Text key = new Text();
+        HostState state = new HostState();
+        while (reader.next(key, state)) {
+          if (state.lastFetchTime >= minTime) {
+            HostState existing = states.get(key.toString());
+            if (existing == null
+                || existing.lastFetchTime < state.lastFetchTime) {
+              state.exceptions /= 2;
+              states.put(key.toString(), state);
+              count++;
+            }
+            state = new HostState();
+          }
+        }
+      } catch (Exception e) {
+        LOG.warn("Failed to load host states from " + status.getPath() + ": "
+            + e);
+      } finally {
+        if (reader != null)
+          reader.close();
+      }
+    }
+    LOG.info("Loaded " + count + " host states from " + dir);
+  }
+}
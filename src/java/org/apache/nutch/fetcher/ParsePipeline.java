@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.fetcher;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.nutch.protocol.Content;
+import org.apache.nutch.protocol.ProtocolStatus;
+
+/**
+ * Hands fetched content from the fetching {@link FetcherThread}s to a
+ * separate set of parsing FetcherThreads if <code>fetcher.parse</code> is
+ * true. Parsing, following outlinks and writing the output then happen
+ * downstream, and a slow parse does not keep a thread from fetching. The
+ * number of parsing threads is set by <code>fetcher.parse.threads</code>, the
+ * queue between both stages is bounded by
+ * <code>fetcher.parse.queue.size</code>, so fetching threads wait if the
+ * parsers cannot keep up.
+ */
+public class ParsePipeline {
+
+  /** Fetched content waiting to be parsed. */
+  static class Task {
+    final FetchItem fit;
+    final Content content;
+    final ProtocolStatus status;
+    final String reprUrl;
+    final int redirectCount;
+    final FetchNode fetchNode;
+
+    Task(FetchItem fit, Content content, ProtocolStatus status,
+        String reprUrl, int redirectCount, FetchNode fetchNode) {
+      this.fit = fit;
+      this.content = content;
+      this.status = status;
+      this.reprUrl = reprUrl;
+      this.redirectCount = redirectCount;
+      this.fetchNode = fetchNode;
+    }
+  }
+
+  private final BlockingQueue<Task> tasks;
+  /** tasks submitted but not yet processed */
+  private final AtomicInteger pending = new AtomicInteger(0);
+  /** fetching threads not yet finished */
+  private final AtomicInteger fetchers = new AtomicInteger(0);
+
+  public ParsePipeline(int queueSize) {
+    this.tasks = new ArrayBlockingQueue<Task>(queueSize);
+  }
+
+  /** Queue content for parsing, waiting while the queue is full. */
+  void submit(Task task) throws InterruptedException {
+    pending.incrementAndGet();
+    try {
+      tasks.put(task);
+    } catch (InterruptedException e) {
+      pending.decrementAndGet();
+      throw e;
+    }
+  }
+
+  /**
+   * Wait at most <code>timeout</code> milliseconds for content to parse.
+   *
+   * @return the task or null if none is available
+   */
+  Task poll(long timeout) throws InterruptedException {
+    return tasks.poll(timeout, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Called once a task has been processed, after any outlinks or redirects
+   * it produced have been added to the fetch queues.
+   */
+  void done(Task task) {
+    pending.decrementAndGet();
+  }
+
+  /** @return true if no submitted content waits for or is being parsed */
+  boolean isIdle() {
+    return pending.get() == 0;
+  }
+
+  /**
+   * Register a fetching thread. Must be called before the thread is started
+   * and before the parsing threads are started.
+   */
+  void fetcherStarted() {
+    fetchers.incrementAndGet();
+  }
+
+  /** Called by every fetching thread when it finishes. */
+  void fetcherFinished() {
+    fetchers.decrementAndGet();
+  }
+
+  /** @return true if all fetching threads and all tasks are finished */
+  boolean isFinished() {
+    return fetchers.get() <= 0 && tasks.isEmpty();
+  }
+
+  public int getQueueSize() {
+    return tasks.size();
+  }
+}
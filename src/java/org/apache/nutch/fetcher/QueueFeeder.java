@@ -17,26 +17,52 @@
 package org.apache.nutch.fetcher;
 
 import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.RecordReader;
 import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.net.DnsResolver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * This class feeds the queues with input items, and re-fills them as items
- * are consumed by FetcherThread-s.
+ * are consumed by FetcherThread-s. When the queues are full it waits until
+ * enough items have been taken to add another batch. Input records can be
+ * read ahead on a separate thread (see {@link #setReadAhead(int)}), so that
+ * reading the input does not delay refilling the queues.
  */
 public class QueueFeeder extends Thread {
-  
+
   private static final Logger LOG = LoggerFactory.getLogger(QueueFeeder.class);
 
-  
+  /** Number of items added to the queues at once. */
+  private static final int BATCH_SIZE = 100;
+
+  /** An input record. */
+  private static class Record {
+    final Text url = new Text();
+    final CrawlDatum datum = new CrawlDatum();
+  }
+
+  /** Marks the end of the input. */
+  private static final Record END = new Record();
+
   private RecordReader<Text, CrawlDatum> reader;
   private FetchItemQueues queues;
   private int size;
   private long timelimit = -1;
+  private DnsResolver resolver;
+  private int readAhead = 0;
+  private BlockingQueue<Record> buffer;
+  private volatile IOException readError;
+  private final List<Record> batch = new ArrayList<Record>(BATCH_SIZE);
 
   public QueueFeeder(RecordReader<Text, CrawlDatum> reader,
       FetchItemQueues queues, int size) {
@@ -51,52 +77,149 @@ public class QueueFeeder extends Thread {
     timelimit = tl;
   }
 
+  /**
+   * Resolve the hosts of input URLs ahead of queuing them, which requires their
+   * IP address with <code>fetcher.queue.mode=byIP</code>.
+   */
+  public void setResolver(DnsResolver resolver) {
+    this.resolver = resolver;
+  }
+
+  /**
+   * Read up to <code>records</code> input records ahead on a separate thread.
+   * If 0 the input is read by the feeder itself.
+   */
+  public void setReadAhead(int records) {
+    readAhead = records;
+  }
+
+  /** Reads the input into the buffer. */
+  private class ReadAheadThread extends Thread {
+    ReadAheadThread() {
+      setDaemon(true);
+      setName("QueueFeeder-ReadAhead");
+    }
+
+    public void run() {
+      try {
+        while (true) {
+          Record record = new Record();
+          if (!reader.next(record.url, record.datum))
+            break;
+          buffer.put(record);
+        }
+      } catch (IOException e) {
+        readError = e;
+      } catch (InterruptedException e) {
+        LOG.warn("QueueFeeder read-ahead interrupted");
+      } finally {
+        try {
+          buffer.put(END);
+        } catch (InterruptedException e) {
+        }
+      }
+    }
+  }
+
+  /**
+   * Get the next input record.
+   *
+   * @param block
+   *          whether to wait for the read-ahead thread if no record is
+   *          available yet
+   * @return the record, {@link #END} at the end of the input, or null if the
+   *         input is read ahead, no record is available and block is false
+   */
+  private Record read(boolean block) throws IOException, InterruptedException {
+    if (buffer == null) {
+      Record record = new Record();
+      return reader.next(record.url, record.datum) ? record : END;
+    }
+    Record record = block ? buffer.take() : buffer.poll();
+    if (record == END && readError != null)
+      throw readError;
+    return record;
+  }
+
+  private void prefetch(Text url) {
+    try {
+      resolver.prefetch(new URL(url.toString()).getHost());
+    } catch (MalformedURLException e) {
+      // handled when the item is queued
+    }
+  }
+
+  /** Add the items of the current batch to the queues. */
+  private int addBatch() {
+    if (batch.isEmpty())
+      return 0;
+    List<FetchItem> items = new ArrayList<FetchItem>(batch.size());
+    for (Record record : batch) {
+      FetchItem it = FetchItem.create(record.url, record.datum,
+          queues.queueMode);
+      if (it != null)
+        items.add(it);
+    }
+    queues.addFetchItems(items);
+    int added = batch.size();
+    batch.clear();
+    return added;
+  }
+
   public void run() {
+    if (readAhead > 0) {
+      buffer = new ArrayBlockingQueue<Record>(readAhead);
+      new ReadAheadThread().start();
+    }
+    // wait until a batch can be added before refilling the queues
+    int refill = Math.max(1, Math.min(BATCH_SIZE, size / 2));
     boolean hasMore = true;
     int cnt = 0;
     int timelimitcount = 0;
-    while (hasMore) {
-      if (System.currentTimeMillis() >= timelimit && timelimit != -1) {
-        // enough .. lets' simply
-        // read all the entries from the input without processing them
-        try {
-          Text url = new Text();
-          CrawlDatum datum = new CrawlDatum();
-          hasMore = reader.next(url, datum);
-          timelimitcount++;
-        } catch (IOException e) {
-          LOG.error("QueueFeeder error reading input, record " + cnt, e);
-          return;
+    try {
+      while (hasMore) {
+        if (System.currentTimeMillis() >= timelimit && timelimit != -1) {
+          // enough .. lets' simply
+          // read all the entries from the input without processing them
+          hasMore = read(true) != END;
+          if (hasMore)
+            timelimitcount++;
+          continue;
         }
-        continue;
-      }
-      int feed = size - queues.getTotalSize();
-      if (feed <= 0) {
-        // queues are full - spin-wait until they have some free space
-        try {
-          Thread.sleep(1000);
-        } catch (Exception e) {
+        int feed = size - queues.getTotalSize();
+        if (feed <= 0) {
+          // queues are full - wait until they have some free space, but
+          // not longer than a second to check the time limit
+          queues.awaitCapacity(size - refill, 1000);
+          continue;
         }
-        ;
-        continue;
-      } else {
         LOG.debug("-feeding " + feed + " input urls ...");
         while (feed > 0 && hasMore) {
-          try {
-            Text url = new Text();
-            CrawlDatum datum = new CrawlDatum();
-            hasMore = reader.next(url, datum);
-            if (hasMore) {
-              queues.addFetchItem(url, datum);
-              cnt++;
-              feed--;
-            }
-          } catch (IOException e) {
-            LOG.error("QueueFeeder error reading input, record " + cnt, e);
-            return;
+          // only block if there is nothing to add yet
+          Record record = read(batch.isEmpty());
+          if (record == null) {
+            break;
+          } else if (record == END) {
+            hasMore = false;
+            break;
+          }
+          if (resolver != null) {
+            // resolve the hosts of the batch in parallel before queuing
+            prefetch(record.url);
           }
+          batch.add(record);
+          feed--;
+          if (batch.size() >= BATCH_SIZE)
+            cnt += addBatch();
         }
+        cnt += addBatch();
       }
+    } catch (IOException e) {
+      LOG.error("QueueFeeder error reading input, record " + cnt, e);
+      return;
+    } catch (InterruptedException e) {
+      LOG.warn("QueueFeeder interrupted, record " + cnt);
+      return;
     }
     LOG.info("QueueFeeder finished: total " + cnt
         + " records + hit by time limit :" + timelimitcount);
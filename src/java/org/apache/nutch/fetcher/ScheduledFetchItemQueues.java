@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.fetcher;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link FetchItemQueues} implementation which does not scan all queues
+ * under a global lock. Queues are kept in a concurrent map, and every queue
+ * which holds items and has a free thread slot is registered in a
+ * {@link DelayQueue} ordered by its <code>nextFetchTime</code>. FetcherThread-s
+ * block on this ready queue until a host becomes eligible for fetching.
+ *
+ * <p>
+ * Politeness settings (crawl delay, minimum crawl delay, maximum number of
+ * threads per queue and exception purging) are still enforced by
+ * {@link FetchItemQueue}, this class only decides when a queue is worth
+ * asking for an item. Modifications of a single queue are synchronized on the
+ * queue itself.
+ */
+public class ScheduledFetchItemQueues extends FetchItemQueues {
+
+  private static final Logger LOG = LoggerFactory
+      .getLogger(ScheduledFetchItemQueues.class);
+
+  private final ConcurrentMap<String, FetchItemQueue> activeQueues = new ConcurrentHashMap<String, FetchItemQueue>();
+  private final DelayQueue<ReadyQueue> readyQueues = new DelayQueue<ReadyQueue>();
+
+  /** A queue which becomes eligible for fetching at a given time. */
+  private static class ReadyQueue implements Delayed {
+    final String id;
+    final FetchItemQueue queue;
+    final long time;
+
+    ReadyQueue(String id, FetchItemQueue queue, long time) {
+      this.id = id;
+      this.queue = queue;
+      this.time = time;
+    }
+
+    public long getDelay(TimeUnit unit) {
+      return unit.convert(time - System.currentTimeMillis(),
+          TimeUnit.MILLISECONDS);
+    }
+
+    public int compareTo(Delayed other) {
+      long otherTime = ((ReadyQueue) other).time;
+      return time < otherTime ? -1 : (time == otherTime ? 0 : 1);
+    }
+  }
+
+  public ScheduledFetchItemQueues(Configuration conf) {
+    super(conf);
+    queues = activeQueues;
+  }
+
+  @Override
+  public void addFetchItem(FetchItem it) {
+    totalSize.incrementAndGet();
+    while (true) {
+      FetchItemQueue fiq = getFetchItemQueue(it.queueID);
+      synchronized (fiq) {
+        if (fiq.retired) {
+          // reaped concurrently, retry with a fresh queue
+          continue;
+        }
+        fiq.addFetchItem(it);
+      }
+      schedule(it.queueID, fiq);
+      return;
+    }
+  }
+
+  @Override
+  public void addFetchItems(Collection<FetchItem> items) {
+    // no global lock to amortize
+    for (FetchItem it : items) {
+      addFetchItem(it);
+    }
+  }
+
+  @Override
+  public void finishFetchItem(FetchItem it, boolean asap) {
+    FetchItemQueue fiq = activeQueues.get(it.queueID);
+    if (fiq == null) {
+      LOG.warn("Attempting to finish item from unknown queue: " + it);
+      return;
+    }
+    fiq.finishFetchItem(it, asap);
+    schedule(it.queueID, fiq);
+  }
+
+  @Override
+  public FetchItemQueue getFetchItemQueue(String id) {
+    FetchItemQueue fiq = activeQueues.get(id);
+    while (fiq == null || fiq.retired) {
+      FetchItemQueue created = createFetchItemQueue(id);
+      boolean added = (fiq == null) ? activeQueues.putIfAbsent(id, created) == null
+          : activeQueues.replace(id, fiq, created);
+      fiq = added ? created : activeQueues.get(id);
+    }
+    return fiq;
+  }
+
+  @Override
+  public FetchItem getFetchItem() {
+    ReadyQueue ready;
+    while ((ready = readyQueues.poll()) != null) {
+      FetchItem it = take(ready);
+      if (it != null) {
+        return it;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public FetchItem waitForFetchItem(long timeout) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeout;
+    long remaining = timeout;
+    while (remaining > 0) {
+      ReadyQueue ready = readyQueues.poll(remaining, TimeUnit.MILLISECONDS);
+      if (ready == null) {
+        return null;
+      }
+      FetchItem it = take(ready);
+      if (it != null) {
+        return it;
+      }
+      remaining = deadline - System.currentTimeMillis();
+    }
+    return null;
+  }
+
+  @Override
+  public int checkExceptionThreshold(String queueid) {
+    FetchItemQueue fiq = activeQueues.get(queueid);
+    if (fiq == null) {
+      return 0;
+    }
+    if (fiq.getQueueSize() == 0) {
+      return 0;
+    }
+    int excCount = fiq.incrementExceptionCounter();
+    if (maxExceptionsPerQueue != -1 && excCount >= maxExceptionsPerQueue) {
+      // too many exceptions for items in this queue - purge it
+      int deleted = fiq.emptyQueue();
+      LOG.info("* queue: " + queueid + " >> removed " + deleted
+          + " URLs from queue because " + excCount + " exceptions occurred");
+      removed(deleted);
+      return deleted;
+    }
+    return 0;
+  }
+
+  /**
+   * Take an item from a queue polled from the ready queue, and put the queue
+   * back if it has more items to offer.
+   */
+  private FetchItem take(ReadyQueue ready) {
+    FetchItemQueue fiq = ready.queue;
+    // skip stale entries, the queue has been rescheduled earlier since
+    if (!fiq.scheduledTime.compareAndSet(ready.time, Long.MAX_VALUE)) {
+      return null;
+    }
+    FetchItem it;
+    synchronized (fiq) {
+      it = fiq.getFetchItem();
+      if (it == null && fiq.getQueueSize() == 0
+          && fiq.getInProgressSize() == 0) {
+        // reap empty queues, the state is saved before a new queue for the
+        // host may be created
+        saveHostState(ready.id, fiq);
+        fiq.retired = true;
+        activeQueues.remove(ready.id, fiq);
+        return null;
+      }
+    }
+    if (it != null) {
+      removed(1);
+    }
+    schedule(ready.id, fiq);
+    return it;
+  }
+
+  /**
+   * Register a queue in the ready queue if it has items and a free thread
+   * slot, unless it is already registered for an earlier time.
+   */
+  private void schedule(String id, FetchItemQueue fiq) {
+    if (fiq.getQueueSize() == 0 || fiq.getInProgressSize() >= fiq.maxThreads) {
+      // will be scheduled again when an item is added or finished
+      return;
+    }
+    long time = fiq.getNextFetchTime();
+    while (true) {
+      long current = fiq.scheduledTime.get();
+      if (current <= time) {
+        return;
+      }
+      if (fiq.scheduledTime.compareAndSet(current, time)) {
+        readyQueues.offer(new ReadyQueue(id, fiq, time));
+        return;
+      }
+    }
+  }
+}
@@ -16,13 +16,13 @@
  */
 package org.apache.nutch.hostdb;
 
-import java.net.InetAddress;
 import java.net.UnknownHostException;
 
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reporter;
 import org.apache.hadoop.util.StringUtils;
+import org.apache.nutch.net.DnsResolver;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -62,7 +62,7 @@ public class ResolverThread implements Runnable {
     // Resolve the host and act appropriatly
     try {
       // Throws an exception if host is not found
-      InetAddress inetAddr = InetAddress.getByName(host);
+      DnsResolver.get().resolve(host);
 
       if (datum.isEmpty()) {
         reporter.incrCounter("UpdateHostDb", "new_known_host" ,1);
@@ -117,5 +117,6 @@ public class ResolverThread implements Runnable {
     }
     
     reporter.incrCounter("UpdateHostDb", "checked_hosts", 1);
+    DnsResolver.get().report(reporter);
   }
 }
\ No newline at end of file
@@ -45,6 +45,7 @@ import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.nutch.crawl.CrawlDatum;
 import org.apache.nutch.crawl.CrawlDb;
+import org.apache.nutch.crawl.CrawlDbInputFormat;
 import org.apache.nutch.crawl.NutchWritable;
 import org.apache.nutch.util.FSUtils;
 import org.apache.nutch.util.LockUtil;
@@ -121,8 +122,8 @@ public class UpdateHostDb extends Configured implements Tool {
     if (crawlDb != null) {
       // Tell the job we read from CrawlDB
       job.setBoolean("hostdb.reading.crawldb", true);
-      MultipleInputs.addInputPath(job, new Path(crawlDb,
-        CrawlDb.CURRENT_NAME), SequenceFileInputFormat.class);
+      MultipleInputs.addInputPath(job, CrawlDb.getInputPath(fs, crawlDb),
+        CrawlDbInputFormat.class);
     }
 
     FileOutputFormat.setOutputPath(job, tempHostDb);
@@ -38,6 +38,7 @@ import org.apache.hadoop.util.StringUtils;
 
 import org.apache.nutch.crawl.CrawlDatum;
 import org.apache.nutch.crawl.NutchWritable;
+import org.apache.nutch.net.DnsResolver;
 
 import com.tdunning.math.stats.TDigest;
 
@@ -102,6 +103,9 @@ public class UpdateHostDbReducer
       }
     }
 
+    // Resolvers share the cache of the JVM's resolver
+    DnsResolver.get(job);
+
     // Initialize the thread pool with our queue
     executor = new ThreadPoolExecutor(numResolverThreads, numResolverThreads,
       5, TimeUnit.SECONDS, queue);
@@ -27,17 +27,21 @@ import org.apache.commons.codec.binary.StringUtils;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapred.FileInputFormat;
 import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapFileOutputFormat;
 import org.apache.hadoop.mapred.Mapper;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reducer;
 import org.apache.hadoop.mapred.Reporter;
-import org.apache.hadoop.mapred.SequenceFileInputFormat;
+import org.apache.hadoop.mapred.lib.HashPartitioner;
 import org.apache.nutch.crawl.CrawlDatum;
 import org.apache.nutch.crawl.CrawlDb;
+import org.apache.nutch.crawl.CrawlDbInputFormat;
+import org.apache.nutch.crawl.CrawlDbLayers;
 import org.apache.nutch.crawl.Inlinks;
 import org.apache.nutch.crawl.LinkDb;
 import org.apache.nutch.crawl.NutchWritable;
@@ -53,6 +57,26 @@ import org.apache.nutch.protocol.Content;
 import org.apache.nutch.scoring.ScoringFilterException;
 import org.apache.nutch.scoring.ScoringFilters;
 
+/**
+ * Joins the segment data, the CrawlDb and the LinkDb by URL and passes the
+ * result to the indexing filters and index writers.
+ *
+ * <p>
+ * By default the CrawlDb and the LinkDb are inputs of the job, so every entry
+ * of both is read and shuffled although only the URLs of the segments are
+ * indexed. If <code>indexer.crawldb.lookup</code> is true the job reads only
+ * the segments, the mapper looks up the CrawlDatum and the Inlinks of every
+ * fetched URL in the CrawlDb (all its layers) and in the MapFiles of
+ * <code>linkdb/current</code>, so the cost of indexing depends on the size of
+ * the segments instead of the size of the CrawlDb.
+ * </p>
+ *
+ * <p>
+ * Deleting gone, redirected and duplicate documents (<code>indexer.delete</code>)
+ * needs the full join: lookups are then disabled and the CrawlDb is read as
+ * input.
+ * </p>
+ */
 public class IndexerMapReduce extends Configured implements
     Mapper<Text, Writable, Text, NutchWritable>,
     Reducer<Text, NutchWritable, Text, NutchIndexAction> {
@@ -68,6 +92,9 @@ public class IndexerMapReduce extends Configured implements
   public static final String URL_FILTERING = "indexer.url.filters";
   public static final String URL_NORMALIZING = "indexer.url.normalizers";
   public static final String INDEXER_BINARY_AS_BASE64 = "indexer.binary.base64";
+  public static final String INDEXER_LOOKUP = "indexer.crawldb.lookup";
+  public static final String INDEXER_LOOKUP_CRAWLDB = "indexer.crawldb.lookup.crawldb";
+  public static final String INDEXER_LOOKUP_LINKDB = "indexer.crawldb.lookup.linkdb";
 
   private boolean skip = false;
   private boolean delete = false;
@@ -85,6 +112,12 @@ public class IndexerMapReduce extends Configured implements
   private URLNormalizers urlNormalizers;
   private URLFilters urlFilters;
 
+  // CrawlDb and LinkDb lookups, opened on demand
+  private boolean lookup = false;
+  private CrawlDbLayers.Reader crawlDbReader;
+  private MapFile.Reader[] linkDbReaders;
+  private static final HashPartitioner<Text, Writable> PARTITIONER = new HashPartitioner<Text, Writable>();
+
   /** Predefined action to delete documents from the index */
   private static final NutchIndexAction DELETE_ACTION = new NutchIndexAction(
       null, NutchIndexAction.DELETE);
@@ -112,6 +145,8 @@ public class IndexerMapReduce extends Configured implements
     if (filter) {
       urlFilters = new URLFilters(getConf());
     }
+
+    lookup = job.getBoolean(INDEXER_LOOKUP, false);
   }
 
   /**
@@ -170,7 +205,8 @@ public class IndexerMapReduce extends Configured implements
       OutputCollector<Text, NutchWritable> output, Reporter reporter)
           throws IOException {
 
-    String urlString = filterUrl(normalizeUrl(key.toString()));
+    String url = key.toString();
+    String urlString = filterUrl(normalizeUrl(url));
     if (urlString == null) {
       return;
     } else {
@@ -178,6 +214,44 @@ public class IndexerMapReduce extends Configured implements
     }
 
     output.collect(key, new NutchWritable(value));
+
+    if (lookup && value instanceof CrawlDatum
+        && CrawlDatum.hasFetchStatus((CrawlDatum) value)) {
+      // join with the CrawlDb and LinkDb entries of the (not normalized) URL
+      lookup(new Text(url), key, output, reporter);
+    }
+  }
+
+  private void lookup(Text url, Text key,
+      OutputCollector<Text, NutchWritable> output, Reporter reporter)
+      throws IOException {
+    if (crawlDbReader == null) {
+      crawlDbReader = new CrawlDbLayers.Reader(new Path(getConf().get(
+          INDEXER_LOOKUP_CRAWLDB)), getConf());
+      linkDbReaders = openReaders(getConf().get(INDEXER_LOOKUP_LINKDB));
+    }
+    CrawlDatum dbDatum = new CrawlDatum();
+    if (crawlDbReader.get(url, dbDatum)) {
+      output.collect(key, new NutchWritable(dbDatum));
+    } else {
+      reporter.incrCounter("IndexerStatus", "not in CrawlDb", 1);
+    }
+    if (linkDbReaders.length > 0) {
+      Inlinks inlinks = new Inlinks();
+      if (MapFileOutputFormat.getEntry(linkDbReaders, PARTITIONER, url,
+          inlinks) != null) {
+        output.collect(key, new NutchWritable(inlinks));
+      }
+    }
+  }
+
+  private MapFile.Reader[] openReaders(String dir) throws IOException {
+    if (dir == null) {
+      return new MapFile.Reader[0];
+    }
+    Path path = new Path(dir);
+    return MapFileOutputFormat.getReaders(path.getFileSystem(getConf()), path,
+        getConf());
   }
 
   public void reduce(Text key, Iterator<NutchWritable> values,
@@ -368,13 +442,39 @@ public class IndexerMapReduce extends Configured implements
   }
 
   public void close() throws IOException {
+    if (crawlDbReader != null) {
+      crawlDbReader.close();
+    }
+    closeReaders(linkDbReaders);
+    crawlDbReader = null;
+    linkDbReaders = null;
+  }
+
+  private static void closeReaders(MapFile.Reader[] readers)
+      throws IOException {
+    if (readers == null) {
+      return;
+    }
+    for (MapFile.Reader reader : readers) {
+      reader.close();
+    }
   }
 
   public static void initMRJob(Path crawlDb, Path linkDb,
-      Collection<Path> segments, JobConf job, boolean addBinaryContent) {
+      Collection<Path> segments, JobConf job, boolean addBinaryContent)
+      throws IOException {
 
     LOG.info("IndexerMapReduce: crawldb: {}", crawlDb);
 
+    boolean lookup = job.getBoolean(INDEXER_LOOKUP, false);
+    if (lookup && job.getBoolean(INDEXER_DELETE, false)) {
+      LOG.warn("IndexerMapReduce: deleting documents requires the whole CrawlDb, CrawlDb lookups disabled");
+      lookup = false;
+      job.setBoolean(INDEXER_LOOKUP, false);
+    }
+    if (lookup)
+      LOG.info("IndexerMapReduce: looking up CrawlDb and LinkDb entries of segment URLs");
+
     if (linkDb != null)
       LOG.info("IndexerMapReduce: linkdb: {}", linkDb);
 
@@ -392,13 +492,21 @@ public class IndexerMapReduce extends Configured implements
       }
     }
 
-    FileInputFormat.addInputPath(job, new Path(crawlDb, CrawlDb.CURRENT_NAME));
+    if (lookup) {
+      job.set(INDEXER_LOOKUP_CRAWLDB, crawlDb.toString());
+    } else {
+      CrawlDb.addInputPath(job, crawlDb);
+    }
 
     if (linkDb != null) {
       Path currentLinkDb = new Path(linkDb, LinkDb.CURRENT_NAME);
       try {
         if (FileSystem.get(job).exists(currentLinkDb)) {
-          FileInputFormat.addInputPath(job, currentLinkDb);
+          if (lookup) {
+            job.set(INDEXER_LOOKUP_LINKDB, currentLinkDb.toString());
+          } else {
+            FileInputFormat.addInputPath(job, currentLinkDb);
+          }
         } else {
           LOG.warn("Ignoring linkDb for indexing, no linkDb found in path: {}",
               linkDb);
@@ -409,7 +517,7 @@ public class IndexerMapReduce extends Configured implements
       }
     }
 
-    job.setInputFormat(SequenceFileInputFormat.class);
+    job.setInputFormat(CrawlDbInputFormat.class);
 
     job.setMapperClass(IndexerMapReduce.class);
     job.setReducerClass(IndexerMapReduce.class);
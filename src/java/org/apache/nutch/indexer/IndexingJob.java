@@ -121,12 +121,14 @@ public class IndexingJob extends NutchTool implements Tool {
     IndexWriters writers = new IndexWriters(getConf());
     LOG.info(writers.describe());
 
+    job.setBoolean(IndexerMapReduce.INDEXER_DELETE, deleteGone);
     IndexerMapReduce.initMRJob(crawlDb, linkDb, segments, job, addBinaryContent);
+    LOG.info("Indexer: looking up CrawlDb entries: {}",
+        job.getBoolean(IndexerMapReduce.INDEXER_LOOKUP, false));
 
     // NOW PASSED ON THE COMMAND LINE AS A HADOOP PARAM
     // job.set(SolrConstants.SERVER_URL, solrUrl);
 
-    job.setBoolean(IndexerMapReduce.INDEXER_DELETE, deleteGone);
     job.setBoolean(IndexerMapReduce.URL_FILTERING, filter);
     job.setBoolean(IndexerMapReduce.URL_NORMALIZING, normalize);
     job.setBoolean(IndexerMapReduce.INDEXER_BINARY_AS_BASE64, base64);
@@ -166,7 +168,7 @@ public class IndexingJob extends NutchTool implements Tool {
     if (args.length < 2) {
       System.err
       //.println("Usage: Indexer <crawldb> [-linkdb <linkdb>] [-params k1=v1&k2=v2...] (<segment> ... | -dir <segments>) [-noCommit] [-deleteGone] [-filter] [-normalize]");
-      .println("Usage: Indexer <crawldb> [-linkdb <linkdb>] [-params k1=v1&k2=v2...] (<segment> ... | -dir <segments>) [-noCommit] [-deleteGone] [-filter] [-normalize] [-addBinaryContent] [-base64]");
+      .println("Usage: Indexer <crawldb> [-linkdb <linkdb>] [-params k1=v1&k2=v2...] (<segment> ... | -dir <segments>) [-noCommit] [-deleteGone] [-filter] [-normalize] [-addBinaryContent] [-base64] [-lookupDb]");
       IndexWriters writers = new IndexWriters(getConf());
       System.err.println(writers.describe());
       return -1;
@@ -213,6 +215,8 @@ public class IndexingJob extends NutchTool implements Tool {
         addBinaryContent = true;
       } else if (args[i].equals("-base64")) {
         base64 = true;
+      } else if (args[i].equals("-lookupDb")) {
+        getConf().setBoolean(IndexerMapReduce.INDEXER_LOOKUP, true);
       } else if (args[i].equals("-params")) {
         params = args[++i];
       } else {
@@ -348,6 +352,9 @@ public class IndexingJob extends NutchTool implements Tool {
     if(args.containsKey("params")){
       params = (String)args.get("params");
     }
+    if(args.containsKey("lookupDb")){
+      conf.setBoolean(IndexerMapReduce.INDEXER_LOOKUP, true);
+    }
     setConf(conf);
     index(crawlDb, linkdb, segments, noCommit, deleteGone, params, filter,
         normalize);
@@ -44,6 +44,8 @@ public interface HttpHeaders {
 
   public static final Text WRITABLE_CONTENT_TYPE = new Text(CONTENT_TYPE);
 
+  public final static String ETAG = "ETag";
+
   public final static String LAST_MODIFIED = "Last-Modified";
 
   public final static String LOCATION = "Location";
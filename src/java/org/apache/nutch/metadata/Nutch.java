@@ -52,6 +52,15 @@ public interface Nutch {
 
 	public static final String FETCH_STATUS_KEY = "_fst_";
 
+	/** ETag of the last fetched content, sent as If-None-Match. */
+	public static final Text WRITABLE_ETAG_KEY = new Text("_etag_");
+
+	/** Last-Modified of the last fetched content, sent as If-Modified-Since. */
+	public static final Text WRITABLE_LAST_MODIFIED_KEY = new Text("_lmod_");
+
+	/** Length of the last fetched content. */
+	public static final Text WRITABLE_CONTENT_LENGTH_KEY = new Text("_clen_");
+
 	/**
 	 * Sites may request that search engines don't provide access to cached
 	 * documents.
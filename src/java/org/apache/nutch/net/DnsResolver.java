@@ -0,0 +1,310 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapred.Reporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves host names to IP addresses, shared by all users in a JVM. Results
+ * are cached for <code>dns.cache.ttl</code> seconds, failures for
+ * <code>dns.cache.ttl.negative</code> seconds, and concurrent requests for the
+ * same host wait for a single lookup. Callers which know the hosts they will
+ * need can {@link #prefetch(String) prefetch} them, the lookups then run in
+ * parallel on <code>dns.resolver.threads</code> background threads.
+ *
+ * <p>
+ * Hits, misses, failures and the time spent waiting for lookups are counted
+ * and can be added to the job counters of group {@link #COUNTER_GROUP} with
+ * {@link #report(Reporter)}.
+ */
+public class DnsResolver {
+
+  public static final Logger LOG = LoggerFactory.getLogger(DnsResolver.class);
+
+  public static final String COUNTER_GROUP = "DnsResolver";
+
+  private static DnsResolver instance;
+
+  /**
+   * Receives the result of a lookup started with
+   * {@link DnsResolver#resolve(String, Callback)}.
+   */
+  public interface Callback {
+
+    void resolved(InetAddress address);
+
+    void failed(UnknownHostException e);
+  }
+
+  private static class Lookup extends FutureTask<InetAddress> {
+    volatile long expires = Long.MAX_VALUE;
+
+    Lookup(final String host) {
+      super(new Callable<InetAddress>() {
+        public InetAddress call() throws UnknownHostException {
+          return InetAddress.getByName(host);
+        }
+      });
+    }
+  }
+
+  private final ConcurrentHashMap<String, Lookup> cache = new ConcurrentHashMap<String, Lookup>();
+  private final ThreadPoolExecutor executor;
+  private final int maxEntries;
+  private final long ttl;
+  private final long negativeTtl;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final AtomicLong prefetched = new AtomicLong();
+  private final AtomicLong waitTime = new AtomicLong();
+
+  /**
+   * Get the resolver of this JVM. It is configured from the configuration
+   * passed on the first call.
+   */
+  public static synchronized DnsResolver get(Configuration conf) {
+    if (instance == null) {
+      instance = new DnsResolver(conf.getInt("dns.cache.size", 100000),
+          conf.getLong("dns.cache.ttl", 300) * 1000, conf.getLong(
+              "dns.cache.ttl.negative", 60) * 1000, conf.getInt(
+              "dns.resolver.threads", 10));
+    }
+    return instance;
+  }
+
+  /**
+   * Get the resolver of this JVM, using the default settings if it is not
+   * configured yet.
+   */
+  public static synchronized DnsResolver get() {
+    if (instance == null) {
+      instance = new DnsResolver(100000, 300 * 1000, 60 * 1000, 10);
+    }
+    return instance;
+  }
+
+  public DnsResolver(int maxEntries, long ttl, long negativeTtl, int threads) {
+    this.maxEntries = maxEntries;
+    this.ttl = ttl;
+    this.negativeTtl = negativeTtl;
+    final AtomicInteger count = new AtomicInteger();
+    executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(10 * 1000), new ThreadFactory() {
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "DnsResolver-"
+                + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Resolve a host name, using the cache if possible.
+   *
+   * @throws UnknownHostException
+   *           if the host cannot be resolved (the failure is cached, too)
+   */
+  public InetAddress resolve(String host) throws UnknownHostException {
+    while (true) {
+      Lookup lookup = cache.get(host);
+      if (lookup != null && lookup.expires <= System.currentTimeMillis()) {
+        cache.remove(host, lookup);
+        lookup = null;
+      }
+      if (lookup == null) {
+        Lookup created = new Lookup(host);
+        lookup = cache.putIfAbsent(host, created);
+        if (lookup == null) {
+          // resolve in the calling thread
+          misses.incrementAndGet();
+          lookup = created;
+          run(lookup);
+        } else {
+          hits.incrementAndGet();
+        }
+      } else {
+        hits.incrementAndGet();
+      }
+      long start = System.currentTimeMillis();
+      try {
+        return lookup.get();
+      } catch (CancellationException e) {
+        // prefetch was rejected, try again
+        cache.remove(host, lookup);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new UnknownHostException(host);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof UnknownHostException)
+          throw (UnknownHostException) e.getCause();
+        throw new UnknownHostException(host + ": " + e.getCause());
+      } finally {
+        waitTime.addAndGet(System.currentTimeMillis() - start);
+      }
+    }
+  }
+
+  /**
+   * Resolve a host name without blocking the calling thread. A cached result
+   * is passed to the callback immediately, otherwise the host is resolved on
+   * a background thread which then calls the callback.
+   */
+  public void resolve(final String host, final Callback callback) {
+    Lookup lookup = cache.get(host);
+    if (lookup != null && lookup.isDone() && !lookup.isCancelled()
+        && lookup.expires > System.currentTimeMillis()) {
+      hits.incrementAndGet();
+      InetAddress address;
+      try {
+        // the lookup is done, does not block
+        address = lookup.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        callback.failed(new UnknownHostException(host));
+        return;
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof UnknownHostException)
+          callback.failed((UnknownHostException) e.getCause());
+        else
+          callback.failed(new UnknownHostException(host + ": " + e.getCause()));
+        return;
+      }
+      callback.resolved(address);
+      return;
+    }
+    try {
+      executor.execute(new Runnable() {
+        public void run() {
+          InetAddress address;
+          try {
+            address = resolve(host);
+          } catch (UnknownHostException e) {
+            callback.failed(e);
+            return;
+          }
+          callback.resolved(address);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      failures.incrementAndGet();
+      callback.failed(new UnknownHostException(host
+          + ": too many pending lookups"));
+    }
+  }
+
+  /**
+   * Start resolving a host name in the background unless it is cached. Does
+   * not block.
+   */
+  public void prefetch(String host) {
+    Lookup lookup = cache.get(host);
+    if (lookup != null && lookup.expires > System.currentTimeMillis())
+      return;
+    if (lookup != null)
+      cache.remove(host, lookup);
+    final Lookup created = new Lookup(host);
+    if (cache.putIfAbsent(host, created) != null)
+      return;
+    try {
+      executor.execute(new Runnable() {
+        public void run() {
+          DnsResolver.this.run(created);
+        }
+      });
+      prefetched.incrementAndGet();
+    } catch (RejectedExecutionException e) {
+      // too many pending lookups, the host is resolved when it is needed
+      cache.remove(host, created);
+      created.cancel(false);
+    }
+  }
+
+  private void run(Lookup lookup) {
+    lookup.run();
+    try {
+      lookup.get();
+      lookup.expires = System.currentTimeMillis() + ttl;
+    } catch (Exception e) {
+      failures.incrementAndGet();
+      lookup.expires = System.currentTimeMillis() + negativeTtl;
+    }
+    if (cache.size() > maxEntries)
+      evict();
+  }
+
+  /**
+   * Remove expired entries and, if still above the maximum size, arbitrary
+   * entries down to 90% of the maximum size.
+   */
+  private synchronized void evict() {
+    if (cache.size() <= maxEntries)
+      return;
+    long now = System.currentTimeMillis();
+    int target = (int) (maxEntries * 0.9);
+    for (Iterator<Map.Entry<String, Lookup>> it = cache.entrySet().iterator(); it
+        .hasNext();) {
+      if (it.next().getValue().expires <= now)
+        it.remove();
+    }
+    for (Iterator<Map.Entry<String, Lookup>> it = cache.entrySet().iterator(); it
+        .hasNext() && cache.size() > target;) {
+      Lookup lookup = it.next().getValue();
+      if (lookup.isDone())
+        it.remove();
+    }
+  }
+
+  public int size() {
+    return cache.size();
+  }
+
+  /**
+   * Add the counts accumulated since the last call to the counters of the
+   * given reporter.
+   */
+  public void report(Reporter reporter) {
+    reporter.incrCounter(COUNTER_GROUP, "hits", hits.getAndSet(0));
+    reporter.incrCounter(COUNTER_GROUP, "misses", misses.getAndSet(0));
+    reporter.incrCounter(COUNTER_GROUP, "failures", failures.getAndSet(0));
+    reporter.incrCounter(COUNTER_GROUP, "prefetched", prefetched.getAndSet(0));
+    reporter.incrCounter(COUNTER_GROUP, "wait_time_ms", waitTime.getAndSet(0));
+  }
+}
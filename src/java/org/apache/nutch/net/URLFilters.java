@@ -33,12 +33,27 @@ public class URLFilters {
 
   /** Run all defined filters. Assume logical AND. */
   public String filter(String urlString) throws URLFilterException {
+    if (urlString == null)
+      return null;
+    URLView url = filter(new URLView(urlString));
+    return url == null ? null : url.toString();
+  }
+
+  /**
+   * Run all defined filters, passing the view to filters implementing
+   * {@link URLViewFilter} and the URL string to all others. Assume logical
+   * AND.
+   */
+  public URLView filter(URLView url) throws URLFilterException {
     for (int i = 0; i < this.filters.length; i++) {
-      if (urlString == null)
+      if (url == null)
         return null;
-      urlString = this.filters[i].filter(urlString);
-
+      if (this.filters[i] instanceof URLViewFilter) {
+        url = ((URLViewFilter) this.filters[i]).filter(url);
+      } else {
+        url = url.with(this.filters[i].filter(url.toString()));
+      }
     }
-    return urlString;
+    return url;
   }
 }
@@ -308,18 +308,43 @@ public final class URLNormalizers {
    */
   public String normalize(String urlString, String scope)
       throws MalformedURLException {
+    if (urlString == null)
+      return null;
+    URLView url = normalize(new URLView(urlString), scope);
+    return url == null ? null : url.toString();
+  }
+
+  /**
+   * Normalize a URL view, passing the view to normalizers implementing
+   * {@link URLViewNormalizer} and the URL string to all others.
+   * 
+   * @param url
+   *          The URL to normalize.
+   * @param scope
+   *          The given scope.
+   * @return A view of the normalized URL, using the given <code>scope</code>
+   * @throws MalformedURLException
+   *           If the given URL string is malformed.
+   */
+  public URLView normalize(URLView url, String scope)
+      throws MalformedURLException {
     // optionally loop several times, and break if no further changes
-    String initialString = urlString;
+    URLView initial = url;
     for (int k = 0; k < loopCount; k++) {
       for (int i = 0; i < this.normalizers.length; i++) {
-        if (urlString == null)
+        if (url == null)
           return null;
-        urlString = this.normalizers[i].normalize(urlString, scope);
+        if (this.normalizers[i] instanceof URLViewNormalizer) {
+          url = ((URLViewNormalizer) this.normalizers[i])
+              .normalize(url, scope);
+        } else {
+          url = url.with(this.normalizers[i].normalize(url.toString(), scope));
+        }
       }
-      if (initialString.equals(urlString))
+      if (url == null || initial.toString().equals(url.toString()))
         break;
-      initialString = urlString;
+      initial = url;
     }
-    return urlString;
+    return url;
   }
 }
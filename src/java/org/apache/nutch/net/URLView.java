@@ -0,0 +1,167 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import org.apache.nutch.util.TableUtil;
+import org.apache.nutch.util.URLUtil;
+import org.apache.nutch.util.domain.DomainSuffix;
+
+/**
+ * A URL string and its parts, passed through the chain of
+ * {@link URLNormalizers} and {@link URLFilters}. The URL is parsed at most
+ * once and every part is computed when first requested, so that the stages
+ * of the chain share the work instead of parsing the URL and looking up the
+ * domain suffix again. A stage which changes the URL passes on a new view,
+ * see {@link #with(String)}.
+ *
+ * <p>
+ * Views are not thread-safe, they are meant to be used by a single thread
+ * while processing one URL.
+ */
+public class URLView {
+
+  private final String url;
+
+  private URL parsed;
+  private MalformedURLException malformed;
+  private String host;
+  private String reversedHost;
+  private boolean domainComputed = false;
+  private String domain;
+  private DomainSuffix domainSuffix;
+
+  public URLView(String url) {
+    this.url = url;
+  }
+
+  /**
+   * @param parsed
+   *          the URL already parsed from the string
+   */
+  public URLView(String url, URL parsed) {
+    this.url = url;
+    this.parsed = parsed;
+  }
+
+  /**
+   * @return this view if the URL string is unchanged, a new view for the
+   *         given URL string, or null if the URL string is null
+   */
+  public URLView with(String urlString) {
+    if (urlString == null)
+      return null;
+    if (urlString.equals(url))
+      return this;
+    return new URLView(urlString);
+  }
+
+  /** @return the parsed URL */
+  public URL getURL() throws MalformedURLException {
+    if (parsed == null) {
+      if (malformed != null)
+        throw malformed;
+      try {
+        parsed = new URL(url);
+      } catch (MalformedURLException e) {
+        malformed = e;
+        throw e;
+      }
+    }
+    return parsed;
+  }
+
+  /** @return the parsed URL or null if the URL is malformed */
+  private URL getURLOrNull() {
+    try {
+      return getURL();
+    } catch (MalformedURLException e) {
+      return null;
+    }
+  }
+
+  /** @return the protocol or null if the URL is malformed */
+  public String getScheme() {
+    URL u = getURLOrNull();
+    return u == null ? null : u.getProtocol();
+  }
+
+  /** @return the lowercased host name or null if the URL is malformed */
+  public String getHost() {
+    if (host == null) {
+      URL u = getURLOrNull();
+      if (u != null)
+        host = u.getHost().toLowerCase();
+    }
+    return host;
+  }
+
+  /**
+   * @return the host name with reversed order of segments, see
+   *         {@link TableUtil#reverseHost(String)}, or null if the URL is
+   *         malformed
+   */
+  public String getReversedHost() {
+    if (reversedHost == null && getHost() != null) {
+      reversedHost = TableUtil.reverseHost(getHost());
+    }
+    return reversedHost;
+  }
+
+  /**
+   * @return the lowercased domain name, see
+   *         {@link URLUtil#getDomainName(URL)}, or null if the URL is
+   *         malformed
+   */
+  public String getDomain() {
+    computeDomain();
+    return domain;
+  }
+
+  /**
+   * @return the domain suffix, see {@link URLUtil#getDomainSuffix(URL)}, or
+   *         null if there is none or the URL is malformed
+   */
+  public DomainSuffix getDomainSuffix() {
+    computeDomain();
+    return domainSuffix;
+  }
+
+  private void computeDomain() {
+    if (domainComputed)
+      return;
+    domainComputed = true;
+    URL u = getURLOrNull();
+    if (u == null)
+      return;
+    domain = URLUtil.getDomainName(u).toLowerCase();
+    domainSuffix = URLUtil.getDomainSuffix(u);
+  }
+
+  /** @return the path or null if the URL is malformed */
+  public String getPath() {
+    URL u = getURLOrNull();
+    return u == null ? null : u.getPath();
+  }
+
+  /** @return the URL string */
+  public String toString() {
+    return url;
+  }
+}
@@ -0,0 +1,35 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net;
+
+import java.net.MalformedURLException;
+
+/**
+ * A {@link URLNormalizer} which makes use of the parts of a {@link URLView}
+ * already computed by previous normalizers. {@link URLNormalizers} calls
+ * {@link #normalize(URLView, String)} instead of
+ * {@link #normalize(String, String)}, both must give the same result.
+ */
+public interface URLViewNormalizer extends URLNormalizer {
+
+  /**
+   * @return the URL passed if unchanged, a view of the normalized URL, or
+   *         null if the URL is removed
+   */
+  public URLView normalize(URLView url, String scope)
+      throws MalformedURLException;
+}
@@ -0,0 +1,188 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.parse;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.net.URLFilters;
+import org.apache.nutch.net.URLNormalizers;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Filters and normalizes the outlinks of a page in batches, see
+ * {@link ParseOutputFormat#filterNormalize(String, String, String, boolean, boolean, String, URLFilters, URLNormalizers)}
+ * :
+ * <ul>
+ * <li>every distinct outlink URL is processed once, duplicates share the
+ * result of the first occurrence;</li>
+ * <li>outlinks are processed in batches of the number of valid outlinks
+ * still missing, outlinks after the first <code>max</code> valid ones are
+ * not processed at all;</li>
+ * <li>larger batches are split over <code>parse.outlinks.threads</code>
+ * threads.</li>
+ * </ul>
+ * The result is the same as if every outlink is processed in turn.
+ */
+class OutlinkFilterNormalizer {
+
+  /** smaller batches are processed by the calling thread */
+  static final int MIN_PARALLEL_BATCH = 64;
+
+  private final URLFilters filters;
+  private final URLNormalizers normalizers;
+  private final boolean ignoreInternalLinks;
+  private final boolean ignoreExternalLinks;
+  private final String ignoreExternalLinksMode;
+  private final int threads;
+  private ExecutorService executor;
+
+  OutlinkFilterNormalizer(Configuration conf, URLFilters filters,
+      URLNormalizers normalizers) {
+    this.filters = filters;
+    this.normalizers = normalizers;
+    ignoreInternalLinks = conf.getBoolean("db.ignore.internal.links", false);
+    ignoreExternalLinks = conf.getBoolean("db.ignore.external.links", false);
+    ignoreExternalLinksMode = conf.get("db.ignore.external.links.mode",
+        "byHost");
+    threads = conf.getInt("parse.outlinks.threads", 1);
+    if (threads > 1) {
+      executor = Executors.newFixedThreadPool(threads,
+          new ThreadFactoryBuilder().setNameFormat("outlinks-%d")
+              .setDaemon(true).build());
+    }
+  }
+
+  /**
+   * Filter and normalize outlinks.
+   *
+   * @param fromUrl
+   *          the URL of the page
+   * @param origin
+   *          host or domain of the page, if internal or external links are
+   *          ignored
+   * @param links
+   *          the outlinks of the page
+   * @param max
+   *          the maximum number of valid outlinks
+   * @return the filtered and normalized URL of every outlink, null if the
+   *         outlink is removed or after the first <code>max</code> valid
+   *         outlinks
+   */
+  String[] process(String fromUrl, String origin, Outlink[] links, int max)
+      throws IOException {
+    String[] result = new String[links.length];
+    // position of the first outlink with the same URL
+    int[] first = new int[links.length];
+    List<Integer> distinct = new ArrayList<Integer>();
+    Map<String, Integer> seen = new HashMap<String, Integer>();
+    for (int i = 0; i < links.length; i++) {
+      Integer pos = seen.get(links[i].getToUrl());
+      if (pos == null) {
+        seen.put(links[i].getToUrl(), i);
+        distinct.add(i);
+        first[i] = i;
+      } else {
+        first[i] = pos;
+      }
+    }
+
+    int valid = 0;
+    int next = 0; // next outlink to count
+    int done = 0; // number of distinct outlinks processed
+    while (valid < max && done < distinct.size()) {
+      int batch = Math.min(distinct.size() - done, max - valid);
+      process(fromUrl, origin, links, distinct.subList(done, done + batch),
+          result);
+      done += batch;
+      // all outlinks before the next unprocessed one are known
+      int end = done < distinct.size() ? distinct.get(done) : links.length;
+      for (; next < end && valid < max; next++) {
+        result[next] = result[first[next]];
+        if (result[next] != null)
+          valid++;
+      }
+    }
+    for (; next < links.length; next++) {
+      result[next] = null;
+    }
+    return result;
+  }
+
+  private void process(final String fromUrl, final String origin,
+      final Outlink[] links, List<Integer> positions, final String[] result)
+      throws IOException {
+    if (executor == null || positions.size() < MIN_PARALLEL_BATCH) {
+      for (int pos : positions) {
+        result[pos] = filterNormalize(fromUrl, origin, links[pos]);
+      }
+      return;
+    }
+    int slice = (positions.size() + threads - 1) / threads;
+    List<Future<?>> futures = new ArrayList<Future<?>>(threads);
+    for (int start = 0; start < positions.size(); start += slice) {
+      final List<Integer> part = positions.subList(start,
+          Math.min(positions.size(), start + slice));
+      futures.add(executor.submit(new Runnable() {
+        public void run() {
+          for (int pos : part) {
+            result[pos] = filterNormalize(fromUrl, origin, links[pos]);
+          }
+        }
+      }));
+    }
+    try {
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      for (Future<?> future : futures) {
+        future.cancel(true);
+      }
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted filtering outlinks of "
+          + fromUrl);
+    } catch (ExecutionException e) {
+      throw new IOException("Failed to filter outlinks of " + fromUrl,
+          e.getCause());
+    }
+  }
+
+  private String filterNormalize(String fromUrl, String origin, Outlink link) {
+    return ParseOutputFormat.filterNormalize(fromUrl, link.getToUrl(), origin,
+        ignoreInternalLinks, ignoreExternalLinks, ignoreExternalLinksMode,
+        filters, normalizers);
+  }
+
+  /** Stop the threads. */
+  void close() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+}
@@ -37,7 +37,6 @@ import org.apache.nutch.metadata.Nutch;
 import org.apache.nutch.net.*;
 
 import java.io.*;
-import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
@@ -124,6 +123,10 @@ public class ParseOutputFormat implements OutputFormat<Text, Parse> {
     final String[] parseMDtoCrawlDB = job.get("db.parsemeta.to.crawldb", "")
         .split(" *, *");
 
+    // outlinks are already filtered and normalized if parsed by the Fetcher
+    final OutlinkFilterNormalizer outlinkFilter = isParsing ? null
+        : new OutlinkFilterNormalizer(job, filters, normalizers);
+
     // textOut Options
     Option tKeyClassOpt = (Option) MapFile.Writer.keyClass(Text.class);
     org.apache.hadoop.io.SequenceFile.Writer.Option tValClassOpt = SequenceFile.Writer.valueClass(ParseText.class);
@@ -154,6 +157,11 @@ public class ParseOutputFormat implements OutputFormat<Text, Parse> {
 
     return new RecordWriter<Text, Parse>() {
 
+      // instances reused for the outlinks of every page, appended to
+      // crawlOut before the next page is written
+      private final List<SimpleEntry> targetPool = new ArrayList<SimpleEntry>();
+      private final List<Entry<Text, CrawlDatum>> targets = new ArrayList<Entry<Text, CrawlDatum>>();
+
       public void write(Text key, Parse parse) throws IOException {
 
         String fromUrl = key.toString();
@@ -231,23 +239,31 @@ public class ParseOutputFormat implements OutputFormat<Text, Parse> {
 
         int validCount = 0;
         CrawlDatum adjust = null;
-        List<Entry<Text, CrawlDatum>> targets = new ArrayList<Entry<Text, CrawlDatum>>(
-            outlinksToStore);
+        targets.clear();
         List<Outlink> outlinkList = new ArrayList<Outlink>(outlinksToStore);
+
+        // Only normalize and filter if fetcher.parse = false
+        String[] toUrls = null;
+        if (outlinkFilter != null) {
+          toUrls = outlinkFilter.process(fromUrl, origin, links,
+              outlinksToStore);
+        }
+
+        CrawlDatum linked = new CrawlDatum(CrawlDatum.STATUS_LINKED, interval);
         for (int i = 0; i < links.length && validCount < outlinksToStore; i++) {
-          String toUrl = links[i].getToUrl();
-
-          // Only normalize and filter if fetcher.parse = false
-          if (!isParsing) {
-            toUrl = ParseOutputFormat.filterNormalize(fromUrl, toUrl, origin,
-                ignoreInternalLinks, ignoreExternalLinks, ignoreExternalLinksMode, filters, normalizers);
-            if (toUrl == null) {
-              continue;
-            }
+          String toUrl = toUrls == null ? links[i].getToUrl() : toUrls[i];
+          if (toUrl == null) {
+            continue;
           }
 
-          CrawlDatum target = new CrawlDatum(CrawlDatum.STATUS_LINKED, interval);
-          Text targetUrl = new Text(toUrl);
+          if (targetPool.size() == validCount) {
+            targetPool.add(new SimpleEntry(new Text(), new CrawlDatum()));
+          }
+          SimpleEntry entry = targetPool.get(validCount);
+          CrawlDatum target = entry.getValue();
+          target.set(linked);
+          Text targetUrl = entry.getKey();
+          targetUrl.set(toUrl);
 
           // see if the outlink has any metadata attached
           // and if so pass that to the crawldatum so that
@@ -265,7 +281,7 @@ public class ParseOutputFormat implements OutputFormat<Text, Parse> {
             target.setScore(0.0f);
           }
 
-          targets.add(new SimpleEntry(targetUrl, target));
+          targets.add(entry);
 
           // OVerwrite URL in Outlink object with normalized URL (NUTCH-1174)
           links[i].setUrl(toUrl);
@@ -308,6 +324,8 @@ public class ParseOutputFormat implements OutputFormat<Text, Parse> {
       }
 
       public void close(Reporter reporter) throws IOException {
+        if (outlinkFilter != null)
+          outlinkFilter.close();
         textOut.close();
         dataOut.close();
         crawlOut.close();
@@ -333,35 +351,33 @@ public class ParseOutputFormat implements OutputFormat<Text, Parse> {
     if (fromUrl.equals(toUrl)) {
       return null;
     }
+    // parsed once and shared by all checks, normalizers and filters
+    URLView url = new URLView(toUrl);
     if (ignoreExternalLinks || ignoreInternalLinks) {
-      URL targetURL = null;
-      try {
-        targetURL = new URL(toUrl);
-      } catch (MalformedURLException e1) {
+      String toHost = url.getHost();
+      if (toHost == null) {
         return null; // skip it
       }
       if (ignoreExternalLinks) {
         if ("bydomain".equalsIgnoreCase(ignoreExternalLinksMode)) {
-          String toDomain = URLUtil.getDomainName(targetURL).toLowerCase();
+          String toDomain = url.getDomain();
           if (toDomain == null || !toDomain.equals(origin)) {
             return null; // skip it
           }
         } else {
-          String toHost = targetURL.getHost().toLowerCase();
-          if (toHost == null || !toHost.equals(origin)) {
+          if (!toHost.equals(origin)) {
             return null; // skip it
           }
         }
       }
       if (ignoreInternalLinks) {
         if ("bydomain".equalsIgnoreCase(ignoreExternalLinksMode)) {
-          String toDomain = URLUtil.getDomainName(targetURL).toLowerCase();
+          String toDomain = url.getDomain();
           if (toDomain == null || toDomain.equals(origin)) {
             return null; // skip it
           }
         } else {
-          String toHost = targetURL.getHost().toLowerCase();
-          if (toHost == null || toHost.equals(origin)) {
+          if (toHost.equals(origin)) {
             return null; // skip it
           }
         }
@@ -369,20 +385,20 @@ public class ParseOutputFormat implements OutputFormat<Text, Parse> {
     }
     try {
       if (normalizers != null) {
-        toUrl = normalizers.normalize(toUrl, urlNormalizerScope); // normalize
-                                                                  // the url
+        url = normalizers.normalize(url, urlNormalizerScope); // normalize
+                                                              // the url
       }
-      if (filters != null) {
-        toUrl = filters.filter(toUrl); // filter the url
+      if (filters != null && url != null) {
+        url = filters.filter(url); // filter the url
       }
-      if (toUrl == null) {
+      if (url == null) {
         return null;
       }
     } catch (Exception e) {
       return null;
     }
 
-    return toUrl;
+    return url.toString();
   }
 
 }
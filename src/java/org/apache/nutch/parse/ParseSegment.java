@@ -71,6 +71,12 @@ public class ParseSegment extends NutchTool implements Tool,
 
   public static final String SKIP_TRUNCATED = "parser.skip.truncated";
 
+  /** number of documents parsed concurrently by a map task */
+  public static final String THREADS = "parser.threads";
+
+  /** whether parses are output in the order of the input */
+  public static final String THREADS_ORDERED = "parser.threads.ordered";
+
   private ScoringFilters scfilters;
 
   private ParseUtil parseUtil;
@@ -94,6 +100,11 @@ public class ParseSegment extends NutchTool implements Tool,
   public void close() {
   }
 
+  /** Use the given parse utility instead of creating one lazily. */
+  void setParseUtil(ParseUtil parseUtil) {
+    this.parseUtil = parseUtil;
+  }
+
   private Text newKey = new Text();
 
   public void map(WritableComparable<?> key, Content content,
@@ -239,6 +250,7 @@ public class ParseSegment extends NutchTool implements Tool,
     job.set(Nutch.SEGMENT_NAME_KEY, segment.getName());
     job.setInputFormat(SequenceFileInputFormat.class);
     job.setMapperClass(ParseSegment.class);
+    job.setMapRunnerClass(ParseSegmentRunner.class);
     job.setReducerClass(ParseSegment.class);
 
     FileOutputFormat.setOutputPath(job, segment);
@@ -261,7 +273,7 @@ public class ParseSegment extends NutchTool implements Tool,
   public int run(String[] args) throws Exception {
     Path segment;
 
-    String usage = "Usage: ParseSegment segment [-noFilter] [-noNormalize]";
+    String usage = "Usage: ParseSegment segment [-noFilter] [-noNormalize] [-threads n]";
 
     if (args.length == 0) {
       System.err.println(usage);
@@ -276,6 +288,8 @@ public class ParseSegment extends NutchTool implements Tool,
           getConf().setBoolean("parse.filter.urls", false);
         } else if ("-nonormalize".equalsIgnoreCase(param)) {
           getConf().setBoolean("parse.normalize.urls", false);
+        } else if ("-threads".equalsIgnoreCase(param)) {
+          getConf().setInt(THREADS, Integer.parseInt(args[++i]));
         }
       }
     }
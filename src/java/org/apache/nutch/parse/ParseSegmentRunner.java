@@ -0,0 +1,302 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.parse;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.mapred.Counters.Counter;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapRunner;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.nutch.protocol.Content;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the {@link ParseSegment} mapper with <code>parser.threads</code>
+ * threads per map task. Every thread has its own copy of the job
+ * configuration, and therefore its own instances of the parser and filter
+ * plugins, and runs the parsers in-line (see
+ * {@link ParseUtil#ParseUtil(org.apache.hadoop.conf.Configuration, boolean)}).
+ * Parses are output in the order of the input if
+ * <code>parser.threads.ordered</code> is true, otherwise as soon as they are
+ * done. A document not parsed within twice the <code>parser.timeout</code> is
+ * skipped and its thread is replaced.
+ */
+public class ParseSegmentRunner extends
+    MapRunner<WritableComparable<?>, Content, Text, ParseImpl> {
+
+  public static final Logger LOG = LoggerFactory
+      .getLogger(ParseSegmentRunner.class);
+
+  private JobConf job;
+  private int threads;
+  private boolean ordered;
+  /** max. time in ms to parse a document, -1 if unlimited */
+  private long maxParseTime;
+
+  /** documents to be parsed */
+  private final BlockingQueue<Document> queue = new LinkedBlockingQueue<Document>();
+  /** signals parsed documents */
+  private final BlockingQueue<Document> done = new LinkedBlockingQueue<Document>();
+  /** documents read but not yet output, in input order */
+  private final LinkedList<Document> inFlight = new LinkedList<Document>();
+  private int workerCount = 0;
+  private volatile boolean stopped = false;
+
+  @Override
+  public void configure(JobConf job) {
+    super.configure(job);
+    this.job = job;
+    threads = job.getInt(ParseSegment.THREADS, 1);
+    ordered = job.getBoolean(ParseSegment.THREADS_ORDERED, true);
+    int timeout = job.getInt("parser.timeout", 30);
+    maxParseTime = timeout == -1 ? -1 : 2000L * timeout;
+  }
+
+  @Override
+  public void run(RecordReader<WritableComparable<?>, Content> input,
+      OutputCollector<Text, ParseImpl> output, Reporter reporter)
+      throws IOException {
+    if (threads <= 1) {
+      super.run(input, output, reporter);
+      return;
+    }
+    LOG.info("ParseSegmentRunner: threads: " + threads + ", ordered: "
+        + ordered);
+    Reporter syncReporter = new SynchronizedReporter(reporter);
+    for (int i = 0; i < threads; i++) {
+      startWorker(syncReporter);
+    }
+    try {
+      boolean eof = false;
+      while (true) {
+        while (!eof && inFlight.size() < 2 * threads) {
+          WritableComparable<?> key = input.createKey();
+          Content content = input.createValue();
+          if (!input.next(key, content)) {
+            eof = true;
+            break;
+          }
+          Document doc = new Document(key, content);
+          inFlight.add(doc);
+          queue.add(doc);
+        }
+        if (inFlight.isEmpty())
+          break;
+        if (done.poll(1, TimeUnit.SECONDS) == null) {
+          syncReporter.progress();
+        }
+        done.clear();
+        abandonOverdue(syncReporter);
+        collect(output);
+      }
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted parsing segment");
+    } finally {
+      stopped = true;
+      getMapper().close();
+    }
+  }
+
+  private void startWorker(Reporter reporter) {
+    Worker worker = new Worker(workerCount++, reporter);
+    worker.start();
+  }
+
+  /** Output parsed documents. */
+  private void collect(OutputCollector<Text, ParseImpl> output)
+      throws IOException {
+    Iterator<Document> it = inFlight.iterator();
+    while (it.hasNext()) {
+      Document doc = it.next();
+      if (doc.isDone()) {
+        it.remove();
+        doc.output(output);
+      } else if (ordered) {
+        break;
+      }
+    }
+  }
+
+  /** Skip documents parsed for too long and replace their threads. */
+  private void abandonOverdue(Reporter reporter) {
+    if (maxParseTime == -1)
+      return;
+    long startedBefore = System.currentTimeMillis() - maxParseTime;
+    for (Document doc : inFlight) {
+      if (doc.abandon(startedBefore)) {
+        LOG.warn("Parsing " + doc.key + " did not finish within "
+            + maxParseTime + "ms, skipped");
+        reporter.incrCounter("ParserStatus", "abandoned", 1);
+        startWorker(reporter);
+      }
+    }
+  }
+
+  /** A document and the result of parsing it. */
+  private static class Document implements OutputCollector<Text, ParseImpl> {
+    final WritableComparable<?> key;
+    final Content content;
+    private final List<Text> urls = new ArrayList<Text>(1);
+    private final List<ParseImpl> parses = new ArrayList<ParseImpl>(1);
+    private long started = 0;
+    private boolean done = false;
+    private boolean abandoned = false;
+
+    Document(WritableComparable<?> key, Content content) {
+      this.key = key;
+      this.content = content;
+    }
+
+    /** Collects the parses, called by the parsing thread only. */
+    public void collect(Text url, ParseImpl parse) {
+      urls.add(url);
+      parses.add(parse);
+    }
+
+    synchronized void start() {
+      started = System.currentTimeMillis();
+    }
+
+    /** @return false if the document has been abandoned */
+    synchronized boolean finish() {
+      if (abandoned)
+        return false;
+      done = true;
+      return true;
+    }
+
+    synchronized boolean isDone() {
+      return done;
+    }
+
+    /** @return true if the document is abandoned by this call */
+    synchronized boolean abandon(long startedBefore) {
+      if (done || started == 0 || started > startedBefore)
+        return false;
+      abandoned = true;
+      done = true;
+      return true;
+    }
+
+    void output(OutputCollector<Text, ParseImpl> output) throws IOException {
+      if (abandoned)
+        return;
+      for (int i = 0; i < urls.size(); i++) {
+        output.collect(urls.get(i), parses.get(i));
+      }
+    }
+  }
+
+  private class Worker extends Thread {
+    private final ParseSegment mapper;
+    private final Reporter reporter;
+
+    Worker(int id, Reporter reporter) {
+      super("parser-" + id);
+      setDaemon(true);
+      this.reporter = reporter;
+      // a private configuration gets private plugin instances
+      JobConf conf = new JobConf(job);
+      mapper = new ParseSegment();
+      mapper.configure(conf);
+      mapper.setParseUtil(new ParseUtil(conf, true));
+    }
+
+    public void run() {
+      try {
+        while (!stopped) {
+          Document doc = queue.poll(1, TimeUnit.SECONDS);
+          if (doc == null)
+            continue;
+          doc.start();
+          try {
+            mapper.map(doc.key, doc.content, doc, reporter);
+          } catch (Throwable t) {
+            LOG.warn("Error parsing: " + doc.key + ": " + t);
+          }
+          if (!doc.finish()) {
+            // another thread has taken over
+            LOG.info("Parsing " + doc.key + " finished after being skipped");
+            return;
+          }
+          done.add(doc);
+        }
+      } catch (InterruptedException e) {
+        // stop
+      } finally {
+        mapper.close();
+      }
+    }
+  }
+
+  /** Reporter shared by the parsing threads. */
+  private static class SynchronizedReporter implements Reporter {
+    private final Reporter reporter;
+
+    SynchronizedReporter(Reporter reporter) {
+      this.reporter = reporter;
+    }
+
+    public synchronized void progress() {
+      reporter.progress();
+    }
+
+    public synchronized void setStatus(String status) {
+      reporter.setStatus(status);
+    }
+
+    public synchronized Counter getCounter(Enum<?> name) {
+      return reporter.getCounter(name);
+    }
+
+    public synchronized Counter getCounter(String group, String name) {
+      return reporter.getCounter(group, name);
+    }
+
+    public synchronized void incrCounter(Enum<?> key, long amount) {
+      reporter.incrCounter(key, amount);
+    }
+
+    public synchronized void incrCounter(String group, String counter,
+        long amount) {
+      reporter.incrCounter(group, counter, amount);
+    }
+
+    public synchronized InputSplit getInputSplit() {
+      return reporter.getInputSplit();
+    }
+
+    public synchronized float getProgress() {
+      return reporter.getProgress();
+    }
+  }
+}
@@ -21,7 +21,11 @@ package org.apache.nutch.parse;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -48,15 +52,41 @@ public class ParseUtil {
   private int maxParseTime = 30;
   private ExecutorService executorService;
 
+  /** interrupts parsers running in the calling thread on timeout */
+  private static ScheduledThreadPoolExecutor timer;
+
   /**
    * 
    * @param conf
    */
   public ParseUtil(Configuration conf) {
+    this(conf, false);
+  }
+
+  /**
+   * @param conf
+   * @param inline
+   *          if true parsers are run in the calling thread, which is
+   *          interrupted if the parser does not finish within
+   *          <code>parser.timeout</code> seconds. Otherwise every parser is
+   *          run by a separate thread which is abandoned on timeout.
+   */
+  public ParseUtil(Configuration conf, boolean inline) {
     this.parserFactory = new ParserFactory(conf);
     maxParseTime = conf.getInt("parser.timeout", 30);
-    executorService = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
-        .setNameFormat("parse-%d").setDaemon(true).build());
+    if (!inline) {
+      executorService = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+          .setNameFormat("parse-%d").setDaemon(true).build());
+    }
+  }
+
+  private static synchronized ScheduledExecutorService getTimer() {
+    if (timer == null) {
+      timer = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+          .setNameFormat("parse-timeout-%d").setDaemon(true).build());
+      timer.setRemoveOnCancelPolicy(true);
+    }
+    return timer;
   }
 
   /**
@@ -164,6 +194,8 @@ public class ParseUtil {
   }
 
   private ParseResult runParser(Parser p, Content content) {
+    if (executorService == null)
+      return runParserInline(p, content);
     ParseCallable pc = new ParseCallable(p, content);
     Future<ParseResult> task = executorService.submit(pc);
     ParseResult res = null;
@@ -178,4 +210,49 @@ public class ParseUtil {
     return res;
   }
 
+  private ParseResult runParserInline(Parser p, Content content) {
+    ParseTimeout timeout = new ParseTimeout(Thread.currentThread());
+    ScheduledFuture<?> task = getTimer().schedule(timeout, maxParseTime,
+        TimeUnit.SECONDS);
+    ParseResult res = null;
+    try {
+      res = p.getParse(content);
+    } catch (Exception e) {
+      LOG.warn("Error parsing " + content.getUrl() + " with " + p, e);
+    } finally {
+      task.cancel(false);
+      if (timeout.finish()) {
+        // clear the interrupt status, the thread is reused
+        Thread.interrupted();
+        LOG.warn("Error parsing " + content.getUrl() + " with " + p,
+            new TimeoutException());
+        res = null;
+      }
+    }
+    return res;
+  }
+
+  /** Interrupts a parsing thread unless the parse has finished. */
+  private static class ParseTimeout implements Runnable {
+    private final Thread thread;
+    private boolean finished;
+    private boolean timedOut;
+
+    ParseTimeout(Thread thread) {
+      this.thread = thread;
+    }
+
+    public synchronized void run() {
+      if (!finished) {
+        timedOut = true;
+        thread.interrupt();
+      }
+    }
+
+    /** @return true if the parse has timed out */
+    synchronized boolean finish() {
+      finished = true;
+      return timedOut;
+    }
+  }
 }
@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol;
+
+import org.apache.hadoop.io.Text;
+import org.apache.nutch.crawl.CrawlDatum;
+
+/**
+ * A {@link Protocol} which is able to retrieve content without blocking the
+ * calling thread, e.g. using non-blocking I/O driven by a few event-loop
+ * threads. Used by the asynchronous fetcher mode (see
+ * <code>fetcher.mode</code>).
+ */
+public interface AsyncProtocol extends Protocol {
+
+  /** Receives the result of an asynchronous request. */
+  public interface Callback {
+
+    /**
+     * Called exactly once per request, from a thread owned by the protocol.
+     * Implementations must return quickly and must not block.
+     */
+    void completed(ProtocolOutput output);
+  }
+
+  /**
+   * Start retrieving the content for a fetchlist entry. This method returns
+   * immediately, the result (or the failure) is passed to the callback.
+   */
+  void getProtocolOutput(Text url, CrawlDatum datum, Callback callback);
+}
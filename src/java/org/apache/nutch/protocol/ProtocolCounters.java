@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * Counters incremented by protocol plugins, which have no access to the
+ * {@link Reporter} of the running task. The values are accumulated per JVM
+ * and moved to the job counters by the Fetcher.
+ */
+public class ProtocolCounters {
+
+  private static final ConcurrentMap<String, ConcurrentMap<String, AtomicLong>> COUNTERS = new ConcurrentHashMap<String, ConcurrentMap<String, AtomicLong>>();
+
+  private ProtocolCounters() {
+  }
+
+  public static void increment(String group, String name) {
+    increment(group, name, 1);
+  }
+
+  public static void increment(String group, String name, long amount) {
+    ConcurrentMap<String, AtomicLong> counters = COUNTERS.get(group);
+    if (counters == null) {
+      counters = new ConcurrentHashMap<String, AtomicLong>();
+      ConcurrentMap<String, AtomicLong> existing = COUNTERS.putIfAbsent(group,
+          counters);
+      if (existing != null)
+        counters = existing;
+    }
+    AtomicLong counter = counters.get(name);
+    if (counter == null) {
+      counter = new AtomicLong();
+      AtomicLong existing = counters.putIfAbsent(name, counter);
+      if (existing != null)
+        counter = existing;
+    }
+    counter.addAndGet(amount);
+  }
+
+  /**
+   * Add the values accumulated since the last call to the counters of the
+   * given reporter.
+   */
+  public static void report(Reporter reporter) {
+    for (Map.Entry<String, ConcurrentMap<String, AtomicLong>> group : COUNTERS
+        .entrySet()) {
+      for (Map.Entry<String, AtomicLong> counter : group.getValue().entrySet()) {
+        long value = counter.getValue().getAndSet(0);
+        if (value != 0)
+          reporter.incrCounter(group.getKey(), counter.getKey(), value);
+      }
+    }
+  }
+}
@@ -0,0 +1,348 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.VersionMismatchException;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import crawlercommons.robots.BaseRobotRules;
+import crawlercommons.robots.SimpleRobotRules;
+import crawlercommons.robots.SimpleRobotRules.RobotRulesMode;
+
+/**
+ * Cache of robots.txt rules, shared by all protocol instances of a JVM. Reads
+ * do not lock. Entries expire after a configurable time, failures to fetch
+ * robots.txt are cached for a shorter time. If the cache holds more than
+ * <code>http.robots.cache.size</code> entries the least recently used ones
+ * are evicted.
+ *
+ * <p>
+ * The cache can be saved to and loaded from a directory, so that rules
+ * fetched in one crawl cycle are used in the next one, see
+ * <code>fetcher.robots.cache.path</code>. Every task writes a sequence file
+ * with one {@link CachedRules} record per host, loading merges all files of
+ * the directory.
+ */
+public class RobotRulesCache {
+
+  public static final Logger LOG = LoggerFactory
+      .getLogger(RobotRulesCache.class);
+
+  private static class Entry {
+    final BaseRobotRules rules;
+    final long expires;
+    volatile long lastAccess;
+
+    Entry(BaseRobotRules rules, long expires) {
+      this.rules = rules;
+      this.expires = expires;
+      this.lastAccess = System.currentTimeMillis();
+    }
+  }
+
+  /**
+   * The rules of a host and their expiry time, as saved to a file. Only
+   * {@link SimpleRobotRules} are saved: the mode, the crawl delay, the defer
+   * visits flag, the sitemaps and the rules. crawler-commons does not expose
+   * the rules, they are read from the private fields of SimpleRobotRules.
+   */
+  public static class CachedRules implements Writable {
+
+    private static final byte CUR_VERSION = 1;
+
+    private static final Field RULES;
+    private static final Field MODE;
+    private static final Field PREFIX;
+    private static final Field ALLOW;
+    static {
+      Field rules = null, mode = null, prefix = null, allow = null;
+      try {
+        rules = SimpleRobotRules.class.getDeclaredField("_rules");
+        mode = SimpleRobotRules.class.getDeclaredField("_mode");
+        Class<?> rule = Class.forName(SimpleRobotRules.class.getName()
+            + "$RobotRule");
+        prefix = rule.getDeclaredField("_prefix");
+        allow = rule.getDeclaredField("_allow");
+        rules.setAccessible(true);
+        mode.setAccessible(true);
+        prefix.setAccessible(true);
+        allow.setAccessible(true);
+      } catch (Exception e) {
+        LOG.warn("Cannot access robots.txt rules, not saving them: " + e);
+        rules = null;
+      }
+      RULES = rules;
+      MODE = mode;
+      PREFIX = prefix;
+      ALLOW = allow;
+    }
+
+    long expires;
+    SimpleRobotRules rules;
+
+    /** @return true if the rules can be saved */
+    static boolean isSupported(BaseRobotRules rules) {
+      return RULES != null && rules instanceof SimpleRobotRules;
+    }
+
+    public long getExpires() {
+      return expires;
+    }
+
+    public SimpleRobotRules getRules() {
+      return rules;
+    }
+
+    public void readFields(DataInput in) throws IOException {
+      byte version = in.readByte();
+      if (version > CUR_VERSION)
+        throw new VersionMismatchException(CUR_VERSION, version);
+      expires = in.readLong();
+      RobotRulesMode[] modes = RobotRulesMode.values();
+      int mode = in.readByte();
+      if (mode < 0 || mode >= modes.length)
+        throw new IOException("Unknown robots.txt rules mode " + mode);
+      rules = new SimpleRobotRules(modes[mode]);
+      rules.setCrawlDelay(in.readLong());
+      rules.setDeferVisits(in.readBoolean());
+      int sitemaps = WritableUtils.readVInt(in);
+      for (int i = 0; i < sitemaps; i++) {
+        rules.addSitemap(Text.readString(in));
+      }
+      int count = WritableUtils.readVInt(in);
+      for (int i = 0; i < count; i++) {
+        String prefix = Text.readString(in);
+        rules.addRule(prefix, in.readBoolean());
+      }
+      rules.sortRules();
+    }
+
+    public void write(DataOutput out) throws IOException {
+      List<?> list;
+      RobotRulesMode mode;
+      try {
+        list = (List<?>) RULES.get(rules);
+        mode = (RobotRulesMode) MODE.get(rules);
+      } catch (IllegalAccessException e) {
+        throw new IOException(e);
+      }
+      out.writeByte(CUR_VERSION);
+      out.writeLong(expires);
+      out.writeByte(mode.ordinal());
+      out.writeLong(rules.getCrawlDelay());
+      out.writeBoolean(rules.isDeferVisits());
+      WritableUtils.writeVInt(out, rules.getSitemaps().size());
+      for (String sitemap : rules.getSitemaps()) {
+        Text.writeString(out, sitemap);
+      }
+      WritableUtils.writeVInt(out, list.size());
+      try {
+        for (Object rule : list) {
+          Text.writeString(out, (String) PREFIX.get(rule));
+          out.writeBoolean(ALLOW.getBoolean(rule));
+        }
+      } catch (IllegalAccessException e) {
+        throw new IOException(e);
+      }
+    }
+  }
+
+  private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+  private final AtomicBoolean evicting = new AtomicBoolean(false);
+  private volatile int maxEntries = 100000;
+  private volatile long ttl = 24L * 3600 * 1000;
+  private volatile long negativeTtl = 3600L * 1000;
+
+  public void setConf(Configuration conf) {
+    maxEntries = conf.getInt("http.robots.cache.size", 100000);
+    ttl = conf.getLong("http.robots.cache.ttl", 24L * 3600) * 1000;
+    negativeTtl = conf.getLong("http.robots.cache.ttl.negative", 3600) * 1000;
+  }
+
+  /**
+   * @return the rules cached for the key or null if none are cached or they
+   *         have expired
+   */
+  public BaseRobotRules get(String key) {
+    Entry entry = entries.get(key);
+    if (entry == null)
+      return null;
+    long now = System.currentTimeMillis();
+    if (entry.expires <= now) {
+      entries.remove(key, entry);
+      return null;
+    }
+    entry.lastAccess = now;
+    return entry.rules;
+  }
+
+  /** Cache rules fetched successfully. */
+  public void put(String key, BaseRobotRules rules) {
+    put(key, rules, System.currentTimeMillis() + ttl);
+  }
+
+  /**
+   * Cache the rules used if robots.txt could not be fetched (e.g., server
+   * errors or a failed redirect). These expire after
+   * <code>http.robots.cache.ttl.negative</code>.
+   */
+  public void putNegative(String key, BaseRobotRules rules) {
+    put(key, rules, System.currentTimeMillis() + negativeTtl);
+  }
+
+  private void put(String key, BaseRobotRules rules, long expires) {
+    entries.put(key, new Entry(rules, expires));
+    if (entries.size() > maxEntries)
+      evict();
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  public void clear() {
+    entries.clear();
+  }
+
+  /**
+   * Remove expired entries and the least recently used ones, down to 90% of
+   * the maximum size, so that this is not done on every insertion.
+   */
+  private void evict() {
+    if (!evicting.compareAndSet(false, true))
+      return; // another thread is already evicting
+    try {
+      long now = System.currentTimeMillis();
+      List<Map.Entry<String, Entry>> live = new ArrayList<Map.Entry<String, Entry>>(
+          entries.size());
+      for (Map.Entry<String, Entry> e : entries.entrySet()) {
+        if (e.getValue().expires <= now) {
+          entries.remove(e.getKey(), e.getValue());
+        } else {
+          live.add(e);
+        }
+      }
+      int target = (int) (maxEntries * 0.9);
+      if (live.size() <= target)
+        return;
+      Collections.sort(live, new Comparator<Map.Entry<String, Entry>>() {
+        public int compare(Map.Entry<String, Entry> a,
+            Map.Entry<String, Entry> b) {
+          long x = a.getValue().lastAccess;
+          long y = b.getValue().lastAccess;
+          return x < y ? -1 : (x == y ? 0 : 1);
+        }
+      });
+      for (int i = 0; i < live.size() - target; i++) {
+        Map.Entry<String, Entry> e = live.get(i);
+        entries.remove(e.getKey(), e.getValue());
+      }
+    } finally {
+      evicting.set(false);
+    }
+  }
+
+  /**
+   * Write the entries which have not expired to a file.
+   */
+  public void save(FileSystem fs, Path file) throws IOException {
+    long now = System.currentTimeMillis();
+    SequenceFile.Writer writer = SequenceFile.createWriter(fs.getConf(),
+        SequenceFile.Writer.file(fs.makeQualified(file)),
+        SequenceFile.Writer.keyClass(Text.class),
+        SequenceFile.Writer.valueClass(CachedRules.class),
+        SequenceFile.Writer.compression(SequenceFile.CompressionType.BLOCK));
+    int count = 0;
+    try {
+      Text key = new Text();
+      CachedRules value = new CachedRules();
+      for (Map.Entry<String, Entry> e : entries.entrySet()) {
+        Entry entry = e.getValue();
+        if (entry.expires <= now || !CachedRules.isSupported(entry.rules))
+          continue;
+        key.set(e.getKey());
+        value.expires = entry.expires;
+        value.rules = (SimpleRobotRules) entry.rules;
+        writer.append(key, value);
+        count++;
+      }
+    } finally {
+      writer.close();
+    }
+    LOG.info("Saved " + count + " robots.txt rules to " + file);
+  }
+
+  /**
+   * Add the entries saved to the files in a directory which have not expired
+   * yet. Unreadable files are skipped.
+   */
+  public void load(FileSystem fs, Path dir) throws IOException {
+    if (!fs.exists(dir))
+      return;
+    long now = System.currentTimeMillis();
+    int count = 0;
+    for (FileStatus status : fs.listStatus(dir)) {
+      if (status.isDirectory() || status.getPath().getName().startsWith("."))
+        continue;
+      SequenceFile.Reader reader = null;
+      try {
+        reader = new SequenceFile.Reader(fs.getConf(),
+            SequenceFile.Reader.file(status.getPath()));
+        Text key = new Text();
+        CachedRules value = new CachedRules();
+        while (reader.next(key, value)) {
+          Entry existing = entries.get(key.toString());
+          if (value.expires > now
+              && (existing == null || existing.expires < value.expires)) {
+            entries.put(key.toString(), new Entry(value.rules, value.expires));
+            count++;
+          }
+        }
+      } catch (Exception e) {
+        LOG.warn("Failed to load robots.txt rules from " + status.getPath()
+            + ": " + e);
+      } finally {
+        if (reader != null)
+          reader.close();
+      }
+    }
+    LOG.info("Loaded " + count + " robots.txt rules from " + dir);
+    if (entries.size() > maxEntries)
+      evict();
+  }
+}
@@ -26,7 +26,6 @@ import java.io.LineNumberReader;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.HashSet;
-import java.util.Hashtable;
 import java.util.Set;
 import java.util.StringTokenizer;
 
@@ -61,7 +60,7 @@ public abstract class RobotRulesParser implements Tool {
   public static final Logger LOG = LoggerFactory
       .getLogger(RobotRulesParser.class);
 
-  protected static final Hashtable<String, BaseRobotRules> CACHE = new Hashtable<String, BaseRobotRules>();
+  protected static final RobotRulesCache CACHE = new RobotRulesCache();
   
   /**
    * A {@link BaseRobotRules} object appropriate for use when the
@@ -100,6 +99,7 @@ public abstract class RobotRulesParser implements Tool {
    */
   public void setConf(Configuration conf) {
     this.conf = conf;
+    CACHE.setConf(conf);
 
     // Grab the agent names we advertise to robots files.
     String agentName = conf.get("http.agent.name");
@@ -148,6 +148,13 @@ public abstract class RobotRulesParser implements Tool {
     }
   }
 
+  /**
+   * @return the robots.txt rules cache shared by all parsers
+   */
+  public static RobotRulesCache getCache() {
+    return CACHE;
+  }
+
   /**
    * Get the {@link Configuration} object
    */
@@ -46,12 +46,12 @@ import org.apache.hadoop.mapred.Mapper;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reducer;
 import org.apache.hadoop.mapred.Reporter;
-import org.apache.hadoop.mapred.SequenceFileInputFormat;
 import org.apache.hadoop.util.StringUtils;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.nutch.crawl.CrawlDatum;
 import org.apache.nutch.crawl.CrawlDb;
+import org.apache.nutch.crawl.CrawlDbInputFormat;
 import org.apache.nutch.util.NutchConfiguration;
 import org.apache.nutch.util.NutchJob;
 import org.apache.nutch.util.TimingUtil;
@@ -161,17 +161,16 @@ public class ScoreUpdater extends Configured implements Tool,
     // create a temporary crawldb with the new scores
     LOG.info("Running crawldb update " + crawlDb);
     Path nodeDb = new Path(webGraphDb, WebGraph.NODE_DIR);
-    Path crawlDbCurrent = new Path(crawlDb, CrawlDb.CURRENT_NAME);
     Path newCrawlDb = new Path(crawlDb, Integer.toString(new Random()
         .nextInt(Integer.MAX_VALUE)));
 
     // run the updater job outputting to the temp crawl database
     JobConf updater = new NutchJob(conf);
     updater.setJobName("Update CrawlDb from WebGraph");
-    FileInputFormat.addInputPath(updater, crawlDbCurrent);
+    CrawlDb.addInputPath(updater, crawlDb);
     FileInputFormat.addInputPath(updater, nodeDb);
     FileOutputFormat.setOutputPath(updater, newCrawlDb);
-    updater.setInputFormat(SequenceFileInputFormat.class);
+    updater.setInputFormat(CrawlDbInputFormat.class);
     updater.setMapperClass(ScoreUpdater.class);
     updater.setReducerClass(ScoreUpdater.class);
     updater.setMapOutputKeyClass(Text.class);
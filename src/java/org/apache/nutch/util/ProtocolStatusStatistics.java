@@ -17,10 +17,10 @@
 
 package org.apache.nutch.util;
 
-import java.io.File;
 import java.io.IOException;
-import java.net.URL;
 import java.text.SimpleDateFormat;
+import java.util.Iterator;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.hadoop.conf.Configuration;
@@ -28,16 +28,20 @@ import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
-import org.apache.hadoop.mapreduce.Job;
-import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
-import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
-import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
-import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
-import org.apache.hadoop.mapreduce.Mapper;
-import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.TextOutputFormat;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.crawl.CrawlDb;
+import org.apache.nutch.crawl.CrawlDbInputFormat;
 import org.apache.nutch.util.NutchConfiguration;
 import org.apache.nutch.util.TimingUtil;
 import org.apache.nutch.metadata.Nutch;
@@ -97,18 +101,18 @@ public class ProtocolStatusStatistics extends Configured implements Tool {
     conf = getConf();
     conf.setBoolean("mapreduce.fileoutputcommitter.marksuccessfuljobs", false);
 
-    Job job = Job.getInstance(conf, jobName);
+    JobConf job = new NutchJob(conf);
+    job.setJobName(jobName);
     job.setJarByClass(ProtocolStatusStatistics.class);
 
     String[] inputDirsSpecs = inputDir.split(",");
     for (int i = 0; i < inputDirsSpecs.length; i++) {
-      File completeInputPath = new File(new File(inputDirsSpecs[i]), "current");
-      FileInputFormat.addInputPath(job, new Path(completeInputPath.toString()));
+      CrawlDb.addInputPath(job, new Path(inputDirsSpecs[i]));
     }
 
-    job.setInputFormatClass(SequenceFileInputFormat.class);
+    job.setInputFormat(CrawlDbInputFormat.class);
     FileOutputFormat.setOutputPath(job, new Path(outputDir));
-    job.setOutputFormatClass(TextOutputFormat.class);
+    job.setOutputFormat(TextOutputFormat.class);
 
     job.setMapOutputKeyClass(Text.class);
     job.setMapOutputValueClass(LongWritable.class);
@@ -120,11 +124,7 @@ public class ProtocolStatusStatistics extends Configured implements Tool {
     job.setCombinerClass(ProtocolStatusStatisticsCombiner.class);
     job.setNumReduceTasks(numOfReducers);
 
-    try {
-      job.waitForCompletion(true);
-    } catch (Exception e) {
-      throw e;
-    }
+    JobClient.runJob(job);
 
     long end = System.currentTimeMillis();
     LOG.info("ProtocolStatistics: finished at " + sdf.format(end) + ", elapsed: "
@@ -132,43 +132,46 @@ public class ProtocolStatusStatistics extends Configured implements Tool {
     return 0;
   }
 
-  static class ProtocolStatusStatisticsMapper extends
+  static class ProtocolStatusStatisticsMapper extends MapReduceBase implements
       Mapper<Text, CrawlDatum, Text, LongWritable> {
 
-    public void map(Text urlText, CrawlDatum datum, Context context)
-        throws IOException, InterruptedException {
+    public void map(Text urlText, CrawlDatum datum,
+        OutputCollector<Text, LongWritable> output, Reporter reporter)
+        throws IOException {
       if (datum.getMetaData().containsKey(Nutch.PROTOCOL_STATUS_CODE_KEY)) {
-        context.write((Text) datum.getMetaData().get(Nutch.PROTOCOL_STATUS_CODE_KEY), new LongWritable(1));
+        output.collect((Text) datum.getMetaData().get(Nutch.PROTOCOL_STATUS_CODE_KEY), new LongWritable(1));
       } else {
-        context.write(UNFETCHED_TEXT, new LongWritable(1));
+        output.collect(UNFETCHED_TEXT, new LongWritable(1));
       }
     }
   }
 
-  static class ProtocolStatusStatisticsReducer extends
+  static class ProtocolStatusStatisticsReducer extends MapReduceBase implements
       Reducer<Text, LongWritable, LongWritable, Text> {
-    public void reduce(Text key, Iterable<LongWritable> values, Context context)
-        throws IOException, InterruptedException {
+    public void reduce(Text key, Iterator<LongWritable> values,
+        OutputCollector<LongWritable, Text> output, Reporter reporter)
+        throws IOException {
       long total = 0;
 
-      for (LongWritable val : values) {
-        total += val.get();
+      while (values.hasNext()) {
+        total += values.next().get();
       }
 
-      context.write(new LongWritable(total), key);
+      output.collect(new LongWritable(total), key);
     }
   }
 
-  public static class ProtocolStatusStatisticsCombiner extends
-      Reducer<Text, LongWritable, Text, LongWritable> {
-    public void reduce(Text key, Iterable<LongWritable> values, Context context)
-        throws IOException, InterruptedException {
+  public static class ProtocolStatusStatisticsCombiner extends MapReduceBase
+      implements Reducer<Text, LongWritable, Text, LongWritable> {
+    public void reduce(Text key, Iterator<LongWritable> values,
+        OutputCollector<Text, LongWritable> output, Reporter reporter)
+        throws IOException {
       long total = 0;
 
-      for (LongWritable val : values) {
-        total += val.get();
+      while (values.hasNext()) {
+        total += values.next().get();
       }
-      context.write(key, new LongWritable(total));
+      output.collect(key, new LongWritable(total));
     }
   }
 
@@ -0,0 +1,356 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Quickly excludes regular expressions which cannot match a string. For every
+ * expression a literal is determined which any matching string must contain
+ * (see {@link #requiredLiteral(String)}). The literals of all expressions are
+ * searched in a single pass over the string (Aho-Corasick), so only the
+ * expressions whose literal was found, or which have none, need to be
+ * evaluated.
+ *
+ * <p>
+ * Works with the syntax of <code>java.util.regex</code> and of the
+ * <code>dk.brics.automaton</code> library, see {@link Syntax}. Instances are
+ * immutable and can be shared between threads.
+ * </p>
+ */
+public class RegexPrefilter {
+
+  /** The syntax of the regular expressions. */
+  public enum Syntax {
+    /** <code>java.util.regex</code> */
+    JAVA,
+    /**
+     * <code>dk.brics.automaton</code> with all optional operators, i.e.
+     * intersection (<code>&amp;</code>) and numerical intervals (
+     * <code>&lt;n-m&gt;</code>)
+     */
+    AUTOMATON
+  }
+
+  private static final int[] NO_OUTPUT = new int[0];
+
+  /** Characters which are literals in both supported syntaxes. */
+  private static final String LITERALS = "/:;,'%=_-!";
+
+  private static class Node {
+    char[] keys = new char[0];
+    Node[] children = new Node[0];
+    Node fail;
+    /** indexes of the expressions whose literal ends here */
+    int[] outputs = NO_OUTPUT;
+
+    Node get(char c) {
+      int i = Arrays.binarySearch(keys, c);
+      return i >= 0 ? children[i] : null;
+    }
+
+    Node add(char c) {
+      int i = Arrays.binarySearch(keys, c);
+      if (i >= 0)
+        return children[i];
+      i = -i - 1;
+      Node node = new Node();
+      char[] k = new char[keys.length + 1];
+      Node[] n = new Node[keys.length + 1];
+      System.arraycopy(keys, 0, k, 0, i);
+      System.arraycopy(children, 0, n, 0, i);
+      k[i] = c;
+      n[i] = node;
+      System.arraycopy(keys, i, k, i + 1, keys.length - i);
+      System.arraycopy(children, i, n, i + 1, keys.length - i);
+      keys = k;
+      children = n;
+      return node;
+    }
+
+    void addOutputs(int[] more) {
+      if (more.length == 0)
+        return;
+      int[] o = Arrays.copyOf(outputs, outputs.length + more.length);
+      System.arraycopy(more, 0, o, outputs.length, more.length);
+      outputs = o;
+    }
+  }
+
+  private final Node root = new Node();
+  private final BitSet unconditional = new BitSet();
+  private final String[] literals;
+
+  /**
+   * @param regexes
+   *          the expressions in <code>java.util.regex</code> syntax, referred
+   *          to by their index in the list
+   */
+  public RegexPrefilter(List<String> regexes) {
+    this(regexes, Syntax.JAVA);
+  }
+
+  /**
+   * @param regexes
+   *          the expressions, referred to by their index in the list
+   * @param syntax
+   *          the syntax of the expressions
+   */
+  public RegexPrefilter(List<String> regexes, Syntax syntax) {
+    literals = new String[regexes.size()];
+    for (int i = 0; i < literals.length; i++) {
+      String literal = requiredLiteral(regexes.get(i), syntax);
+      literals[i] = literal;
+      if (literal == null) {
+        unconditional.set(i);
+        continue;
+      }
+      Node node = root;
+      for (int j = 0; j < literal.length(); j++) {
+        node = node.add(literal.charAt(j));
+      }
+      node.addOutputs(new int[] { i });
+    }
+    // set the failure links breadth-first
+    LinkedList<Node> queue = new LinkedList<Node>();
+    for (Node child : root.children) {
+      child.fail = root;
+      queue.add(child);
+    }
+    while (!queue.isEmpty()) {
+      Node node = queue.removeFirst();
+      for (int i = 0; i < node.keys.length; i++) {
+        char c = node.keys[i];
+        Node child = node.children[i];
+        Node fail = node.fail;
+        while (fail != root && fail.get(c) == null) {
+          fail = fail.fail;
+        }
+        Node target = fail.get(c);
+        child.fail = (target != null && target != child) ? target : root;
+        child.addOutputs(child.fail.outputs);
+        queue.add(child);
+      }
+    }
+  }
+
+  /**
+   * @return the indexes of the expressions which may match the text, i.e.
+   *         those without a required literal and those whose literal occurs in
+   *         the text
+   */
+  public BitSet candidates(String text) {
+    BitSet result = (BitSet) unconditional.clone();
+    Node node = root;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      Node next = node.get(c);
+      while (next == null && node != root) {
+        node = node.fail;
+        next = node.get(c);
+      }
+      node = next == null ? root : next;
+      for (int o : node.outputs) {
+        result.set(o);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return the literal required by the expression at the given index or null
+   *         if none is known
+   */
+  public String getLiteral(int index) {
+    return literals[index];
+  }
+
+  /**
+   * Determine a literal which every string matched by a regular expression
+   * must contain. Only literals outside of groups and character classes are
+   * considered, the longest one is returned. The analysis is conservative,
+   * constructs which are not understood (top-level alternatives, inline flags,
+   * complements, quoting, ...) result in no literal.
+   *
+   * @return the literal or null if none could be determined
+   */
+  public static String requiredLiteral(String regex) {
+    return requiredLiteral(regex, Syntax.JAVA);
+  }
+
+  /**
+   * Determine a literal which every string matched by a regular expression of
+   * the given syntax must contain, see {@link #requiredLiteral(String)}.
+   *
+   * @return the literal or null if none could be determined
+   */
+  public static String requiredLiteral(String regex, Syntax syntax) {
+    boolean automaton = syntax == Syntax.AUTOMATON;
+    List<String> runs = new ArrayList<String>();
+    StringBuilder run = new StringBuilder();
+    int depth = 0;
+    int n = regex.length();
+    int i = 0;
+    while (i < n) {
+      char c = regex.charAt(i);
+      if (c == '\\') {
+        if (i + 1 >= n)
+          return null;
+        char d = regex.charAt(i + 1);
+        if (Character.isLetterOrDigit(d)) {
+          // predefined classes and anchors only, other escapes may consume
+          // the following characters
+          if ("dDsSwWbBAGZz".indexOf(d) < 0)
+            return null;
+          if (depth == 0)
+            flush(run, runs);
+        } else if (depth == 0) {
+          run.append(d);
+        }
+        i += 2;
+        continue;
+      }
+      if (c == '[') {
+        int end = skipClass(regex, i);
+        if (end < 0)
+          return null;
+        if (depth == 0)
+          flush(run, runs);
+        i = end;
+        continue;
+      }
+      if (c == '(') {
+        if (i + 2 < n && regex.charAt(i + 1) == '?'
+            && (Character.isLetter(regex.charAt(i + 2)) || regex
+                .charAt(i + 2) == '-')) {
+          // inline flags, e.g. case insensitive matching
+          return null;
+        }
+        if (depth == 0)
+          flush(run, runs);
+        depth++;
+        i++;
+        continue;
+      }
+      if (c == ')') {
+        if (depth == 0)
+          return null;
+        depth--;
+        i++;
+        continue;
+      }
+      if (c == '~' || c == '"') {
+        // complement or quoted string
+        return null;
+      }
+      if (automaton && c == '<') {
+        // numerical interval
+        int end = regex.indexOf('>', i);
+        if (end < 0)
+          return null;
+        if (depth == 0)
+          flush(run, runs);
+        i = end + 1;
+        continue;
+      }
+      if (automaton && c == '&') {
+        // intersection
+        return null;
+      }
+      if (depth > 0) {
+        i++;
+        continue;
+      }
+      switch (c) {
+      case '|':
+        // alternatives at the top level
+        return null;
+      case '?':
+      case '*':
+      case '{':
+        // the preceding literal character is optional
+        if (run.length() > 0)
+          run.setLength(run.length() - 1);
+        flush(run, runs);
+        if (c == '{') {
+          int end = regex.indexOf('}', i);
+          if (end < 0)
+            return null;
+          i = end;
+        }
+        break;
+      default:
+        if (Character.isLetterOrDigit(c) || LITERALS.indexOf(c) >= 0) {
+          run.append(c);
+        } else {
+          flush(run, runs);
+        }
+      }
+      i++;
+    }
+    if (depth != 0)
+      return null;
+    flush(run, runs);
+    String longest = null;
+    for (String r : runs) {
+      if (longest == null || r.length() > longest.length())
+        longest = r;
+    }
+    return longest;
+  }
+
+  private static void flush(StringBuilder run, List<String> runs) {
+    if (run.length() > 0) {
+      runs.add(run.toString());
+      run.setLength(0);
+    }
+  }
+
+  /**
+   * @return the position after the character class starting at
+   *         <code>start</code> or -1 if it cannot be parsed safely
+   */
+  private static int skipClass(String regex, int start) {
+    int i = start + 1;
+    if (i < regex.length() && regex.charAt(i) == '^')
+      i++;
+    if (i < regex.length() && regex.charAt(i) == ']')
+      return -1;
+    int level = 1;
+    while (i < regex.length()) {
+      char c = regex.charAt(i);
+      if (c == '\\') {
+        i += 2;
+        continue;
+      }
+      if (c == '[') {
+        level++;
+      } else if (c == ']') {
+        level--;
+        if (level == 0)
+          return i + 1;
+      }
+      i++;
+    }
+    return -1;
+  }
+}
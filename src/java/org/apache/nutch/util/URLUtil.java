@@ -19,7 +19,6 @@ package org.apache.nutch.util;
 
 import java.net.MalformedURLException;
 import java.net.*;
-import java.util.regex.Pattern;
 
 import org.apache.nutch.util.domain.DomainSuffix;
 import org.apache.nutch.util.domain.DomainSuffixes;
@@ -79,8 +78,27 @@ public class URLUtil {
     return new URL(base, target);
   }
 
-  private static Pattern IP_PATTERN = Pattern
-      .compile("(\\d{1,3}\\.){3}(\\d{1,3})");
+  /**
+   * Whether the first <code>end</code> characters of a host name are an IPv4
+   * address, i.e. four groups of one to three digits separated by dots.
+   */
+  private static boolean isIPv4(String host, int end) {
+    int groups = 0;
+    int digits = 0;
+    for (int i = 0; i < end; i++) {
+      char c = host.charAt(i);
+      if (c >= '0' && c <= '9') {
+        if (++digits > 3)
+          return false;
+      } else if (c == '.' && digits > 0 && groups < 3) {
+        groups++;
+        digits = 0;
+      } else {
+        return false;
+      }
+    }
+    return groups == 3 && digits > 0;
+  }
 
   /**
    * Returns the domain name of the url. The domain name of a url is the
@@ -92,25 +110,27 @@ public class URLUtil {
    * <code> apache.org</code>
    * */
   public static String getDomainName(URL url) {
-    DomainSuffixes tlds = DomainSuffixes.getInstance();
     String host = url.getHost();
+    int end = host.length();
     // it seems that java returns hostnames ending with .
-    if (host.endsWith("."))
-      host = host.substring(0, host.length() - 1);
-    if (IP_PATTERN.matcher(host).matches())
-      return host;
-
-    int index = 0;
-    String candidate = host;
-    for (; index >= 0;) {
-      index = candidate.indexOf('.');
-      String subCandidate = candidate.substring(index + 1);
-      if (tlds.isDomainSuffix(subCandidate)) {
-        return candidate;
+    if (end > 0 && host.charAt(end - 1) == '.')
+      end--;
+    int start;
+    if (isIPv4(host, end)) {
+      start = 0;
+    } else {
+      // the longest suffix shorter than the host name and one more label
+      DomainSuffix suffix = DomainSuffixes.getInstance().getLongestSuffix(
+          host, end, false);
+      if (suffix != null) {
+        start = host.lastIndexOf('.', end - suffix.getDomain().length() - 2) + 1;
+      } else {
+        // no known suffix, the last label
+        start = host.lastIndexOf('.', end - 1) + 1;
       }
-      candidate = subCandidate;
     }
-    return candidate;
+    return start == 0 && end == host.length() ? host : host.substring(start,
+        end);
   }
 
   /**
@@ -199,23 +219,12 @@ public class URLUtil {
    * the hostname
    */
   public static DomainSuffix getDomainSuffix(URL url) {
-    DomainSuffixes tlds = DomainSuffixes.getInstance();
     String host = url.getHost();
-    if (IP_PATTERN.matcher(host).matches())
+    if (isIPv4(host, host.length()))
       return null;
-
-    int index = 0;
-    String candidate = host;
-    for (; index >= 0;) {
-      index = candidate.indexOf('.');
-      String subCandidate = candidate.substring(index + 1);
-      DomainSuffix d = tlds.get(subCandidate);
-      if (d != null) {
-        return d;
-      }
-      candidate = subCandidate;
-    }
-    return null;
+    // a host name without dots may be a suffix itself
+    return DomainSuffixes.getInstance().getLongestSuffix(host, host.length(),
+        host.indexOf('.') < 0);
   }
 
   /**
@@ -232,7 +241,7 @@ public class URLUtil {
     String host = url.getHost();
     // return whole hostname, if it is an ipv4
     // TODO : handle ipv6
-    if (IP_PATTERN.matcher(host).matches())
+    if (isIPv4(host, host.length()))
       return new String[] { host };
     return host.split("\\.");
   }
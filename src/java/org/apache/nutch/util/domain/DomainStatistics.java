@@ -17,10 +17,11 @@
 
 package org.apache.nutch.util.domain;
 
-import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.text.SimpleDateFormat;
+import java.util.Iterator;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.hadoop.conf.Configuration;
@@ -28,16 +29,21 @@ import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
-import org.apache.hadoop.mapreduce.Job;
-import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
-import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
-import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
-import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
-import org.apache.hadoop.mapreduce.Mapper;
-import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.TextOutputFormat;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.crawl.CrawlDb;
+import org.apache.nutch.crawl.CrawlDbInputFormat;
+import org.apache.nutch.util.NutchJob;
 import org.apache.nutch.util.NutchConfiguration;
 import org.apache.nutch.util.TimingUtil;
 import org.apache.nutch.util.URLUtil;
@@ -115,18 +121,18 @@ public class DomainStatistics extends Configured implements Tool {
     conf.setInt("domain.statistics.mode", mode);
     conf.setBoolean("mapreduce.fileoutputcommitter.marksuccessfuljobs", false);
 
-    Job job = Job.getInstance(conf, jobName);
+    JobConf job = new NutchJob(conf);
+    job.setJobName(jobName);
     job.setJarByClass(DomainStatistics.class);
 
     String[] inputDirsSpecs = inputDir.split(",");
     for (int i = 0; i < inputDirsSpecs.length; i++) {
-      File completeInputPath = new File(new File(inputDirsSpecs[i]), "current");
-      FileInputFormat.addInputPath(job, new Path(completeInputPath.toString()));
+      CrawlDb.addInputPath(job, new Path(inputDirsSpecs[i]));
     }
 
-    job.setInputFormatClass(SequenceFileInputFormat.class);
+    job.setInputFormat(CrawlDbInputFormat.class);
     FileOutputFormat.setOutputPath(job, new Path(outputDir));
-    job.setOutputFormatClass(TextOutputFormat.class);
+    job.setOutputFormat(TextOutputFormat.class);
 
     job.setMapOutputKeyClass(Text.class);
     job.setMapOutputValueClass(LongWritable.class);
@@ -138,11 +144,7 @@ public class DomainStatistics extends Configured implements Tool {
     job.setCombinerClass(DomainStatisticsCombiner.class);
     job.setNumReduceTasks(numOfReducers);
 
-    try {
-      job.waitForCompletion(true);
-    } catch (Exception e) {
-      throw e;
-    }
+    JobClient.runJob(job);
 
     long end = System.currentTimeMillis();
     LOG.info("DomainStatistics: finished at " + sdf.format(end) + ", elapsed: "
@@ -150,17 +152,17 @@ public class DomainStatistics extends Configured implements Tool {
     return 0;
   }
 
-  static class DomainStatisticsMapper extends
+  static class DomainStatisticsMapper extends MapReduceBase implements
       Mapper<Text, CrawlDatum, Text, LongWritable> {
     int mode = 0;
 
-    public void setup(Context context) {
-      mode = context.getConfiguration().getInt("domain.statistics.mode",
-          MODE_DOMAIN);
+    public void configure(JobConf job) {
+      mode = job.getInt("domain.statistics.mode", MODE_DOMAIN);
     }
 
-    public void map(Text urlText, CrawlDatum datum, Context context)
-        throws IOException, InterruptedException {
+    public void map(Text urlText, CrawlDatum datum,
+        OutputCollector<Text, LongWritable> output, Reporter reporter)
+        throws IOException {
 
       if (datum.getStatus() == CrawlDatum.STATUS_DB_FETCHED
           || datum.getStatus() == CrawlDatum.STATUS_DB_NOTMODIFIED) {
@@ -184,46 +186,48 @@ public class DomainStatistics extends Configured implements Tool {
           }
           if (out.trim().equals("")) {
             LOG.info("url : " + url);
-            context.getCounter(MyCounter.EMPTY_RESULT).increment(1);
+            reporter.incrCounter(MyCounter.EMPTY_RESULT, 1);
           }
 
-          context.write(new Text(out), new LongWritable(1));
+          output.collect(new Text(out), new LongWritable(1));
         } catch (Exception ex) {
         }
 
-        context.getCounter(MyCounter.FETCHED).increment(1);
-        context.write(FETCHED_TEXT, new LongWritable(1));
+        reporter.incrCounter(MyCounter.FETCHED, 1);
+        output.collect(FETCHED_TEXT, new LongWritable(1));
       } else {
-        context.getCounter(MyCounter.NOT_FETCHED).increment(1);
-        context.write(NOT_FETCHED_TEXT, new LongWritable(1));
+        reporter.incrCounter(MyCounter.NOT_FETCHED, 1);
+        output.collect(NOT_FETCHED_TEXT, new LongWritable(1));
       }
     }
   }
 
-  static class DomainStatisticsReducer extends
+  static class DomainStatisticsReducer extends MapReduceBase implements
       Reducer<Text, LongWritable, LongWritable, Text> {
-    public void reduce(Text key, Iterable<LongWritable> values, Context context)
-        throws IOException, InterruptedException {
+    public void reduce(Text key, Iterator<LongWritable> values,
+        OutputCollector<LongWritable, Text> output, Reporter reporter)
+        throws IOException {
       long total = 0;
 
-      for (LongWritable val : values) {
-        total += val.get();
+      while (values.hasNext()) {
+        total += values.next().get();
       }
 
-      context.write(new LongWritable(total), key);
+      output.collect(new LongWritable(total), key);
     }
   }
 
-  public static class DomainStatisticsCombiner extends
-      Reducer<Text, LongWritable, Text, LongWritable> {
-    public void reduce(Text key, Iterable<LongWritable> values, Context context)
-        throws IOException, InterruptedException {
+  public static class DomainStatisticsCombiner extends MapReduceBase
+      implements Reducer<Text, LongWritable, Text, LongWritable> {
+    public void reduce(Text key, Iterator<LongWritable> values,
+        OutputCollector<Text, LongWritable> output, Reporter reporter)
+        throws IOException {
       long total = 0;
 
-      for (LongWritable val : values) {
-        total += val.get();
+      while (values.hasNext()) {
+        total += values.next().get();
       }
-      context.write(key, new LongWritable(total));
+      output.collect(key, new LongWritable(total));
     }
   }
 
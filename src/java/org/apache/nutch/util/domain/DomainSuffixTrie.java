@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.util.domain;
+
+import java.util.Arrays;
+
+/**
+ * Index of {@link DomainSuffix domain suffixes} as a trie of the reversed
+ * suffix strings. A host name is matched in a single scan from right to left
+ * over its characters, without creating substrings.
+ */
+class DomainSuffixTrie {
+
+  private static class Node {
+    /** sorted characters of the children */
+    char[] chars = new char[0];
+    Node[] children = new Node[0];
+    /** the suffix ending at this node, null if none */
+    DomainSuffix suffix;
+
+    Node child(char c) {
+      int i = Arrays.binarySearch(chars, c);
+      return i < 0 ? null : children[i];
+    }
+
+    Node addChild(char c) {
+      int i = Arrays.binarySearch(chars, c);
+      if (i >= 0)
+        return children[i];
+      i = -i - 1;
+      Node child = new Node();
+      char[] newChars = new char[chars.length + 1];
+      Node[] newChildren = new Node[children.length + 1];
+      System.arraycopy(chars, 0, newChars, 0, i);
+      System.arraycopy(children, 0, newChildren, 0, i);
+      newChars[i] = c;
+      newChildren[i] = child;
+      System.arraycopy(chars, i, newChars, i + 1, chars.length - i);
+      System.arraycopy(children, i, newChildren, i + 1, children.length - i);
+      chars = newChars;
+      children = newChildren;
+      return child;
+    }
+  }
+
+  private final Node root = new Node();
+
+  void add(DomainSuffix suffix) {
+    String domain = suffix.getDomain();
+    Node node = root;
+    for (int i = domain.length() - 1; i >= 0; i--) {
+      node = node.addChild(domain.charAt(i));
+    }
+    node.suffix = suffix;
+  }
+
+  /**
+   * Find the longest suffix of a host name which is a registered domain
+   * suffix and starts after a dot.
+   *
+   * @param host
+   *          the host name
+   * @param end
+   *          end index of the host name within <code>host</code>
+   * @param whole
+   *          whether the whole host name may match
+   * @return the matching domain suffix or null if none matches
+   */
+  DomainSuffix longestMatch(String host, int end, boolean whole) {
+    DomainSuffix match = null;
+    Node node = root;
+    for (int i = end - 1; i >= 0; i--) {
+      node = node.child(host.charAt(i));
+      if (node == null)
+        break;
+      if (node.suffix != null) {
+        if (i > 0 ? host.charAt(i - 1) == '.' : whole)
+          match = node.suffix;
+      }
+    }
+    return match;
+  }
+}
@@ -36,6 +36,9 @@ public class DomainSuffixes {
 
   private HashMap<String, DomainSuffix> domains = new HashMap<String, DomainSuffix>();
 
+  /** the suffixes indexed for matching host names */
+  private DomainSuffixTrie trie = new DomainSuffixTrie();
+
   private static DomainSuffixes instance;
 
   /** private ctor */
@@ -64,6 +67,7 @@ public class DomainSuffixes {
 
   void addDomainSuffix(DomainSuffix tld) {
     domains.put(tld.getDomain(), tld);
+    trie.add(tld);
   }
 
   /** return whether the extension is a registered domain entry */
@@ -83,4 +87,22 @@ public class DomainSuffixes {
     return domains.get(extension);
   }
 
+  /**
+   * Return the longest registered domain suffix of a host name, matching
+   * whole labels only. A suffix equal to the host name itself is only
+   * returned if <code>whole</code> is true.
+   * 
+   * @param host
+   *          the host name
+   * @param end
+   *          end index of the host name within <code>host</code>, e.g. to
+   *          skip a trailing dot
+   * @param whole
+   *          whether the whole host name may match
+   * @return the suffix or null if none matches
+   */
+  public DomainSuffix getLongestSuffix(String host, int end, boolean whole) {
+    return trie.longestMatch(host, end, whole);
+  }
+
 }
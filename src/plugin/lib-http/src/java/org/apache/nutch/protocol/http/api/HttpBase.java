@@ -20,6 +20,7 @@ package org.apache.nutch.protocol.http.api;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Reader;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -37,9 +38,11 @@ import org.apache.hadoop.util.StringUtils;
 // Nutch imports
 import org.apache.nutch.crawl.CrawlDatum;
 import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.net.protocols.HttpDateFormat;
 import org.apache.nutch.net.protocols.Response;
 import org.apache.nutch.protocol.Content;
 import org.apache.nutch.protocol.Protocol;
+import org.apache.nutch.protocol.ProtocolCounters;
 import org.apache.nutch.protocol.ProtocolException;
 import org.apache.nutch.protocol.ProtocolOutput;
 import org.apache.nutch.protocol.ProtocolStatus;
@@ -56,6 +59,9 @@ public abstract class HttpBase implements Protocol {
 
   public static final Text RESPONSE_TIME = new Text("_rs_");
 
+  /** Counter group of conditional requests */
+  public static final String REVALIDATION_COUNTER_GROUP = "FetcherRevalidation";
+
   public static final int BUFFER_SIZE = 8 * 1024;
 
   private static final byte[] EMPTY_CONTENT = new byte[0];
@@ -104,6 +110,9 @@ public abstract class HttpBase implements Protocol {
   /** Do we use HTTP/1.1? */
   protected boolean useHttp11 = false;
 
+  /** Pool of keep-alive connections, null if connections are not reused */
+  protected HttpConnectionPool connectionPool = null;
+
   /**
    * Record response time in CrawlDatum's meta data, see property
    * http.store.responsetime.
@@ -122,6 +131,9 @@ public abstract class HttpBase implements Protocol {
   /** Configuration directive for If-Modified-Since HTTP header */
   public boolean enableIfModifiedsinceHeader = true;
 
+  /** Configuration directive for If-None-Match HTTP header */
+  public boolean enableIfNoneMatchHeader = true;
+
   /** Creates a new instance of HttpBase */
   public HttpBase() {
     this(null);
@@ -151,8 +163,16 @@ public abstract class HttpBase implements Protocol {
     this.accept = conf.get("http.accept", accept);
     // backward-compatible default setting
     this.useHttp11 = conf.getBoolean("http.useHttp11", false);
+    int maxIdleConnections = conf.getInt("http.connection.pool.max.idle", 4);
+    if (useHttp11 && maxIdleConnections > 0) {
+      this.connectionPool = new HttpConnectionPool(maxIdleConnections,
+          conf.getLong("http.connection.pool.idle.timeout", 15000));
+    } else {
+      this.connectionPool = null;
+    }
     this.responseTime = conf.getBoolean("http.store.responsetime", true);
     this.enableIfModifiedsinceHeader = conf.getBoolean("http.enable.if.modified.since.header", true);
+    this.enableIfNoneMatchHeader = conf.getBoolean("http.enable.if.none.match.header", true);
     this.robots.setConf(conf);
 
     // NUTCH-1941: read list of alternating agent names
@@ -259,83 +279,186 @@ public abstract class HttpBase implements Protocol {
 
       long startTime = System.currentTimeMillis();
       Response response = getResponse(u, datum, false); // make a request
+      return getProtocolOutput(u, datum, response, startTime);
+    } catch (Throwable e) {
+      logger.error("Failed to get protocol output", e);
+      return new ProtocolOutput(null, new ProtocolStatus(e));
+    }
+  }
 
-      if (this.responseTime) {
-        int elapsedTime = (int) (System.currentTimeMillis() - startTime);
-        datum.getMetaData().put(RESPONSE_TIME, new IntWritable(elapsedTime));
+  /**
+   * Map a response to the protocol output passed to the fetcher.
+   * 
+   * @param u
+   *          the requested URL
+   * @param datum
+   *          page datum, receives the response time and status code
+   * @param response
+   *          the response received for the URL
+   * @param startTime
+   *          time the request was started
+   */
+  protected ProtocolOutput getProtocolOutput(URL u, CrawlDatum datum,
+      Response response, long startTime) throws MalformedURLException {
+    String urlString = u.toString();
+
+    if (this.responseTime) {
+      int elapsedTime = (int) (System.currentTimeMillis() - startTime);
+      datum.getMetaData().put(RESPONSE_TIME, new IntWritable(elapsedTime));
+    }
+
+    int code = response.getCode();
+    datum.getMetaData().put(Nutch.PROTOCOL_STATUS_CODE_KEY,
+      new Text(Integer.toString(code)));
+    updateValidators(datum, response);
+
+    byte[] content = response.getContent();
+    Content c = new Content(u.toString(), u.toString(),
+        (content == null ? EMPTY_CONTENT : content),
+        response.getHeader("Content-Type"), response.getHeaders(), this.conf);
+
+    if (code == 200) { // got a good response
+      return new ProtocolOutput(c); // return it
+
+    } else if (code >= 300 && code < 400) { // handle redirect
+      String location = response.getHeader("Location");
+      // some broken servers, such as MS IIS, use lowercase header name...
+      if (location == null)
+        location = response.getHeader("location");
+      if (location == null)
+        location = "";
+      u = new URL(u, location);
+      int protocolStatusCode;
+      switch (code) {
+      case 300: // multiple choices, preferred value in Location
+        protocolStatusCode = ProtocolStatus.MOVED;
+        break;
+      case 301: // moved permanently
+      case 305: // use proxy (Location is URL of proxy)
+        protocolStatusCode = ProtocolStatus.MOVED;
+        break;
+      case 302: // found (temporarily moved)
+      case 303: // see other (redirect after POST)
+      case 307: // temporary redirect
+        protocolStatusCode = ProtocolStatus.TEMP_MOVED;
+        break;
+      case 304: // not modified
+        protocolStatusCode = ProtocolStatus.NOTMODIFIED;
+        break;
+      default:
+        protocolStatusCode = ProtocolStatus.MOVED;
       }
+      // handle this in the higher layer.
+      return new ProtocolOutput(c, new ProtocolStatus(protocolStatusCode, u));
+    } else if (code == 400) { // bad request, mark as GONE
+      if (logger.isTraceEnabled()) {
+        logger.trace("400 Bad request: " + u);
+      }
+      return new ProtocolOutput(c, new ProtocolStatus(ProtocolStatus.GONE, u));
+    } else if (code == 401) { // requires authorization, but no valid auth
+                              // provided.
+      if (logger.isTraceEnabled()) {
+        logger.trace("401 Authentication Required");
+      }
+      return new ProtocolOutput(c, new ProtocolStatus(
+          ProtocolStatus.ACCESS_DENIED, "Authentication required: "
+              + urlString));
+    } else if (code == 404) {
+      return new ProtocolOutput(c, new ProtocolStatus(
+          ProtocolStatus.NOTFOUND, u));
+    } else if (code == 410) { // permanently GONE
+      return new ProtocolOutput(c, new ProtocolStatus(ProtocolStatus.GONE,
+          "Http: " + code + " url=" + u));
+    } else {
+      return new ProtocolOutput(c, new ProtocolStatus(
+          ProtocolStatus.EXCEPTION, "Http code=" + code + ", url=" + u));
+    }
+  }
 
-      int code = response.getCode();
-      datum.getMetaData().put(Nutch.PROTOCOL_STATUS_CODE_KEY,
-        new Text(Integer.toString(code)));
-
-      byte[] content = response.getContent();
-      Content c = new Content(u.toString(), u.toString(),
-          (content == null ? EMPTY_CONTENT : content),
-          response.getHeader("Content-Type"), response.getHeaders(), this.conf);
-
-      if (code == 200) { // got a good response
-        return new ProtocolOutput(c); // return it
-
-      } else if (code >= 300 && code < 400) { // handle redirect
-        String location = response.getHeader("Location");
-        // some broken servers, such as MS IIS, use lowercase header name...
-        if (location == null)
-          location = response.getHeader("location");
-        if (location == null)
-          location = "";
-        u = new URL(u, location);
-        int protocolStatusCode;
-        switch (code) {
-        case 300: // multiple choices, preferred value in Location
-          protocolStatusCode = ProtocolStatus.MOVED;
-          break;
-        case 301: // moved permanently
-        case 305: // use proxy (Location is URL of proxy)
-          protocolStatusCode = ProtocolStatus.MOVED;
-          break;
-        case 302: // found (temporarily moved)
-        case 303: // see other (redirect after POST)
-        case 307: // temporary redirect
-          protocolStatusCode = ProtocolStatus.TEMP_MOVED;
-          break;
-        case 304: // not modified
-          protocolStatusCode = ProtocolStatus.NOTMODIFIED;
-          break;
-        default:
-          protocolStatusCode = ProtocolStatus.MOVED;
-        }
-        // handle this in the higher layer.
-        return new ProtocolOutput(c, new ProtocolStatus(protocolStatusCode, u));
-      } else if (code == 400) { // bad request, mark as GONE
-        if (logger.isTraceEnabled()) {
-          logger.trace("400 Bad request: " + u);
-        }
-        return new ProtocolOutput(c, new ProtocolStatus(ProtocolStatus.GONE, u));
-      } else if (code == 401) { // requires authorization, but no valid auth
-                                // provided.
-        if (logger.isTraceEnabled()) {
-          logger.trace("401 Authentication Required");
-        }
-        return new ProtocolOutput(c, new ProtocolStatus(
-            ProtocolStatus.ACCESS_DENIED, "Authentication required: "
-                + urlString));
-      } else if (code == 404) {
-        return new ProtocolOutput(c, new ProtocolStatus(
-            ProtocolStatus.NOTFOUND, u));
-      } else if (code == 410) { // permanently GONE
-        return new ProtocolOutput(c, new ProtocolStatus(ProtocolStatus.GONE,
-            "Http: " + code + " url=" + u));
-      } else {
-        return new ProtocolOutput(c, new ProtocolStatus(
-            ProtocolStatus.EXCEPTION, "Http code=" + code + ", url=" + u));
+  /**
+   * Keep the validators of a successful response in the datum's meta data, so
+   * that the next fetch of the page is a conditional request, see
+   * {@link #getIfNoneMatch(CrawlDatum)} and
+   * {@link #getIfModifiedSince(CrawlDatum)}. A 304 response keeps the stored
+   * validators and counts the bytes of the last content as saved.
+   */
+  protected void updateValidators(CrawlDatum datum, Response response) {
+    // count every request sent with a validator, whatever the response
+    if (getIfNoneMatch(datum) != null || getIfModifiedSince(datum) != null) {
+      ProtocolCounters.increment(REVALIDATION_COUNTER_GROUP,
+          "conditional_requests");
+    }
+    int code = response.getCode();
+    if (code != 200 && code != 304)
+      return;
+    String etag = response.getHeader(Response.ETAG);
+    String lastModified = response.getHeader(Response.LAST_MODIFIED);
+    if (code == 304) {
+      ProtocolCounters.increment(REVALIDATION_COUNTER_GROUP, "not_modified");
+      IntWritable length = (IntWritable) datum.getMetaData().get(
+          Nutch.WRITABLE_CONTENT_LENGTH_KEY);
+      if (length != null) {
+        ProtocolCounters.increment(REVALIDATION_COUNTER_GROUP, "bytes_saved",
+            length.get());
       }
-    } catch (Throwable e) {
-      logger.error("Failed to get protocol output", e);
-      return new ProtocolOutput(null, new ProtocolStatus(e));
+      // a 304 response may update the validators
+      if (etag != null)
+        datum.getMetaData().put(Nutch.WRITABLE_ETAG_KEY, new Text(etag));
+      if (lastModified != null)
+        datum.getMetaData().put(Nutch.WRITABLE_LAST_MODIFIED_KEY,
+            new Text(lastModified));
+      return;
+    }
+    if (etag != null) {
+      datum.getMetaData().put(Nutch.WRITABLE_ETAG_KEY, new Text(etag));
+    } else {
+      datum.getMetaData().remove(Nutch.WRITABLE_ETAG_KEY);
+    }
+    if (lastModified != null) {
+      datum.getMetaData().put(Nutch.WRITABLE_LAST_MODIFIED_KEY,
+          new Text(lastModified));
+    } else {
+      datum.getMetaData().remove(Nutch.WRITABLE_LAST_MODIFIED_KEY);
+    }
+    byte[] content = response.getContent();
+    if (etag != null || lastModified != null) {
+      datum.getMetaData().put(Nutch.WRITABLE_CONTENT_LENGTH_KEY,
+          new IntWritable(content == null ? 0 : content.length));
+    } else {
+      datum.getMetaData().remove(Nutch.WRITABLE_CONTENT_LENGTH_KEY);
     }
   }
 
+  /**
+   * @return the value of the If-None-Match header to revalidate the content
+   *         of a datum, or null if no ETag is known
+   */
+  public String getIfNoneMatch(CrawlDatum datum) {
+    if (!enableIfNoneMatchHeader || !datum.hasMetaData())
+      return null;
+    Text etag = (Text) datum.getMetaData().get(Nutch.WRITABLE_ETAG_KEY);
+    return etag == null ? null : etag.toString();
+  }
+
+  /**
+   * @return the value of the If-Modified-Since header to revalidate the
+   *         content of a datum: the Last-Modified date sent by the server or
+   *         else the modified time of the datum, null if neither is known
+   */
+  public String getIfModifiedSince(CrawlDatum datum) {
+    if (!enableIfModifiedsinceHeader)
+      return null;
+    if (datum.hasMetaData()) {
+      Text lastModified = (Text) datum.getMetaData().get(
+          Nutch.WRITABLE_LAST_MODIFIED_KEY);
+      if (lastModified != null)
+        return lastModified.toString();
+    }
+    if (datum.getModifiedTime() > 0)
+      return HttpDateFormat.toString(datum.getModifiedTime());
+    return null;
+  }
+
   /*
    * -------------------------- * </implementation:Protocol> *
    * --------------------------
@@ -394,6 +517,16 @@ public abstract class HttpBase implements Protocol {
     return useHttp11;
   }
 
+  /**
+   * Pool of keep-alive connections shared by all fetcher threads.
+   * 
+   * @return the pool or null if HTTP/1.1 is disabled or connections should
+   *         not be reused
+   */
+  public HttpConnectionPool getConnectionPool() {
+    return connectionPool;
+  }
+
   public Set<String> getTlsPreferredCipherSuites() {
     return tlsPreferredCipherSuites;
   }
@@ -454,6 +587,7 @@ public abstract class HttpBase implements Protocol {
       logger.info("http.agent = " + userAgent);
       logger.info("http.accept.language = " + acceptLanguage);
       logger.info("http.accept = " + accept);
+      logger.info("http.connection.pool = " + (connectionPool != null));
     }
   }
 
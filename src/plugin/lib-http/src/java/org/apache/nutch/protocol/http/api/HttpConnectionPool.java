@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.http.api;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.nutch.protocol.ProtocolCounters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A per-host pool of idle keep-alive connections, shared by all threads using
+ * the same protocol instance. Connections are kept for at most the configured
+ * idle time, or the time announced by the server in a
+ * <code>Keep-Alive: timeout=N</code> header if shorter.
+ *
+ * <p>
+ * Reuse is reported in the counter group {@link #COUNTER_GROUP}.
+ */
+public class HttpConnectionPool {
+
+  private static final Logger LOG = LoggerFactory
+      .getLogger(HttpConnectionPool.class);
+
+  public static final String COUNTER_GROUP = "FetcherConnections";
+
+  private static class IdleConnection {
+    final Socket socket;
+    final long expires;
+
+    IdleConnection(Socket socket, long expires) {
+      this.socket = socket;
+      this.expires = expires;
+    }
+  }
+
+  private final ConcurrentMap<String, ArrayDeque<IdleConnection>> idle = new ConcurrentHashMap<String, ArrayDeque<IdleConnection>>();
+  private final int maxIdlePerHost;
+  private final long idleTimeout;
+  private volatile long lastEviction = System.currentTimeMillis();
+
+  /**
+   * @param maxIdlePerHost
+   *          maximum number of idle connections kept per host
+   * @param idleTimeout
+   *          maximum time in milliseconds an idle connection is kept
+   */
+  public HttpConnectionPool(int maxIdlePerHost, long idleTimeout) {
+    this.maxIdlePerHost = maxIdlePerHost;
+    this.idleTimeout = idleTimeout;
+  }
+
+  /**
+   * Get an idle connection to the given host.
+   *
+   * @param key
+   *          identifies scheme, host and port of the connection
+   * @return an open socket or null if no connection is available
+   */
+  public Socket acquire(String key) {
+    long now = System.currentTimeMillis();
+    evictExpired(now);
+    ArrayDeque<IdleConnection> connections = idle.get(key);
+    if (connections != null) {
+      while (true) {
+        IdleConnection connection;
+        synchronized (connections) {
+          // most recently used first, it is the least likely to be closed
+          connection = connections.pollLast();
+          removeIfEmpty(key, connections);
+        }
+        if (connection == null)
+          break;
+        if (connection.expires > now && !connection.socket.isClosed()
+            && !connection.socket.isInputShutdown()) {
+          ProtocolCounters.increment(COUNTER_GROUP, "connections_reused");
+          return connection.socket;
+        }
+        close(connection.socket);
+      }
+    }
+    ProtocolCounters.increment(COUNTER_GROUP, "connections_opened");
+    return null;
+  }
+
+  /**
+   * Give back a connection whose response has been read completely.
+   *
+   * @param key
+   *          identifies scheme, host and port of the connection
+   * @param socket
+   *          the connection
+   * @param keepAlive
+   *          time in milliseconds the server keeps the connection open, or -1
+   *          if unknown
+   */
+  public void release(String key, Socket socket, long keepAlive) {
+    long timeout = idleTimeout;
+    if (keepAlive >= 0 && keepAlive < timeout)
+      timeout = keepAlive;
+    if (timeout <= 0) {
+      close(socket);
+      return;
+    }
+    IdleConnection evicted = null;
+    while (true) {
+      ArrayDeque<IdleConnection> connections = idle.get(key);
+      if (connections == null) {
+        connections = new ArrayDeque<IdleConnection>();
+        ArrayDeque<IdleConnection> existing = idle.putIfAbsent(key,
+            connections);
+        if (existing != null)
+          connections = existing;
+      }
+      synchronized (connections) {
+        // retry if the deque was removed from the pool after it was emptied
+        if (idle.get(key) != connections)
+          continue;
+        if (connections.size() >= maxIdlePerHost)
+          evicted = connections.pollFirst();
+        connections.addLast(new IdleConnection(socket,
+            System.currentTimeMillis() + timeout));
+        break;
+      }
+    }
+    if (evicted != null)
+      close(evicted.socket);
+  }
+
+  /**
+   * Count a connection which was found to be closed by the server when it was
+   * reused.
+   */
+  public void stale() {
+    ProtocolCounters.increment(COUNTER_GROUP, "connections_stale");
+  }
+
+  private void evictExpired(long now) {
+    if (now - lastEviction < idleTimeout)
+      return;
+    lastEviction = now;
+    for (Map.Entry<String, ArrayDeque<IdleConnection>> entry : idle.entrySet()) {
+      ArrayDeque<IdleConnection> connections = entry.getValue();
+      synchronized (connections) {
+        Iterator<IdleConnection> it = connections.iterator();
+        while (it.hasNext()) {
+          IdleConnection connection = it.next();
+          if (connection.expires <= now) {
+            it.remove();
+            close(connection.socket);
+          }
+        }
+        removeIfEmpty(entry.getKey(), connections);
+      }
+    }
+  }
+
+  /**
+   * Remove the deque of a host from the pool once it is empty, so that hosts
+   * fetched only once do not stay in the pool. Must be called holding the lock
+   * of the deque.
+   */
+  private void removeIfEmpty(String key, ArrayDeque<IdleConnection> connections) {
+    if (connections.isEmpty())
+      idle.remove(key, connections);
+  }
+
+  /** @return the number of hosts with idle connections */
+  int size() {
+    return idle.size();
+  }
+
+  private static void close(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      LOG.debug("Failed to close idle connection", e);
+    }
+  }
+}
@@ -160,6 +160,9 @@ public class HttpRobotRulesParser extends RobotRulesParser {
         // cache also for the redirected host
         CACHE.put(getCacheKey(redir), robotRules);
       }
+    } else {
+      // try again later to fetch robots.txt, but not for every URL
+      CACHE.putNegative(cacheKey, robotRules);
     }
 
     return robotRules;
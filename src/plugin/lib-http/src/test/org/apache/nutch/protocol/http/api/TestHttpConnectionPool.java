@@ -0,0 +1,61 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.protocol.http.api;
+
+import java.net.Socket;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests that the {@link HttpConnectionPool} does not keep hosts without idle
+ * connections.
+ */
+public class TestHttpConnectionPool {
+
+  @Test
+  public void testRemoveEmptyHosts() throws Exception {
+    HttpConnectionPool pool = new HttpConnectionPool(2, 10000);
+    Socket socket = new Socket();
+    pool.release("HTTP://a.example.com:80", socket, -1);
+    pool.release("HTTP://b.example.com:80", new Socket(), -1);
+    Assert.assertEquals(2, pool.size());
+
+    // borrowing the last connection of a host removes the host
+    Assert.assertSame(socket, pool.acquire("HTTP://a.example.com:80"));
+    Assert.assertEquals(1, pool.size());
+    Assert.assertNull(pool.acquire("HTTP://a.example.com:80"));
+    Assert.assertEquals(1, pool.size());
+
+    // the host can be added again
+    pool.release("HTTP://a.example.com:80", socket, -1);
+    Assert.assertEquals(2, pool.size());
+  }
+
+  @Test
+  public void testRemoveExpiredHosts() throws Exception {
+    HttpConnectionPool pool = new HttpConnectionPool(2, 50);
+    Socket socket = new Socket();
+    pool.release("HTTP://a.example.com:80", socket, -1);
+    Thread.sleep(100);
+    // the sweep closes the expired connection and removes the host
+    Assert.assertNull(pool.acquire("HTTP://b.example.com:80"));
+    Assert.assertTrue(socket.isClosed());
+    Assert.assertEquals(0, pool.size());
+  }
+}
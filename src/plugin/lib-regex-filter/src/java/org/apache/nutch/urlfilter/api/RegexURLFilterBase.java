@@ -24,9 +24,11 @@ import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.io.IOException;
 import java.io.StringReader;
-import java.net.MalformedURLException;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Map;
 
 // Commons Logging imports
 import org.slf4j.Logger;
@@ -37,7 +39,7 @@ import org.apache.hadoop.conf.Configuration;
 
 // Nutch imports
 import org.apache.nutch.net.*;
-import org.apache.nutch.util.URLUtil;
+import org.apache.nutch.util.RegexPrefilter;
 
 /**
  * Generic {@link org.apache.nutch.net.URLFilter URL filter} based on regular
@@ -58,9 +60,16 @@ import org.apache.nutch.util.URLUtil;
  * <code>-</code>)means no.
  * </p>
  * 
+ * <p>
+ * Instead of evaluating every rule in turn, a {@link RegexPrefilter} first
+ * determines in a single pass over the URL the rules which may match, and
+ * rules for other hosts or domains are skipped by a lookup. The first of the
+ * remaining rules which matches decides, as before.
+ * </p>
+ * 
  * @author J&eacute;r&ocirc;me Charron
  */
-public abstract class RegexURLFilterBase implements URLFilter {
+public abstract class RegexURLFilterBase implements URLViewFilter {
 
   /** My logger */
   private final static Logger LOG = LoggerFactory
@@ -69,6 +78,18 @@ public abstract class RegexURLFilterBase implements URLFilter {
   /** An array of applicable rules */
   private List<RegexRule> rules;
 
+  /** Finds the rules which may match an URL */
+  private RegexPrefilter prefilter;
+
+  /** The rules which apply to all hosts */
+  private BitSet globalRules;
+
+  /** The rules which apply to a host or domain only */
+  private Map<String, BitSet> hostRules;
+
+  /** Whether to use the prefilter, see {@link #setPrefilter(boolean)} */
+  private boolean usePrefilter = true;
+
   /** The current configuration */
   private Configuration conf;
 
@@ -110,7 +131,7 @@ public abstract class RegexURLFilterBase implements URLFilter {
    */
   protected RegexURLFilterBase(Reader reader) throws IOException,
       IllegalArgumentException {
-    rules = readRules(reader);
+    setRules(readRules(reader));
   }
 
   /**
@@ -151,6 +172,16 @@ public abstract class RegexURLFilterBase implements URLFilter {
   protected abstract Reader getRulesReader(Configuration conf)
       throws IOException;
 
+  /**
+   * Returns the syntax of the regular expressions of the rules, needed by the
+   * {@link RegexPrefilter} to determine the literals required by the rules.
+   * 
+   * @return {@link RegexPrefilter.Syntax#JAVA}, unless overridden
+   */
+  protected RegexPrefilter.Syntax getRegexSyntax() {
+    return RegexPrefilter.Syntax.JAVA;
+  }
+
   /*
    * -------------------------- * <implementation:URLFilter> *
    * --------------------------
@@ -158,14 +189,18 @@ public abstract class RegexURLFilterBase implements URLFilter {
 
   // Inherited Javadoc
   public String filter(String url) {
-    String host = URLUtil.getHost(url);
-    String domain = null;
-    
-    try {
-      domain = URLUtil.getDomainName(url);
-    } catch (MalformedURLException e) {
-      // shouldnt happen here right?
+    URLView view = filter(new URLView(url));
+    return view == null ? null : view.toString();
+  }
+
+  // Inherited Javadoc
+  public URLView filter(URLView urlView) {
+    if (usePrefilter) {
+      return filterIndexed(urlView);
     }
+    String url = urlView.toString();
+    String host = urlView.getHost();
+    String domain = urlView.getDomain();
     
     if (LOG.isDebugEnabled()) {
       LOG.debug("URL belongs to host " + host + " and domain " + domain);
@@ -188,13 +223,53 @@ public abstract class RegexURLFilterBase implements URLFilter {
       }
 
       if (rule.match(url)) {
-        return rule.accept() ? url : null;
+        return rule.accept() ? urlView : null;
       }
     }
     ;
     return null;
   }
 
+  /**
+   * Apply the rules which may match according to the prefilter and apply to
+   * the host or domain of the URL, in the order of the rules file.
+   */
+  private URLView filterIndexed(URLView urlView) {
+    String url = urlView.toString();
+    BitSet candidates = prefilter.candidates(url);
+    if (hostRules.isEmpty()) {
+      candidates.and(globalRules);
+    } else {
+      BitSet scope = (BitSet) globalRules.clone();
+      String host = urlView.getHost();
+      if (host != null) {
+        BitSet forHost = hostRules.get(host);
+        if (forHost != null)
+          scope.or(forHost);
+        BitSet forDomain = hostRules.get(urlView.getDomain());
+        if (forDomain != null)
+          scope.or(forDomain);
+      }
+      candidates.and(scope);
+    }
+    for (int i = candidates.nextSetBit(0); i >= 0; i = candidates
+        .nextSetBit(i + 1)) {
+      RegexRule rule = rules.get(i);
+      if (rule.match(url)) {
+        return rule.accept() ? urlView : null;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Enable or disable the prefilter. If disabled every rule is evaluated in
+   * turn, which gives the same results but is slower for larger rule sets.
+   */
+  public void setPrefilter(boolean usePrefilter) {
+    this.usePrefilter = usePrefilter;
+  }
+
   /*
    * --------------------------- * </implementation:URLFilter> *
    * ---------------------------
@@ -217,7 +292,7 @@ public abstract class RegexURLFilterBase implements URLFilter {
       throw new RuntimeException(e.getMessage(), e);
     }
     try {
-      rules = readRules(reader);
+      setRules(readRules(reader));
     } catch (IOException e) {
       if (LOG.isErrorEnabled()) {
         LOG.error(e.getMessage());
@@ -235,6 +310,33 @@ public abstract class RegexURLFilterBase implements URLFilter {
    * ------------------------------
    */
 
+  /**
+   * Set the rules and index them for {@link #filterIndexed(URLView)}.
+   */
+  private void setRules(List<RegexRule> rules) {
+    List<String> regexes = new ArrayList<String>(rules.size());
+    BitSet globalRules = new BitSet();
+    Map<String, BitSet> hostRules = new HashMap<String, BitSet>();
+    for (int i = 0; i < rules.size(); i++) {
+      RegexRule rule = rules.get(i);
+      regexes.add(rule.regex());
+      if (rule.hostOrDomain() == null) {
+        globalRules.set(i);
+      } else {
+        BitSet forHost = hostRules.get(rule.hostOrDomain());
+        if (forHost == null) {
+          forHost = new BitSet();
+          hostRules.put(rule.hostOrDomain(), forHost);
+        }
+        forHost.set(i);
+      }
+    }
+    this.prefilter = new RegexPrefilter(regexes, getRegexSyntax());
+    this.globalRules = globalRules;
+    this.hostRules = hostRules;
+    this.rules = rules;
+  }
+
   /**
    * Read the specified file of rules.
    * 
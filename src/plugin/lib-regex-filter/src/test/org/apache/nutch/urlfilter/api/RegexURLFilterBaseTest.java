@@ -71,6 +71,43 @@ public abstract class RegexURLFilterBaseTest {
         + (System.currentTimeMillis() - start) + "ms");
   }
 
+  /**
+   * Compare the time needed with and without
+   * {@link RegexURLFilterBase#setPrefilter(boolean) prefilter}, and check
+   * that both give the same results.
+   */
+  protected void benchPrefilter(int loops, String file) {
+    try {
+      URLFilter indexed = getURLFilter(new FileReader(SAMPLES + SEPARATOR
+          + file + ".rules"));
+      URLFilter sequential = getURLFilter(new FileReader(SAMPLES + SEPARATOR
+          + file + ".rules"));
+      ((RegexURLFilterBase) sequential).setPrefilter(false);
+      FilteredURL[] urls = readURLFile(new FileReader(SAMPLES + SEPARATOR
+          + file + ".urls"));
+      for (FilteredURL url : urls) {
+        Assert.assertEquals(url.url, sequential.filter(url.url),
+            indexed.filter(url.url));
+      }
+      long sequentialTime = time(sequential, urls, loops);
+      long indexedTime = time(indexed, urls, loops);
+      LOG.info("bench " + file + " (" + loops + "): sequential "
+          + sequentialTime + "ms, prefilter " + indexedTime + "ms");
+    } catch (Exception e) {
+      Assert.fail(e.toString());
+    }
+  }
+
+  private static long time(URLFilter filter, FilteredURL[] urls, int loops) {
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < loops; i++) {
+      for (FilteredURL url : urls) {
+        filter.filter(url.url);
+      }
+    }
+    return System.currentTimeMillis() - start;
+  }
+
   protected void test(String file) {
     try {
       test(new FileReader(SAMPLES + SEPARATOR + file + ".rules"),
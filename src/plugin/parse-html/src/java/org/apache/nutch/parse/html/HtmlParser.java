@@ -100,6 +100,7 @@ public class HtmlParser implements Parser {
 
 	private static String attributeFile = null;
 
+	/** field extraction rules by domain, see {@link #getRules(String)} */
 	private static final Map<String, List<JsoupRule>> rules = new HashMap<String, List<JsoupRule>>();
 
 	/**
@@ -175,6 +176,8 @@ public class HtmlParser implements Parser {
 
 		// parse the content
 		DocumentFragment root;
+		org.jsoup.nodes.Document jsoupDoc = null;
+		String encoding;
 		try {
 			byte[] contentInOctets = content.getContent();
 			InputSource input = new InputSource(new ByteArrayInputStream(contentInOctets));
@@ -182,7 +185,7 @@ public class HtmlParser implements Parser {
 			EncodingDetector detector = new EncodingDetector(conf);
 			detector.autoDetectClues(content, true);
 			detector.addClue(sniffCharacterEncoding(contentInOctets), "sniffed");
-			String encoding = detector.guessEncoding(content, defaultCharEncoding);
+			encoding = detector.guessEncoding(content, defaultCharEncoding);
 
 			metadata.set(Metadata.ORIGINAL_CHAR_ENCODING, encoding);
 			metadata.set(Metadata.CHAR_ENCODING_FOR_CONVERSION, encoding);
@@ -191,7 +194,13 @@ public class HtmlParser implements Parser {
 			if (LOG.isTraceEnabled()) {
 				LOG.trace("Parsing...");
 			}
-			root = parse(input);
+			if (parserImpl.equalsIgnoreCase("jsoup")) {
+				// keep the jsoup document for the field extraction rules
+				jsoupDoc = parseJSoupDocument(input, content.getBaseUrl());
+				root = JsoupDOMBuilder.jsoup2HTML(jsoupDoc);
+			} else {
+				root = parse(input);
+			}
 		} catch (IOException e) {
 			return new ParseStatus(e).getEmptyParseResult(content.getUrl(), getConf());
 		} catch (DOMException e) {
@@ -249,19 +258,23 @@ public class HtmlParser implements Parser {
 
 		// Parse tagFields metadata
 		Parse parse = parseResult.get(content.getUrl());
-		String html = new String(content.getContent());
-
-		for (Map.Entry<String, List<JsoupRule>> entry : rules.entrySet()) {
-			String domain = entry.getKey();
-			String baseUrl = content.getBaseUrl();
-			if (baseUrl.contains(domain)) {
-				List<JsoupRule> jsoupRules = entry.getValue();
-				for (JsoupRule jsoupRule : jsoupRules) {
-					if (matches(html, jsoupRule, parse.getData().getTagFieldMeta())) {
-						parse.getData().getParseMeta().add("fieldMeta", "true");
-					} else {
-						parse.getData().getParseMeta().add("fieldMeta", "false");
-					}
+		List<JsoupRule> jsoupRules = getRules(baseUrl.getHost());
+		if (!jsoupRules.isEmpty()) {
+			if (jsoupDoc == null) {
+				// parsed once for all rules
+				try {
+					InputSource input = new InputSource(new ByteArrayInputStream(content.getContent()));
+					input.setEncoding(encoding);
+					jsoupDoc = parseJSoupDocument(input, content.getBaseUrl());
+				} catch (IOException e) {
+					LOG.warn("Failed to parse " + content.getUrl() + " for field extraction: " + e);
+				}
+			}
+			for (JsoupRule jsoupRule : jsoupRules) {
+				if (jsoupDoc != null && matches(jsoupDoc, jsoupRule, parse.getData().getTagFieldMeta())) {
+					parse.getData().getParseMeta().add("fieldMeta", "true");
+				} else {
+					parse.getData().getParseMeta().add("fieldMeta", "false");
 				}
 			}
 		}
@@ -278,18 +291,18 @@ public class HtmlParser implements Parser {
 
 	private DocumentFragment parse(InputSource input) throws Exception {
 
-		if (parserImpl.equalsIgnoreCase("jsoup"))
-			return parseJSoup(input);
-		else if (parserImpl.equalsIgnoreCase("tagsoup"))
+		if (parserImpl.equalsIgnoreCase("tagsoup"))
 			return parseTagSoup(input);
 		else
 			return parseNeko(input);
 	}
 
-	private DocumentFragment parseJSoup(InputSource input) throws Exception {
-		DocumentFragment frag = JsoupDOMBuilder
-				.jsoup2HTML(Jsoup.parse(input.getByteStream(), defaultCharEncoding, baseUrl.getHost()));
-		return frag;
+	/**
+	 * Parse with jsoup, decoding with the encoding of the input, so that the
+	 * DOM and the field extraction rules see the same document.
+	 */
+	private org.jsoup.nodes.Document parseJSoupDocument(InputSource input, String baseUri) throws IOException {
+		return Jsoup.parse(input.getByteStream(), input.getEncoding(), baseUri);
 	}
 
 	private DocumentFragment parseTagSoup(InputSource input) throws Exception {
@@ -356,17 +369,15 @@ public class HtmlParser implements Parser {
 		return res;
 	}
 
-	private boolean matches(String html, JsoupRule jsoupRule, Metadata fieldMeta) {
+	private boolean matches(org.jsoup.nodes.Document jDoc, JsoupRule jsoupRule, Metadata fieldMeta) {
 
 		boolean matched = false;
-		String element = jsoupRule.element;
 		String attribute = jsoupRule.attribute;
 		Pattern pattern = jsoupRule.regex;
 
-		if (html != null && attribute != null) {
+		if (attribute != null) {
 
-			org.jsoup.nodes.Document jDoc = Jsoup.parse(html);
-			Elements jElements = jDoc.select(element);
+			Elements jElements = jDoc.select(jsoupRule.element);
 
 			for (org.jsoup.nodes.Element e1 : jElements) {
 
@@ -379,29 +390,23 @@ public class HtmlParser implements Parser {
 					if (matcher.find()) {
 
 						// @@Test Extract selected metatag
-						String[] outputs = new String[jsoupRule.selectorPairs.length];
+						String[] outputs = new String[jsoupRule.selectors.length];
 
-						int i = 0;
-						for (String selectorPair : jsoupRule.selectorPairs) {
+						for (int i = 0; i < jsoupRule.selectors.length; i++) {
 
-							String[] selectorAttr = selectorPair.split(":");
-							Elements selected = e1.select(selectorAttr[0]);
+							Elements selected = e1.select(jsoupRule.selectors[i]);
 							if (selected.size() > 0) {
-								/*String key = selectorAttr[0].replaceAll("\\[", "").replaceAll("\\]", "")
-										.replaceAll("\\.", "");*/
-								String key = selectorAttr[1];
+								String key = jsoupRule.selectorAttrs[i];
 
-								if (selectorAttr[1].equals("*") && !selected.text().trim().isEmpty()) {
+								if (key.equals("*") && !selected.text().trim().isEmpty()) {
 									outputs[i] = key + ":" + selected.text();
 								}
 
-								if (!selectorAttr[1].equals("*") && !selected.attr(selectorAttr[1]).trim().isEmpty()) {
-									outputs[i] = key + ":" + selected.attr(selectorAttr[1]);
+								if (!key.equals("*") && !selected.attr(key).trim().isEmpty()) {
+									outputs[i] = key + ":" + selected.attr(key);
 								}
 
 							}
-
-							i++;
 						}
 
 						fieldMeta.addAll(content, outputs);
@@ -414,6 +419,31 @@ public class HtmlParser implements Parser {
 		return matched;
 	}
 
+	/**
+	 * Get the field extraction rules for a host: the rules of the host itself
+	 * and of all its parent domains, e.g. for <code>www.ly.com</code> those of
+	 * <code>www.ly.com</code>, <code>ly.com</code> and <code>com</code>.
+	 */
+	static List<JsoupRule> getRules(String host) {
+		List<JsoupRule> result = new ArrayList<JsoupRule>();
+		if (rules.isEmpty() || host == null) {
+			return result;
+		}
+		String domain = host.toLowerCase();
+		while (true) {
+			List<JsoupRule> domainRules = rules.get(domain);
+			if (domainRules != null) {
+				result.addAll(domainRules);
+			}
+			int dot = domain.indexOf('.');
+			if (dot < 0) {
+				break;
+			}
+			domain = domain.substring(dot + 1);
+		}
+		return result;
+	}
+
 	public static void main(String[] args) throws Exception {
 		// LOG.setLevel(Level.FINE);
 		String name = args[0];
@@ -501,7 +531,10 @@ public class HtmlParser implements Parser {
 				line = line.trim();
 				String[] parts = line.split("\t");
 
-				String domain = parts[0].trim();
+				String domain = parts[0].trim().toLowerCase();
+				if (domain.startsWith(".")) {
+					domain = domain.substring(1);
+				}
 				String element = parts[1].trim();
 				String source = parts[2].trim();
 				String regex = parts[3].trim();
@@ -523,7 +556,11 @@ public class HtmlParser implements Parser {
 		}
 	}
 
-	private static class JsoupRule {
+	/**
+	 * A field extraction rule, with the selector pairs split once when the rules
+	 * are loaded.
+	 */
+	static class JsoupRule {
 		public JsoupRule(String element, String attribute, String regex, String[] selectorPairs) {
 
 			if (regex.equals("*"))
@@ -531,12 +568,20 @@ public class HtmlParser implements Parser {
 			this.element = element;
 			this.attribute = attribute;
 			this.regex = Pattern.compile(regex);
-			this.selectorPairs = selectorPairs;
+			this.selectors = new String[selectorPairs.length];
+			this.selectorAttrs = new String[selectorPairs.length];
+			for (int i = 0; i < selectorPairs.length; i++) {
+				// selector:attribute, the attribute "*" selects the text
+				String[] selectorAttr = selectorPairs[i].trim().split(":");
+				this.selectors[i] = selectorAttr[0];
+				this.selectorAttrs[i] = selectorAttr[1];
+			}
 		}
 
 		public String element;
 		public String attribute;
 		public Pattern regex;
-		public String[] selectorPairs;
+		public String[] selectors;
+		public String[] selectorAttrs;
 	}
-}
\ No newline at end of file
+}
@@ -87,10 +87,13 @@ public class TestHtmlParser {
   }
 
   protected Parse parse(byte[] contentBytes) {
-    String dummyUrl = "http://dummy.url/";
+    return parse(contentBytes, "http://dummy.url/");
+  }
+
+  protected Parse parse(byte[] contentBytes, String url) {
     return parser.getParse(
-        new Content(dummyUrl, dummyUrl, contentBytes, "text/html",
-            new Metadata(), conf)).get(dummyUrl);
+        new Content(url, url, contentBytes, "text/html", new Metadata(), conf))
+        .get(url);
   }
 
   @Test
@@ -120,4 +123,53 @@ public class TestHtmlParser {
     }
   }
 
+  private static final String fieldTestContent = "<html><body><ul>"
+      + "<li data-lineid=\"1\"><a href=\"/tour/1.html\" title=\"One\">1</a>"
+      + "<span class=\"livecity\">Shanghai</span><span class=\"money\">100</span></li>"
+      + "<li data-lineid=\"2\"><a href=\"/tour/2.html\" title=\"Two\">2</a>"
+      + "<span class=\"dest\">Beijing</span></li>"
+      + "<li>no line id</li></ul></body></html>";
+
+  /** Field extraction rules of conf/jsoup-parsefilter.txt */
+  @Test
+  public void testFieldExtraction() {
+    for (String impl : new String[] { "neko", "jsoup" }) {
+      conf.set("parser.html.impl", impl);
+      parser.setConf(conf);
+      Parse parse = parse(fieldTestContent.getBytes(Charset.forName("utf-8")),
+          "http://www.ly.com/tours/");
+      Metadata fields = parse.getData().getTagFieldMeta();
+      Assert.assertEquals(impl, 2, fields.size());
+      String[] first = fields.getValues("1");
+      Assert.assertEquals("href:/tour/1.html", first[0]);
+      Assert.assertEquals("title:One", first[1]);
+      Assert.assertEquals("*:Shanghai", first[2]);
+      Assert.assertNull(first[3]);
+      Assert.assertEquals("*:100", first[4]);
+      Assert.assertEquals("*:Beijing", fields.getValues("2")[3]);
+      Assert.assertEquals("true", parse.getData().getParseMeta().get("fieldMeta"));
+
+      // rules of ly.com do not apply to other domains
+      parse = parse(fieldTestContent.getBytes(Charset.forName("utf-8")),
+          "http://www.fly.com/tours/");
+      Assert.assertEquals(impl, 0, parse.getData().getTagFieldMeta().size());
+    }
+  }
+
+  /** Fields are extracted from the document decoded as detected. */
+  @Test
+  public void testFieldExtractionEncoding() {
+    String content = "<html><head><meta charset=\"utf-8\"></head><body><ul>"
+        + "<li data-lineid=\"1\"><span class=\"livecity\">上海</span></li>"
+        + "</ul></body></html>";
+    for (String impl : new String[] { "neko", "jsoup" }) {
+      conf.set("parser.html.impl", impl);
+      parser.setConf(conf);
+      Parse parse = parse(content.getBytes(Charset.forName("utf-8")),
+          "http://www.ly.com/tours/");
+      Assert.assertEquals(impl, "*:上海", parse.getData().getTagFieldMeta()
+          .getValues("1")[2]);
+    }
+  }
+
 }
@@ -115,6 +115,8 @@ public class FtpRobotRulesParser extends RobotRulesParser {
 
     if (cacheRule)
       CACHE.put(protocol + ":" + host, robotRules); // cache rules for host
+    else
+      CACHE.putNegative(protocol + ":" + host, robotRules);
 
     return robotRules;
   }
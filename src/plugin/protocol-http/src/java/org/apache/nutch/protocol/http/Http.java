@@ -17,7 +17,9 @@
 package org.apache.nutch.protocol.http;
 
 // JDK imports
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.URL;
 
 // Commons Logging imports
@@ -26,18 +28,25 @@ import org.slf4j.LoggerFactory;
 
 // Hadoop imports
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
 
 // Nutch imports
 import org.apache.nutch.crawl.CrawlDatum;
 import org.apache.nutch.net.protocols.Response;
+import org.apache.nutch.protocol.AsyncProtocol;
 import org.apache.nutch.protocol.ProtocolException;
+import org.apache.nutch.protocol.ProtocolOutput;
+import org.apache.nutch.protocol.ProtocolStatus;
 import org.apache.nutch.protocol.http.api.HttpBase;
+import org.apache.nutch.protocol.http.api.HttpException;
 import org.apache.nutch.util.NutchConfiguration;
 
-public class Http extends HttpBase {
+public class Http extends HttpBase implements AsyncProtocol {
 
   public static final Logger LOG = LoggerFactory.getLogger(Http.class);
 
+  private HttpEventLoop eventLoop;
+
   /**
    * Public default constructor.
    */
@@ -70,4 +79,62 @@ public class Http extends HttpBase {
     return new HttpResponse(this, url, datum);
   }
 
+  private synchronized HttpEventLoop getEventLoop() throws IOException {
+    if (eventLoop == null) {
+      eventLoop = new HttpEventLoop(this, getConf().getInt(
+          "http.async.io.threads", 2));
+    }
+    return eventLoop;
+  }
+
+  /**
+   * Fetch using non-blocking I/O. Redirects are not followed, the connection
+   * is closed after each request.
+   */
+  public void getProtocolOutput(Text url, final CrawlDatum datum,
+      final Callback callback) {
+    try {
+      final URL u = new URL(url.toString());
+      if (!"http".equals(u.getProtocol()) && !"https".equals(u.getProtocol())) {
+        throw new HttpException("Unknown scheme (not http/https) for url:"
+            + u);
+      }
+      int port = u.getPort() != -1 ? u.getPort() : u.getDefaultPort();
+      String sockHost = useProxy(u) ? getProxyHost() : u.getHost();
+      int sockPort = useProxy(u) ? getProxyPort() : port;
+      final String request = HttpResponse.buildRequest(this, u, datum, true);
+      final long startTime = System.currentTimeMillis();
+
+      getEventLoop().submit(u, sockHost, sockPort, request,
+          new HttpEventLoop.Handler() {
+
+            public void completed(InetAddress address, byte[] bytes,
+                int length) {
+              ProtocolOutput output;
+              try {
+                Response response = new HttpResponse(Http.this, u, request,
+                    address, new ByteArrayInputStream(bytes, 0, length));
+                output = getProtocolOutput(u, datum, response, startTime);
+              } catch (Throwable e) {
+                output = failure(u, e);
+              }
+              callback.completed(output);
+            }
+
+            public void failed(Throwable t) {
+              callback.completed(failure(u, t));
+            }
+          });
+    } catch (Throwable e) {
+      callback.completed(failure(null, e));
+    }
+  }
+
+  private ProtocolOutput failure(URL url, Throwable e) {
+    if (LOG.isInfoEnabled()) {
+      LOG.info("Failed to fetch " + (url == null ? "" : url) + ": " + e);
+    }
+    return new ProtocolOutput(null, new ProtocolStatus(e));
+  }
+
 }
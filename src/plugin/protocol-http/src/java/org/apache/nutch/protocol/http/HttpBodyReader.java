@@ -0,0 +1,166 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Reads a message body into a byte array of its final size, which is handed
+ * to the {@link org.apache.nutch.protocol.Content} as is. If the length is
+ * known in advance the body is read directly into the final array, otherwise
+ * it is collected in a buffer taken from a small pool and copied once. gzip
+ * and deflate content encodings are decoded while reading. The announced
+ * length is not trusted for allocation: an array of more than 1 MB is grown
+ * as the bytes arrive.
+ */
+class HttpBodyReader {
+
+  static final byte[] EMPTY = new byte[0];
+
+  /** initial size of pooled buffers */
+  private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+  /** larger buffers are not returned to the pool */
+  private static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+  private static final BlockingQueue<byte[]> POOL = new ArrayBlockingQueue<byte[]>(
+      64);
+  /** max. size allocated before the bytes of a body of known length arrive */
+  private static final int MAX_INITIAL_SIZE = 1024 * 1024;
+
+  private HttpBodyReader() {
+  }
+
+  /**
+   * Read a body which is not content-encoded.
+   *
+   * @param length
+   *          the length of the body if known, -1 otherwise
+   * @param limit
+   *          maximum number of bytes to read
+   */
+  static byte[] read(InputStream in, int length, int limit)
+      throws IOException {
+    if (length >= 0 && length <= limit) {
+      byte[] content = new byte[Math.min(length, MAX_INITIAL_SIZE)];
+      int n = 0;
+      while (n < length) {
+        if (n == content.length) {
+          int size = (int) Math.min((long) length, 2L * content.length);
+          content = Arrays.copyOf(content, size);
+        }
+        int i = in.read(content, n, content.length - n);
+        if (i == -1)
+          return Arrays.copyOf(content, n);
+        n += i;
+      }
+      return content;
+    }
+    return read(in, limit, false);
+  }
+
+  /**
+   * Read and decompress a gzip encoded body. A truncated or corrupt stream is
+   * decompressed as far as possible.
+   *
+   * @throws ZipException
+   *           if the body is not in gzip format
+   */
+  static byte[] readGzip(InputStream in, int limit) throws IOException {
+    PushbackInputStream body = new PushbackInputStream(in, 1);
+    if (isEmpty(body))
+      return EMPTY;
+    GZIPInputStream gzip;
+    try {
+      gzip = new GZIPInputStream(body, Http.BUFFER_SIZE);
+    } catch (IOException e) {
+      throw new ZipException("Not in gzip format: " + e.getMessage());
+    }
+    return read(gzip, limit, true);
+  }
+
+  /**
+   * Read and inflate a deflate encoded body (without zlib header). A
+   * truncated or corrupt stream is inflated as far as possible.
+   */
+  static byte[] readDeflate(InputStream in, int limit) throws IOException {
+    PushbackInputStream body = new PushbackInputStream(in, 1);
+    if (isEmpty(body))
+      return EMPTY;
+    Inflater inflater = new Inflater(true);
+    try {
+      return read(new InflaterInputStream(body, inflater, Http.BUFFER_SIZE),
+          limit, true);
+    } finally {
+      inflater.end();
+    }
+  }
+
+  private static boolean isEmpty(PushbackInputStream in) throws IOException {
+    int b = in.read();
+    if (b == -1)
+      return true;
+    in.unread(b);
+    return false;
+  }
+
+  /**
+   * Read up to limit bytes of unknown length into a pooled buffer.
+   *
+   * @param bestEffort
+   *          stop at read errors and keep the bytes read so far
+   */
+  private static byte[] read(InputStream in, int limit, boolean bestEffort)
+      throws IOException {
+    byte[] buffer = POOL.poll();
+    if (buffer == null)
+      buffer = new byte[INITIAL_BUFFER_SIZE];
+    int n = 0;
+    try {
+      while (n < limit) {
+        if (n == buffer.length) {
+          int size = (int) Math.min((long) limit, 2L * buffer.length);
+          buffer = Arrays.copyOf(buffer, size);
+        }
+        int i;
+        try {
+          i = in.read(buffer, n, Math.min(buffer.length, limit) - n);
+        } catch (IOException e) {
+          if (!bestEffort)
+            throw e;
+          Http.LOG.debug("Failed to decode content, keeping " + n + " bytes: "
+              + e);
+          break;
+        }
+        if (i == -1)
+          break;
+        n += i;
+      }
+      return n == 0 ? EMPTY : Arrays.copyOf(buffer, n);
+    } finally {
+      if (buffer.length <= MAX_POOLED_BUFFER_SIZE)
+        POOL.offer(buffer);
+    }
+  }
+}
@@ -0,0 +1,441 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+
+import org.apache.nutch.net.DnsResolver;
+import org.apache.nutch.protocol.http.api.HttpBase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends HTTP requests and receives the responses using non-blocking I/O. A
+ * small number of event-loop threads, each owning a {@link Selector}, drive
+ * any number of concurrent exchanges. Requests are expected to ask the server
+ * to close the connection, the response is complete when the connection is
+ * closed or the content limit is reached. TLS is handled with an
+ * {@link SSLEngine}.
+ */
+public class HttpEventLoop {
+
+  private static final Logger LOG = LoggerFactory.getLogger(HttpEventLoop.class);
+
+  /**
+   * Receives the outcome of an exchange, called on an event-loop thread or,
+   * if the host cannot be resolved, on the thread which resolved it.
+   */
+  public interface Handler {
+
+    /** The raw response (status line, headers and body) has been received. */
+    void completed(InetAddress address, byte[] response, int length);
+
+    void failed(Throwable t);
+  }
+
+  private final HttpBase http;
+  private final Loop[] loops;
+  private final AtomicInteger next = new AtomicInteger();
+
+  /**
+   * @param http
+   *          protocol providing timeout, content limit and TLS settings
+   * @param threads
+   *          number of event-loop threads
+   */
+  public HttpEventLoop(HttpBase http, int threads) throws IOException {
+    this.http = http;
+    this.loops = new Loop[Math.max(1, threads)];
+    for (int i = 0; i < loops.length; i++) {
+      loops[i] = new Loop(i);
+      loops[i].start();
+    }
+  }
+
+  /**
+   * Start an exchange. The host name is resolved by the {@link DnsResolver},
+   * on one of its threads unless the address is cached, the connection is
+   * registered with an event-loop thread once the address is known.
+   *
+   * @param url
+   *          the requested URL, determines whether TLS is used
+   * @param host
+   *          host to connect to (the proxy if one is used)
+   * @param port
+   *          port to connect to
+   * @param request
+   *          the request to send
+   */
+  public void submit(URL url, String host, final int port,
+      final String request, final Handler handler) {
+    SSLEngine engine = null;
+    if ("https".equals(url.getProtocol())) {
+      try {
+        engine = createEngine(host, port);
+      } catch (Exception e) {
+        handler.failed(e);
+        return;
+      }
+    }
+    final SSLEngine tlsEngine = engine;
+    DnsResolver.get(http.getConf()).resolve(host, new DnsResolver.Callback() {
+
+      public void resolved(InetAddress address) {
+        Exchange exchange = new Exchange(new InetSocketAddress(address, port),
+            request, handler);
+        exchange.engine = tlsEngine;
+        Loop loop = loops[(next.getAndIncrement() & Integer.MAX_VALUE)
+            % loops.length];
+        loop.pending.add(exchange);
+        loop.selector.wakeup();
+      }
+
+      public void failed(UnknownHostException e) {
+        handler.failed(e);
+      }
+    });
+  }
+
+  private SSLEngine createEngine(String host, int port) throws Exception {
+    SSLEngine engine = SSLContext.getDefault().createSSLEngine(host, port);
+    engine.setUseClientMode(true);
+
+    // Intersect supported with preferred protocols and ciphers
+    Set<String> protocols = new HashSet<String>(
+        Arrays.asList(engine.getSupportedProtocols()));
+    Set<String> ciphers = new HashSet<String>(
+        Arrays.asList(engine.getSupportedCipherSuites()));
+    protocols.retainAll(http.getTlsPreferredProtocols());
+    ciphers.retainAll(http.getTlsPreferredCipherSuites());
+    engine.setEnabledProtocols(protocols.toArray(new String[protocols.size()]));
+    engine.setEnabledCipherSuites(ciphers.toArray(new String[ciphers.size()]));
+    return engine;
+  }
+
+  /** An event-loop thread. */
+  private class Loop extends Thread {
+
+    final Selector selector;
+    final Queue<Exchange> pending = new ConcurrentLinkedQueue<Exchange>();
+    // buffer for reading plain connections, shared by all exchanges
+    final ByteBuffer readBuffer = ByteBuffer.allocateDirect(Http.BUFFER_SIZE * 4);
+
+    Loop(int id) throws IOException {
+      this.selector = Selector.open();
+      this.setDaemon(true);
+      this.setName("HttpEventLoop-" + id);
+    }
+
+    public void run() {
+      while (true) {
+        try {
+          selector.select(1000);
+          Exchange exchange;
+          while ((exchange = pending.poll()) != null) {
+            exchange.connect(selector);
+          }
+          Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+          while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            ((Exchange) key.attachment()).process(key, readBuffer);
+          }
+          long now = System.currentTimeMillis();
+          for (SelectionKey key : selector.keys()) {
+            Exchange ex = (Exchange) key.attachment();
+            if (ex != null && ex.deadline < now) {
+              ex.fail(new SocketTimeoutException("Timed out fetching from "
+                  + ex.address));
+            }
+          }
+        } catch (Throwable t) {
+          LOG.error("Unexpected error in event loop", t);
+        }
+      }
+    }
+  }
+
+  /** State of one request-response exchange. */
+  private class Exchange {
+
+    final InetSocketAddress address;
+    final Handler handler;
+    final ByteBuffer out;
+    final ByteArrayOutputStream response = new ByteArrayOutputStream(
+        Http.BUFFER_SIZE);
+    final int maxBytes;
+    SSLEngine engine;
+    ByteBuffer netIn;
+    ByteBuffer netOut;
+    ByteBuffer appIn;
+    SocketChannel channel;
+    SelectionKey key;
+    long deadline;
+    boolean done = false;
+
+    Exchange(InetSocketAddress address, String request, Handler handler) {
+      this.address = address;
+      this.handler = handler;
+      this.out = ByteBuffer.wrap(request.getBytes());
+      int maxContent = http.getMaxContent();
+      // leave room for status line and headers
+      this.maxBytes = maxContent >= 0 ? maxContent + 64 * 1024
+          : Integer.MAX_VALUE;
+    }
+
+    void connect(Selector selector) {
+      try {
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+        touch();
+        if (channel.connect(address)) {
+          connected();
+        }
+      } catch (IOException e) {
+        fail(e);
+      }
+    }
+
+    void process(SelectionKey key, ByteBuffer readBuffer) {
+      try {
+        if (!key.isValid())
+          return;
+        if (key.isConnectable()) {
+          if (!channel.finishConnect())
+            return;
+          connected();
+        } else if (engine != null) {
+          processTls();
+        } else {
+          processPlain(readBuffer);
+        }
+      } catch (Throwable t) {
+        fail(t);
+      }
+    }
+
+    private void connected() throws IOException {
+      touch();
+      if (engine != null) {
+        int packetSize = engine.getSession().getPacketBufferSize();
+        netIn = ByteBuffer.allocate(packetSize);
+        netOut = ByteBuffer.allocate(packetSize);
+        appIn = ByteBuffer.allocate(engine.getSession()
+            .getApplicationBufferSize());
+        engine.beginHandshake();
+        processTls();
+      } else {
+        key.interestOps(SelectionKey.OP_WRITE);
+      }
+    }
+
+    private void processPlain(ByteBuffer readBuffer) throws IOException {
+      if (out.hasRemaining()) {
+        channel.write(out);
+        touch();
+        if (out.hasRemaining()) {
+          key.interestOps(SelectionKey.OP_WRITE);
+          return;
+        }
+      }
+      while (true) {
+        readBuffer.clear();
+        int n = channel.read(readBuffer);
+        if (n == -1) {
+          complete();
+          return;
+        }
+        if (n == 0) {
+          key.interestOps(SelectionKey.OP_READ);
+          return;
+        }
+        touch();
+        readBuffer.flip();
+        append(readBuffer);
+        if (done)
+          return;
+      }
+    }
+
+    private void processTls() throws IOException {
+      while (!done) {
+        if (!flush()) {
+          key.interestOps(SelectionKey.OP_WRITE);
+          return;
+        }
+        HandshakeStatus hs = engine.getHandshakeStatus();
+        if (hs == HandshakeStatus.NEED_TASK) {
+          Runnable task;
+          while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+          }
+          continue;
+        }
+        if (hs == HandshakeStatus.NEED_WRAP
+            || (hs == HandshakeStatus.NOT_HANDSHAKING && out.hasRemaining())) {
+          SSLEngineResult result = engine.wrap(out, netOut);
+          if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+            netOut = enlarge(netOut, engine.getSession().getPacketBufferSize());
+          } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+            complete();
+          }
+          continue;
+        }
+        SSLEngineResult result = unwrap();
+        switch (result.getStatus()) {
+        case CLOSED:
+          complete();
+          return;
+        case BUFFER_OVERFLOW:
+          appIn = enlarge(appIn, engine.getSession().getApplicationBufferSize());
+          continue;
+        case BUFFER_UNDERFLOW:
+          if (!netIn.hasRemaining()) {
+            netIn = enlarge(netIn, engine.getSession().getPacketBufferSize());
+          }
+          break;
+        default:
+          if (result.bytesConsumed() > 0 || result.bytesProduced() > 0)
+            continue;
+        }
+        // need more data from the network
+        int n = channel.read(netIn);
+        if (n == -1) {
+          // many servers close without close_notify
+          complete();
+          return;
+        }
+        if (n == 0) {
+          key.interestOps(SelectionKey.OP_READ);
+          return;
+        }
+        touch();
+      }
+    }
+
+    /** @return true if all encrypted data has been written */
+    private boolean flush() throws IOException {
+      if (netOut.position() == 0)
+        return true;
+      netOut.flip();
+      channel.write(netOut);
+      boolean flushed = !netOut.hasRemaining();
+      netOut.compact();
+      touch();
+      return flushed;
+    }
+
+    private SSLEngineResult unwrap() throws SSLException {
+      netIn.flip();
+      SSLEngineResult result = engine.unwrap(netIn, appIn);
+      netIn.compact();
+      if (appIn.position() > 0) {
+        appIn.flip();
+        append(appIn);
+        appIn.clear();
+      }
+      return result;
+    }
+
+    private ByteBuffer enlarge(ByteBuffer buffer, int minSize) {
+      ByteBuffer larger = ByteBuffer.allocate(Math.max(minSize,
+          buffer.capacity() * 2));
+      buffer.flip();
+      larger.put(buffer);
+      return larger;
+    }
+
+    private void append(ByteBuffer buffer) {
+      int length = Math.min(buffer.remaining(), maxBytes - response.size());
+      if (buffer.hasArray()) {
+        response.write(buffer.array(),
+            buffer.arrayOffset() + buffer.position(), length);
+      } else {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        response.write(bytes, 0, length);
+      }
+      if (response.size() >= maxBytes) {
+        // content limit reached, parse what we have
+        complete();
+      }
+    }
+
+    private void touch() {
+      deadline = System.currentTimeMillis() + http.getTimeout();
+    }
+
+    private void close() {
+      done = true;
+      if (key != null) {
+        key.attach(null);
+        key.cancel();
+      }
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException e) {
+          LOG.debug("Failed to close channel", e);
+        }
+      }
+    }
+
+    void complete() {
+      if (done)
+        return;
+      close();
+      if (response.size() == 0) {
+        handler.failed(new ClosedChannelException());
+        return;
+      }
+      handler.completed(address.getAddress(), response.toByteArray(),
+          response.size());
+    }
+
+    void fail(Throwable t) {
+      if (done)
+        return;
+      close();
+      handler.failed(t);
+    }
+  }
+}
@@ -17,12 +17,12 @@
 package org.apache.nutch.protocol.http;
 
 import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PushbackInputStream;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.URL;
@@ -37,10 +37,10 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.nutch.crawl.CrawlDatum;
 import org.apache.nutch.metadata.Metadata;
 import org.apache.nutch.metadata.SpellCheckedMetadata;
-import org.apache.nutch.net.protocols.HttpDateFormat;
 import org.apache.nutch.net.protocols.Response;
 import org.apache.nutch.protocol.ProtocolException;
 import org.apache.nutch.protocol.http.api.HttpBase;
+import org.apache.nutch.protocol.http.api.HttpConnectionPool;
 import org.apache.nutch.protocol.http.api.HttpException;
 
 /**
@@ -58,6 +58,13 @@ public class HttpResponse implements Response {
   private Metadata headers = new SpellCheckedMetadata();
   // used for storing the http headers verbatim
   private StringBuffer httpHeaders;
+  // whether the message body has been read completely
+  private boolean contentComplete = false;
+  // whether a status line has been received on the connection
+  private boolean statusReceived = false;
+  // whether the connection can be given back to the pool
+  private boolean keepAlive = false;
+  private long keepAliveTimeout = -1;
 
   protected enum Scheme {
     HTTP, HTTPS,
@@ -94,178 +101,367 @@ public class HttpResponse implements Response {
       Http.LOG.trace("fetching " + url);
     }
 
-    String path = "".equals(url.getFile()) ? "/" : url.getFile();
-
-    // some servers will redirect a request with a host line like
-    // "Host: <hostname>:80" to "http://<hpstname>/<orig_path>"- they
-    // don't want the :80...
-
     String host = url.getHost();
     int port;
-    String portString;
     if (url.getPort() == -1) {
       if (scheme == Scheme.HTTP) {
         port = 80;
       } else {
         port = 443;
       }
-      portString = "";
     } else {
       port = url.getPort();
-      portString = ":" + port;
     }
-    Socket socket = null;
+    this.conf = http.getConf();
+    String sockHost = http.useProxy(url) ? http.getProxyHost() : host;
+    int sockPort = http.useProxy(url) ? http.getProxyPort() : port;
+    HttpConnectionPool pool = http.getConnectionPool();
+    String poolKey = scheme + "://" + sockHost + ":" + sockPort;
 
+    Socket socket = null;
     try {
-      socket = new Socket(); // create the socket
-      socket.setSoTimeout(http.getTimeout());
-
-      // connect
-      String sockHost = http.useProxy(url) ? http.getProxyHost() : host;
-      int sockPort = http.useProxy(url) ? http.getProxyPort() : port;
-      InetSocketAddress sockAddr = new InetSocketAddress(sockHost, sockPort);
-      socket.connect(sockAddr, http.getTimeout());
-
-      if (scheme == Scheme.HTTPS) {
-        SSLSocketFactory factory = (SSLSocketFactory) SSLSocketFactory
-            .getDefault();
-        SSLSocket sslsocket = (SSLSocket) factory
-            .createSocket(socket, sockHost, sockPort, true);
-        sslsocket.setUseClientMode(true);
-
-        // Get the protocols and ciphers supported by this JVM
-        Set<String> protocols = new HashSet<String>(
-            Arrays.asList(sslsocket.getSupportedProtocols()));
-        Set<String> ciphers = new HashSet<String>(
-            Arrays.asList(sslsocket.getSupportedCipherSuites()));
-
-        // Intersect with preferred protocols and ciphers
-        protocols.retainAll(http.getTlsPreferredProtocols());
-        ciphers.retainAll(http.getTlsPreferredCipherSuites());
-
-        sslsocket.setEnabledProtocols(
-            protocols.toArray(new String[protocols.size()]));
-        sslsocket.setEnabledCipherSuites(
-            ciphers.toArray(new String[ciphers.size()]));
-
-        sslsocket.startHandshake();
-        socket = sslsocket;
-      }
+      while (true) {
+        boolean reused = false;
+        if (pool != null)
+          socket = pool.acquire(poolKey);
+        if (socket != null)
+          reused = true;
+        else
+          socket = connect(scheme, sockHost, sockPort);
 
-      this.conf = http.getConf();
-      if (sockAddr != null
-          && conf.getBoolean("store.ip.address", false) == true) {
-        headers.add("_ip_", sockAddr.getAddress().getHostAddress());
+        try {
+          exchange(socket, datum, pool != null);
+          break;
+        } catch (IOException e) {
+          if (!reused || statusReceived)
+            throw e;
+          // the server has closed the idle connection, retry on a new one
+          pool.stale();
+          socket.close();
+          socket = null;
+          headers = new SpellCheckedMetadata();
+          httpHeaders = null;
+        }
+      }
+    } finally {
+      if (socket != null) {
+        if (keepAlive)
+          pool.release(poolKey, socket, keepAliveTimeout);
+        else
+          socket.close();
       }
+    }
 
-      // make request
-      OutputStream req = socket.getOutputStream();
+  }
 
-      StringBuffer reqStr = new StringBuffer("GET ");
-      if (http.useProxy(url)) {
-        reqStr.append(url.getProtocol() + "://" + host + portString + path);
-      } else {
-        reqStr.append(path);
-      }
+  private Socket connect(Scheme scheme, String sockHost, int sockPort)
+      throws IOException {
+    Socket socket = new Socket(); // create the socket
+    socket.setSoTimeout(http.getTimeout());
+
+    // connect
+    InetSocketAddress sockAddr = new InetSocketAddress(sockHost, sockPort);
+    socket.connect(sockAddr, http.getTimeout());
+
+    if (scheme == Scheme.HTTPS) {
+      SSLSocketFactory factory = (SSLSocketFactory) SSLSocketFactory
+          .getDefault();
+      SSLSocket sslsocket = (SSLSocket) factory
+          .createSocket(socket, sockHost, sockPort, true);
+      sslsocket.setUseClientMode(true);
+
+      // Get the protocols and ciphers supported by this JVM
+      Set<String> protocols = new HashSet<String>(
+          Arrays.asList(sslsocket.getSupportedProtocols()));
+      Set<String> ciphers = new HashSet<String>(
+          Arrays.asList(sslsocket.getSupportedCipherSuites()));
+
+      // Intersect with preferred protocols and ciphers
+      protocols.retainAll(http.getTlsPreferredProtocols());
+      ciphers.retainAll(http.getTlsPreferredCipherSuites());
+
+      sslsocket.setEnabledProtocols(
+          protocols.toArray(new String[protocols.size()]));
+      sslsocket.setEnabledCipherSuites(
+          ciphers.toArray(new String[ciphers.size()]));
+
+      sslsocket.startHandshake();
+      socket = sslsocket;
+    }
+    return socket;
+  }
+
+  /**
+   * Create a response from the raw bytes received for a request sent by
+   * another party, e.g. the {@link HttpEventLoop}.
+   *
+   * @param http
+   * @param url
+   * @param request
+   *          the request which has been sent
+   * @param address
+   *          the address the request has been sent to
+   * @param in
+   *          the complete response as received on the connection
+   * @throws ProtocolException
+   * @throws IOException
+   */
+  public HttpResponse(HttpBase http, URL url, String request,
+      InetAddress address, InputStream in)
+      throws ProtocolException, IOException {
+    this.http = http;
+    this.url = url;
+    this.orig = url.toString();
+    this.base = url.toString();
+    this.conf = http.getConf();
+
+    if (address != null
+        && conf.getBoolean("store.ip.address", false) == true) {
+      headers.add("_ip_", address.getHostAddress());
+    }
+    if (conf.getBoolean("store.http.request", false) == true) {
+      headers.add("_request_", request);
+    }
+    readResponse(new PushbackInputStream(in, Http.BUFFER_SIZE));
+  }
+
+  /**
+   * Build the GET request for a URL.
+   *
+   * @param closeConnection
+   *          ask the server to close the connection after the response
+   */
+  static String buildRequest(HttpBase http, URL url, CrawlDatum datum,
+      boolean closeConnection) {
+    String path = "".equals(url.getFile()) ? "/" : url.getFile();
 
+    // some servers will redirect a request with a host line like
+    // "Host: <hostname>:80" to "http://<hpstname>/<orig_path>"- they
+    // don't want the :80...
+
+    String host = url.getHost();
+    String portString = url.getPort() == -1 ? "" : ":" + url.getPort();
+
+    StringBuffer reqStr = new StringBuffer("GET ");
+    if (http.useProxy(url)) {
+      reqStr.append(url.getProtocol() + "://" + host + portString + path);
+    } else {
+      reqStr.append(path);
+    }
+
+    if (http.getUseHttp11()) {
+      reqStr.append(" HTTP/1.1\r\n");
+    } else {
       reqStr.append(" HTTP/1.0\r\n");
+    }
 
-      reqStr.append("Host: ");
-      reqStr.append(host);
-      reqStr.append(portString);
-      reqStr.append("\r\n");
+    reqStr.append("Host: ");
+    reqStr.append(host);
+    reqStr.append(portString);
+    reqStr.append("\r\n");
 
-      reqStr.append("Accept-Encoding: x-gzip, gzip, deflate\r\n");
+    if (http.getUseHttp11() && closeConnection) {
+      reqStr.append("Connection: close\r\n");
+    }
 
-      String userAgent = http.getUserAgent();
-      if ((userAgent == null) || (userAgent.length() == 0)) {
-        if (Http.LOG.isErrorEnabled()) {
-          Http.LOG.error("User-agent is not set!");
-        }
-      } else {
-        reqStr.append("User-Agent: ");
-        reqStr.append(userAgent);
-        reqStr.append("\r\n");
-      }
+    reqStr.append("Accept-Encoding: x-gzip, gzip, deflate\r\n");
 
-      reqStr.append("Accept-Language: ");
-      reqStr.append(this.http.getAcceptLanguage());
+    String userAgent = http.getUserAgent();
+    if ((userAgent == null) || (userAgent.length() == 0)) {
+      if (Http.LOG.isErrorEnabled()) {
+        Http.LOG.error("User-agent is not set!");
+      }
+    } else {
+      reqStr.append("User-Agent: ");
+      reqStr.append(userAgent);
       reqStr.append("\r\n");
+    }
 
-      reqStr.append("Accept: ");
-      reqStr.append(this.http.getAccept());
-      reqStr.append("\r\n");
+    reqStr.append("Accept-Language: ");
+    reqStr.append(http.getAcceptLanguage());
+    reqStr.append("\r\n");
 
-      if (http.isIfModifiedSinceEnabled() && datum.getModifiedTime() > 0) {
-        reqStr.append("If-Modified-Since: " + HttpDateFormat
-            .toString(datum.getModifiedTime()));
-        reqStr.append("\r\n");
-      }
+    reqStr.append("Accept: ");
+    reqStr.append(http.getAccept());
+    reqStr.append("\r\n");
+
+    String ifNoneMatch = http.getIfNoneMatch(datum);
+    if (ifNoneMatch != null) {
+      reqStr.append("If-None-Match: " + ifNoneMatch);
+      reqStr.append("\r\n");
+    }
+    String ifModifiedSince = http.getIfModifiedSince(datum);
+    if (ifModifiedSince != null) {
+      reqStr.append("If-Modified-Since: " + ifModifiedSince);
       reqStr.append("\r\n");
+    }
+    reqStr.append("\r\n");
+    return reqStr.toString();
+  }
 
-      // store the request in the metadata?
-      if (conf.getBoolean("store.http.request", false) == true) {
-        headers.add("_request_", reqStr.toString());
-      }
+  /**
+   * Send the request over the given connection and read the response. Sets
+   * {@link #keepAlive} if the connection can be reused afterwards.
+   */
+  private void exchange(Socket socket, CrawlDatum datum, boolean pooled)
+      throws HttpException, IOException {
 
-      byte[] reqBytes = reqStr.toString().getBytes();
+    if (conf.getBoolean("store.ip.address", false) == true) {
+      headers.add("_ip_", socket.getInetAddress().getHostAddress());
+    }
 
-      req.write(reqBytes);
-      req.flush();
+    // make request
+    OutputStream req = socket.getOutputStream();
+    String reqStr = buildRequest(http, url, datum, !pooled);
 
-      PushbackInputStream in = // process response
-          new PushbackInputStream(
-              new BufferedInputStream(socket.getInputStream(),
-                  Http.BUFFER_SIZE), Http.BUFFER_SIZE);
+    // store the request in the metadata?
+    if (conf.getBoolean("store.http.request", false) == true) {
+      headers.add("_request_", reqStr);
+    }
 
-      StringBuffer line = new StringBuffer();
+    byte[] reqBytes = reqStr.getBytes();
 
-      // store the http headers verbatim
-      if (conf.getBoolean("store.http.headers", false) == true) {
-        httpHeaders = new StringBuffer();
-      }
+    req.write(reqBytes);
+    req.flush();
 
-      headers.add("nutch.fetch.time", Long.toString(System.currentTimeMillis()));
-
-      boolean haveSeenNonContinueStatus = false;
-      while (!haveSeenNonContinueStatus) {
-        // parse status code line
-        this.code = parseStatusLine(in, line);
-        if (httpHeaders != null)
-          httpHeaders.append(line).append("\n");
-        // parse headers
-        parseHeaders(in, line, httpHeaders);
-        haveSeenNonContinueStatus = code != 100; // 100 is "Continue"
-      }
+    PushbackInputStream in = // process response
+        new PushbackInputStream(
+            new BufferedInputStream(socket.getInputStream(),
+                Http.BUFFER_SIZE), Http.BUFFER_SIZE);
 
-      if (httpHeaders != null) {
-        headers.add("_response.headers_", httpHeaders.toString());
-      }
+    boolean persistent = readResponse(in);
 
-      String transferEncoding = getHeader(Response.TRANSFER_ENCODING);
-      if (transferEncoding != null && "chunked"
-          .equalsIgnoreCase(transferEncoding.trim())) {
-        readChunkedContent(in, line);
-      } else {
-        readPlainContent(in);
+    if (pooled && contentComplete) {
+      String connection = getHeader("Connection");
+      if (connection != null) {
+        connection = connection.trim();
+        if ("close".equalsIgnoreCase(connection))
+          persistent = false;
+        else if ("keep-alive".equalsIgnoreCase(connection))
+          persistent = true;
       }
+      keepAlive = persistent;
+      if (keepAlive)
+        keepAliveTimeout = parseKeepAliveTimeout(getHeader("Keep-Alive"));
+    }
+  }
 
-      String contentEncoding = getHeader(Response.CONTENT_ENCODING);
-      if ("gzip".equals(contentEncoding) || "x-gzip".equals(contentEncoding)) {
-        content = http.processGzipEncoded(content, url);
-      } else if ("deflate".equals(contentEncoding)) {
-        content = http.processDeflateEncoded(content, url);
-      } else {
-        if (Http.LOG.isTraceEnabled()) {
-          Http.LOG.trace("fetched " + content.length + " bytes from " + url);
-        }
-      }
+  /**
+   * Read status line, headers and content of the response.
+   *
+   * @return true if the response is HTTP/1.1, i.e. the connection is
+   *         persistent by default
+   */
+  private boolean readResponse(PushbackInputStream in)
+      throws HttpException, IOException {
+    StringBuffer line = new StringBuffer();
 
-    } finally {
-      if (socket != null)
-        socket.close();
+    // store the http headers verbatim
+    if (conf.getBoolean("store.http.headers", false) == true) {
+      httpHeaders = new StringBuffer();
+    }
+
+    headers.add("nutch.fetch.time", Long.toString(System.currentTimeMillis()));
+
+    boolean persistent = false;
+    boolean haveSeenNonContinueStatus = false;
+    while (!haveSeenNonContinueStatus) {
+      // parse status code line
+      this.code = parseStatusLine(in, line);
+      statusReceived = true;
+      persistent = line.indexOf("HTTP/1.1") == 0;
+      if (httpHeaders != null)
+        httpHeaders.append(line).append("\n");
+      // parse headers
+      parseHeaders(in, line, httpHeaders);
+      haveSeenNonContinueStatus = code != 100; // 100 is "Continue"
+    }
+
+    if (httpHeaders != null) {
+      headers.add("_response.headers_", httpHeaders.toString());
     }
 
+    String transferEncoding = getHeader(Response.TRANSFER_ENCODING);
+    if (code == 204 || code == 304) {
+      // no message body
+      content = HttpBodyReader.EMPTY;
+      contentComplete = true;
+    } else {
+      readContent(in, line, transferEncoding != null
+          && "chunked".equalsIgnoreCase(transferEncoding.trim()));
+    }
+    if (Http.LOG.isTraceEnabled()) {
+      Http.LOG.trace("fetched " + content.length + " bytes from " + url);
+    }
+    return persistent;
+  }
+
+  /**
+   * Read the message body, decoding the transfer and content encoding in a
+   * single pass, see {@link HttpBodyReader}. Both the raw body and the
+   * decoded content are limited to <code>http.content.limit</code>.
+   */
+  private void readContent(PushbackInputStream in, StringBuffer line,
+      boolean chunked) throws HttpException, IOException {
+    int limit = http.getMaxContent() >= 0 ? http.getMaxContent()
+        : Integer.MAX_VALUE;
+    Body body;
+    int declaredLength = -1;
+    if (chunked) {
+      body = new ChunkedBody(in, line, limit);
+    } else {
+      declaredLength = getContentLength();
+      body = new PlainBody(in, declaredLength, limit);
+    }
+
+    String contentEncoding = getHeader(Response.CONTENT_ENCODING);
+    if ("gzip".equals(contentEncoding) || "x-gzip".equals(contentEncoding)) {
+      content = HttpBodyReader.readGzip(body, limit);
+      body.drain();
+    } else if ("deflate".equals(contentEncoding)) {
+      content = HttpBodyReader.readDeflate(body, limit);
+      body.drain();
+    } else {
+      content = HttpBodyReader.read(body, declaredLength, limit);
+    }
+    // the connection is only reusable if the body has been consumed
+    contentComplete = body.isComplete();
+  }
+
+  /** @return the value of the Content-Length header or -1 if not present */
+  private int getContentLength() throws HttpException {
+    String contentLengthString = headers.get(Response.CONTENT_LENGTH);
+    if (contentLengthString == null)
+      return -1;
+    contentLengthString = contentLengthString.trim();
+    if (contentLengthString.isEmpty())
+      return -1;
+    try {
+      return Integer.parseInt(contentLengthString);
+    } catch (NumberFormatException e) {
+      throw new HttpException("bad content length: " + contentLengthString);
+    }
+  }
+
+  /**
+   * Get the idle timeout announced in a <code>Keep-Alive</code> header.
+   *
+   * @return the timeout in milliseconds or -1 if not given
+   */
+  private static long parseKeepAliveTimeout(String keepAliveHeader) {
+    if (keepAliveHeader == null)
+      return -1;
+    for (String param : keepAliveHeader.split(",")) {
+      param = param.trim();
+      if (param.regionMatches(true, 0, "timeout=", 0, 8)) {
+        try {
+          return Long.parseLong(param.substring(8).trim()) * 1000;
+        } catch (NumberFormatException e) {
+          return -1;
+        }
+      }
+    }
+    return -1;
   }
 
   /*
@@ -298,140 +494,116 @@ public class HttpResponse implements Response {
    * -------------------------
    */
 
-  private void readPlainContent(InputStream in)
-      throws HttpException, IOException {
+  /** The raw message body, ends at the end of the body or at the limit. */
+  private abstract static class Body extends InputStream {
 
-    int contentLength = Integer.MAX_VALUE; // get content length
-    String contentLengthString = headers.get(Response.CONTENT_LENGTH);
-    if (contentLengthString != null) {
-      contentLengthString = contentLengthString.trim();
-      try {
-        if (!contentLengthString.isEmpty())
-          contentLength = Integer.parseInt(contentLengthString);
-      } catch (NumberFormatException e) {
-        throw new HttpException("bad content length: " + contentLengthString);
+    /** @return whether the complete body has been read */
+    abstract boolean isComplete();
+
+    /** Read the rest of the body up to the limit. */
+    void drain() throws IOException {
+      byte[] buffer = new byte[Http.BUFFER_SIZE];
+      while (read(buffer, 0, buffer.length) != -1) {
       }
     }
-    if (http.getMaxContent() >= 0 && contentLength > http
-        .getMaxContent()) // limit
-      // download
-      // size
-      contentLength = http.getMaxContent();
 
-    ByteArrayOutputStream out = new ByteArrayOutputStream(Http.BUFFER_SIZE);
-    byte[] bytes = new byte[Http.BUFFER_SIZE];
-    int length = 0;
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == -1 ? -1 : (b[0] & 0xff);
+    }
+  }
 
-    // do not try to read if the contentLength is 0
-    if (contentLength == 0) {
-      content = new byte[0];
-      return;
+  /**
+   * A body delimited by its Content-Length or, if not given, by the end of
+   * the connection.
+   */
+  private static class PlainBody extends Body {
+    private final InputStream in;
+    private final int declaredLength;
+    private final int limit;
+    private int length = 0;
+
+    PlainBody(InputStream in, int declaredLength, int limit) {
+      this.in = in;
+      this.declaredLength = declaredLength;
+      this.limit = declaredLength >= 0 ? Math.min(declaredLength, limit)
+          : limit;
     }
 
-    // read content
-    int i = in.read(bytes);
-    while (i != -1) {
-      out.write(bytes, 0, i);
-      length += i;
-      if (length >= contentLength) {
-        break;
-      }
-      if ((length + Http.BUFFER_SIZE) > contentLength) {
-        // reading next chunk may hit contentLength,
-        // must limit number of bytes read
-        i = in.read(bytes, 0, (contentLength - length));
-      } else {
-        i = in.read(bytes);
-      }
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (length >= limit)
+        return -1;
+      int i = in.read(b, off, Math.min(len, limit - length));
+      if (i > 0)
+        length += i;
+      return i;
+    }
+
+    boolean isComplete() {
+      return declaredLength >= 0 && length == declaredLength;
     }
-    content = out.toByteArray();
   }
 
-  /**
-   * @param in
-   * @param line
-   * @throws HttpException
-   * @throws IOException
-   */
-  private void readChunkedContent(PushbackInputStream in, StringBuffer line)
-      throws HttpException, IOException {
-    boolean doneChunks = false;
-    int contentBytesRead = 0;
-    byte[] bytes = new byte[Http.BUFFER_SIZE];
-    ByteArrayOutputStream out = new ByteArrayOutputStream(Http.BUFFER_SIZE);
-
-    while (!doneChunks) {
-      if (Http.LOG.isTraceEnabled()) {
-        Http.LOG.trace("Http: starting chunk");
+  /** A body in chunked transfer encoding. */
+  private class ChunkedBody extends Body {
+    private final PushbackInputStream in;
+    private final StringBuffer line;
+    private final int limit;
+    private int length = 0;
+    // bytes left in the current chunk
+    private int chunkLeft = 0;
+    private boolean done = false;
+
+    ChunkedBody(PushbackInputStream in, StringBuffer line, int limit) {
+      this.in = in;
+      this.line = line;
+      this.limit = limit;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (done || length >= limit)
+        return -1;
+      if (chunkLeft == 0) {
+        if (length > 0) {
+          // CRLF after the previous chunk
+          readLine(in, line, false);
+        }
+        chunkLeft = readChunkLength();
+        if (chunkLeft == 0) {
+          // last chunk, followed by optional trailers
+          try {
+            parseHeaders(in, line, null);
+          } catch (HttpException e) {
+            throw new IOException(e.getMessage(), e);
+          }
+          done = true;
+          return -1;
+        }
       }
+      int toRead = Math.min(len, Math.min(chunkLeft, limit - length));
+      int i = in.read(b, off, toRead);
+      if (i == -1)
+        throw new EOFException("chunk eof after " + length + " bytes");
+      chunkLeft -= i;
+      length += i;
+      return i;
+    }
 
+    private int readChunkLength() throws IOException {
       readLine(in, line, false);
-
-      String chunkLenStr;
-      // if (LOG.isTraceEnabled()) { LOG.trace("chunk-header: '" + line + "'");
-      // }
-
       int pos = line.indexOf(";");
-      if (pos < 0) {
-        chunkLenStr = line.toString();
-      } else {
-        chunkLenStr = line.substring(0, pos);
-        // if (LOG.isTraceEnabled()) { LOG.trace("got chunk-ext: " +
-        // line.substring(pos+1)); }
-      }
-      chunkLenStr = chunkLenStr.trim();
-      int chunkLen;
+      String chunkLenStr = (pos < 0 ? line.toString() : line.substring(0,
+          pos)).trim();
       try {
-        chunkLen = Integer.parseInt(chunkLenStr, 16);
+        return Integer.parseInt(chunkLenStr, 16);
       } catch (NumberFormatException e) {
-        throw new HttpException("bad chunk length: " + line.toString());
+        throw new IOException("bad chunk length: " + line.toString());
       }
-
-      if (chunkLen == 0) {
-        doneChunks = true;
-        break;
-      }
-
-      if (http.getMaxContent() >= 0 && (contentBytesRead + chunkLen) > http
-          .getMaxContent())
-        chunkLen = http.getMaxContent() - contentBytesRead;
-
-      // read one chunk
-      int chunkBytesRead = 0;
-      while (chunkBytesRead < chunkLen) {
-
-        int toRead = (chunkLen - chunkBytesRead) < Http.BUFFER_SIZE ?
-            (chunkLen - chunkBytesRead) :
-            Http.BUFFER_SIZE;
-        int len = in.read(bytes, 0, toRead);
-
-        if (len == -1)
-          throw new HttpException("chunk eof after " + contentBytesRead
-              + " bytes in successful chunks" + " and " + chunkBytesRead
-              + " in current chunk");
-
-        // DANGER!!! Will printed GZIPed stuff right to your
-        // terminal!
-        // if (LOG.isTraceEnabled()) { LOG.trace("read: " + new String(bytes, 0,
-        // len)); }
-
-        out.write(bytes, 0, len);
-        chunkBytesRead += len;
-      }
-
-      readLine(in, line, false);
-
     }
 
-    if (!doneChunks) {
-      if (contentBytesRead != http.getMaxContent())
-        throw new HttpException("chunk eof: !doneChunk && didn't max out");
-      return;
+    boolean isComplete() {
+      return done;
     }
-
-    content = out.toByteArray();
-    parseHeaders(in, line, null);
-
   }
 
   private int parseStatusLine(PushbackInputStream in, StringBuffer line)
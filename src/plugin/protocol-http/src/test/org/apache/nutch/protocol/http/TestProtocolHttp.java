@@ -18,15 +18,35 @@
 package org.apache.nutch.protocol.http;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.Text;
 import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.metadata.Nutch;
 import org.apache.nutch.net.protocols.Response;
+import org.apache.nutch.protocol.AsyncProtocol;
 import org.apache.nutch.protocol.Content;
 import org.apache.nutch.protocol.ProtocolOutput;
+import org.apache.nutch.protocol.ProtocolStatus;
+import org.apache.nutch.protocol.http.api.HttpConnectionPool;
 import org.junit.After;
 import org.junit.Test;
 import org.mortbay.jetty.Server;
@@ -91,6 +111,205 @@ public class TestProtocolHttp {
     fetchPage("/redirection", 302);
   }
 
+  @Test
+  public void testKeepAlive() throws Exception {
+    startServer(47505, false);
+    root.addServlet(new ServletHolder(
+        org.mortbay.jetty.servlet.DefaultServlet.class), "/");
+    conf.setBoolean("http.useHttp11", true);
+    http.setConf(conf);
+    HttpConnectionPool pool = http.getConnectionPool();
+    assertNotNull(pool);
+
+    String key = "HTTP://127.0.0.1:" + port;
+    // directory listing, served without the JSP engine
+    URL url = new URL("http", "127.0.0.1", port, "/");
+    assertEquals(200, http.getResponse(url, new CrawlDatum(), true).getCode());
+    Socket socket = pool.acquire(key);
+    assertNotNull("connection not kept alive", socket);
+    pool.release(key, socket, -1);
+
+    // the second request is sent over the same connection
+    assertEquals(200, http.getResponse(url, new CrawlDatum(), true).getCode());
+    assertSame(socket, pool.acquire(key));
+    assertNull(pool.acquire(key));
+    socket.close();
+  }
+
+  /** Writes a gzip encoded body in chunked transfer encoding. */
+  public static class GzipServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+        throws IOException {
+      resp.setContentType("text/plain");
+      resp.setHeader("Content-Encoding", "gzip");
+      OutputStream out = new GZIPOutputStream(resp.getOutputStream());
+      for (int i = 0; i < 1000; i++) {
+        out.write(("line " + i + "\n").getBytes("UTF-8"));
+        if (i % 100 == 0)
+          out.flush();
+      }
+      out.close();
+    }
+  }
+
+  @Test
+  public void testChunkedGzip() throws Exception {
+    startServer(47507, false);
+    root.addServlet(new ServletHolder(GzipServlet.class), "/gzip");
+    conf.setBoolean("http.useHttp11", true);
+    conf.setInt("http.content.limit", -1);
+    http.setConf(conf);
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      expected.append("line ").append(i).append('\n');
+    }
+
+    URL url = new URL("http", "127.0.0.1", port, "/gzip");
+    Response response = http.getResponse(url, new CrawlDatum(), true);
+    assertEquals(200, response.getCode());
+    assertEquals("chunked", response.getHeader(Response.TRANSFER_ENCODING));
+    assertEquals(expected.toString(), new String(response.getContent(),
+        "UTF-8"));
+    // the body has been read completely, the connection is reused
+    Socket socket = http.getConnectionPool().acquire(
+        "HTTP://127.0.0.1:" + port);
+    assertNotNull("connection not kept alive", socket);
+    socket.close();
+
+    // the decoded content is truncated to the limit
+    conf.setInt("http.content.limit", 100);
+    http.setConf(conf);
+    response = http.getResponse(url, new CrawlDatum(), true);
+    assertEquals(expected.substring(0, 100), new String(
+        response.getContent(), "UTF-8"));
+  }
+
+  @Test
+  public void testWrongContentLength() throws Exception {
+    setUp(false);
+    conf.setInt("http.content.limit", -1);
+    http.setConf(conf);
+    // announces about 2 GB but sends a few bytes only
+    final ServerSocket server = new ServerSocket(0);
+    Thread serve = new Thread() {
+      public void run() {
+        try {
+          Socket socket = server.accept();
+          InputStream in = socket.getInputStream();
+          // skip the request header
+          int last = 0, b;
+          while ((b = in.read()) != -1 && !(b == '\n' && last == '\n')) {
+            if (b != '\r')
+              last = b;
+          }
+          OutputStream out = socket.getOutputStream();
+          out.write(("HTTP/1.0 200 OK\r\nContent-Type: text/plain\r\n"
+              + "Content-Length: 2000000000\r\n\r\nshort").getBytes("UTF-8"));
+          out.flush();
+          socket.close();
+        } catch (IOException e) {
+          // the test fails
+        }
+      }
+    };
+    serve.start();
+    try {
+      URL url = new URL("http", "127.0.0.1", server.getLocalPort(), "/");
+      Response response = http.getResponse(url, new CrawlDatum(), true);
+      assertEquals(200, response.getCode());
+      assertEquals("short", new String(response.getContent(), "UTF-8"));
+    } finally {
+      serve.join(5000);
+      server.close();
+    }
+  }
+
+  /** Serves a page with an ETag, honours If-None-Match. */
+  public static class ETagServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+        throws IOException {
+      resp.setHeader("ETag", "\"v1\"");
+      if ("\"v1\"".equals(req.getHeader("If-None-Match"))) {
+        resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        return;
+      }
+      resp.setContentType("text/plain");
+      resp.getOutputStream().write("content".getBytes("UTF-8"));
+    }
+  }
+
+  @Test
+  public void testRevalidation() throws Exception {
+    startServer(47508, false);
+    root.addServlet(new ServletHolder(ETagServlet.class), "/etag");
+    Text url = new Text("http://127.0.0.1:" + port + "/etag");
+    CrawlDatum datum = new CrawlDatum();
+
+    ProtocolOutput out = http.getProtocolOutput(url, datum);
+    assertEquals(ProtocolStatus.SUCCESS, out.getStatus().getCode());
+    assertEquals(new Text("\"v1\""),
+        datum.getMetaData().get(Nutch.WRITABLE_ETAG_KEY));
+    assertEquals("\"v1\"", http.getIfNoneMatch(datum));
+
+    // the stored ETag is sent, the page is not downloaded again
+    out = http.getProtocolOutput(url, datum);
+    assertEquals(ProtocolStatus.NOTMODIFIED, out.getStatus().getCode());
+    assertEquals(0, out.getContent().getContent().length);
+    assertEquals("\"v1\"", http.getIfNoneMatch(datum));
+
+    conf.setBoolean("http.enable.if.none.match.header", false);
+    http.setConf(conf);
+    assertNull(http.getIfNoneMatch(datum));
+    out = http.getProtocolOutput(url, datum);
+    assertEquals(ProtocolStatus.SUCCESS, out.getStatus().getCode());
+  }
+
+  @Test
+  public void testAsync() throws Exception {
+    startServer(47506, false);
+    root.addServlet(new ServletHolder(
+        org.mortbay.jetty.servlet.DefaultServlet.class), "/");
+
+    String[] pages = { "/", "/nonexists.html", "/" };
+    final ProtocolOutput[] outputs = new ProtocolOutput[pages.length];
+    final CountDownLatch latch = new CountDownLatch(pages.length);
+    for (int i = 0; i < pages.length; i++) {
+      final int n = i;
+      URL url = new URL("http", "127.0.0.1", port, pages[i]);
+      http.getProtocolOutput(new Text(url.toString()), new CrawlDatum(),
+          new AsyncProtocol.Callback() {
+            public void completed(ProtocolOutput output) {
+              outputs[n] = output;
+              latch.countDown();
+            }
+          });
+    }
+    assertTrue("requests not completed", latch.await(10, TimeUnit.SECONDS));
+    assertEquals(ProtocolStatus.SUCCESS, outputs[0].getStatus().getCode());
+    assertEquals("text/html", outputs[0].getContent().getContentType());
+    assertTrue(outputs[0].getContent().getContent().length > 0);
+    assertEquals(ProtocolStatus.NOTFOUND, outputs[1].getStatus().getCode());
+    assertEquals(ProtocolStatus.SUCCESS, outputs[2].getStatus().getCode());
+
+    // connection refused
+    server.stop();
+    final ProtocolOutput[] failed = new ProtocolOutput[1];
+    final CountDownLatch failure = new CountDownLatch(1);
+    http.getProtocolOutput(new Text("http://127.0.0.1:" + port + "/"),
+        new CrawlDatum(), new AsyncProtocol.Callback() {
+          public void completed(ProtocolOutput output) {
+            failed[0] = output;
+            failure.countDown();
+          }
+        });
+    assertTrue("failure not reported", failure.await(10, TimeUnit.SECONDS));
+    assertEquals(ProtocolStatus.EXCEPTION, failed[0].getStatus().getCode());
+  }
+
   /**
    * Starts the Jetty server at a specified port and redirection parameter.
    * 
@@ -36,7 +36,6 @@ import org.apache.commons.httpclient.HttpClient;
 import org.apache.nutch.crawl.CrawlDatum;
 import org.apache.nutch.metadata.Metadata;
 import org.apache.nutch.metadata.SpellCheckedMetadata;
-import org.apache.nutch.net.protocols.HttpDateFormat;
 import org.apache.nutch.net.protocols.Response;
 import org.apache.nutch.protocol.http.api.HttpBase;
 
@@ -76,9 +75,13 @@ public class HttpResponse implements Response {
     GetMethod get = new GetMethod(url.toString());
     get.setFollowRedirects(followRedirects);
     get.setDoAuthentication(true);
-    if (http.isIfModifiedSinceEnabled() && datum.getModifiedTime() > 0) {
-      get.setRequestHeader("If-Modified-Since",
-          HttpDateFormat.toString(datum.getModifiedTime()));
+    String ifNoneMatch = http.getIfNoneMatch(datum);
+    if (ifNoneMatch != null) {
+      get.setRequestHeader("If-None-Match", ifNoneMatch);
+    }
+    String ifModifiedSince = http.getIfModifiedSince(datum);
+    if (ifModifiedSince != null) {
+      get.setRequestHeader("If-Modified-Since", ifModifiedSince);
     }
 
     // Set HTTP parameters
@@ -35,7 +35,6 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.nutch.crawl.CrawlDatum;
 import org.apache.nutch.metadata.Metadata;
 import org.apache.nutch.metadata.SpellCheckedMetadata;
-import org.apache.nutch.net.protocols.HttpDateFormat;
 import org.apache.nutch.net.protocols.Response;
 import org.apache.nutch.protocol.ProtocolException;
 import org.apache.nutch.protocol.http.api.HttpBase;
@@ -67,8 +66,13 @@ public class HttpResponse implements Response {
 		GetMethod get = new GetMethod(url.toString());
 		get.setFollowRedirects(followRedirects);
 		get.setDoAuthentication(true);
-		if (http.isIfModifiedSinceEnabled() && datum.getModifiedTime() > 0) {
-			get.setRequestHeader("If-Modified-Since", HttpDateFormat.toString(datum.getModifiedTime()));
+		String ifNoneMatch = http.getIfNoneMatch(datum);
+		if (ifNoneMatch != null) {
+			get.setRequestHeader("If-None-Match", ifNoneMatch);
+		}
+		String ifModifiedSince = http.getIfModifiedSince(datum);
+		if (ifModifiedSince != null) {
+			get.setRequestHeader("If-Modified-Since", ifModifiedSince);
 		}
 
 		// Set HTTP parameters
@@ -31,7 +31,6 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.nutch.crawl.CrawlDatum;
 import org.apache.nutch.metadata.Metadata;
 import org.apache.nutch.metadata.SpellCheckedMetadata;
-import org.apache.nutch.net.protocols.HttpDateFormat;
 import org.apache.nutch.net.protocols.Response;
 import org.apache.nutch.protocol.ProtocolException;
 import org.apache.nutch.protocol.http.api.HttpException;
@@ -133,8 +132,14 @@ public class HttpResponse implements Response {
       reqStr.append(this.http.getAccept());
       reqStr.append("\r\n");
 
-      if (datum.getModifiedTime() > 0) {
-        reqStr.append("If-Modified-Since: " + HttpDateFormat.toString(datum.getModifiedTime()));
+      String ifNoneMatch = http.getIfNoneMatch(datum);
+      if (ifNoneMatch != null) {
+        reqStr.append("If-None-Match: " + ifNoneMatch);
+        reqStr.append("\r\n");
+      }
+      String ifModifiedSince = http.getIfModifiedSince(datum);
+      if (ifModifiedSince != null) {
+        reqStr.append("If-Modified-Since: " + ifModifiedSince);
         reqStr.append("\r\n");
       }
       reqStr.append("\r\n");
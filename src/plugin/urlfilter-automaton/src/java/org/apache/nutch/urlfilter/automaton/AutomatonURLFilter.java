@@ -31,6 +31,7 @@ import dk.brics.automaton.RunAutomaton;
 import org.apache.nutch.net.*;
 import org.apache.nutch.urlfilter.api.RegexRule;
 import org.apache.nutch.urlfilter.api.RegexURLFilterBase;
+import org.apache.nutch.util.RegexPrefilter;
 
 /**
  * RegexURLFilterBase implementation based on the <a
@@ -85,6 +86,11 @@ public class AutomatonURLFilter extends RegexURLFilterBase {
     return new Rule(sign, regex, hostOrDomain);
   }
 
+  // Inherited Javadoc
+  protected RegexPrefilter.Syntax getRegexSyntax() {
+    return RegexPrefilter.Syntax.AUTOMATON;
+  }
+
   /*
    * ------------------------------------ * </implementation:RegexURLFilterBase>
    * * ------------------------------------
@@ -19,6 +19,7 @@ package org.apache.nutch.urlfilter.automaton;
 // JDK imports
 import java.io.IOException;
 import java.io.Reader;
+import java.io.StringReader;
 
 import org.apache.nutch.net.*;
 // Nutch imports
@@ -53,4 +54,33 @@ public class TestAutomatonURLFilter extends RegexURLFilterBaseTest {
     bench(800, "Benchmarks");
   }
 
+  @Test
+  public void testPrefilter() {
+    benchPrefilter(200, "Benchmarks");
+    benchPrefilter(200, "WholeWebCrawling");
+    benchPrefilter(200, "IntranetCrawling");
+  }
+
+  /** Rules with numerical intervals are applied in the order of the rules. */
+  @Test
+  public void testIntervalRules() throws IOException {
+    AutomatonURLFilter filter = new AutomatonURLFilter(new StringReader(
+        "-.*/id<1000-2000>\n+.*"));
+    Assert.assertNull(filter.filter("http://a.com/id1500"));
+    Assert.assertEquals("http://a.com/id3000",
+        filter.filter("http://a.com/id3000"));
+
+    filter = new AutomatonURLFilter(new StringReader(
+        "+.*/id<1000-2000>\n-.*/id.*\n+.*"));
+    Assert.assertEquals("http://a.com/id1500",
+        filter.filter("http://a.com/id1500"));
+    Assert.assertNull(filter.filter("http://a.com/id3000"));
+    Assert.assertEquals("http://a.com/x", filter.filter("http://a.com/x"));
+
+    // the prefilter gives the same results as applying every rule in turn
+    filter.setPrefilter(false);
+    Assert.assertEquals("http://a.com/id1500",
+        filter.filter("http://a.com/id1500"));
+    Assert.assertNull(filter.filter("http://a.com/id3000"));
+  }
 }
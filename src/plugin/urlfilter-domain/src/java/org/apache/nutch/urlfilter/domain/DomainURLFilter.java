@@ -29,9 +29,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.nutch.net.URLFilter;
+import org.apache.nutch.net.URLView;
+import org.apache.nutch.net.URLViewFilter;
 import org.apache.nutch.plugin.Extension;
 import org.apache.nutch.plugin.PluginRepository;
-import org.apache.nutch.util.URLUtil;
 import org.apache.nutch.util.domain.DomainSuffix;
 
 /**
@@ -73,7 +74,7 @@ import org.apache.nutch.util.domain.DomainSuffix;
  * 
  * the attribute "file" has higher precedence if defined.
  */
-public class DomainURLFilter implements URLFilter {
+public class DomainURLFilter implements URLViewFilter {
 
   private static final Logger LOG = LoggerFactory
       .getLogger(DomainURLFilter.class);
@@ -180,16 +181,22 @@ public class DomainURLFilter implements URLFilter {
   }
 
   public String filter(String url) {
+    URLView view = filter(new URLView(url));
+    return view == null ? null : view.toString();
+  }
+
+  public URLView filter(URLView url) {
     // https://issues.apache.org/jira/browse/NUTCH-2189
     if (domainSet.size() == 0) return url;
     
     try {
       // match for suffix, domain, and host in that order. more general will
       // override more specific
-      String domain = URLUtil.getDomainName(url).toLowerCase().trim();
-      String host = URLUtil.getHost(url);
+      url.getURL();
+      String domain = url.getDomain().trim();
+      String host = url.getHost();
       String suffix = null;
-      DomainSuffix domainSuffix = URLUtil.getDomainSuffix(url);
+      DomainSuffix domainSuffix = url.getDomainSuffix();
       if (domainSuffix != null) {
         suffix = domainSuffix.getDomain();
       }
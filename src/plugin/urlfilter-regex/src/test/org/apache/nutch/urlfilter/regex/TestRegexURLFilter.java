@@ -58,4 +58,14 @@ public class TestRegexURLFilter extends RegexURLFilterBaseTest {
     test("nutch1838");
   }
 
+  @Test
+  public void testPrefilter() {
+    test("Prefilter");
+    benchPrefilter(200, "Prefilter");
+    benchPrefilter(200, "Benchmarks");
+    benchPrefilter(200, "WholeWebCrawling");
+    benchPrefilter(200, "IntranetCrawling");
+    benchPrefilter(200, "nutch1838");
+  }
+
 }
@@ -29,8 +29,9 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.hadoop.conf.Configured;
-import org.apache.nutch.net.URLNormalizer;
 import org.apache.nutch.net.URLNormalizers;
+import org.apache.nutch.net.URLView;
+import org.apache.nutch.net.URLViewNormalizer;
 import org.apache.nutch.util.NutchConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,7 +46,8 @@ import org.slf4j.LoggerFactory;
  * percent-encoding</a> in URL paths</li>
  * </ul>
  */
-public class BasicURLNormalizer extends Configured implements URLNormalizer {
+public class BasicURLNormalizer extends Configured implements
+    URLViewNormalizer {
   public static final Logger LOG = LoggerFactory
       .getLogger(BasicURLNormalizer.class);
 
@@ -90,13 +92,21 @@ public class BasicURLNormalizer extends Configured implements URLNormalizer {
 
   public String normalize(String urlString, String scope)
       throws MalformedURLException {
-    
+    URLView url = normalize(new URLView(urlString), scope);
+    return url == null ? null : url.toString();
+  }
+
+  public URLView normalize(URLView urlView, String scope)
+      throws MalformedURLException {
+    String urlString = urlView.toString();
+
     if ("".equals(urlString)) // permit empty
-      return urlString;
+      return urlView;
 
     urlString = urlString.trim(); // remove extra spaces
 
-    URL url = new URL(urlString);
+    // the parser ignores leading and trailing spaces
+    URL url = urlView.getURL();
 
     String protocol = url.getProtocol();
     String host = url.getHost();
@@ -149,10 +159,12 @@ public class BasicURLNormalizer extends Configured implements URLNormalizer {
       file = file2;
     }
 
-    if (changed)
-      urlString = new URL(protocol, host, port, file).toString();
+    if (changed) {
+      url = new URL(protocol, host, port, file);
+      return new URLView(url.toString(), url);
+    }
 
-    return urlString;
+    return urlView.with(urlString);
   }
 
   private String getFileWithNormalizedPath(URL url)
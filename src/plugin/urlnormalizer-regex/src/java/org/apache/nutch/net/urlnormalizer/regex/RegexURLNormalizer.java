@@ -38,6 +38,7 @@ import org.apache.hadoop.conf.Configured;
 import org.apache.nutch.net.URLNormalizer;
 import org.apache.nutch.net.URLNormalizers;
 import org.apache.nutch.util.NutchConfiguration;
+import org.apache.nutch.util.RegexPrefilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
@@ -77,6 +78,9 @@ public class RegexURLNormalizer extends Configured implements URLNormalizer {
     public Pattern pattern;
 
     public String substitution;
+
+    /** contained in any URL the pattern matches, null if unknown */
+    public String literal;
   }
 
   private ThreadLocal<HashMap<String, List<Rule>>> scopedRulesThreadLocal = new ThreadLocal<HashMap<String, List<Rule>>>() {
@@ -187,6 +191,11 @@ public class RegexURLNormalizer extends Configured implements URLNormalizer {
     while (i.hasNext()) {
       Rule r = (Rule) i.next();
 
+      if (r.literal != null && urlString.indexOf(r.literal) < 0) {
+        // cannot match, skip the regex
+        continue;
+      }
+
       Matcher matcher = r.pattern.matcher(urlString);
 
       urlString = matcher.replaceAll(r.substitution);
@@ -262,6 +271,7 @@ public class RegexURLNormalizer extends Configured implements URLNormalizer {
             continue;
           }
           rule.substitution = subValue;
+          rule.literal = RegexPrefilter.requiredLiteral(patternValue);
           rules.add(rule);
         }
       }
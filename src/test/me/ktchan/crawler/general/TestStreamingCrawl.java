@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.ktchan.crawler.general;
+
+import java.util.ArrayList;
+
+import me.ktchan.crawler.util.StreamingCrawl;
+import me.ktchan.crawler.util.StreamingCrawl.StageMetrics;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.nutch.crawl.CrawlDBTestUtil;
+import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.crawl.CrawlDbLayers;
+import org.apache.nutch.crawl.Injector;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mortbay.jetty.Server;
+
+/**
+ * Streaming crawl test: 1. Injects the start page of the test site 2. Crawls
+ * it with small batches 3. Verifies that the outlinks were found and fetched
+ * exactly once
+ */
+public class TestStreamingCrawl {
+
+	private final static Path testdir = new Path("build/test/streaming-crawl-test");
+
+	private Configuration conf;
+	private FileSystem fs;
+	private Server server;
+	private String prefix;
+
+	@Before
+	public void setUp() throws Exception {
+		conf = CrawlDBTestUtil.createConfiguration();
+		conf.setFloat("fetcher.server.delay", 0.5f);
+		// the outlinks must be found by the parse stage
+		conf.set("parser.html.impl", "tagsoup");
+		fs = FileSystem.get(conf);
+		fs.delete(testdir, true);
+		int port = conf.getInt("content.server.port", 50000);
+		prefix = "http://127.0.0.1:" + port + "/";
+		server = CrawlDBTestUtil.getServer(port, "build/test/data/fetch-test-site");
+		server.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		server.stop();
+		fs.delete(testdir, true);
+	}
+
+	@Test
+	public void testStreamingCrawl() throws Exception {
+		Path urlPath = new Path(testdir, "urls");
+		Path crawldbPath = new Path(testdir, "crawldb");
+		Path segmentsPath = new Path(testdir, "segments");
+
+		ArrayList<String> urls = new ArrayList<>();
+		urls.add(prefix + "index.html");
+		CrawlDBTestUtil.generateSeedList(fs, urlPath, urls);
+		new Injector(conf).inject(crawldbPath, urlPath);
+
+		StreamingCrawl crawl = new StreamingCrawl(conf);
+		crawl.crawl(crawldbPath, segmentsPath, 2, Integer.MAX_VALUE);
+
+		// the start page and its three outlinks
+		CrawlDbLayers.Reader reader = new CrawlDbLayers.Reader(crawldbPath, conf);
+		CrawlDatum datum = new CrawlDatum();
+		for (String page : new String[] { "index.html", "pagea.html", "pageb.html", "dup_of_pagea.html" }) {
+			Assert.assertTrue(page, reader.get(new Text(prefix + page), datum));
+			Assert.assertEquals(page, CrawlDatum.STATUS_DB_FETCHED, datum.getStatus());
+		}
+		reader.close();
+
+		for (StageMetrics metrics : crawl.getMetrics()) {
+			// every page was fetched once
+			Assert.assertEquals(metrics.getName(), 4, metrics.getRecords());
+			Assert.assertTrue(metrics.getName(), metrics.getBatches() >= 2);
+		}
+	}
+}
@@ -0,0 +1,214 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.crawl;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.MapWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.protocol.ProtocolStatus;
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Tests the serialization of {@link CrawlDatum}. */
+public class TestCrawlDatum {
+
+  private CrawlDatum createDatum() {
+    CrawlDatum datum = new CrawlDatum(CrawlDatum.STATUS_DB_FETCHED, 3600, 1.5f);
+    datum.setSignature(new byte[] { 1, 2, 3, 4 });
+    datum.setModifiedTime(123456789L);
+    MapWritable meta = datum.getMetaData();
+    meta.put(Nutch.WRITABLE_GENERATE_TIME_KEY, new LongWritable(
+        System.currentTimeMillis()));
+    meta.put(new Text(Metadata.CONTENT_TYPE), new Text("text/html"));
+    meta.put(new Text("custom"), new FloatWritable(0.25f));
+    meta.put(new IntWritable(7), new BytesWritable(new byte[] { 9, 8 }));
+    return datum;
+  }
+
+  private byte[] write(CrawlDatum datum) throws Exception {
+    DataOutputBuffer out = new DataOutputBuffer();
+    datum.write(out);
+    byte[] bytes = new byte[out.getLength()];
+    System.arraycopy(out.getData(), 0, bytes, 0, bytes.length);
+    return bytes;
+  }
+
+  /** Serialize preceded by offset bytes of garbage. */
+  private byte[] write(CrawlDatum datum, int offset) throws Exception {
+    byte[] bytes = write(datum);
+    byte[] result = new byte[offset + bytes.length];
+    Arrays.fill(result, 0, offset, (byte) 0x7f);
+    System.arraycopy(bytes, 0, result, offset, bytes.length);
+    return result;
+  }
+
+  private CrawlDatum read(byte[] bytes) throws Exception {
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(bytes, bytes.length);
+    return CrawlDatum.read(in);
+  }
+
+  /** Serialize in the format of version 7, metadata as MapWritable. */
+  private byte[] writeVersion7(CrawlDatum datum) throws Exception {
+    byte[] current = write(datum);
+    DataOutputBuffer out = new DataOutputBuffer();
+    out.writeByte(7);
+    // the fields before the metadata are unchanged
+    int header = 1 + 1 + 8 + 1 + 4 + 4 + 8 + 1
+        + (datum.getSignature() == null ? 0 : datum.getSignature().length);
+    out.write(current, 1, header - 1);
+    out.writeBoolean(true);
+    datum.getMetaData().write(out);
+    byte[] bytes = new byte[out.getLength()];
+    System.arraycopy(out.getData(), 0, bytes, 0, bytes.length);
+    return bytes;
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    CrawlDatum datum = createDatum();
+    CrawlDatum copy = read(write(datum));
+    Assert.assertEquals(datum, copy);
+
+    // ProtocolStatus does not implement hashCode(), compare separately
+    datum.getMetaData().put(Nutch.WRITABLE_PROTO_STATUS_KEY,
+        new ProtocolStatus(ProtocolStatus.NOTMODIFIED, 12345L));
+    copy = read(write(datum));
+    Assert.assertEquals(datum.toString(), copy.toString());
+    ProtocolStatus pst = (ProtocolStatus) copy.getMetaData().get(
+        Nutch.WRITABLE_PROTO_STATUS_KEY);
+    Assert.assertEquals(ProtocolStatus.NOTMODIFIED, pst.getCode());
+    Assert.assertEquals(12345L, pst.getLastModified());
+
+    // without metadata
+    datum = new CrawlDatum(CrawlDatum.STATUS_DB_UNFETCHED, 100);
+    copy = read(write(datum));
+    Assert.assertEquals(datum, copy);
+    Assert.assertFalse(copy.hasMetaData());
+  }
+
+  @Test
+  public void testWellKnownKeys() throws Exception {
+    CrawlDatum datum = new CrawlDatum(CrawlDatum.STATUS_DB_FETCHED, 3600);
+    datum.getMetaData().put(Nutch.WRITABLE_ETAG_KEY, new Text("\"abc\""));
+    datum.getMetaData().put(Nutch.WRITABLE_LAST_MODIFIED_KEY,
+        new LongWritable(123456789L));
+    datum.getMetaData().put(Nutch.WRITABLE_CONTENT_LENGTH_KEY,
+        new LongWritable(4096L));
+    byte[] bytes = write(datum);
+    Assert.assertEquals(datum, read(bytes));
+    // the keys are written as codes, not as strings
+    String written = new String(bytes, "ISO-8859-1");
+    Assert.assertFalse(written.contains("_etag_"));
+    Assert.assertFalse(written.contains("_lmod_"));
+    Assert.assertFalse(written.contains("_clen_"));
+  }
+
+  @Test
+  public void testReadVersion7() throws Exception {
+    CrawlDatum datum = createDatum();
+    byte[] old = writeVersion7(datum);
+    CrawlDatum copy = read(old);
+    Assert.assertEquals(datum, copy);
+
+    // the compact encoding is smaller
+    datum.getMetaData().put(Nutch.WRITABLE_PROTO_STATUS_KEY,
+        new ProtocolStatus(ProtocolStatus.SUCCESS));
+    old = writeVersion7(datum);
+    byte[] current = write(datum);
+    Assert.assertTrue(current.length + " < " + old.length,
+        current.length < old.length);
+    // and raw comparison works on both
+    WritableComparator comparator = WritableComparator.get(CrawlDatum.class);
+    Assert.assertEquals(0, comparator.compare(old, 0, old.length, current, 0,
+        current.length));
+  }
+
+  @Test
+  public void testRawComparator() throws Exception {
+    WritableComparator comparator = WritableComparator.get(CrawlDatum.class);
+    CrawlDatum d1 = createDatum();
+    CrawlDatum d2 = createDatum();
+    d2.setScore(2.0f);
+    CrawlDatum d3 = createDatum();
+    d3.setFetchTime(d1.getFetchTime() + 1000);
+    CrawlDatum d4 = createDatum();
+    d4.setSignature(new byte[] { 1, 2, 3, 5 });
+    CrawlDatum[] datums = { d1, d2, d3, d4 };
+    for (CrawlDatum a : datums) {
+      for (CrawlDatum b : datums) {
+        // serialized at different offsets, as in a sort buffer
+        byte[] ba = write(a, 3);
+        byte[] bb = write(b, 7);
+        Assert.assertEquals(Integer.signum(a.compareTo(b)),
+            Integer.signum(comparator.compare(ba, 3, ba.length - 3, bb, 7,
+                bb.length - 7)));
+      }
+    }
+  }
+
+  @Test
+  public void testRawAccessors() throws Exception {
+    CrawlDatum datum = createDatum();
+    datum.setRetriesSinceFetch(2);
+    byte[] bytes = write(datum, 5);
+    Assert.assertEquals(datum.getStatus(), CrawlDatum.readStatus(bytes, 5));
+    Assert.assertEquals(datum.getFetchTime(),
+        CrawlDatum.readFetchTime(bytes, 5));
+    Assert.assertEquals(datum.getRetriesSinceFetch(),
+        CrawlDatum.readRetries(bytes, 5));
+    Assert.assertEquals(datum.getFetchInterval(),
+        CrawlDatum.readFetchInterval(bytes, 5));
+    Assert.assertEquals(datum.getScore(), CrawlDatum.readScore(bytes, 5),
+        0.0001f);
+    Assert.assertEquals(datum.getModifiedTime(),
+        CrawlDatum.readModifiedTime(bytes, 5));
+  }
+
+  @Test
+  public void testLazyCopy() throws Exception {
+    CrawlDatum read = read(write(createDatum()));
+    CrawlDatum copy = new CrawlDatum();
+    copy.set(read);
+    copy.getMetaData().put(new Text("custom"), new FloatWritable(1.0f));
+    Assert.assertEquals(new FloatWritable(0.25f),
+        read.getMetaData().get(new Text("custom")));
+    Assert.assertEquals(new FloatWritable(1.0f),
+        copy.getMetaData().get(new Text("custom")));
+    // a copy which was not decoded is written unchanged
+    CrawlDatum copy2 = new CrawlDatum();
+    copy2.set(read(write(read)));
+    Assert.assertEquals(read, read(write(copy2)));
+    // metadata only
+    CrawlDatum copy3 = new CrawlDatum(CrawlDatum.STATUS_DB_UNFETCHED, 100);
+    copy3.copyMetaData(read(write(read)));
+    Assert.assertEquals(read.getMetaData(), copy3.getMetaData());
+    Assert.assertEquals(CrawlDatum.STATUS_DB_UNFETCHED, copy3.getStatus());
+    copy3.copyMetaData(new CrawlDatum());
+    Assert.assertFalse(copy3.hasMetaData());
+  }
+}
@@ -0,0 +1,220 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.crawl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapFileOutputFormat;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.lib.HashPartitioner;
+import org.apache.nutch.crawl.CrawlDBTestUtil.URLCrawlDatum;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests delta updates of the CrawlDb, reading the merged layers and their
+ * compaction.
+ */
+public class TestCrawlDbLayers {
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path testdir = new Path("build/test/crawldb-layers-test");
+  private Path crawlDb = new Path(testdir, "crawldb");
+
+  private static final String URL_A = "http://a.example.com/";
+  private static final String URL_B = "http://b.example.com/";
+  private static final String URL_C = "http://c.example.com/";
+  private static final String URL_D = "http://d.example.com/";
+
+  @Before
+  public void setUp() throws Exception {
+    conf = CrawlDBTestUtil.createConfiguration();
+    conf.setBoolean(CrawlDb.CRAWLDB_DELTA_UPDATE, true);
+    fs = FileSystem.get(conf);
+    fs.delete(testdir, true);
+
+    List<URLCrawlDatum> list = new ArrayList<URLCrawlDatum>();
+    for (String url : new String[] { URL_A, URL_B, URL_C }) {
+      list.add(new URLCrawlDatum(new Text(url), new CrawlDatum(
+          CrawlDatum.STATUS_DB_UNFETCHED, 100)));
+    }
+    CrawlDBTestUtil.createCrawlDb(conf, fs, crawlDb, list);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    fs.delete(testdir, true);
+  }
+
+  /** Create a segment in which URL_B was fetched and links to URL_D */
+  private Path createSegment(String name) throws Exception {
+    Path segment = new Path(testdir, name);
+    CrawlDatum fetched = new CrawlDatum(CrawlDatum.STATUS_FETCH_SUCCESS, 100);
+    fetched.setFetchTime(System.currentTimeMillis());
+    fetched.setSignature(new byte[] { 1, 2, 3 });
+    writeSegmentPart(new Path(segment, CrawlDatum.FETCH_DIR_NAME), URL_B,
+        fetched);
+    CrawlDatum linked = new CrawlDatum(CrawlDatum.STATUS_LINKED, 100);
+    writeSegmentPart(new Path(segment, CrawlDatum.PARSE_DIR_NAME), URL_D,
+        linked);
+    return segment;
+  }
+
+  private void writeSegmentPart(Path dir, String url, CrawlDatum datum)
+      throws Exception {
+    MapFile.Writer writer = new MapFile.Writer(conf,
+        new Path(dir, "part-00000"), MapFile.Writer.keyClass(Text.class),
+        SequenceFile.Writer.valueClass(CrawlDatum.class));
+    writer.append(new Text(url), datum);
+    writer.close();
+  }
+
+  /** Read all layers through {@link CrawlDbInputFormat} */
+  private TreeMap<String, Byte> readMerged() throws Exception {
+    JobConf job = new JobConf(conf);
+    CrawlDb.addInputPath(job, crawlDb);
+    CrawlDbInputFormat<Text, CrawlDatum> format = new CrawlDbInputFormat<Text, CrawlDatum>();
+    TreeMap<String, Byte> result = new TreeMap<String, Byte>();
+    for (InputSplit split : format.getSplits(job, 1)) {
+      RecordReader<Text, CrawlDatum> reader = format.getRecordReader(split,
+          job, Reporter.NULL);
+      Text key = reader.createKey();
+      CrawlDatum value = reader.createValue();
+      while (reader.next(key, value)) {
+        Assert.assertNull("duplicate " + key,
+            result.put(key.toString(), value.getStatus()));
+      }
+      reader.close();
+    }
+    return result;
+  }
+
+  @Test
+  public void testDeltaUpdate() throws Exception {
+    CrawlDb crawlDbTool = new CrawlDb(conf);
+    crawlDbTool.update(crawlDb, new Path[] { createSegment("segment1") },
+        false, false);
+
+    Path[] deltas = CrawlDbLayers.getDeltas(fs, crawlDb);
+    Assert.assertEquals(1, deltas.length);
+    // the base layer is unchanged
+    Assert.assertEquals(CrawlDatum.STATUS_DB_UNFETCHED, get(URL_B, new Path(
+        crawlDb, CrawlDb.CURRENT_NAME)));
+    Assert.assertEquals(-1, get(URL_D, new Path(crawlDb, CrawlDb.CURRENT_NAME)));
+    // the delta holds only the updated URLs
+    Assert.assertEquals(-1, get(URL_A, deltas[0]));
+    Assert.assertEquals(CrawlDatum.STATUS_DB_FETCHED, get(URL_B, deltas[0]));
+    Assert.assertEquals(CrawlDatum.STATUS_DB_UNFETCHED, get(URL_D, deltas[0]));
+
+    // lookups and jobs see the merged layers
+    CrawlDbLayers.Reader reader = new CrawlDbLayers.Reader(crawlDb, conf);
+    CrawlDatum datum = new CrawlDatum();
+    Assert.assertTrue(reader.get(new Text(URL_B), datum));
+    Assert.assertEquals(CrawlDatum.STATUS_DB_FETCHED, datum.getStatus());
+    Assert.assertTrue(reader.get(new Text(URL_A), datum));
+    Assert.assertEquals(CrawlDatum.STATUS_DB_UNFETCHED, datum.getStatus());
+    reader.close();
+
+    TreeMap<String, Byte> merged = readMerged();
+    Assert.assertEquals(4, merged.size());
+    Assert.assertEquals(CrawlDatum.STATUS_DB_FETCHED, (byte) merged.get(URL_B));
+    Assert.assertEquals(CrawlDatum.STATUS_DB_UNFETCHED, (byte) merged.get(URL_D));
+
+    // a second update looks up the entries of the previous delta, the
+    // signature is unchanged
+    crawlDbTool.update(crawlDb, new Path[] { createSegment("segment2") },
+        false, false);
+    deltas = CrawlDbLayers.getDeltas(fs, crawlDb);
+    Assert.assertEquals(2, deltas.length);
+    Assert.assertEquals(CrawlDatum.STATUS_DB_NOTMODIFIED, (byte) readMerged()
+        .get(URL_B));
+
+    // compaction folds the deltas into the base layer
+    CrawlDbCompactor compactor = new CrawlDbCompactor(conf);
+    Assert.assertTrue(compactor.compact(crawlDb, true));
+    Assert.assertFalse(CrawlDbLayers.hasDeltas(fs, crawlDb));
+    Assert.assertEquals(CrawlDatum.STATUS_DB_NOTMODIFIED, get(URL_B, new Path(
+        crawlDb, CrawlDb.CURRENT_NAME)));
+    Assert.assertEquals(4, readMerged().size());
+  }
+
+  @Test
+  public void testCompactionPolicy() throws Exception {
+    conf.setInt(CrawlDbCompactor.COMPACT_LAYERS, 1);
+    conf.setFloat(CrawlDbCompactor.COMPACT_RATIO, 100.0f);
+    Assert.assertFalse(CrawlDbCompactor.needsCompaction(conf, fs, crawlDb));
+    CrawlDb crawlDbTool = new CrawlDb(conf);
+    crawlDbTool.update(crawlDb, new Path[] { createSegment("segment1") },
+        false, false);
+    Assert.assertFalse(CrawlDbCompactor.needsCompaction(conf, fs, crawlDb));
+    Assert.assertFalse(new CrawlDbCompactor(conf).compact(crawlDb, false));
+    crawlDbTool.update(crawlDb, new Path[] { createSegment("segment2") },
+        false, false);
+    Assert.assertTrue(CrawlDbCompactor.needsCompaction(conf, fs, crawlDb));
+    Assert.assertTrue(new CrawlDbCompactor(conf).compact(crawlDb, false));
+    Assert.assertFalse(CrawlDbLayers.hasDeltas(fs, crawlDb));
+  }
+
+  @Test
+  public void testFullUpdateIfPurging() throws Exception {
+    CrawlDb crawlDbTool = new CrawlDb(conf);
+    crawlDbTool.update(crawlDb, new Path[] { createSegment("segment1") },
+        false, false);
+    Assert.assertTrue(CrawlDbLayers.hasDeltas(fs, crawlDb));
+
+    // purging must see all entries, the delta is folded into the base layer
+    conf.setBoolean(CrawlDb.CRAWLDB_PURGE_404, true);
+    crawlDbTool = new CrawlDb(conf);
+    crawlDbTool.update(crawlDb, new Path[] { createSegment("segment2") },
+        false, false);
+    Assert.assertFalse(CrawlDbLayers.hasDeltas(fs, crawlDb));
+    Assert.assertEquals(CrawlDatum.STATUS_DB_NOTMODIFIED,
+        get(URL_B, new Path(crawlDb, CrawlDb.CURRENT_NAME)));
+    Assert.assertEquals(4, readMerged().size());
+  }
+
+  /** @return the status of a URL in a single layer or -1 if not found */
+  private byte get(String url, Path layer) throws Exception {
+    MapFile.Reader[] readers = MapFileOutputFormat.getReaders(fs, layer, conf);
+    try {
+      CrawlDatum datum = new CrawlDatum();
+      if (MapFileOutputFormat.getEntry(readers,
+          new HashPartitioner<Text, CrawlDatum>(), new Text(url), datum) == null) {
+        return -1;
+      }
+      return datum.getStatus();
+    } finally {
+      for (MapFile.Reader reader : readers) {
+        reader.close();
+      }
+    }
+  }
+}
@@ -23,10 +23,13 @@ import java.util.Iterator;
 import java.util.List;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.util.StringUtils;
 
 import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.metadata.Nutch;
 
 import static org.apache.nutch.crawl.CrawlDatum.*;
 
@@ -512,6 +515,59 @@ public class TestCrawlDbStates {
     }
   }
 
+  /**
+   * Validators (ETag, Last-Modified) of the old entry must not survive a
+   * successful fetch which did not return them, while other meta data of the
+   * old entry is kept.
+   */
+  @Test
+  public void testCrawlDbReducerStaleValidators() {
+    Configuration conf = CrawlDBTestUtil.createConfiguration();
+    CrawlDbUpdateUtil<CrawlDbReducer> updateDb = new CrawlDbUpdateUtil<CrawlDbReducer>(
+        new CrawlDbReducer(), conf);
+    Text other = new Text("other");
+    CrawlDatum fromDb = new CrawlDatum(STATUS_DB_FETCHED, 3600, 1.0f);
+    fromDb.getMetaData().put(Nutch.WRITABLE_ETAG_KEY, new Text("\"v1\""));
+    fromDb.getMetaData().put(Nutch.WRITABLE_LAST_MODIFIED_KEY,
+        new Text("Thu, 01 Jan 2015 00:00:00 GMT"));
+    fromDb.getMetaData().put(Nutch.WRITABLE_CONTENT_LENGTH_KEY,
+        new IntWritable(100));
+    fromDb.getMetaData().put(other, new Text("kept"));
+
+    // the server no longer sends validators
+    CrawlDatum fetch = new CrawlDatum(STATUS_FETCH_SUCCESS, 3600, 1.0f);
+    fetch.setFetchTime(System.currentTimeMillis());
+    List<CrawlDatum> res = updateDb.update(fromDb, fetch);
+    assertEquals(1, res.size());
+    CrawlDatum result = res.get(0);
+    assertNull(result.getMetaData().get(Nutch.WRITABLE_ETAG_KEY));
+    assertNull(result.getMetaData().get(Nutch.WRITABLE_LAST_MODIFIED_KEY));
+    assertNull(result.getMetaData().get(Nutch.WRITABLE_CONTENT_LENGTH_KEY));
+    assertEquals(new Text("kept"), result.getMetaData().get(other));
+
+    // a new ETag replaces the old one, the Last-Modified date is dropped
+    fetch = new CrawlDatum(STATUS_FETCH_SUCCESS, 3600, 1.0f);
+    fetch.setFetchTime(System.currentTimeMillis());
+    fetch.getMetaData().put(Nutch.WRITABLE_ETAG_KEY, new Text("\"v2\""));
+    fetch.getMetaData().put(Nutch.WRITABLE_CONTENT_LENGTH_KEY,
+        new IntWritable(200));
+    res = updateDb.update(fromDb, fetch);
+    result = res.get(0);
+    assertEquals(new Text("\"v2\""),
+        result.getMetaData().get(Nutch.WRITABLE_ETAG_KEY));
+    assertNull(result.getMetaData().get(Nutch.WRITABLE_LAST_MODIFIED_KEY));
+    assertEquals(new IntWritable(200),
+        result.getMetaData().get(Nutch.WRITABLE_CONTENT_LENGTH_KEY));
+
+    // a 304 keeps the stored validators
+    fetch = new CrawlDatum(STATUS_FETCH_NOTMODIFIED, 3600, 1.0f);
+    fetch.setFetchTime(System.currentTimeMillis());
+    res = updateDb.update(fromDb, fetch);
+    result = res.get(0);
+    assertEquals(new Text("\"v1\""),
+        result.getMetaData().get(Nutch.WRITABLE_ETAG_KEY));
+  }
+
   private class CrawlTestSignatureReset extends ContinuousCrawlTestUtil {
 
     byte[][] noContentStates = { { STATUS_FETCH_GONE, STATUS_DB_GONE },
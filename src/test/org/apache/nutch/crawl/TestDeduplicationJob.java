@@ -0,0 +1,82 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.crawl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.nutch.crawl.DeduplicationJob.DedupReducer;
+import org.apache.nutch.crawl.DeduplicationJob.DuplicateCandidate;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Tests the selection of duplicates by the {@link DedupReducer}. */
+public class TestDeduplicationJob {
+
+  private DuplicateCandidate candidate(String url, float score, long fetchTime) {
+    DuplicateCandidate candidate = new DuplicateCandidate();
+    candidate.url.set(url);
+    candidate.datum = new CrawlDatum(CrawlDatum.STATUS_DB_FETCHED, 3600, score);
+    candidate.datum.setFetchTime(fetchTime);
+    candidate.datum.getMetaData().put(new Text("key"), new Text(url));
+    return candidate;
+  }
+
+  @Test
+  public void testDedupReducer() throws Exception {
+    JobConf job = new JobConf(NutchConfiguration.create());
+    job.set("deduplication.compare.order", "score,fetchTime,urlLength");
+    DedupReducer reducer = new DedupReducer();
+    reducer.configure(job);
+
+    List<DuplicateCandidate> candidates = new ArrayList<DuplicateCandidate>();
+    candidates.add(candidate("http://example.com/a", 1.0f, 100L));
+    candidates.add(candidate("http://example.com/best", 2.0f, 100L));
+    candidates.add(candidate("http://example.com/old", 2.0f, 50L));
+    candidates.add(candidate("http://example.com/longer", 2.0f, 100L));
+
+    final Map<String, CrawlDatum> duplicates = new HashMap<String, CrawlDatum>();
+    reducer.reduce(new BytesWritable(new byte[] { 1, 2, 3 }),
+        candidates.iterator(), new OutputCollector<Text, CrawlDatum>() {
+          public void collect(Text url, CrawlDatum datum) {
+            CrawlDatum copy = new CrawlDatum();
+            copy.set(datum);
+            duplicates.put(url.toString(), copy);
+          }
+        }, Reporter.NULL);
+
+    Assert.assertEquals(3, duplicates.size());
+    Assert.assertFalse(duplicates.containsKey("http://example.com/best"));
+    for (Map.Entry<String, CrawlDatum> e : duplicates.entrySet()) {
+      Assert.assertEquals(CrawlDatum.STATUS_DB_DUPLICATE, e.getValue()
+          .getStatus());
+      // the metadata is passed unchanged
+      Assert.assertEquals(1, e.getValue().getMetaData().size());
+      Assert.assertEquals(new Text(e.getKey()), e.getValue().getMetaData()
+          .get(new Text("key")));
+    }
+  }
+}
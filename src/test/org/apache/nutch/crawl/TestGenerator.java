@@ -28,6 +28,7 @@ import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.SequenceFile.Reader.Option;
 import org.apache.nutch.crawl.CrawlDBTestUtil.URLCrawlDatum;
+import org.apache.nutch.metadata.Nutch;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -244,6 +245,86 @@ public class TestGenerator {
     Assert.assertEquals(3, fetchList.size());
   }
 
+  /**
+   * Test that the single pass generator selects the same entries and marks
+   * them as generated in a delta layer of the CrawlDb.
+   * 
+   * @throws Exception
+   */
+  @Test
+  public void testGenerateSinglePass() throws Exception {
+    ArrayList<URLCrawlDatum> list = new ArrayList<URLCrawlDatum>();
+    for (int i = 0; i < 10; i++) {
+      list.add(createURLCrawlDatum("http://aaa.example.com/" + pad(i), 1, i));
+    }
+    for (int i = 0; i < 10; i++) {
+      list.add(createURLCrawlDatum("http://bbb.example.com/" + pad(i), 1,
+          i + 0.5f));
+    }
+    createCrawlDB(list);
+
+    Configuration myConfiguration = new Configuration(conf);
+    myConfiguration.setBoolean(Generator.GENERATOR_SINGLE_PASS, true);
+    myConfiguration.setInt(Generator.GENERATOR_MAX_COUNT, 4);
+    myConfiguration.setBoolean(Generator.GENERATE_UPDATE_CRAWLDB, true);
+
+    // max. 3 per host (see testGenerateHostLimit), best 5 in total
+    Generator g = new Generator(myConfiguration);
+    long curTime = System.currentTimeMillis() + 24L * 3600L * 1000L;
+    Path[] generated = g.generate(dbDir, segmentsDir, -1, 5, curTime, false,
+        false);
+    Assert.assertNotNull(generated);
+    ArrayList<URLCrawlDatum> fetchList = readContents(new Path(new Path(
+        generated[0], CrawlDatum.GENERATE_DIR_NAME), "part-00000"));
+    // the fetch list is sorted by URL hash
+    Generator.HashComparator byHash = new Generator.HashComparator();
+    for (int i = 1; i < fetchList.size(); i++) {
+      Assert.assertTrue(byHash.compare(fetchList.get(i - 1).url,
+          fetchList.get(i).url) <= 0);
+    }
+    Collections.sort(fetchList, new ScoreComparator());
+    Assert.assertEquals(5, fetchList.size());
+    Assert.assertEquals("http://bbb.example.com/009", fetchList.get(0).url
+        .toString());
+    Assert.assertEquals("http://aaa.example.com/009", fetchList.get(1).url
+        .toString());
+    Assert.assertEquals("http://bbb.example.com/007", fetchList.get(4).url
+        .toString());
+
+    // the generated entries are marked in a delta layer
+    Path[] deltas = CrawlDbLayers.getDeltas(fs, dbDir);
+    Assert.assertEquals(1, deltas.length);
+    CrawlDbLayers.Reader reader = new CrawlDbLayers.Reader(dbDir, conf);
+    CrawlDatum datum = new CrawlDatum();
+    Assert.assertTrue(reader.get(new Text("http://aaa.example.com/009"), datum));
+    Assert.assertTrue(datum.getMetaData().containsKey(
+        Nutch.WRITABLE_GENERATE_TIME_KEY));
+    Assert.assertTrue(reader.get(new Text("http://aaa.example.com/007"), datum));
+    Assert.assertFalse(datum.getMetaData().containsKey(
+        Nutch.WRITABLE_GENERATE_TIME_KEY));
+    reader.close();
+
+    // and not generated again
+    generated = g.generate(dbDir, segmentsDir, -1, 5, curTime, false, false);
+    fetchList = readContents(new Path(new Path(generated[0],
+        CrawlDatum.GENERATE_DIR_NAME), "part-00000"));
+    Collections.sort(fetchList, new ScoreComparator());
+    Assert.assertEquals(5, fetchList.size());
+    Assert.assertEquals("http://aaa.example.com/007", fetchList.get(0).url
+        .toString());
+    Assert.assertEquals(2, CrawlDbLayers.getDeltas(fs, dbDir).length);
+
+    // delta layers are partitioned like the base layer
+    fs.delete(new Path(dbDir, CrawlDb.CURRENT_NAME), true);
+    try {
+      g.generate(dbDir, segmentsDir, -1, 5, curTime, false, false);
+      Assert.fail("generated without base layer");
+    } catch (IOException e) {
+      Assert.assertTrue(e.getMessage().contains("no base layer"));
+    }
+    Assert.assertFalse(fs.exists(new Path(dbDir, CrawlDb.LOCK_NAME)));
+  }
+
   /**
    * Test generator obeys the filter setting.
    * 
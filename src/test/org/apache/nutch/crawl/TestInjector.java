@@ -138,6 +138,82 @@ public class TestInjector {
     }
   }
 
+  @Test
+  public void testInjectDelta() throws IOException {
+    ArrayList<String> urls = new ArrayList<String>();
+    ArrayList<String> metadata = new ArrayList<String>();
+    for (int i = 0; i < 100; i++) {
+      urls.add("http://zzz.com/" + i + ".html");
+      metadata.add("\tnutch.score=2." + i
+          + "\tnutch.fetchInterval=171717\tkey=value");
+    }
+    CrawlDBTestUtil.generateSeedList(fs, urlPath, urls, metadata);
+    new Injector(conf).inject(crawldbPath, urlPath);
+    Assert.assertFalse(CrawlDbLayers.hasDeltas(fs, crawldbPath));
+
+    // inject new and existing urls as delta layer
+    conf.setBoolean(CrawlDb.CRAWLDB_DELTA_UPDATE, true);
+    conf.setBoolean("db.injector.update", true);
+    ArrayList<String> urls2 = new ArrayList<String>();
+    for (int i = 0; i < 100; i++) {
+      urls2.add("http://xxx.com/" + i + ".html");
+      urls2.add("http://zzz.com/" + i + ".html");
+    }
+    CrawlDBTestUtil.generateSeedList(fs, urlPath, urls2);
+    new Injector(conf).inject(crawldbPath, urlPath);
+
+    Path[] deltas = CrawlDbLayers.getDeltas(fs, crawldbPath);
+    Assert.assertEquals(1, deltas.length);
+    // the base layer is not rewritten
+    Assert.assertEquals(100, readCrawldb().size());
+    Assert.assertEquals(200, countEntries(deltas[0]));
+
+    CrawlDbLayers.Reader reader = new CrawlDbLayers.Reader(crawldbPath, conf);
+    try {
+      CrawlDatum datum = new CrawlDatum();
+      for (int i = 0; i < 100; i++) {
+        Assert.assertTrue(reader.get(new Text("http://xxx.com/" + i + ".html"),
+            datum));
+        Assert.assertEquals(CrawlDatum.STATUS_DB_UNFETCHED, datum.getStatus());
+        // updated entries keep their metadata, score and interval
+        Assert.assertTrue(reader.get(new Text("http://zzz.com/" + i + ".html"),
+            datum));
+        Assert.assertEquals(171717, datum.getFetchInterval());
+        Assert.assertTrue(datum.getScore() != 1.0);
+        Assert.assertEquals(new Text("value"),
+            datum.getMetaData().get(new Text("key")));
+      }
+    } finally {
+      reader.close();
+    }
+
+    // existing urls which are neither updated nor overwritten are not written
+    conf.setBoolean("db.injector.update", false);
+    ArrayList<String> urls3 = new ArrayList<String>();
+    urls3.add("http://xxx.com/0.html");
+    urls3.add("http://yyy.com/0.html");
+    CrawlDBTestUtil.generateSeedList(fs, urlPath, urls3);
+    new Injector(conf).inject(crawldbPath, urlPath);
+    deltas = CrawlDbLayers.getDeltas(fs, crawldbPath);
+    Assert.assertEquals(2, deltas.length);
+    Assert.assertEquals(1, countEntries(deltas[1]));
+  }
+
+  private int countEntries(Path layer) throws IOException {
+    int count = 0;
+    for (Path part : CrawlDbLayers.getParts(fs, layer)) {
+      SequenceFile.Reader reader = new SequenceFile.Reader(conf,
+          SequenceFile.Reader.file(new Path(part, "data")));
+      Text key = new Text();
+      CrawlDatum value = new CrawlDatum();
+      while (reader.next(key, value)) {
+        count++;
+      }
+      reader.close();
+    }
+    return count;
+  }
+
   private List<String> readCrawldb() throws IOException {
     Path dbfile = new Path(crawldbPath, CrawlDb.CURRENT_NAME
         + "/part-00000/data");
@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.fetcher;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests the adaption of fetch queue limits. */
+public class TestAdaptiveQueueController {
+
+  private Configuration conf;
+  private FetchItemQueues queues;
+
+  @Before
+  public void setUp() {
+    conf = NutchConfiguration.create();
+    conf.setBoolean("fetcher.queue.adaptive", true);
+    conf.setFloat("fetcher.server.delay", 2.0f);
+    conf.setFloat("fetcher.queue.adaptive.delay.min", 1.0f);
+    conf.setFloat("fetcher.queue.adaptive.delay.max", 5.0f);
+    conf.setFloat("fetcher.queue.adaptive.delay.step", 0.5f);
+    conf.setInt("fetcher.queue.adaptive.threads.max", 3);
+    conf.setInt("fetcher.queue.adaptive.increase.after", 2);
+    conf.setLong("fetcher.queue.adaptive.latency.target", 1000);
+    queues = new FetchItemQueues(conf);
+  }
+
+  private void respond(FetchItemQueue fiq, int count, boolean failed) {
+    for (int i = 0; i < count; i++) {
+      queues.controller.update(fiq, failed);
+    }
+  }
+
+  @Test
+  public void testIncrease() {
+    FetchItemQueue fiq = queues.getFetchItemQueue("http://a.example.com");
+    respond(fiq, 1, false);
+    Assert.assertEquals(2000, fiq.getCrawlDelay());
+    // first the delay is decreased down to the minimum
+    respond(fiq, 1, false);
+    Assert.assertEquals(1500, fiq.getCrawlDelay());
+    respond(fiq, 2, false);
+    Assert.assertEquals(1000, fiq.getCrawlDelay());
+    Assert.assertEquals(1, fiq.getMaxThreads());
+    // then threads are added up to the maximum
+    respond(fiq, 2, false);
+    Assert.assertEquals(2, fiq.getMaxThreads());
+    respond(fiq, 10, false);
+    Assert.assertEquals(3, fiq.getMaxThreads());
+    Assert.assertEquals(1000, fiq.getCrawlDelay());
+  }
+
+  @Test
+  public void testDecrease() {
+    FetchItemQueue fiq = queues.getFetchItemQueue("http://a.example.com");
+    fiq.maxThreads = 3;
+    // threads are halved first
+    respond(fiq, 1, true);
+    Assert.assertEquals(1, fiq.getMaxThreads());
+    Assert.assertEquals(2000, fiq.getCrawlDelay());
+    // then the delay is doubled up to the maximum
+    respond(fiq, 1, true);
+    Assert.assertEquals(4000, fiq.getCrawlDelay());
+    respond(fiq, 1, true);
+    Assert.assertEquals(5000, fiq.getCrawlDelay());
+    // a failure resets the count of successful responses
+    respond(fiq, 1, false);
+    respond(fiq, 1, true);
+    respond(fiq, 1, false);
+    Assert.assertEquals(5000, fiq.getCrawlDelay());
+  }
+
+  @Test
+  public void testSlowHost() {
+    FetchItemQueue fiq = queues.getFetchItemQueue("http://a.example.com");
+    fiq.responseTime = 3000;
+    respond(fiq, 10, false);
+    Assert.assertEquals(2000, fiq.getCrawlDelay());
+    Assert.assertEquals(1, fiq.getMaxThreads());
+  }
+
+  @Test
+  public void testRobotsCrawlDelay() {
+    FetchItemQueue fiq = queues.getFetchItemQueue("http://a.example.com");
+    fiq.setRobotsCrawlDelay(1500);
+    Assert.assertEquals(2000, fiq.getCrawlDelay());
+    respond(fiq, 10, false);
+    // never below the delay from robots.txt, no additional threads
+    Assert.assertEquals(1500, fiq.getCrawlDelay());
+    Assert.assertEquals(1, fiq.getMaxThreads());
+    fiq.setRobotsCrawlDelay(3000);
+    Assert.assertEquals(3000, fiq.getCrawlDelay());
+  }
+
+  @Test
+  public void testRestore() {
+    HostStates.HostState state = new HostStates.HostState();
+    state.maxThreads = 5;
+    state.crawlDelay = 1000;
+    state.lastFetchTime = System.currentTimeMillis() - 10000;
+    queues.getHostStates().put("http://a.example.com", state);
+    FetchItemQueue fiq = queues.getFetchItemQueue("http://a.example.com");
+    // limited to the maximum
+    Assert.assertEquals(3, fiq.getMaxThreads());
+    Assert.assertEquals(1000, fiq.getCrawlDelay());
+    Assert.assertEquals(3, fiq.getState().getMaxThreads());
+  }
+}
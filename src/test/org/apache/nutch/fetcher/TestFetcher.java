@@ -118,8 +118,74 @@ public class TestFetcher {
         "fetcher.server.delay", 5));
     Assert.assertTrue(time > minimumTime);
 
+    verifySegment(generatedSegment[0], urls);
+  }
+
+  @Test
+  public void testFetchAsync() throws IOException {
+    ArrayList<String> urls = new ArrayList<String>();
+
+    addUrl(urls, "index.html");
+    addUrl(urls, "pagea.html");
+    addUrl(urls, "pageb.html");
+    addUrl(urls, "dup_of_pagea.html");
+    addUrl(urls, "nested_spider_trap.html");
+    addUrl(urls, "exception.html");
+
+    CrawlDBTestUtil.generateSeedList(fs, urlPath, urls);
+
+    Injector injector = new Injector(conf);
+    injector.inject(crawldbPath, urlPath);
+
+    Generator g = new Generator(conf);
+    Path[] generatedSegment = g.generate(crawldbPath, segmentsPath, 1,
+        Long.MAX_VALUE, Long.MAX_VALUE, false, false);
+
+    conf.setBoolean("fetcher.parse", true);
+    conf.set("fetcher.mode", Fetcher.MODE_ASYNC);
+    conf.setInt("fetcher.async.workers", 2);
+    // one queue, politeness still applies
+    conf.setFloat("fetcher.server.delay", 0.5f);
+    Fetcher fetcher = new Fetcher(conf);
+    fetcher.fetch(generatedSegment[0], 1);
+
+    verifySegment(generatedSegment[0], urls);
+  }
+
+  @Test
+  public void testFetchParseInFetcherThreads() throws IOException {
+    ArrayList<String> urls = new ArrayList<String>();
+
+    addUrl(urls, "index.html");
+    addUrl(urls, "pagea.html");
+    addUrl(urls, "pageb.html");
+    addUrl(urls, "dup_of_pagea.html");
+    addUrl(urls, "nested_spider_trap.html");
+    addUrl(urls, "exception.html");
+
+    CrawlDBTestUtil.generateSeedList(fs, urlPath, urls);
+
+    Injector injector = new Injector(conf);
+    injector.inject(crawldbPath, urlPath);
+
+    Generator g = new Generator(conf);
+    Path[] generatedSegment = g.generate(crawldbPath, segmentsPath, 1,
+        Long.MAX_VALUE, Long.MAX_VALUE, false, false);
+
+    conf.setBoolean("fetcher.parse", true);
+    // parse on the fetching threads, without parse pipeline
+    conf.setInt("fetcher.parse.threads", -1);
+    conf.setFloat("fetcher.server.delay", 0.5f);
+    Fetcher fetcher = new Fetcher(conf);
+    fetcher.fetch(generatedSegment[0], 1);
+
+    verifySegment(generatedSegment[0], urls);
+  }
+
+  private void verifySegment(Path segment, ArrayList<String> urls)
+      throws IOException {
     // verify content
-    Path content = new Path(new Path(generatedSegment[0], Content.DIR_NAME),
+    Path content = new Path(new Path(segment, Content.DIR_NAME),
         "part-00000/data");
     @SuppressWarnings("resource")
     SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(content));
@@ -153,7 +219,7 @@ public class TestFetcher {
 
     // verify parse data
     Path parseData = new Path(
-        new Path(generatedSegment[0], ParseData.DIR_NAME), "part-00000/data");
+        new Path(segment, ParseData.DIR_NAME), "part-00000/data");
     reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(parseData));
 
     READ_PARSE_DATA: do {
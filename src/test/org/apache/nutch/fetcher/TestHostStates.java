@@ -0,0 +1,172 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.fetcher;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests saving and restoring the state of fetch queues. */
+public class TestHostStates {
+
+  private final static Path testdir = new Path("build/test/hoststates-test");
+
+  private Configuration conf;
+  private FileSystem fs;
+
+  @Before
+  public void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+    conf.setFloat("fetcher.server.delay", 0.2f);
+    fs = FileSystem.get(conf);
+    fs.delete(testdir, true);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    fs.delete(testdir, true);
+  }
+
+  private FetchItem fetch(FetchItemQueues queues, String url, long time)
+      throws Exception {
+    queues.addFetchItem(new Text(url), new CrawlDatum(
+        CrawlDatum.STATUS_DB_UNFETCHED, 1));
+    FetchItem it = queues.waitForFetchItem(1000);
+    Assert.assertNotNull(it);
+    it.fetchStart = System.currentTimeMillis() - time;
+    queues.finishFetchItem(it);
+    return it;
+  }
+
+  @Test
+  public void testSaveLoad() throws Exception {
+    FetchItemQueues queues = new FetchItemQueues(conf);
+    FetchItem it = fetch(queues, "http://a.example.com/", 100);
+    FetchItemQueue fiq = queues.getFetchItemQueue(it.getQueueID());
+    // as set from robots.txt
+    fiq.crawlDelay = 5000;
+    fiq.incrementExceptionCounter();
+    fiq.incrementExceptionCounter();
+    // never fetched from, not saved
+    queues.addFetchItem(new Text("http://b.example.com/"), new CrawlDatum(
+        CrawlDatum.STATUS_DB_UNFETCHED, 1));
+
+    queues.updateHostStates();
+    Assert.assertEquals(1, queues.getHostStates().size());
+    queues.getHostStates().save(fs, new Path(testdir, "part-00000"));
+
+    HostStates loaded = new HostStates(conf);
+    loaded.load(fs, testdir);
+    HostStates.HostState state = loaded.get("http://a.example.com");
+    Assert.assertNotNull(state);
+    Assert.assertEquals(5000, state.getCrawlDelay());
+    // halved on loading
+    Assert.assertEquals(1, state.getExceptions());
+    Assert.assertTrue(state.getResponseTime() >= 100);
+    Assert.assertEquals(fiq.lastFetchTime, state.getLastFetchTime());
+    // the configured number of threads is not saved
+    Assert.assertEquals(0, state.getMaxThreads());
+
+    // a new queue continues with the saved state
+    FetchItemQueues next = new FetchItemQueues(conf);
+    next.setHostStates(loaded);
+    FetchItemQueue restored = next.getFetchItemQueue("http://a.example.com");
+    Assert.assertEquals(5000, restored.crawlDelay);
+    Assert.assertEquals(state.getResponseTime(), restored.getResponseTime());
+    Assert.assertEquals(state.getLastFetchTime() + 5000,
+        restored.getNextFetchTime());
+    // the default crawl delay is not saved
+    Assert.assertEquals(200,
+        next.getFetchItemQueue("http://b.example.com").crawlDelay);
+  }
+
+  @Test
+  public void testRestoreThreads() throws Exception {
+    conf.setInt("fetcher.threads.per.queue", 2);
+    FetchItemQueues queues = new FetchItemQueues(conf);
+    HostStates.HostState state = new HostStates.HostState();
+    state.maxThreads = 1;
+    state.lastFetchTime = System.currentTimeMillis();
+    queues.getHostStates().put("http://a.example.com", state);
+    state = new HostStates.HostState();
+    state.maxThreads = 5;
+    state.lastFetchTime = System.currentTimeMillis();
+    queues.getHostStates().put("http://b.example.com", state);
+
+    // restored without adaptive queues, never more than configured
+    FetchItemQueue fiq = queues.getFetchItemQueue("http://a.example.com");
+    Assert.assertEquals(1, fiq.getMaxThreads());
+    Assert.assertEquals(1, fiq.getState().getMaxThreads());
+    fiq = queues.getFetchItemQueue("http://b.example.com");
+    Assert.assertEquals(2, fiq.getMaxThreads());
+    Assert.assertEquals(0, fiq.getState().getMaxThreads());
+  }
+
+  @Test
+  public void testExpired() throws Exception {
+    HostStates states = new HostStates(conf);
+    HostStates.HostState state = new HostStates.HostState();
+    state.lastFetchTime = System.currentTimeMillis() - 8L * 24 * 3600 * 1000;
+    states.put("http://old.example.com", state);
+    state = new HostStates.HostState();
+    state.lastFetchTime = System.currentTimeMillis();
+    states.put("http://new.example.com", state);
+    states.save(fs, new Path(testdir, "part-00000"));
+
+    // a more recent state saved by another task
+    HostStates other = new HostStates(conf);
+    HostStates.HostState recent = new HostStates.HostState();
+    recent.lastFetchTime = state.lastFetchTime + 1000;
+    recent.responseTime = 42;
+    other.put("http://new.example.com", recent);
+    other.save(fs, new Path(testdir, "part-00001"));
+
+    HostStates loaded = new HostStates(conf);
+    loaded.load(fs, testdir);
+    Assert.assertNull(loaded.get("http://old.example.com"));
+    Assert.assertEquals(42, loaded.get("http://new.example.com")
+        .getResponseTime());
+  }
+
+  @Test
+  public void testReapedQueue() throws Exception {
+    FetchItemQueues queues = new FetchItemQueues(conf);
+    FetchItem it = fetch(queues, "http://a.example.com/1", 50);
+    FetchItemQueue fiq = queues.getFetchItemQueue(it.getQueueID());
+    fiq.crawlDelay = 500;
+    // the empty queue is reaped when polled
+    Thread.sleep(300);
+    Assert.assertNull(queues.getFetchItem());
+    Assert.assertEquals(0, queues.getQueueCount());
+
+    // a new queue for the host keeps the crawl delay and the time of the
+    // last request
+    queues.addFetchItem(new Text("http://a.example.com/2"), new CrawlDatum(
+        CrawlDatum.STATUS_DB_UNFETCHED, 1));
+    Assert.assertNull(queues.getFetchItem());
+    FetchItem next = queues.waitForFetchItem(1000);
+    Assert.assertNotNull(next);
+    Assert.assertTrue(System.currentTimeMillis() >= fiq.lastFetchTime + 500);
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.fetcher;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that {@link ScheduledFetchItemQueues} keeps the politeness semantics
+ * of {@link FetchItemQueues}.
+ */
+public class TestScheduledFetchItemQueues {
+
+  private Configuration conf;
+
+  @Before
+  public void setUp() {
+    conf = NutchConfiguration.create();
+    conf.set("fetcher.queue.impl", FetchItemQueues.QUEUE_IMPL_SCHEDULED);
+    conf.setFloat("fetcher.server.delay", 0.2f);
+  }
+
+  private void add(FetchItemQueues queues, String url) {
+    queues.addFetchItem(new Text(url), new CrawlDatum(
+        CrawlDatum.STATUS_DB_UNFETCHED, 1));
+  }
+
+  @Test
+  public void testCreate() {
+    Assert.assertTrue(FetchItemQueues.create(conf) instanceof ScheduledFetchItemQueues);
+    conf.set("fetcher.queue.impl", FetchItemQueues.QUEUE_IMPL_DEFAULT);
+    Assert.assertFalse(FetchItemQueues.create(conf) instanceof ScheduledFetchItemQueues);
+  }
+
+  @Test
+  public void testCrawlDelay() throws Exception {
+    FetchItemQueues queues = FetchItemQueues.create(conf);
+    add(queues, "http://a.example.com/1");
+    add(queues, "http://a.example.com/2");
+    add(queues, "http://b.example.com/1");
+    Assert.assertEquals(3, queues.getTotalSize());
+    Assert.assertEquals(2, queues.getQueueCount());
+
+    FetchItem first = queues.getFetchItem();
+    FetchItem second = queues.getFetchItem();
+    Assert.assertNotNull(first);
+    Assert.assertNotNull(second);
+    Assert.assertFalse(first.getQueueID().equals(second.getQueueID()));
+    // one thread per queue, both queues are busy
+    Assert.assertNull(queues.getFetchItem());
+
+    FetchItem hostA = first.getQueueID().equals("http://a.example.com") ? first
+        : second;
+    long finished = System.currentTimeMillis();
+    queues.finishFetchItem(hostA);
+    // crawl delay not yet elapsed
+    Assert.assertNull(queues.getFetchItem());
+
+    FetchItem next = queues.waitForFetchItem(1000);
+    Assert.assertNotNull(next);
+    Assert.assertEquals("http://a.example.com/2", next.getUrl().toString());
+    Assert.assertTrue(System.currentTimeMillis() - finished >= 150);
+    Assert.assertEquals(0, queues.getTotalSize());
+  }
+
+  @Test
+  public void testExceptionPurging() throws Exception {
+    conf.setInt("fetcher.max.exceptions.per.queue", 1);
+    FetchItemQueues queues = FetchItemQueues.create(conf);
+    add(queues, "http://a.example.com/1");
+    add(queues, "http://a.example.com/2");
+    add(queues, "http://a.example.com/3");
+
+    FetchItem it = queues.getFetchItem();
+    Assert.assertNotNull(it);
+    Assert.assertEquals(2, queues.checkExceptionThreshold(it.getQueueID()));
+    Assert.assertEquals(0, queues.getTotalSize());
+    queues.finishFetchItem(it, true);
+    Assert.assertNull(queues.waitForFetchItem(300));
+  }
+
+  @Test
+  public void testReapEmptyQueues() throws Exception {
+    FetchItemQueues queues = FetchItemQueues.create(conf);
+    add(queues, "http://a.example.com/1");
+    FetchItem it = queues.getFetchItem();
+    queues.finishFetchItem(it, true);
+    add(queues, "http://a.example.com/2");
+    it = queues.waitForFetchItem(1000);
+    Assert.assertNotNull(it);
+    queues.finishFetchItem(it, true);
+    Assert.assertEquals(0, queues.getTotalSize());
+  }
+
+  @Test
+  public void testAwaitCapacity() throws Exception {
+    final FetchItemQueues queues = FetchItemQueues.create(conf);
+    add(queues, "http://a.example.com/1");
+    add(queues, "http://b.example.com/1");
+    Assert.assertFalse(queues.awaitCapacity(1, 100));
+
+    Thread consumer = new Thread() {
+      public void run() {
+        try {
+          Thread.sleep(200);
+        } catch (InterruptedException e) {
+        }
+        queues.getFetchItem();
+      }
+    };
+    consumer.start();
+    long start = System.currentTimeMillis();
+    Assert.assertTrue(queues.awaitCapacity(1, 5000));
+    // woken up by the consumer, not by the timeout
+    Assert.assertTrue(System.currentTimeMillis() - start < 4000);
+    Assert.assertEquals(1, queues.getTotalSize());
+    consumer.join();
+  }
+}
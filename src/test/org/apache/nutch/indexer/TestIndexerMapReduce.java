@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.indexer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.nutch.crawl.CrawlDBTestUtil;
+import org.apache.nutch.crawl.CrawlDBTestUtil.URLCrawlDatum;
+import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.crawl.NutchWritable;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests the CrawlDb lookups of {@link IndexerMapReduce}. */
+public class TestIndexerMapReduce {
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path testdir = new Path("build/test/indexer-lookup-test");
+
+  private static class Collector implements
+      OutputCollector<Text, NutchWritable> {
+    List<String> keys = new ArrayList<String>();
+    List<Writable> values = new ArrayList<Writable>();
+
+    public void collect(Text key, NutchWritable value) throws IOException {
+      keys.add(key.toString());
+      values.add(value.get());
+    }
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    conf = CrawlDBTestUtil.createConfiguration();
+    // no indexing or scoring filters required
+    conf.set("plugin.includes", "nutch-extensionpoints");
+    fs = FileSystem.get(conf);
+    fs.delete(testdir, true);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    fs.delete(testdir, true);
+  }
+
+  @Test
+  public void testLookup() throws Exception {
+    Path crawlDb = new Path(testdir, "crawldb");
+    List<URLCrawlDatum> list = new ArrayList<URLCrawlDatum>();
+    list.add(new URLCrawlDatum(new Text("http://a.example.com/"),
+        new CrawlDatum(CrawlDatum.STATUS_DB_FETCHED, 100)));
+    list.add(new URLCrawlDatum(new Text("http://c.example.com/"),
+        new CrawlDatum(CrawlDatum.STATUS_DB_GONE, 100)));
+    CrawlDBTestUtil.createCrawlDb(conf, fs, crawlDb, list);
+
+    JobConf job = new JobConf(conf);
+    job.setBoolean(IndexerMapReduce.INDEXER_LOOKUP, true);
+    IndexerMapReduce.initMRJob(crawlDb, null, new ArrayList<Path>(), job,
+        false);
+    // the CrawlDb is not read as input
+    Assert.assertEquals(0, FileInputFormat.getInputPaths(job).length);
+    Assert.assertEquals(crawlDb.toString(),
+        job.get(IndexerMapReduce.INDEXER_LOOKUP_CRAWLDB));
+
+    IndexerMapReduce mapper = new IndexerMapReduce();
+    mapper.configure(job);
+    Collector output = new Collector();
+    try {
+      mapper.map(new Text("http://a.example.com/"), new CrawlDatum(
+          CrawlDatum.STATUS_FETCH_SUCCESS, 100), output, Reporter.NULL);
+      mapper.map(new Text("http://b.example.com/"), new CrawlDatum(
+          CrawlDatum.STATUS_FETCH_SUCCESS, 100), output, Reporter.NULL);
+      // no lookup for other segment data
+      mapper.map(new Text("http://c.example.com/"), new CrawlDatum(
+          CrawlDatum.STATUS_SIGNATURE, 100), output, Reporter.NULL);
+    } finally {
+      mapper.close();
+    }
+
+    Assert.assertEquals(4, output.keys.size());
+    Assert.assertEquals("http://a.example.com/", output.keys.get(1));
+    Assert.assertEquals(CrawlDatum.STATUS_DB_FETCHED,
+        ((CrawlDatum) output.values.get(1)).getStatus());
+    Assert.assertEquals("http://b.example.com/", output.keys.get(2));
+    Assert.assertEquals(CrawlDatum.STATUS_FETCH_SUCCESS,
+        ((CrawlDatum) output.values.get(2)).getStatus());
+    Assert.assertEquals(CrawlDatum.STATUS_SIGNATURE,
+        ((CrawlDatum) output.values.get(3)).getStatus());
+  }
+
+  /** Deleting documents requires the whole CrawlDb as input. */
+  @Test
+  public void testNoLookupWithDelete() throws Exception {
+    Path crawlDb = new Path(testdir, "crawldb");
+    List<URLCrawlDatum> list = new ArrayList<URLCrawlDatum>();
+    list.add(new URLCrawlDatum(new Text("http://c.example.com/"),
+        new CrawlDatum(CrawlDatum.STATUS_DB_GONE, 100)));
+    CrawlDBTestUtil.createCrawlDb(conf, fs, crawlDb, list);
+
+    JobConf job = new JobConf(conf);
+    job.setBoolean(IndexerMapReduce.INDEXER_LOOKUP, true);
+    job.setBoolean(IndexerMapReduce.INDEXER_DELETE, true);
+    IndexerMapReduce.initMRJob(crawlDb, null, new ArrayList<Path>(), job,
+        false);
+    Assert.assertFalse(job.getBoolean(IndexerMapReduce.INDEXER_LOOKUP, true));
+    Assert.assertNull(job.get(IndexerMapReduce.INDEXER_LOOKUP_CRAWLDB));
+    Assert.assertEquals(1, FileInputFormat.getInputPaths(job).length);
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.InputSplit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestDnsResolver {
+
+  /** Collects the reported counters. */
+  private static class CountingReporter implements Reporter {
+    Counters counters = new Counters();
+
+    public void progress() {
+    }
+
+    public void setStatus(String status) {
+    }
+
+    public Counters.Counter getCounter(Enum<?> name) {
+      return counters.findCounter(name);
+    }
+
+    public Counters.Counter getCounter(String group, String name) {
+      return counters.findCounter(group, name);
+    }
+
+    public void incrCounter(Enum<?> key, long amount) {
+      counters.incrCounter(key, amount);
+    }
+
+    public void incrCounter(String group, String counter, long amount) {
+      counters.incrCounter(group, counter, amount);
+    }
+
+    public InputSplit getInputSplit() {
+      return null;
+    }
+
+    public float getProgress() {
+      return 0;
+    }
+
+    long get(String name) {
+      return counters.findCounter(DnsResolver.COUNTER_GROUP, name).getValue();
+    }
+  }
+
+  @Test
+  public void testResolve() throws Exception {
+    DnsResolver resolver = new DnsResolver(100, 60000, 60000, 2);
+    InetAddress address = resolver.resolve("localhost");
+    Assert.assertTrue(address.isLoopbackAddress());
+    Assert.assertSame(address, resolver.resolve("localhost"));
+
+    CountingReporter reporter = new CountingReporter();
+    resolver.report(reporter);
+    Assert.assertEquals(1, reporter.get("misses"));
+    Assert.assertEquals(1, reporter.get("hits"));
+  }
+
+  @Test
+  public void testNegativeCaching() throws Exception {
+    DnsResolver resolver = new DnsResolver(100, 60000, 60000, 2);
+    for (int i = 0; i < 2; i++) {
+      try {
+        resolver.resolve("nonexistent.invalid");
+        Assert.fail("invalid host resolved");
+      } catch (UnknownHostException e) {
+        // expected
+      }
+    }
+    CountingReporter reporter = new CountingReporter();
+    resolver.report(reporter);
+    Assert.assertEquals(1, reporter.get("misses"));
+    Assert.assertEquals(1, reporter.get("failures"));
+  }
+
+  @Test
+  public void testPrefetch() throws Exception {
+    DnsResolver resolver = new DnsResolver(100, 60000, 60000, 2);
+    resolver.prefetch("localhost");
+    resolver.prefetch("localhost");
+    Assert.assertEquals(1, resolver.size());
+    Assert.assertTrue(resolver.resolve("localhost").isLoopbackAddress());
+
+    CountingReporter reporter = new CountingReporter();
+    resolver.report(reporter);
+    Assert.assertEquals(1, reporter.get("prefetched"));
+    Assert.assertEquals(0, reporter.get("misses"));
+  }
+
+  @Test
+  public void testResolveCallback() throws Exception {
+    DnsResolver resolver = new DnsResolver(100, 60000, 60000, 2);
+    final BlockingQueue<Object> results = new ArrayBlockingQueue<Object>(4);
+    DnsResolver.Callback callback = new DnsResolver.Callback() {
+      public void resolved(InetAddress address) {
+        results.add(address);
+      }
+
+      public void failed(UnknownHostException e) {
+        results.add(e);
+      }
+    };
+    // resolved in the background
+    resolver.resolve("localhost", callback);
+    Object result = results.poll(10, TimeUnit.SECONDS);
+    Assert.assertTrue(((InetAddress) result).isLoopbackAddress());
+    // cached, the callback is called immediately
+    resolver.resolve("localhost", callback);
+    Assert.assertSame(result, results.poll());
+
+    resolver.resolve("nonexistent.invalid", callback);
+    Assert.assertTrue(results.poll(10, TimeUnit.SECONDS)
+        instanceof UnknownHostException);
+    resolver.resolve("nonexistent.invalid", callback);
+    Assert.assertTrue(results.poll() instanceof UnknownHostException);
+
+    CountingReporter reporter = new CountingReporter();
+    resolver.report(reporter);
+    Assert.assertEquals(2, reporter.get("misses"));
+    Assert.assertEquals(2, reporter.get("hits"));
+  }
+
+  @Test
+  public void testEviction() throws Exception {
+    DnsResolver resolver = new DnsResolver(10, 60000, 60000, 2);
+    for (int i = 0; i < 20; i++) {
+      try {
+        resolver.resolve("host" + i + ".invalid");
+      } catch (UnknownHostException e) {
+        // expected
+      }
+    }
+    Assert.assertTrue(resolver.size() <= 10);
+  }
+}
@@ -0,0 +1,169 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.plugin.PluginRepository;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Tests {@link URLView} and its use by normalizers and filters. */
+public class TestURLView {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TestURLView.class);
+
+  private static final String SAMPLES = "src/plugin/urlfilter-regex/sample";
+
+  @Test
+  public void testParts() throws Exception {
+    URLView url = new URLView("http://WWW.Example.co.uk/a/b.html?q=1");
+    Assert.assertEquals("http", url.getScheme());
+    Assert.assertEquals("www.example.co.uk", url.getHost());
+    Assert.assertEquals("uk.co.example.www", url.getReversedHost());
+    Assert.assertEquals("example.co.uk", url.getDomain());
+    Assert.assertEquals("co.uk", url.getDomainSuffix().getDomain());
+    Assert.assertEquals("/a/b.html", url.getPath());
+    Assert.assertSame(url.getURL(), url.getURL());
+
+    URLView malformed = new URLView("no url");
+    Assert.assertNull(malformed.getHost());
+    Assert.assertNull(malformed.getDomain());
+    Assert.assertNull(malformed.getDomainSuffix());
+    try {
+      malformed.getURL();
+      Assert.fail("malformed URL");
+    } catch (MalformedURLException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testWith() {
+    URLView url = new URLView("http://www.example.com/");
+    Assert.assertSame(url, url.with("http://www.example.com/"));
+    Assert.assertEquals("http://www.example.org/",
+        url.with("http://www.example.org/").toString());
+    Assert.assertNull(url.with(null));
+  }
+
+  /**
+   * Pass a sample of real-world URLs through the configured outlink
+   * normalizers and filters, once passing the URL string to every plugin and
+   * once passing a view through the chain. Both must give the same results,
+   * the time needed is logged.
+   */
+  @Test
+  public void testChain() throws Exception {
+    Configuration conf = NutchConfiguration.create();
+    String scope = URLNormalizers.SCOPE_OUTLINK;
+    URLNormalizers normalizers = new URLNormalizers(conf, scope);
+    URLFilters filters = new URLFilters(conf);
+    URLNormalizer[] normalizerPlugins = normalizers.getURLNormalizers(scope);
+    URLFilter[] filterPlugins = (URLFilter[]) PluginRepository.get(conf)
+        .getOrderedPlugins(URLFilter.class, URLFilter.X_POINT_ID,
+            URLFilters.URLFILTER_ORDER);
+
+    List<String> urls = readURLs();
+    Assert.assertFalse(urls.isEmpty());
+    for (String url : urls) {
+      Assert.assertEquals(url,
+          filterNormalize(url, normalizerPlugins, filterPlugins, scope),
+          filterNormalize(url, normalizers, filters, scope));
+    }
+
+    int loops = 20;
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < loops; i++) {
+      for (String url : urls) {
+        filterNormalize(url, normalizerPlugins, filterPlugins, scope);
+      }
+    }
+    long stringTime = System.currentTimeMillis() - start;
+    start = System.currentTimeMillis();
+    for (int i = 0; i < loops; i++) {
+      for (String url : urls) {
+        filterNormalize(url, normalizers, filters, scope);
+      }
+    }
+    long viewTime = System.currentTimeMillis() - start;
+    LOG.info("bench " + urls.size() + " URLs (" + loops + "): string "
+        + stringTime + "ms, view " + viewTime + "ms");
+  }
+
+  /** Read the URLs of the samples of urlfilter-regex. */
+  private static List<String> readURLs() throws IOException {
+    List<String> urls = new ArrayList<String>();
+    for (String file : new String[] { "Benchmarks.urls", "Prefilter.urls" }) {
+      BufferedReader in = new BufferedReader(new FileReader(new File(SAMPLES,
+          file)));
+      try {
+        String line;
+        while ((line = in.readLine()) != null) {
+          // lines are prefixed by the expected result of the filter
+          if (line.length() > 1)
+            urls.add(line.substring(1));
+        }
+      } finally {
+        in.close();
+      }
+    }
+    return urls;
+  }
+
+  /** Every plugin is passed the URL string, as before URL views. */
+  private static String filterNormalize(String url,
+      URLNormalizer[] normalizers, URLFilter[] filters, String scope) {
+    try {
+      for (URLNormalizer normalizer : normalizers) {
+        if (url == null)
+          return null;
+        url = normalizer.normalize(url, scope);
+      }
+      for (URLFilter filter : filters) {
+        if (url == null)
+          return null;
+        url = filter.filter(url);
+      }
+    } catch (Exception e) {
+      return null;
+    }
+    return url;
+  }
+
+  private static String filterNormalize(String url,
+      URLNormalizers normalizers, URLFilters filters, String scope) {
+    try {
+      URLView view = normalizers.normalize(new URLView(url), scope);
+      if (view != null)
+        view = filters.filter(view);
+      return view == null ? null : view.toString();
+    } catch (Exception e) {
+      return null;
+    }
+  }
+}
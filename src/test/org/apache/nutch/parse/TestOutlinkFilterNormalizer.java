@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.parse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.net.URLFilters;
+import org.apache.nutch.net.URLNormalizers;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Tests batched filtering and normalization of outlinks. */
+public class TestOutlinkFilterNormalizer {
+
+  private static final String FROM_URL = "http://www.example.com/";
+
+  private Outlink[] createOutlinks(int count) throws Exception {
+    List<Outlink> links = new ArrayList<Outlink>();
+    for (int i = 0; i < count; i++) {
+      switch (i % 5) {
+      case 0:
+        // removed by the URL filters
+        links.add(new Outlink("mailto:user" + i + "@example.com", ""));
+        break;
+      case 1:
+        // duplicate of a previous outlink
+        links.add(new Outlink("http://www.example.com/page" + (i / 2), ""));
+        break;
+      case 2:
+        // normalized
+        links.add(new Outlink("http://WWW.EXAMPLE.ORG:80/a/../page" + i, ""));
+        break;
+      case 3:
+        // link to self
+        links.add(new Outlink(FROM_URL, ""));
+        break;
+      default:
+        links.add(new Outlink("http://www.example.com/page" + i, ""));
+      }
+    }
+    return links.toArray(new Outlink[links.size()]);
+  }
+
+  /** Process the outlinks in turn. */
+  private String[] expected(Outlink[] links, int max, URLFilters filters,
+      URLNormalizers normalizers) {
+    String[] result = new String[links.length];
+    int valid = 0;
+    for (int i = 0; i < links.length && valid < max; i++) {
+      result[i] = ParseOutputFormat.filterNormalize(FROM_URL,
+          links[i].getToUrl(), null, false, false, "byHost", filters,
+          normalizers);
+      if (result[i] != null)
+        valid++;
+    }
+    return result;
+  }
+
+  private void check(int threads, int count, int max) throws Exception {
+    Configuration conf = NutchConfiguration.create();
+    conf.setInt("parse.outlinks.threads", threads);
+    URLFilters filters = new URLFilters(conf);
+    URLNormalizers normalizers = new URLNormalizers(conf,
+        URLNormalizers.SCOPE_OUTLINK);
+    OutlinkFilterNormalizer outlinkFilter = new OutlinkFilterNormalizer(conf,
+        filters, normalizers);
+    try {
+      Outlink[] links = createOutlinks(count);
+      Assert.assertArrayEquals(expected(links, max, filters, normalizers),
+          outlinkFilter.process(FROM_URL, null, links, max));
+    } finally {
+      outlinkFilter.close();
+    }
+  }
+
+  @Test
+  public void testSingleThread() throws Exception {
+    check(1, 0, 100);
+    check(1, 20, 100);
+    check(1, 20, 3);
+    check(1, 500, 100);
+    check(1, 500, Integer.MAX_VALUE);
+  }
+
+  @Test
+  public void testThreads() throws Exception {
+    check(4, 20, 100);
+    check(4, 500, 100);
+    check(4, 500, 10);
+    check(4, 2000, Integer.MAX_VALUE);
+  }
+}
@@ -0,0 +1,141 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.parse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.protocol.Content;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Tests the multithreaded parsing of segments. */
+public class TestParseSegmentRunner {
+
+  private static final Logger LOG = LoggerFactory
+      .getLogger(TestParseSegmentRunner.class);
+
+  private static final int DOCS = 200;
+
+  /** Reads generated HTML documents. */
+  private static class DocumentReader implements
+      RecordReader<WritableComparable<?>, Content> {
+    private final Configuration conf = NutchConfiguration.create();
+    private int pos = 0;
+
+    public boolean next(WritableComparable<?> key, Content value)
+        throws IOException {
+      if (pos >= DOCS)
+        return false;
+      String url = "http://www.example.com/page" + pos + ".html";
+      StringBuilder html = new StringBuilder("<html><head><title>Page ")
+          .append(pos).append("</title></head><body>");
+      for (int i = 0; i < 50; i++) {
+        html.append("<p>Paragraph ").append(i).append(" of page ").append(pos)
+            .append(" <a href=\"/page").append(pos * 50 + i)
+            .append(".html\">link</a></p>");
+      }
+      html.append("</body></html>");
+      Metadata metadata = new Metadata();
+      metadata.set(Nutch.FETCH_STATUS_KEY,
+          Integer.toString(CrawlDatum.STATUS_FETCH_SUCCESS));
+      ((Text) key).set(url);
+      Content content = new Content(url, url, html.toString().getBytes(),
+          "text/html", metadata, conf);
+      DataOutputBuffer out = new DataOutputBuffer();
+      content.write(out);
+      DataInputBuffer in = new DataInputBuffer();
+      in.reset(out.getData(), out.getLength());
+      value.readFields(in);
+      pos++;
+      return true;
+    }
+
+    public WritableComparable<?> createKey() {
+      return new Text();
+    }
+
+    public Content createValue() {
+      return new Content();
+    }
+
+    public long getPos() {
+      return pos;
+    }
+
+    public void close() {
+    }
+
+    public float getProgress() {
+      return (float) pos / DOCS;
+    }
+  }
+
+  private static class Collector implements OutputCollector<Text, ParseImpl> {
+    List<String> parses = new ArrayList<String>();
+
+    public synchronized void collect(Text url, ParseImpl parse) {
+      parses.add(url + " " + parse.getData().getTitle() + " "
+          + parse.getData().getOutlinks().length + " " + parse.getText());
+    }
+  }
+
+  private List<String> parse(int threads, boolean ordered) throws IOException {
+    JobConf job = new JobConf(NutchConfiguration.create());
+    job.set(Nutch.SEGMENT_NAME_KEY, "20160101000000");
+    job.setMapperClass(ParseSegment.class);
+    job.setInt(ParseSegment.THREADS, threads);
+    job.setBoolean(ParseSegment.THREADS_ORDERED, ordered);
+    ParseSegmentRunner runner = new ParseSegmentRunner();
+    runner.configure(job);
+    Collector output = new Collector();
+    long start = System.currentTimeMillis();
+    runner.run(new DocumentReader(), output, Reporter.NULL);
+    LOG.info("bench " + DOCS + " documents, " + threads + " threads: "
+        + (System.currentTimeMillis() - start) + "ms");
+    return output.parses;
+  }
+
+  @Test
+  public void testThreads() throws Exception {
+    List<String> expected = parse(1, true);
+    Assert.assertEquals(DOCS, expected.size());
+    Assert.assertEquals(expected, parse(4, true));
+
+    List<String> unordered = parse(4, false);
+    Collections.sort(expected);
+    Collections.sort(unordered);
+    Assert.assertEquals(expected, unordered);
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.Assert;
+import org.junit.Test;
+
+import crawlercommons.robots.BaseRobotRules;
+import crawlercommons.robots.SimpleRobotRules;
+import crawlercommons.robots.SimpleRobotRules.RobotRulesMode;
+
+public class TestRobotRulesCache {
+
+  private RobotRulesCache createCache(int size, long ttl, long negativeTtl) {
+    Configuration conf = NutchConfiguration.create();
+    conf.setInt("http.robots.cache.size", size);
+    conf.setLong("http.robots.cache.ttl", ttl);
+    conf.setLong("http.robots.cache.ttl.negative", negativeTtl);
+    RobotRulesCache cache = new RobotRulesCache();
+    cache.setConf(conf);
+    return cache;
+  }
+
+  @Test
+  public void testExpiry() throws Exception {
+    RobotRulesCache cache = createCache(100, 3600, 0);
+    BaseRobotRules rules = new SimpleRobotRules(RobotRulesMode.ALLOW_NONE);
+    cache.put("http:a.com:80", rules);
+    cache.putNegative("http:b.com:80", RobotRulesParser.EMPTY_RULES);
+    Assert.assertSame(rules, cache.get("http:a.com:80"));
+    // negative entries expire immediately with a TTL of 0
+    Assert.assertNull(cache.get("http:b.com:80"));
+    Assert.assertNull(cache.get("http:c.com:80"));
+  }
+
+  @Test
+  public void testEviction() throws Exception {
+    RobotRulesCache cache = createCache(10, 3600, 3600);
+    for (int i = 0; i < 10; i++) {
+      cache.put("http:host" + i + ":80", RobotRulesParser.EMPTY_RULES);
+      Thread.sleep(2);
+    }
+    Thread.sleep(5);
+    // recently used entry survives eviction
+    Assert.assertNotNull(cache.get("http:host0:80"));
+    cache.put("http:host10:80", RobotRulesParser.EMPTY_RULES);
+    Assert.assertTrue(cache.size() <= 10);
+    Assert.assertNotNull(cache.get("http:host0:80"));
+    Assert.assertNotNull(cache.get("http:host10:80"));
+    Assert.assertNull(cache.get("http:host1:80"));
+  }
+
+  @Test
+  public void testSaveLoad() throws Exception {
+    Configuration conf = NutchConfiguration.create();
+    FileSystem fs = FileSystem.getLocal(conf);
+    Path dir = new Path(System.getProperty("test.build.data", "/tmp"),
+        "robots-cache-test");
+    fs.delete(dir, true);
+
+    RobotRulesCache cache = createCache(100, 3600, 3600);
+    SimpleRobotRules rules = new SimpleRobotRules();
+    rules.addRule("/private/public", true);
+    rules.addRule("/private", false);
+    rules.sortRules();
+    rules.setCrawlDelay(2000);
+    rules.addSitemap("http://a.com/sitemap.xml");
+    cache.put("http:a.com:80", rules);
+    cache.putNegative("http:c.com:80", new SimpleRobotRules(
+        RobotRulesMode.ALLOW_NONE));
+    cache.save(fs, new Path(dir, "part-00000"));
+    // saved as Hadoop records
+    SequenceFile.Reader reader = new SequenceFile.Reader(conf,
+        SequenceFile.Reader.file(new Path(dir, "part-00000")));
+    Assert.assertEquals(RobotRulesCache.CachedRules.class,
+        reader.getValueClass());
+    reader.close();
+
+    RobotRulesCache other = createCache(100, 3600, 3600);
+    other.put("http:b.com:80", RobotRulesParser.EMPTY_RULES);
+    other.save(fs, new Path(dir, "part-00001"));
+
+    RobotRulesCache loaded = createCache(100, 3600, 3600);
+    loaded.load(fs, dir);
+    Assert.assertEquals(3, loaded.size());
+    BaseRobotRules restored = loaded.get("http:a.com:80");
+    Assert.assertEquals(rules, restored);
+    Assert.assertFalse(restored.isAllowed("http://a.com/private/page.html"));
+    Assert.assertTrue(restored.isAllowed("http://a.com/private/public.html"));
+    Assert.assertTrue(restored.isAllowed("http://a.com/public.html"));
+    Assert.assertEquals(2000, restored.getCrawlDelay());
+    Assert.assertEquals(rules.getSitemaps(), restored.getSitemaps());
+    Assert.assertTrue(loaded.get("http:c.com:80").isAllowNone());
+    Assert.assertTrue(loaded.get("http:b.com:80").isAllowAll());
+
+    fs.delete(dir, true);
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Unit tests for RegexPrefilter. */
+public class TestRegexPrefilter {
+
+  private final static char[] alphabet = new char[] { 'a', 'b', 'c', '.',
+      '/', ':' };
+
+  private String makeRandString(int minLen, int maxLen) {
+    int len = minLen + (int) (Math.random() * (maxLen - minLen));
+    char[] chars = new char[len];
+    for (int pos = 0; pos < len; pos++) {
+      chars[pos] = alphabet[(int) (Math.random() * alphabet.length)];
+    }
+    return new String(chars);
+  }
+
+  @Test
+  public void testRequiredLiteral() {
+    Assert.assertEquals("example.com/",
+        RegexPrefilter.requiredLiteral("^https?://([a-z]+\\.)*example\\.com/"));
+    Assert.assertEquals(":",
+        RegexPrefilter.requiredLiteral("^(file|ftp|mailto):"));
+    Assert.assertEquals("sessionid=",
+        RegexPrefilter.requiredLiteral("[?&]sessionid=[^&]*"));
+    Assert.assertEquals("ab", RegexPrefilter.requiredLiteral("abc?d"));
+    Assert.assertEquals("ab", RegexPrefilter.requiredLiteral("abc{0,2}"));
+    Assert.assertNull(RegexPrefilter.requiredLiteral("abc|def"));
+    Assert.assertNull(RegexPrefilter.requiredLiteral("(?i)abc"));
+    Assert.assertNull(RegexPrefilter.requiredLiteral("\\x41bc"));
+    Assert.assertNull(RegexPrefilter.requiredLiteral("[?*!@=]"));
+    Assert.assertNull(RegexPrefilter.requiredLiteral("~(abc)"));
+    Assert.assertNull(RegexPrefilter.requiredLiteral("[]abc]"));
+  }
+
+  @Test
+  public void testAutomatonSyntax() {
+    RegexPrefilter.Syntax automaton = RegexPrefilter.Syntax.AUTOMATON;
+    // numerical intervals are not literals
+    Assert.assertEquals("/id",
+        RegexPrefilter.requiredLiteral(".*/id<1000-2000>", automaton));
+    Assert.assertEquals("abc",
+        RegexPrefilter.requiredLiteral("<1-9>abc<10-20>", automaton));
+    Assert.assertNull(RegexPrefilter.requiredLiteral("<1-9", automaton));
+    // intersections and the empty or any string operators
+    Assert.assertNull(RegexPrefilter.requiredLiteral("abc.*&.*def", automaton));
+    Assert.assertEquals("abc",
+        RegexPrefilter.requiredLiteral("abc@de#f", automaton));
+    // in java syntax these are literal characters
+    Assert.assertEquals("1000-2000",
+        RegexPrefilter.requiredLiteral(".*/id<1000-2000>"));
+  }
+
+  @Test
+  public void testCandidates() {
+    List<String> regexes = Arrays.asList("abc", "bc", "c", "x|y", "cab");
+    RegexPrefilter prefilter = new RegexPrefilter(regexes);
+    BitSet candidates = prefilter.candidates("zabcz");
+    Assert.assertTrue(candidates.get(0));
+    Assert.assertTrue(candidates.get(1));
+    Assert.assertTrue(candidates.get(2));
+    // no literal, always a candidate
+    Assert.assertTrue(candidates.get(3));
+    Assert.assertFalse(candidates.get(4));
+    Assert.assertTrue(prefilter.candidates("abcab").get(4));
+  }
+
+  /** A regex which matches must always be a candidate. */
+  @Test
+  public void testNoFalseNegatives() {
+    for (int round = 0; round < 20; round++) {
+      List<String> regexes = new ArrayList<String>();
+      List<Pattern> patterns = new ArrayList<Pattern>();
+      for (int i = 0; i < 50; i++) {
+        String regex = Pattern.quote(makeRandString(1, 5))
+            .replaceAll("\\\\[QE]", "").replace(".", "\\.");
+        if (i % 3 == 0)
+          regex = regex + ".*" + makeRandString(1, 3).replace(".", "\\.");
+        regexes.add(regex);
+        patterns.add(Pattern.compile(regex));
+      }
+      RegexPrefilter prefilter = new RegexPrefilter(regexes);
+      for (int j = 0; j < 100; j++) {
+        String input = makeRandString(0, 30);
+        BitSet candidates = prefilter.candidates(input);
+        for (int i = 0; i < patterns.size(); i++) {
+          if (patterns.get(i).matcher(input).find()) {
+            Assert.assertTrue(regexes.get(i) + " " + input, candidates.get(i));
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,186 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.util.domain;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.apache.nutch.util.URLUtil;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Tests the lookup of domain suffixes of host names. */
+public class TestDomainSuffixes {
+
+  private static final Logger LOG = LoggerFactory
+      .getLogger(TestDomainSuffixes.class);
+
+  private static final String SAMPLES = "src/plugin/urlfilter-regex/sample";
+
+  private static final Pattern IP_PATTERN = Pattern
+      .compile("(\\d{1,3}\\.){3}(\\d{1,3})");
+
+  private static final String[] HOSTS = { "lucene.apache.org", "apache.org",
+      "a.b.example.co.uk", "example.co.uk", "co.uk", "uk", "com",
+      "localhost", "foo.unknowntld", "www.example.com.", "a..com",
+      "140.211.11.130", "1.2.3", "1.2.3.4.5", "1234.2.3.4", "", ".",
+      "WWW.EXAMPLE.COM", "www.example.com.au", "example.k12.ak.us" };
+
+  @Test
+  public void testTrie() {
+    DomainSuffixTrie trie = new DomainSuffixTrie();
+    DomainSuffix uk = new DomainSuffix("uk");
+    DomainSuffix couk = new DomainSuffix("co.uk");
+    trie.add(uk);
+    trie.add(couk);
+    Assert.assertSame(couk, trie.longestMatch("www.example.co.uk", 17, false));
+    Assert.assertSame(uk, trie.longestMatch("co.uk", 5, false));
+    Assert.assertSame(couk, trie.longestMatch("co.uk", 5, true));
+    // whole labels only
+    Assert.assertNull(trie.longestMatch("www.example.pouk", 16, false));
+    Assert.assertSame(uk, trie.longestMatch("www.example.ico.uk", 18, false));
+    // end index
+    Assert.assertSame(couk, trie.longestMatch("example.co.uk.", 13, false));
+  }
+
+  @Test
+  public void testSameAsLinearScan() throws Exception {
+    for (String host : HOSTS) {
+      assertSame(host);
+    }
+    for (String host : readHosts()) {
+      assertSame(host);
+    }
+  }
+
+  private static void assertSame(String host) throws Exception {
+    URL url = new URL("http", host, "/");
+    Assert.assertEquals(host, getDomainNameLinear(url),
+        URLUtil.getDomainName(url));
+    Assert.assertSame(host, getDomainSuffixLinear(url),
+        URLUtil.getDomainSuffix(url));
+  }
+
+  /**
+   * Compare the time needed to find the domain names of sample hosts with
+   * the time needed by a linear scan of candidate suffixes.
+   */
+  @Test
+  public void testBench() throws Exception {
+    List<URL> urls = new ArrayList<URL>();
+    for (String host : readHosts()) {
+      urls.add(new URL("http", host, "/"));
+    }
+    int loops = 200;
+    // warm up
+    time(urls, 10, true);
+    time(urls, 10, false);
+    long linear = time(urls, loops, true);
+    long trie = time(urls, loops, false);
+    LOG.info("bench " + urls.size() + " hosts (" + loops + "): linear "
+        + linear + "ms, trie " + trie + "ms");
+  }
+
+  private static long time(List<URL> urls, int loops, boolean linear) {
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < loops; i++) {
+      for (URL url : urls) {
+        if (linear) {
+          getDomainNameLinear(url);
+          getDomainSuffixLinear(url);
+        } else {
+          URLUtil.getDomainName(url);
+          URLUtil.getDomainSuffix(url);
+        }
+      }
+    }
+    return System.currentTimeMillis() - start;
+  }
+
+  private static List<String> readHosts() throws Exception {
+    List<String> hosts = new ArrayList<String>();
+    for (String file : new String[] { "Benchmarks.urls", "Prefilter.urls" }) {
+      BufferedReader in = new BufferedReader(new FileReader(new File(SAMPLES,
+          file)));
+      try {
+        String line;
+        while ((line = in.readLine()) != null) {
+          if (line.length() > 1) {
+            try {
+              hosts.add(new URL(line.substring(1)).getHost());
+            } catch (Exception e) {
+              // skip malformed URLs
+            }
+          }
+        }
+      } finally {
+        in.close();
+      }
+    }
+    return hosts;
+  }
+
+  /** The domain name as found by probing all candidate suffixes. */
+  private static String getDomainNameLinear(URL url) {
+    DomainSuffixes tlds = DomainSuffixes.getInstance();
+    String host = url.getHost();
+    if (host.endsWith("."))
+      host = host.substring(0, host.length() - 1);
+    if (IP_PATTERN.matcher(host).matches())
+      return host;
+
+    int index = 0;
+    String candidate = host;
+    for (; index >= 0;) {
+      index = candidate.indexOf('.');
+      String subCandidate = candidate.substring(index + 1);
+      if (tlds.isDomainSuffix(subCandidate)) {
+        return candidate;
+      }
+      candidate = subCandidate;
+    }
+    return candidate;
+  }
+
+  /** The domain suffix as found by probing all candidate suffixes. */
+  private static DomainSuffix getDomainSuffixLinear(URL url) {
+    DomainSuffixes tlds = DomainSuffixes.getInstance();
+    String host = url.getHost();
+    if (IP_PATTERN.matcher(host).matches())
+      return null;
+
+    int index = 0;
+    String candidate = host;
+    for (; index >= 0;) {
+      index = candidate.indexOf('.');
+      String subCandidate = candidate.substring(index + 1);
+      DomainSuffix d = tlds.get(subCandidate);
+      if (d != null) {
+        return d;
+      }
+      candidate = subCandidate;
+    }
+    return null;
+  }
+}